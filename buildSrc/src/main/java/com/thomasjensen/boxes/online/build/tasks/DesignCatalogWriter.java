@@ -0,0 +1,227 @@
+package com.thomasjensen.boxes.online.build.tasks;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Writes the binary design catalog which the application reads at startup instead of the JSON list. All numbers are
+ * big-endian, strings are written by {@link DataOutputStream#writeUTF}:
+ * <pre>
+ * int magic, int version, int designCount, int bucketCount, int slotCount, int metaLength, int blobLength
+ * int[bucketCount] displacements
+ * int[slotCount]   design index per slot, or -1
+ * metaLength bytes, designCount times, in the order of the list:
+ *     UTF name, byte hasAuthor, [UTF author], byte hasDesigner, [UTF designer],
+ *     byte hasPadding, [int top, int right, int bottom, int left], int sampleOffset, int sampleLength
+ * blobLength bytes of UTF-8 samples
+ * </pre>
+ * The lengths in the header allow the application to skip straight to the samples, which it only reads when needed.
+ * The displacements and slots form a perfect hash over the design names (hash and displace): a name's bucket is
+ * <code>hash(name, 0) % bucketCount</code>, and its slot is <code>hash(name, displacement) % slotCount</code>, where
+ * the displacement of each bucket was chosen so that no two names share a slot.
+ */
+public final class DesignCatalogWriter
+{
+    /** "BXDC", keep in sync with <code>DesignCatalog#MAGIC</code> */
+    static final int MAGIC = 0x42584443;
+
+    static final int VERSION = 1;
+
+    /** give up on a bucket after this many displacements, and retry with more slots */
+    private static final int MAX_DISPLACEMENT = 1 << 20;
+
+
+
+    private DesignCatalogWriter()
+    {
+        super();
+    }
+
+
+
+    /**
+     * The hash function of the perfect hash, keep in sync with <code>DesignCatalog#hash</code>.
+     *
+     * @param pName the design name
+     * @param pSeed 0 for the bucket, or the displacement of the bucket for the slot
+     * @return a non-negative hash value
+     */
+    static int hash(final String pName, final int pSeed)
+    {
+        int h = 0x811c9dc5 ^ (pSeed * 0x9e3779b9);
+        for (int i = 0; i < pName.length(); i++) {
+            h ^= pName.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & 0x7fffffff;
+    }
+
+
+
+    public static void write(final Map<String, BoxDesign> pDesigns, final OutputStream pOut)
+        throws IOException
+    {
+        final String[] names = pDesigns.keySet().toArray(new String[0]);
+        final int bucketCount = Math.max(1, names.length / 2);
+        int slotCount = Math.max(1, names.length + names.length / 4);
+        int[] displacements = null;
+        int[] slots = null;
+        while (displacements == null) {
+            displacements = new int[bucketCount];
+            slots = new int[slotCount];
+            if (!place(names, displacements, slots)) {
+                displacements = null;
+                slotCount += Math.max(1, slotCount / 8);
+            }
+        }
+
+        final ByteArrayOutputStream meta = new ByteArrayOutputStream();
+        final ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        writeDesigns(pDesigns, names, new DataOutputStream(meta), blob);
+
+        final DataOutputStream out = new DataOutputStream(pOut);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(names.length);
+        out.writeInt(bucketCount);
+        out.writeInt(slotCount);
+        out.writeInt(meta.size());
+        out.writeInt(blob.size());
+        for (final int displacement : displacements) {
+            out.writeInt(displacement);
+        }
+        for (final int slot : slots) {
+            out.writeInt(slot);
+        }
+        meta.writeTo(out);
+        blob.writeTo(out);
+        out.flush();
+    }
+
+
+
+    private static void writeDesigns(final Map<String, BoxDesign> pDesigns, final String[] pNames,
+        final DataOutputStream pMeta, final ByteArrayOutputStream pBlob)
+        throws IOException
+    {
+        for (final String name : pNames) {
+            final BoxDesign design = pDesigns.get(name);
+            pMeta.writeUTF(name);
+            writeOptional(pMeta, design.getAuthor());
+            writeOptional(pMeta, design.getDesigner());
+            final BoxDesign.DefaultPadding padding = design.getDefaultPadding();
+            pMeta.writeBoolean(padding != null);
+            if (padding != null) {
+                pMeta.writeInt(padding.getTop());
+                pMeta.writeInt(padding.getRight());
+                pMeta.writeInt(padding.getBottom());
+                pMeta.writeInt(padding.getLeft());
+            }
+            if (design.getSample() != null) {
+                final byte[] sample = design.getSample().getBytes(StandardCharsets.UTF_8);
+                pMeta.writeInt(pBlob.size());
+                pMeta.writeInt(sample.length);
+                pBlob.write(sample);
+            }
+            else {
+                pMeta.writeInt(-1);
+                pMeta.writeInt(-1);
+            }
+        }
+        pMeta.flush();
+    }
+
+
+
+    /**
+     * Find a displacement for every bucket, largest buckets first, so that all names land in distinct slots.
+     *
+     * @param pNames the design names
+     * @param pDisplacements receives the displacement of each bucket
+     * @param pSlots receives the index of the name in each slot, or -1
+     * @return <code>false</code> if some bucket could not be placed
+     */
+    private static boolean place(final String[] pNames, final int[] pDisplacements, final int[] pSlots)
+    {
+        final List<List<Integer>> buckets = new ArrayList<>();
+        for (int b = 0; b < pDisplacements.length; b++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (int i = 0; i < pNames.length; i++) {
+            buckets.get(hash(pNames[i], 0) % pDisplacements.length).add(i);
+        }
+        final Integer[] order = new Integer[pDisplacements.length];
+        Arrays.setAll(order, b -> b);
+        Arrays.sort(order, (b1, b2) -> Integer.compare(buckets.get(b2).size(), buckets.get(b1).size()));
+
+        Arrays.fill(pSlots, -1);
+        final int[] taken = new int[pNames.length];
+        for (final int b : order) {
+            final List<Integer> bucket = buckets.get(b);
+            if (bucket.isEmpty()) {
+                break;
+            }
+            boolean placed = false;
+            for (int d = 1; d < MAX_DISPLACEMENT && !placed; d++) {
+                placed = true;
+                for (int k = 0; k < bucket.size() && placed; k++) {
+                    final int slot = hash(pNames[bucket.get(k)], d) % pSlots.length;
+                    placed = pSlots[slot] < 0;
+                    for (int j = 0; j < k && placed; j++) {
+                        placed = taken[j] != slot;
+                    }
+                    taken[k] = slot;
+                }
+                if (placed) {
+                    for (int k = 0; k < bucket.size(); k++) {
+                        pSlots[taken[k]] = bucket.get(k);
+                    }
+                    pDisplacements[b] = d;
+                }
+            }
+            if (!placed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+
+    private static void writeOptional(final DataOutputStream pOut, final String pValue)
+        throws IOException
+    {
+        pOut.writeBoolean(pValue != null);
+        if (pValue != null) {
+            pOut.writeUTF(pValue);
+        }
+    }
+}
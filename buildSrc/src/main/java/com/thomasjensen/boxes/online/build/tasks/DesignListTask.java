@@ -15,8 +15,10 @@ package com.thomasjensen.boxes.online.build.tasks;
  * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
  */
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -74,6 +76,9 @@ public class DesignListTask
 
     private final File outFile = new File(getTemporaryDir(), "box-designs.json");
 
+    /** the same information as {@link #outFile} in the format of {@link DesignCatalogWriter} */
+    private final File catalogFile = new File(getTemporaryDir(), "box-designs.bin");
+
 
 
     public DesignListTask()
@@ -83,12 +88,12 @@ public class DesignListTask
         setDescription("Creates " + outFile.getName() + " from the bundled boxes executable");
 
         getInputs().files(BOXES_EXECUTABLE, BOXES_CONFIG);
-        getOutputs().file(outFile);
+        getOutputs().files(outFile, catalogFile);
 
         getProject().getTasks().all((Task t) -> {
             if (JavaPlugin.PROCESS_RESOURCES_TASK_NAME.equals(t.getName())) {
                 t.dependsOn(this);
-                // add generated json to resources:
+                // add generated json and catalog to resources:
                 SourceSetContainer sourceSets = (SourceSetContainer) getProject().getProperties().get("sourceSets");
                 SourceSet mainSourceSet = sourceSets.getByName(SourceSet.MAIN_SOURCE_SET_NAME);
                 mainSourceSet.getResources().srcDir(outFile.getParentFile());
@@ -109,6 +114,9 @@ public class DesignListTask
             String json = new ObjectMapper().writerWithDefaultPrettyPrinter().writeValueAsString(boxDesigns);
             Files.writeString(Paths.get(outFile.toURI()), json, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
                 StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(Paths.get(catalogFile.toURI())))) {
+                DesignCatalogWriter.write(boxDesigns, out);
+            }
         }
         catch (JsonProcessingException e) {
             throw new GradleException("error serializing box design information to JSON", e);
@@ -264,4 +272,11 @@ public class DesignListTask
     {
         return outFile;
     }
+
+
+
+    public File getCatalogFile()
+    {
+        return catalogFile;
+    }
 }
@@ -0,0 +1,206 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+
+/**
+ * Limits the number of concurrently running <i>boxes</i> processes. The limit is adjusted at runtime using an AIMD
+ * scheme driven by the observed execution latency: It grows by one while latency is normal and the limit is actually
+ * being used, and it shrinks by a factor when latency degrades or executions time out. Latency is judged by comparing
+ * a short-term moving average against a long-term one, so that neither jitter nor single slow executions (some
+ * designs are simply slower than others) count as overload, while a sustained increase does. After shrinking, the
+ * limit is given one round of executions to take effect before it may shrink again. The limit never leaves the range
+ * <code>[1, ceiling]</code>.
+ */
+public class AdaptiveConcurrencyLimit
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveConcurrencyLimit.class);
+
+    /** factor applied to the limit when overload is detected */
+    private static final double BACKOFF_RATIO = 0.9d;
+
+    /** short-term latency may be this many times the long-term latency before we consider the system overloaded */
+    private static final double LATENCY_TOLERANCE = 2.0d;
+
+    /** smoothing factor of the short-term moving average of the latency, about the last 10 executions */
+    private static final double SHORT_EWMA_ALPHA = 0.1d;
+
+    /** smoothing factor of the long-term moving average of the latency, about the last 100 executions */
+    private static final double LONG_EWMA_ALPHA = 0.01d;
+
+    /** latencies are normalized to this much input, so that large renders don't look like overload */
+    private static final int LATENCY_NORM_BYTES = 16 * 1024;
+
+    private final int ceiling;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition permitAvailable = lock.newCondition();
+
+    private volatile int limit;
+
+    private volatile int inFlight = 0;
+
+    private double shortAverageNanos = 0d;
+
+    private double longAverageNanos = 0d;
+
+    private long samples = 0L;
+
+    /** executions to wait after a decrease due to latency before the next one */
+    private int backoffCooldown = 0;
+
+
+
+    public AdaptiveConcurrencyLimit(final int pInitialLimit, final int pCeiling)
+    {
+        Assert.isTrue(pCeiling > 0, "ceiling must be positive");
+        ceiling = pCeiling;
+        limit = Math.max(1, Math.min(pInitialLimit, pCeiling));
+    }
+
+
+
+    /**
+     * Block until a process may be started.
+     *
+     * @param pTimeoutNanos how long to wait at most
+     * @return <code>true</code> if a permit was acquired, <code>false</code> if we timed out
+     * @throws InterruptedException the waiting thread was interrupted
+     */
+    public boolean acquire(final long pTimeoutNanos)
+        throws InterruptedException
+    {
+        long remaining = pTimeoutNanos;
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= limit) {
+                if (remaining <= 0L) {
+                    return false;
+                }
+                remaining = permitAvailable.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+
+    /**
+     * Give back a permit and feed the outcome of the execution into the limit algorithm.
+     *
+     * @param pLatencyNanos how long the execution took
+     * @param pInputBytes size of the input fed to the process
+     * @param pDropped <code>true</code> if the execution timed out or was otherwise lost due to overload
+     */
+    public void release(final long pLatencyNanos, final int pInputBytes, final boolean pDropped)
+    {
+        lock.lock();
+        try {
+            final int before = limit;
+            final boolean saturated = inFlight * 2 >= limit;
+            inFlight--;
+            if (pDropped) {
+                limit = Math.max(1, (int) (limit * BACKOFF_RATIO));
+            }
+            else {
+                final double normalized = pLatencyNanos / (1d + (double) pInputBytes / LATENCY_NORM_BYTES);
+                updateLatency(normalized);
+                if (backoffCooldown > 0) {
+                    backoffCooldown--;
+                }
+                if (shortAverageNanos > longAverageNanos * LATENCY_TOLERANCE) {
+                    if (backoffCooldown == 0) {
+                        limit = Math.max(1, (int) (limit * BACKOFF_RATIO));
+                        backoffCooldown = limit;
+                    }
+                }
+                else if (saturated && limit < ceiling) {
+                    limit++;
+                }
+            }
+            if (limit != before && LOG.isDebugEnabled()) {
+                LOG.debug("Concurrency limit changed from {} to {}", before, limit);
+            }
+            permitAvailable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+
+    /**
+     * Give back a permit without an execution having taken place, for example because the waiter was cancelled.
+     */
+    public void release()
+    {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+
+    private void updateLatency(final double pNormalizedNanos)
+    {
+        // plain mean of all samples until there are enough for the window, so that the first samples don't dominate
+        samples++;
+        final double shortAlpha = Math.max(SHORT_EWMA_ALPHA, 1d / samples);
+        final double longAlpha = Math.max(LONG_EWMA_ALPHA, 1d / samples);
+        shortAverageNanos = shortAlpha * pNormalizedNanos + (1d - shortAlpha) * shortAverageNanos;
+        longAverageNanos = longAlpha * pNormalizedNanos + (1d - longAlpha) * longAverageNanos;
+    }
+
+
+
+    public int getLimit()
+    {
+        return limit;
+    }
+
+
+
+    public int getInFlight()
+    {
+        return inFlight;
+    }
+
+
+
+    public int getCeiling()
+    {
+        return ceiling;
+    }
+}
@@ -0,0 +1,293 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Stops running the <i>boxes</i> executable when it keeps failing, for example after a bad deployment broke the
+ * binary or its config file. The breaker opens after a number of consecutive failures, or when too many of the recent
+ * executions timed out. While open, executions are rejected right away. After a while, the breaker lets a few probe
+ * executions through (half-open), and closes again once all of them succeeded.
+ * <p>Executions which could not be started because the server was busy are not counted, because they say nothing
+ * about the health of the executable. Neither are executions which failed because of their input, see
+ * {@link BoxesRunnerService#isExecutableFailure}.</p>
+ */
+@Component
+public class BoxesCircuitBreaker
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BoxesCircuitBreaker.class);
+
+
+
+    public enum State
+    {
+        CLOSED, HALF_OPEN, OPEN;
+    }
+
+
+
+    private final int failureThreshold;
+
+    private final double timeoutRateThreshold;
+
+    private final long openNanos;
+
+    private final int halfOpenProbes;
+
+    /** outcomes of the most recent executions, <code>true</code> meaning timed out */
+    private final boolean[] window;
+
+    private final Counter rejectedCounter;
+
+    private volatile State state = State.CLOSED;
+
+    /* the following are guarded by this */
+
+    private int windowPos = 0;
+
+    private int windowCount = 0;
+
+    private int windowTimeouts = 0;
+
+    private int consecutiveFailures = 0;
+
+    private long openedAt = 0L;
+
+    private int probesInFlight = 0;
+
+    private int probesSucceeded = 0;
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param pFailureThreshold number of consecutive failures which opens the breaker
+     * @param pTimeoutRateThreshold fraction of timed out executions in the window which opens the breaker
+     * @param pWindowSize number of recent executions considered for the timeout rate; the rate is only evaluated
+     *     once the window is full
+     * @param pOpenMillis how long the breaker stays open before it lets probes through
+     * @param pHalfOpenProbes number of probe executions which must succeed to close the breaker
+     * @param pMeterRegistry where to publish the state of the breaker
+     */
+    public BoxesCircuitBreaker(@Value("${boxes.circuit.failure-threshold:5}") final int pFailureThreshold,
+        @Value("${boxes.circuit.timeout-rate-threshold:0.5}") final double pTimeoutRateThreshold,
+        @Value("${boxes.circuit.window:20}") final int pWindowSize,
+        @Value("${boxes.circuit.open-millis:10000}") final long pOpenMillis,
+        @Value("${boxes.circuit.half-open-probes:3}") final int pHalfOpenProbes,
+        @NonNull final MeterRegistry pMeterRegistry)
+    {
+        Assert.isTrue(pFailureThreshold > 0, "boxes.circuit.failure-threshold must be positive");
+        Assert.isTrue(pTimeoutRateThreshold > 0d && pTimeoutRateThreshold <= 1d,
+            "boxes.circuit.timeout-rate-threshold must be in (0, 1]");
+        Assert.isTrue(pWindowSize > 0, "boxes.circuit.window must be positive");
+        Assert.isTrue(pOpenMillis >= 0, "boxes.circuit.open-millis must not be negative");
+        Assert.isTrue(pHalfOpenProbes > 0, "boxes.circuit.half-open-probes must be positive");
+        failureThreshold = pFailureThreshold;
+        timeoutRateThreshold = pTimeoutRateThreshold;
+        window = new boolean[pWindowSize];
+        openNanos = TimeUnit.MILLISECONDS.toNanos(pOpenMillis);
+        halfOpenProbes = pHalfOpenProbes;
+
+        Gauge.builder("boxes.circuit.state", this, breaker -> breaker.getState().ordinal())//
+            .description("state of the circuit breaker around the boxes executable: 0 closed, 1 half-open, 2 open")//
+            .register(pMeterRegistry);
+        rejectedCounter = Counter.builder("boxes.circuit.rejected")//
+            .description("number of executions rejected because the circuit breaker was open")//
+            .register(pMeterRegistry);
+    }
+
+
+
+    /**
+     * Ask for permission to run the executable. Every call which returns <code>true</code> must be followed by
+     * exactly one call to {@link #onSuccess()}, {@link #onFailure()}, {@link #onTimeout()}, or {@link #onIgnored()}.
+     *
+     * @return <code>true</code> if the executable may be run
+     */
+    public boolean tryAcquire()
+    {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+                transition(State.HALF_OPEN);
+                probesInFlight = 0;
+                probesSucceeded = 0;
+            }
+            if (state == State.HALF_OPEN && probesInFlight + probesSucceeded < halfOpenProbes) {
+                probesInFlight++;
+                return true;
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+        }
+        rejectedCounter.increment();
+        return false;
+    }
+
+
+
+    public synchronized void onSuccess()
+    {
+        consecutiveFailures = 0;
+        if (state == State.HALF_OPEN) {
+            probeDone();
+            if (++probesSucceeded >= halfOpenProbes) {
+                resetWindow();
+                transition(State.CLOSED);
+            }
+        }
+        else {
+            addToWindow(false);
+        }
+    }
+
+
+
+    public synchronized void onFailure()
+    {
+        if (state == State.HALF_OPEN) {
+            probeDone();
+            open();
+        }
+        else if (++consecutiveFailures >= failureThreshold && state == State.CLOSED) {
+            open();
+        }
+    }
+
+
+
+    public synchronized void onTimeout()
+    {
+        if (state == State.HALF_OPEN) {
+            probeDone();
+            open();
+        }
+        else {
+            addToWindow(true);
+            if (windowCount == window.length && state == State.CLOSED
+                && windowTimeouts >= timeoutRateThreshold * window.length)
+            {
+                open();
+            }
+        }
+    }
+
+
+
+    /**
+     * The execution did not take place or its outcome says nothing about the health of the executable.
+     */
+    public synchronized void onIgnored()
+    {
+        if (state == State.HALF_OPEN) {
+            probeDone();
+        }
+    }
+
+
+
+    private void probeDone()
+    {
+        if (probesInFlight > 0) {
+            probesInFlight--;
+        }
+    }
+
+
+
+    private void addToWindow(final boolean pTimedOut)
+    {
+        if (windowCount == window.length) {
+            if (window[windowPos]) {
+                windowTimeouts--;
+            }
+        }
+        else {
+            windowCount++;
+        }
+        window[windowPos] = pTimedOut;
+        if (pTimedOut) {
+            windowTimeouts++;
+        }
+        windowPos = (windowPos + 1) % window.length;
+    }
+
+
+
+    private void resetWindow()
+    {
+        windowPos = 0;
+        windowCount = 0;
+        windowTimeouts = 0;
+        consecutiveFailures = 0;
+    }
+
+
+
+    private void open()
+    {
+        openedAt = System.nanoTime();
+        transition(State.OPEN);
+    }
+
+
+
+    private void transition(@NonNull final State pNewState)
+    {
+        if (state != pNewState) {
+            LOG.warn("Circuit breaker around the boxes executable changed from {} to {}", state, pNewState);
+            state = pNewState;
+        }
+    }
+
+
+
+    @NonNull
+    public State getState()
+    {
+        return state;
+    }
+
+
+
+    public synchronized int getConsecutiveFailures()
+    {
+        return consecutiveFailures;
+    }
+
+
+
+    public synchronized double getTimeoutRate()
+    {
+        return windowCount > 0 ? (double) windowTimeouts / windowCount : 0d;
+    }
+}
@@ -0,0 +1,329 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Java Flight Recorder events for the work of the application, so that requests and <i>boxes</i> processes show up in
+ * recordings next to GC and CPU activity. Each event is created in a local variable and only filled in if it will be
+ * committed, so that the JIT can remove it entirely while the event is disabled.
+ */
+final class BoxesEvents
+{
+    private static final String CATEGORY = "Boxes Online";
+
+    /** event names are prefixed with this */
+    static final String PREFIX = "com.thomasjensen.boxes.";
+
+
+
+    @Name(PREFIX + "RequestReceived")
+    @Label("Request Received")
+    @Description("A render request was bound and is about to be validated")
+    @Category({CATEGORY, "Request"})
+    @StackTrace(false)
+    static final class RequestReceived
+        extends Event
+    {
+        @Label("Endpoint")
+        String endpoint;
+
+        @Label("Design")
+        String design;
+
+        @Label("Content Length")
+        @Description("Number of characters in the content")
+        int contentChars;
+
+        @Label("Client")
+        String client;
+    }
+
+
+
+    @Name(PREFIX + "Validation")
+    @Label("Validation")
+    @Category({CATEGORY, "Request"})
+    @StackTrace(false)
+    static final class Validation
+        extends Event
+    {
+        @Label("Design")
+        String design;
+
+        @Label("Valid")
+        boolean valid;
+
+        @Label("Error")
+        String error;
+
+
+
+        /**
+         * End the validation.
+         *
+         * @param pInvocation the validated invocation
+         * @param pError why the invocation is invalid, or <code>null</code> if it is valid
+         */
+        void finish(@NonNull final Invocation pInvocation, @Nullable final String pError)
+        {
+            if (shouldCommit()) {
+                design = pInvocation.getDesign();
+                valid = pError == null;
+                error = pError;
+                commit();
+            }
+        }
+    }
+
+
+
+    @Name(PREFIX + "Enqueued")
+    @Label("Execution Enqueued")
+    @Description("A boxes execution was submitted to the worker threads")
+    @Category({CATEGORY, "Queue"})
+    @StackTrace(false)
+    static final class Enqueued
+        extends Event
+    {
+        @Label("Design")
+        String design;
+
+        @Label("Input Length")
+        @Description("Number of characters in the input")
+        int inputChars;
+    }
+
+
+
+    @Name(PREFIX + "Dequeued")
+    @Label("Execution Dequeued")
+    @Description("A boxes execution obtained an execution slot and is about to start its process")
+    @Category({CATEGORY, "Queue"})
+    @StackTrace(false)
+    static final class Dequeued
+        extends Event
+    {
+        @Label("Design")
+        String design;
+
+        @Label("Queue Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long queueTime;
+
+        @Label("Concurrency Limit")
+        int limit;
+    }
+
+
+
+    @Name(PREFIX + "ProcessStart")
+    @Label("Process Start")
+    @Category({CATEGORY, "Process"})
+    @StackTrace(false)
+    static final class ProcessStart
+        extends Event
+    {
+        @Label("PID")
+        long pid;
+
+        @Label("Design")
+        String design;
+    }
+
+
+
+    @Name(PREFIX + "ProcessExit")
+    @Label("Process Exit")
+    @Description("A boxes process ran, from launch until its output was read")
+    @Category({CATEGORY, "Process"})
+    @StackTrace(false)
+    static final class ProcessExit
+        extends Event
+    {
+        @Label("PID")
+        long pid;
+
+        @Label("Design")
+        String design;
+
+        @Label("Input Size")
+        @DataAmount
+        int inputBytes;
+
+        @Label("Output Size")
+        @DataAmount
+        int outputBytes;
+
+        @Label("Exit Code")
+        @Description("Exit code of the process, or -1 if it did not start or did not end")
+        int exitCode;
+
+
+
+        /**
+         * End the execution.
+         *
+         * @param pCmdLine the command line
+         * @param pProcess the process, or <code>null</code> if it was not started
+         * @param pInputBytes size of the input
+         * @param pOutputBytes size of the output
+         */
+        void finish(@NonNull final List<String> pCmdLine, @Nullable final Process pProcess, final int pInputBytes,
+            final int pOutputBytes)
+        {
+            if (shouldCommit()) {
+                pid = pProcess != null ? pProcess.pid() : -1L;
+                design = CommandLineBuilder.designOf(pCmdLine);
+                inputBytes = pInputBytes;
+                outputBytes = pOutputBytes;
+                exitCode = pProcess != null && !pProcess.isAlive() ? pProcess.exitValue() : -1;
+                commit();
+            }
+        }
+    }
+
+
+
+    @Name(PREFIX + "Timeout")
+    @Label("Timeout")
+    @Category({CATEGORY, "Process"})
+    @StackTrace(false)
+    static final class Timeout
+        extends Event
+    {
+        @Label("Phase")
+        @Description("What took too long: 'queue' for waiting for an execution slot, 'execution' for the process, "
+            + "or 'request' for the result as a whole")
+        String phase;
+
+        @Label("Design")
+        String design;
+
+        @Label("Limit")
+        @Timespan(Timespan.MILLISECONDS)
+        long limit;
+    }
+
+
+
+    @Name(PREFIX + "ForcedStop")
+    @Label("Forced Stop")
+    @Description("A boxes process was killed, because it timed out or its result was no longer needed")
+    @Category({CATEGORY, "Process"})
+    @StackTrace(false)
+    static final class ForcedStop
+        extends Event
+    {
+        @Label("PID")
+        long pid;
+    }
+
+
+
+    private BoxesEvents()
+    {
+        super();
+    }
+
+
+
+    static void requestReceived(@NonNull final String pEndpoint, @NonNull final Invocation pInvocation)
+    {
+        final RequestReceived event = new RequestReceived();
+        if (event.shouldCommit()) {
+            event.endpoint = pEndpoint;
+            event.design = pInvocation.getDesign();
+            event.contentChars = pInvocation.getContent() != null ? pInvocation.getContent().length() : 0;
+            event.client = BoxesRequestContext.current().getClientId();
+            event.commit();
+        }
+    }
+
+
+
+    static void enqueued(@NonNull final List<String> pCmdLine, @NonNull final String pInputText)
+    {
+        final Enqueued event = new Enqueued();
+        if (event.shouldCommit()) {
+            event.design = CommandLineBuilder.designOf(pCmdLine);
+            event.inputChars = pInputText.length();
+            event.commit();
+        }
+    }
+
+
+
+    static void dequeued(@NonNull final List<String> pCmdLine, final long pQueueNanos, final int pLimit)
+    {
+        final Dequeued event = new Dequeued();
+        if (event.shouldCommit()) {
+            event.design = CommandLineBuilder.designOf(pCmdLine);
+            event.queueTime = pQueueNanos;
+            event.limit = pLimit;
+            event.commit();
+        }
+    }
+
+
+
+    static void processStart(@NonNull final List<String> pCmdLine, @NonNull final Process pProcess)
+    {
+        final ProcessStart event = new ProcessStart();
+        if (event.shouldCommit()) {
+            event.pid = pProcess.pid();
+            event.design = CommandLineBuilder.designOf(pCmdLine);
+            event.commit();
+        }
+    }
+
+
+
+    static void timeout(@NonNull final String pPhase, @NonNull final List<String> pCmdLine, final long pLimitMillis)
+    {
+        final Timeout event = new Timeout();
+        if (event.shouldCommit()) {
+            event.phase = pPhase;
+            event.design = CommandLineBuilder.designOf(pCmdLine);
+            event.limit = pLimitMillis;
+            event.commit();
+        }
+    }
+
+
+
+    static void forcedStop(@NonNull final Process pProcess)
+    {
+        final ForcedStop event = new ForcedStop();
+        if (event.shouldCommit()) {
+            event.pid = pProcess.pid();
+            event.commit();
+        }
+    }
+}
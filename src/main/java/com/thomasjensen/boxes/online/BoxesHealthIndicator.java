@@ -0,0 +1,69 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Reports the health of the <i>boxes</i> executable as seen by the {@link BoxesCircuitBreaker}. The instance is out
+ * of service until the {@link StartupWarmup} is complete. An open breaker is only reported as a detail, not as down,
+ * because the breaker is a short-lived reaction to failures, and taking the instance out of the load balancer would
+ * only move the load to the other instances, which run the same executable and config.
+ */
+@Component
+public class BoxesHealthIndicator
+    extends AbstractHealthIndicator
+{
+    private final BoxesCircuitBreaker circuitBreaker;
+
+    private final StartupWarmup startupWarmup;
+
+
+
+    public BoxesHealthIndicator(@NonNull final BoxesCircuitBreaker pCircuitBreaker,
+        @NonNull final StartupWarmup pStartupWarmup)
+    {
+        super("Failed to determine the health of the boxes executable");
+        Assert.notNull(pCircuitBreaker, "BoxesCircuitBreaker not injected");
+        circuitBreaker = pCircuitBreaker;
+
+        Assert.notNull(pStartupWarmup, "StartupWarmup not injected");
+        startupWarmup = pStartupWarmup;
+    }
+
+
+
+    @Override
+    protected void doHealthCheck(@NonNull final Health.Builder pBuilder)
+    {
+        final BoxesCircuitBreaker.State state = circuitBreaker.getState();
+        if (!startupWarmup.isWarmedUp()) {
+            pBuilder.outOfService();
+        }
+        else {
+            pBuilder.up();
+        }
+        pBuilder.withDetail("circuit", state)//
+            .withDetail("consecutiveFailures", circuitBreaker.getConsecutiveFailures())//
+            .withDetail("timeoutRate", circuitBreaker.getTimeoutRate())//
+            .withDetail("warmedUp", startupWarmup.isWarmedUp());
+    }
+}
@@ -0,0 +1,170 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+
+/**
+ * Information about the HTTP request on whose behalf <i>boxes</i> is run. It is bound to the request thread by the
+ * {@link BoxesRequestFilter} (or the {@link ReactiveRequestFilter}), and handed to the worker thread by the
+ * {@link BoxesRunnerService}.
+ */
+public final class BoxesRequestContext
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BoxesRequestContext.class);
+
+    private static final ThreadLocal<BoxesRequestContext> CURRENT = new ThreadLocal<>();
+
+    /** used when there is no request, for example during tests */
+    private static final BoxesRequestContext NONE = new BoxesRequestContext("unknown");
+
+    private final String clientId;
+
+    private final RequestTrace trace;
+
+    /** closed when the request is complete; guarded by itself */
+    private final List<Closeable> resources = new ArrayList<>();
+
+
+
+    public BoxesRequestContext(@NonNull final String pClientId)
+    {
+        this(pClientId, RequestTrace.NOOP);
+    }
+
+
+
+    public BoxesRequestContext(@NonNull final String pClientId, @NonNull final RequestTrace pTrace)
+    {
+        Assert.notNull(pClientId, "missing required argument: pClientId");
+        Assert.notNull(pTrace, "missing required argument: pTrace");
+        clientId = pClientId;
+        trace = pTrace;
+    }
+
+
+
+    /**
+     * Get the context of the request being processed by the current thread.
+     *
+     * @return the context, never <code>null</code>
+     */
+    @NonNull
+    public static BoxesRequestContext current()
+    {
+        final BoxesRequestContext result = CURRENT.get();
+        return result != null ? result : NONE;
+    }
+
+
+
+    static void bind(@NonNull final BoxesRequestContext pContext)
+    {
+        CURRENT.set(pContext);
+    }
+
+
+
+    static void unbind()
+    {
+        CURRENT.remove();
+    }
+
+
+
+    /**
+     * Getter.
+     *
+     * @return the remote address of the client, as resolved by the server's trusted proxy handling
+     */
+    @NonNull
+    public String getClientId()
+    {
+        return clientId;
+    }
+
+
+
+    /**
+     * Determine whether this context belongs to a request, so that the client is known.
+     *
+     * @return <code>false</code> if there is no request
+     */
+    public boolean isClientKnown()
+    {
+        return this != NONE;
+    }
+
+
+
+    /**
+     * Getter.
+     *
+     * @return the trace of the current request, which records nothing if there is no request
+     */
+    @NonNull
+    public RequestTrace getTrace()
+    {
+        return trace;
+    }
+
+
+
+    /**
+     * Have a resource closed when the request is complete, no matter whether the response could be written.
+     *
+     * @param pResource the resource, which must tolerate being closed more than once
+     * @throws IllegalStateException there is no request
+     */
+    void closeOnCompletion(@NonNull final Closeable pResource)
+    {
+        Assert.state(isClientKnown(), "no request to close the resource with");
+        synchronized (resources) {
+            resources.add(pResource);
+        }
+    }
+
+
+
+    /**
+     * Close the resources registered via {@link #closeOnCompletion}. Called when the request is complete.
+     */
+    void closeResources()
+    {
+        final List<Closeable> toClose;
+        synchronized (resources) {
+            toClose = new ArrayList<>(resources);
+            resources.clear();
+        }
+        for (final Closeable resource : toClose) {
+            try {
+                resource.close();
+            }
+            catch (IOException | RuntimeException e) {
+                LOG.warn("Failed to close {} after request: {}", resource, e.getMessage());
+            }
+        }
+    }
+}
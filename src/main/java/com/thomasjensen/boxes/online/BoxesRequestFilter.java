@@ -0,0 +1,103 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+
+/**
+ * Binds a {@link BoxesRequestContext} to the request thread. When the request completes, the resources registered
+ * with the context are closed, even if the response could not be written, and the request's trace is exported.
+ * <p>The client is identified by its remote address. Behind a reverse proxy, set
+ * <code>server.use-forward-headers</code> so that the servlet container takes the address from
+ * <code>X-Forwarded-For</code>, but only when the request came from a trusted proxy
+ * (<code>server.tomcat.internal-proxies</code>). The header is never parsed here, because its leftmost entry is
+ * chosen by the client.</p>
+ */
+@Component
+public class BoxesRequestFilter
+    extends OncePerRequestFilter
+{
+    private static final String TRACEPARENT_HEADER = "traceparent";
+
+    private static final String CONTEXT_ATTRIBUTE = BoxesRequestContext.class.getName();
+
+    private final SpanExporter spanExporter;
+
+    private final StartupMetrics startupMetrics;
+
+
+
+    public BoxesRequestFilter(@NonNull final SpanExporter pSpanExporter, @NonNull final StartupMetrics pStartupMetrics)
+    {
+        super();
+        Assert.notNull(pSpanExporter, "SpanExporter not injected");
+        spanExporter = pSpanExporter;
+
+        Assert.notNull(pStartupMetrics, "StartupMetrics not injected");
+        startupMetrics = pStartupMetrics;
+    }
+
+
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch()
+    {
+        return false;   // async dispatches continue the context of the original request
+    }
+
+
+
+    @Override
+    protected void doFilterInternal(@NonNull final HttpServletRequest pRequest,
+        @NonNull final HttpServletResponse pResponse, @NonNull final FilterChain pFilterChain)
+        throws ServletException, IOException
+    {
+        final long start = System.nanoTime();
+        BoxesRequestContext context = (BoxesRequestContext) pRequest.getAttribute(CONTEXT_ATTRIBUTE);
+        final boolean firstRequest = context == null && startupMetrics.firstRequest(pRequest.getRequestURI());
+        if (context == null) {
+            context = new BoxesRequestContext(pRequest.getRemoteAddr(),
+                RequestTrace.start(pRequest.getHeader(TRACEPARENT_HEADER)));
+            pRequest.setAttribute(CONTEXT_ATTRIBUTE, context);
+        }
+        BoxesRequestContext.bind(context);
+        try {
+            pFilterChain.doFilter(pRequest, pResponse);
+        }
+        finally {
+            BoxesRequestContext.unbind();
+            if (!pRequest.isAsyncStarted()) {
+                context.closeResources();
+                context.getTrace().finish();
+                spanExporter.export(context.getTrace(), pRequest.getMethod() + " " + pRequest.getRequestURI());
+            }
+            if (firstRequest) {
+                startupMetrics.firstRequestDone(start);
+            }
+        }
+    }
+
+}
@@ -15,48 +15,59 @@ package com.thomasjensen.boxes.online;
  * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
  */
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import javax.annotation.PreDestroy;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.util.Unbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.zeroturnaround.exec.InvalidExitValueException;
 import org.zeroturnaround.exec.InvalidResultException;
-import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.ProcessResult;
 import org.zeroturnaround.exec.stop.ProcessStopper;
 
 
 /**
- * Perform one invocation of the <i>boxes</i> executable via a thread pool.
+ * Perform one invocation of the <i>boxes</i> executable via a thread pool. The number of concurrently running
+ * processes is governed by an {@link AdaptiveConcurrencyLimit}.
  */
 @Service
 public class BoxesRunnerService
 {
     private static final Logger LOG = LoggerFactory.getLogger(BoxesRunnerService.class);
 
-    /** how long a <i>boxes</i> execution may take at most */
-    private static final long EXEC_TIMEOUT_SECS = 5L;
+    /** initial room in the output buffer for the box drawn around the input */
+    private static final int OUTPUT_OVERHEAD_BYTES = 1024;
 
-    /** how long a thread can wait for the <i>boxes</i> execution to finish, including queue time */
-    private static final long QUEUE_TIMEOUT_SECS = 20L;
+    /** POSIX shells report a process killed by signal <i>n</i> with exit value 128 + <i>n</i> */
+    private static final int SIGNAL_EXIT_VALUE = 128;
 
 
 
     /**
-     * Forcibly stop a <i>boxes</i> worker process and log the fact.
+     * Forcibly stop a <i>boxes</i> worker process, and log and record the fact.
      */
-    private static class Stopper
+    static class Stopper
         implements ProcessStopper
     {
         private static final Logger LOG = LoggerFactory.getLogger(Stopper.class);
@@ -67,28 +78,436 @@ public class BoxesRunnerService
         public void stop(@NonNull final Process pProcess)
         {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Worker hung, trying to stop. Worker PID: " + pProcess.pid());
+                LOG.debug("Worker hung, trying to stop. Worker PID: {}", Unbox.box(pProcess.pid()));
             }
+            BoxesEvents.forcedStop(pProcess);
             pProcess.destroyForcibly();
         }
     }
 
 
 
-    // TODO How to shut down gracefully?
+    /**
+     * Hands the started process to the {@link ProcessAccounting}, and remembers when it was started for tracing.
+     */
+    private static class AccountingListener
+        implements ProcessLauncher.StartListener
+    {
+        private final ProcessAccounting processAccounting;
+
+        private final List<String> cmdLine;
+
+        private final BoxesRequestContext context;
+
+        private volatile ProcessAccounting.Tracker tracker = null;
+
+        private Process process = null;
+
+        private long startedNanos = 0L;
+
+
+
+        AccountingListener(@NonNull final ProcessAccounting pProcessAccounting, @NonNull final List<String> pCmdLine,
+            @NonNull final BoxesRequestContext pContext)
+        {
+            processAccounting = pProcessAccounting;
+            cmdLine = pCmdLine;
+            context = pContext;
+        }
+
+
+
+        @Override
+        public void started(@NonNull final Process pProcess)
+        {
+            startedNanos = System.nanoTime();
+            process = pProcess;
+            BoxesEvents.processStart(cmdLine, pProcess);
+            tracker = processAccounting.start(pProcess, cmdLine, context);
+        }
+
+
+
+        @Override
+        public void outputClosed()
+        {
+            final ProcessAccounting.Tracker current = tracker;
+            if (current != null) {
+                current.sample();
+            }
+        }
+
+
+
+        void finish(final long pForkNanos)
+        {
+            if (tracker != null) {
+                tracker.finish();
+            }
+            if (startedNanos != 0L) {
+                final RequestTrace trace = context.getTrace();
+                trace.record("fork", pForkNanos, startedNanos);
+                trace.record("run", startedNanos);
+            }
+        }
+    }
+
+
+
     private final ExecutorService executorService;
 
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+    private final ProcessAccounting processAccounting;
+
+    private final ProcessLauncher processLauncher;
+
+    private final IoBufferPool bufferPool;
+
+    private final SlowRenderRecorder slowRenderRecorder;
+
+    private final HashedWheelWatchdog watchdog;
+
+    private final Stopper stopper = new Stopper();
+
+    /** the pending render of each live preview session, keyed by client and session ID */
+    private final ConcurrentHashMap<String, CompletableFuture<String>> sessions = new ConcurrentHashMap<>();
 
+    private final Counter supersededCounter;
 
-    public BoxesRunnerService(@Value("${boxes.executable.parallelism}") final int pNumWorkers,
-        @NonNull final NamedThreadFactory pThreadFactory)
+    private final BoxesCircuitBreaker circuitBreaker;
+
+    /** how long a <i>boxes</i> execution may take at most */
+    private final long execTimeoutMillis;
+
+    /** how long a caller can wait for the <i>boxes</i> execution to finish, including queue time */
+    private final long queueTimeoutMillis;
+
+    /** the cluster render cache, or <code>null</code> if no cluster is configured */
+    @Nullable
+    private final ClusterRenderCache clusterRenderCache;
+
+    /** the persistent render cache, or <code>null</code> if none is configured */
+    @Nullable
+    private final DiskRenderStore diskRenderStore;
+
+    /** the off-heap render cache, or <code>null</code> if none is configured */
+    @Nullable
+    private final OffHeapRenderStore offHeapRenderStore;
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param pMaxWorkers the max. number of concurrent <i>boxes</i> processes; a value less than 1 means that the
+     *     ceiling is derived from the number of available processors
+     * @param pVirtualThreads supervise each process on its own virtual thread instead of using a pool of platform
+     *     threads, if supported by the Java runtime
+     * @param pLauncher how processes are launched: <code>zt-exec</code>, or <code>direct</code> for the
+     *     {@link DirectProcessLauncher}
+     * @param pExecTimeoutMillis how long a <i>boxes</i> process may run before it is stopped
+     * @param pQueueTimeoutMillis how long a caller may wait for a result in total, including queue time
+     * @param pWatchdog enforces both timeouts
+     * @param pCircuitBreaker stops running <i>boxes</i> while it keeps failing
+     * @param pThreadFactory the thread factory for the worker threads
+     * @param pMeterRegistry where to publish the current concurrency limit
+     * @param pProcessAccounting records the resources used by each process
+     * @param pBufferPool provides the buffers for process input and output
+     * @param pSlowRenderRecorder keeps the slowest executions
+     * @param pClusterRenderCache the cluster render cache, if a cluster is configured
+     * @param pDiskRenderStore the persistent render cache, if configured
+     * @param pOffHeapRenderStore the off-heap render cache, if configured
+     */
+    public BoxesRunnerService(@Value("${boxes.executable.parallelism:0}") final int pMaxWorkers,
+        @Value("${boxes.threads.virtual:false}") final boolean pVirtualThreads,
+        @Value("${boxes.launcher:zt-exec}") final String pLauncher,
+        @Value("${boxes.timeout.exec-millis:5000}") final long pExecTimeoutMillis,
+        @Value("${boxes.timeout.queue-millis:20000}") final long pQueueTimeoutMillis,
+        @NonNull final HashedWheelWatchdog pWatchdog, @NonNull final BoxesCircuitBreaker pCircuitBreaker,
+        @NonNull final NamedThreadFactory pThreadFactory, @NonNull final MeterRegistry pMeterRegistry,
+        @NonNull final ProcessAccounting pProcessAccounting, @NonNull final IoBufferPool pBufferPool,
+        @NonNull final SlowRenderRecorder pSlowRenderRecorder,
+        @NonNull final ObjectProvider<ClusterRenderCache> pClusterRenderCache,
+        @NonNull final ObjectProvider<DiskRenderStore> pDiskRenderStore,
+        @NonNull final ObjectProvider<OffHeapRenderStore> pOffHeapRenderStore)
     {
         Assert.notNull(pThreadFactory, "required parameter pThreadFactory was not injected");
-        Assert.isTrue(pNumWorkers > 0, "at least one worker must be configured");
-        executorService = Executors.newFixedThreadPool(pNumWorkers, pThreadFactory);
+        Assert.notNull(pMeterRegistry, "required parameter pMeterRegistry was not injected");
+        Assert.notNull(pProcessAccounting, "required parameter pProcessAccounting was not injected");
+        Assert.notNull(pWatchdog, "required parameter pWatchdog was not injected");
+        Assert.notNull(pBufferPool, "required parameter pBufferPool was not injected");
+        Assert.notNull(pSlowRenderRecorder, "required parameter pSlowRenderRecorder was not injected");
+        Assert.isTrue(pExecTimeoutMillis > 0, "boxes.timeout.exec-millis must be positive");
+        Assert.isTrue(pQueueTimeoutMillis >= pExecTimeoutMillis,
+            "boxes.timeout.queue-millis must not be less than boxes.timeout.exec-millis");
+        watchdog = pWatchdog;
+        Assert.notNull(pCircuitBreaker, "required parameter pCircuitBreaker was not injected");
+        circuitBreaker = pCircuitBreaker;
+        execTimeoutMillis = pExecTimeoutMillis;
+        queueTimeoutMillis = pQueueTimeoutMillis;
+        processAccounting = pProcessAccounting;
+        bufferPool = pBufferPool;
+        slowRenderRecorder = pSlowRenderRecorder;
+        clusterRenderCache = pClusterRenderCache.getIfAvailable();
+        diskRenderStore = pDiskRenderStore.getIfAvailable();
+        offHeapRenderStore = pOffHeapRenderStore.getIfAvailable();
+
+        // container-aware since Java 10, so this respects cgroup CPU quotas
+        final int cpus = Runtime.getRuntime().availableProcessors();
+        final int ceiling = pMaxWorkers > 0 ? pMaxWorkers : cpus * 4;
+        if ("direct".equals(pLauncher)) {
+            processLauncher = new DirectProcessLauncher(stopper, pWatchdog, pThreadFactory, ceiling);
+        }
+        else {
+            Assert.isTrue("zt-exec".equals(pLauncher), "boxes.launcher must be one of zt-exec, direct");
+            processLauncher = new ZtExecProcessLauncher(stopper, pWatchdog);
+        }
+        concurrencyLimit = new AdaptiveConcurrencyLimit(cpus, ceiling);
+        if (pVirtualThreads && VirtualThreads.isSupported()) {
+            // the concurrency limit is the only thing that bounds the number of processes, threads are cheap
+            executorService = VirtualThreads.newExecutor("boxes-exec-virtual-");
+        }
+        else {
+            if (pVirtualThreads) {
+                LOG.warn("Virtual threads requested, but not supported by Java {}, or not enabled via "
+                    + "--enable-preview. Falling back to platform threads.", Runtime.version());
+            }
+            executorService = Executors.newFixedThreadPool(ceiling, pThreadFactory);
+        }
+
+        Gauge.builder("boxes.concurrency.limit", concurrencyLimit, AdaptiveConcurrencyLimit::getLimit)//
+            .description("current adaptive limit of concurrently running boxes processes")//
+            .register(pMeterRegistry);
+        Gauge.builder("boxes.concurrency.inflight", concurrencyLimit, AdaptiveConcurrencyLimit::getInFlight)//
+            .description("number of boxes processes currently running")//
+            .register(pMeterRegistry);
+
+        supersededCounter = Counter.builder("boxes.superseded")//
+            .description("number of renders abandoned because a newer request of the same session came in")//
+            .register(pMeterRegistry);
+
         if (LOG.isInfoEnabled()) {
-            LOG.info(getClass().getSimpleName() + " started with parallelism of " + pNumWorkers);
+            LOG.info("{} started with initial parallelism of {} and a ceiling of {}", getClass().getSimpleName(),
+                concurrencyLimit.getLimit(), ceiling);
+        }
+    }
+
+
+
+    /**
+     * Run <i>boxes</i> on a worker thread.
+     *
+     * @param pCmdLine the command line to execute
+     * @param pInputText the text to feed to the process
+     * @return a future which completes with the output of <i>boxes</i>, or exceptionally with a
+     *     {@link BoxesExecutionException} or a {@link TimeoutException}
+     */
+    @NonNull
+    public CompletableFuture<String> submit(@NonNull final List<String> pCmdLine, @NonNull final String pInputText)
+    {
+        return submit(pCmdLine, pInputText, null, null);
+    }
+
+
+
+    @NonNull
+    private CompletableFuture<String> submit(@NonNull final List<String> pCmdLine, @NonNull final String pInputText,
+        @Nullable final RenderKey pKey, @Nullable final String pSessionKey)
+    {
+        final RenderKey key = offHeapRenderStore != null || diskRenderStore != null
+            ? (pKey != null ? pKey : RenderKey.of(pCmdLine, pInputText)) : null;
+        if (key != null) {
+            final byte[] cached = lookup(key);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(new String(cached, StandardCharsets.US_ASCII));
+            }
+        }
+
+        if (!circuitBreaker.tryAcquire()) {
+            return CompletableFuture.failedFuture(
+                new BoxesUnavailableException("boxes is failing repeatedly, so it is not being run for now"));
+        }
+        final long submitted = System.nanoTime();
+        BoxesEvents.enqueued(pCmdLine, pInputText);
+        final BoxesRequestContext context = BoxesRequestContext.current();
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        if (pSessionKey != null) {
+            supersede(pSessionKey, result);
+        }
+        final HashedWheelWatchdog.Timeout waiterTimeout = watchdog.schedule(() -> {
+            LOG.warn("Boxes execution timed out because no result was received after waiting for {} ms. "
+                + "Boxes may still have been started, but too late.", Unbox.box(queueTimeoutMillis));
+            BoxesEvents.timeout("request", pCmdLine, queueTimeoutMillis);
+            result.completeExceptionally(new TimeoutException("no result after " + queueTimeoutMillis + " ms"));
+        }, queueTimeoutMillis, TimeUnit.MILLISECONDS);
+        result.whenComplete((output, error) -> waiterTimeout.cancel());
+        executorService.execute(() -> {
+            if (result.isDone()) {
+                circuitBreaker.onIgnored();
+                return;   // the waiter has given up already
+            }
+            try (PooledOutputStream output =
+                bufferPool.newOutputStream(pInputText.length() + OUTPUT_OVERHEAD_BYTES))
+            {
+                if (!run(pCmdLine, pInputText, output, submitted, context, pSessionKey != null ? result : null)) {
+                    circuitBreaker.onIgnored();
+                    return;   // superseded while waiting for an execution slot
+                }
+                circuitBreaker.onSuccess();
+                if (key != null) {
+                    store(key, output.toByteArray());
+                }
+                result.complete(output.toString(StandardCharsets.US_ASCII));
+            }
+            catch (Exception e) {
+                if (isSuperseded(result)) {
+                    circuitBreaker.onIgnored();   // we stopped the process ourselves
+                    return;
+                }
+                recordOutcome(e, pCmdLine);
+                result.completeExceptionally(translate(e));
+            }
+        });
+        return result;
+    }
+
+
+
+    /**
+     * Render a validated invocation. If a cluster is configured, the peer which owns the result is asked first, unless
+     * a custom design is used, which peers may not know.
+     *
+     * @param pInvocation the validated invocation
+     * @param pCmdLine the command line built from the invocation
+     * @return a future which completes with the output of <i>boxes</i>, or exceptionally with a
+     *     {@link BoxesExecutionException} or a {@link TimeoutException}
+     */
+    @NonNull
+    public CompletableFuture<String> submit(@NonNull final Invocation pInvocation,
+        @NonNull final List<String> pCmdLine)
+    {
+        final String inputText = pInvocation.getContent();
+        if (clusterRenderCache == null || !CommandLineBuilder.usesSharedConfig(pCmdLine)) {
+            return submit(pCmdLine, inputText);
+        }
+        final RenderKey key = RenderKey.of(pCmdLine, inputText);
+        return clusterRenderCache.get(key, pInvocation, () -> submit(pCmdLine, inputText, key, null));
+    }
+
+
+
+    /**
+     * Render a validated invocation as part of a live preview session. A newer request of the same session makes this
+     * one complete with a {@link SupersededException}, and if this one is still queued or running, it is dropped or
+     * its process is stopped. Session renders are always performed locally, because the cluster render cache may
+     * share one execution between several callers, which must not be cancelled on behalf of one of them. Sessions are
+     * scoped by client, so the session ID is ignored if the client is not known.
+     *
+     * @param pInvocation the validated invocation
+     * @param pCmdLine the command line built from the invocation
+     * @param pSessionId ID of the session chosen by the client, or <code>null</code> if not part of a session
+     * @return a future which completes with the output of <i>boxes</i>, or exceptionally with a
+     *     {@link BoxesExecutionException}, a {@link TimeoutException}, or a {@link SupersededException}
+     */
+    @NonNull
+    public CompletableFuture<String> submit(@NonNull final Invocation pInvocation,
+        @NonNull final List<String> pCmdLine, @Nullable final String pSessionId)
+    {
+        final BoxesRequestContext context = BoxesRequestContext.current();
+        if (pSessionId == null || !context.isClientKnown()) {
+            return submit(pInvocation, pCmdLine);
         }
+        final String sessionKey = context.getClientId() + '\n' + pSessionId;
+        return submit(pCmdLine, pInvocation.getContent(), null, sessionKey);
+    }
+
+
+
+    private void supersede(@NonNull final String pSessionKey, @NonNull final CompletableFuture<String> pResult)
+    {
+        final CompletableFuture<String> previous = sessions.put(pSessionKey, pResult);
+        if (previous != null && previous.completeExceptionally(
+            new SupersededException("superseded by a newer request of the same session")))
+        {
+            supersededCounter.increment();
+        }
+        pResult.whenComplete((pOutput, pError) -> sessions.remove(pSessionKey, pResult));
+    }
+
+
+
+    private static boolean isSuperseded(@NonNull final CompletableFuture<String> pResult)
+    {
+        if (pResult.isCompletedExceptionally()) {
+            try {
+                pResult.getNow(null);
+            }
+            catch (CompletionException e) {
+                return e.getCause() instanceof SupersededException;
+            }
+        }
+        return false;
+    }
+
+
+
+    /**
+     * Look up a render result in the off-heap render cache, for sending it without decoding.
+     *
+     * @param pCmdLine the command line
+     * @param pInputText the text that would be fed to <i>boxes</i>
+     * @return a lease on the cached result which must be closed after use, or <code>null</code> if the result is not
+     *     cached or there is no off-heap render cache
+     */
+    @Nullable
+    public OffHeapRenderStore.Lease lookupRaw(@NonNull final List<String> pCmdLine, @NonNull final String pInputText)
+    {
+        return offHeapRenderStore != null ? offHeapRenderStore.acquire(RenderKey.of(pCmdLine, pInputText)) : null;
+    }
+
+
+
+    @Nullable
+    private byte[] lookup(@NonNull final RenderKey pKey)
+    {
+        byte[] result = offHeapRenderStore != null ? offHeapRenderStore.get(pKey) : null;
+        if (result == null && diskRenderStore != null) {
+            result = diskRenderStore.get(pKey);
+            if (result != null && offHeapRenderStore != null) {
+                offHeapRenderStore.put(pKey, result);
+            }
+        }
+        return result;
+    }
+
+
+
+    private void store(@NonNull final RenderKey pKey, @NonNull final byte[] pOutput)
+    {
+        if (offHeapRenderStore != null) {
+            offHeapRenderStore.put(pKey, pOutput);
+        }
+        if (diskRenderStore != null) {
+            diskRenderStore.put(pKey, pOutput);
+        }
+    }
+
+
+
+    public String execute(@NonNull final Invocation pInvocation, @NonNull final List<String> pCmdLine)
+        throws InterruptedException, TimeoutException
+    {
+        return await(submit(pInvocation, pCmdLine));
+    }
+
+
+
+    public String execute(@NonNull final Invocation pInvocation, @NonNull final List<String> pCmdLine,
+        @Nullable final String pSessionId)
+        throws InterruptedException, TimeoutException
+    {
+        return await(submit(pInvocation, pCmdLine, pSessionId));
     }
 
 
@@ -96,46 +515,227 @@ public class BoxesRunnerService
     public String execute(@NonNull final List<String> pCmdLine, @NonNull final String pInputText)
         throws InterruptedException, TimeoutException
     {
-        Future<byte[]> future = executorService.submit(() -> {
-            final ByteArrayInputStream bais = new ByteArrayInputStream(pInputText.getBytes(StandardCharsets.US_ASCII));
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Executing " + String.join(" ", pCmdLine));
-            }
-            return StopWatch.timeAndLog("Boxes execution", () ->//
-                new ProcessExecutor().command(pCmdLine)//
-                    .redirectInput(bais)//
-                    .readOutput(true)//
-                    .stopper(new Stopper()).timeout(EXEC_TIMEOUT_SECS, TimeUnit.SECONDS)//
-                    .exitValueNormal()//
-                    .execute()//
-                    .getOutput().getBytes());
-        });
+        return await(submit(pCmdLine, pInputText));
+    }
 
+
+
+    private String await(@NonNull final CompletableFuture<String> pFuture)
+        throws InterruptedException, TimeoutException
+    {
         try {
-            final byte[] bytes = future.get(QUEUE_TIMEOUT_SECS, TimeUnit.SECONDS);
-            String output = new String(bytes, StandardCharsets.US_ASCII);
+            String output = pFuture.get();   // bounded by the queue timeout enforced by the watchdog
             if (!output.isBlank()) {
                 LOG.debug("Boxes execution successful");
             }
             return output;
         }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw (TimeoutException) e.getCause();
+            }
+            else if (e.getCause() instanceof BoxesExecutionException) {
+                throw (BoxesExecutionException) e.getCause();
+            }
+            else if (e.getCause() instanceof BoxesUnavailableException) {
+                throw (BoxesUnavailableException) e.getCause();
+            }
+            else if (e.getCause() instanceof SupersededException) {
+                throw (SupersededException) e.getCause();
+            }
+            throw new BoxesExecutionException("Something unexpected went wrong running Boxes", e);
+        }
+    }
+
+
+
+    /**
+     * Wait for an execution slot, then run <i>boxes</i>.
+     *
+     * @return <code>false</code> if the process was not started, because the session result was superseded while
+     *     waiting for a slot
+     */
+    private boolean run(@NonNull final List<String> pCmdLine, @NonNull final String pInputText,
+        @NonNull final PooledOutputStream pOutput, final long pSubmitted, @NonNull final BoxesRequestContext pContext,
+        @Nullable final CompletableFuture<String> pSessionResult)
+        throws IOException, InterruptedException, ExecutionException, TimeoutException
+    {
+        final long waitNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis) - (System.nanoTime() - pSubmitted);
+        if (!concurrencyLimit.acquire(waitNanos)) {
+            BoxesEvents.timeout("queue", pCmdLine, queueTimeoutMillis);
+            throw new RejectedExecutionException("no execution slot became available in time");
+        }
+        if (pSessionResult != null && pSessionResult.isDone()) {
+            concurrencyLimit.release();
+            return false;
+        }
+        pContext.getTrace().record("queue", pSubmitted);
+        BoxesEvents.dequeued(pCmdLine, System.nanoTime() - pSubmitted, concurrencyLimit.getLimit());
+        final byte[] input = bufferPool.acquire(pInputText.length());
+        final int inputLength = encodeAscii(pInputText, input);
+        final long started = System.nanoTime();
+        boolean dropped = false;
+        final AccountingListener accountingListener = new AccountingListener(processAccounting, pCmdLine, pContext);
+        final BoxesEvents.ProcessExit exitEvent = new BoxesEvents.ProcessExit();
+        exitEvent.begin();
+        try {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Executing {}", pCmdLine);
+            }
+            StopWatch.timeAndLog("Boxes execution", () -> {
+                processLauncher.launch(pCmdLine, input, inputLength, pOutput,
+                    TimeUnit.MILLISECONDS.toNanos(execTimeoutMillis), pProcess -> {
+                        accountingListener.started(pProcess);
+                        if (pSessionResult != null) {
+                            stopWhenSuperseded(pProcess, pSessionResult);
+                        }
+                    });
+                return null;
+            });
+        }
         catch (TimeoutException e) {
-            LOG.warn("Boxes execution timed out because no result was received after waiting for " + QUEUE_TIMEOUT_SECS
-                + " seconds. Boxes may still have been started, but too late. " + e.getCause().getMessage());
+            dropped = true;
+            BoxesEvents.timeout("execution", pCmdLine, execTimeoutMillis);
             throw e;
         }
-        catch (ExecutionException e) {
-            if (e.getCause() instanceof InvalidResultException || e.getCause() instanceof IOException//
-                || e.getCause() instanceof IllegalStateException)
-            {
-                // These are identified from org.zeroturnaround.exec.ProcessExecutor.waitFor() source
-                throw new BoxesExecutionException(e.getCause());
+        finally {
+            exitEvent.finish(pCmdLine, accountingListener.process, inputLength, pOutput.size());
+            accountingListener.finish(started);
+            final long execNanos = System.nanoTime() - started;
+            slowRenderRecorder.record(pCmdLine, pInputText, started - pSubmitted, execNanos, accountingListener.process,
+                dropped);
+            concurrencyLimit.release(execNanos, inputLength, dropped);
+            bufferPool.release(input);
+        }
+        return true;
+    }
+
+
+
+    /**
+     * Encode text as US-ASCII into the given buffer, with the same result as
+     * <code>getBytes(StandardCharsets.US_ASCII)</code>, but without allocating.
+     *
+     * @param pText the text
+     * @param pBuffer a buffer at least as long as the text
+     * @return the number of bytes written
+     */
+    static int encodeAscii(@NonNull final String pText, @NonNull final byte[] pBuffer)
+    {
+        final int len = pText.length();
+        int result = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = pText.charAt(i);
+            if (c < 0x80) {
+                pBuffer[result++] = (byte) c;
             }
-            else if (e.getCause() instanceof TimeoutException) {
-                throw new BoxesExecutionException("Boxes executable ran for more than " + EXEC_TIMEOUT_SECS
-                    + " seconds, which is why the call timed out", e.getCause());
+            else {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(pText.charAt(i + 1))) {
+                    i++;   // a supplementary character is replaced by one '?', like the JDK's encoder does
+                }
+                pBuffer[result++] = (byte) '?';
             }
-            throw new BoxesExecutionException("Something unexpected went wrong running Boxes", e);
         }
+        return result;
+    }
+
+
+
+    private void stopWhenSuperseded(@NonNull final Process pProcess, @NonNull final CompletableFuture<String> pResult)
+    {
+        pResult.whenComplete((pOutput, pError) -> {
+            if (pError instanceof SupersededException && pProcess.isAlive()) {
+                stopper.stop(pProcess);
+            }
+        });
+    }
+
+
+
+    private void recordOutcome(@NonNull final Exception pCause, @NonNull final List<String> pCmdLine)
+    {
+        if (pCause instanceof TimeoutException) {
+            circuitBreaker.onTimeout();
+        }
+        else if (isExecutableFailure(pCause, pCmdLine)) {
+            circuitBreaker.onFailure();
+        }
+        else {
+            circuitBreaker.onIgnored();
+        }
+    }
+
+
+
+    /**
+     * Decide whether a failed execution points to a broken executable or config file. A non-zero exit value is
+     * usually caused by the input (for example, removing a box from text which has none, or a bad custom design), and
+     * must not count, or else any client could open the circuit breaker for everyone by sending a few bad requests.
+     * <i>boxes</i> always explains such errors, though, so an exit without any output counts, and so does a crash,
+     * which is an exit value of 128 or more on POSIX (killed by a signal), or a negative NTSTATUS code on Windows.
+     *
+     * @param pCause the exception thrown by {@link #run}, other than a timeout
+     * @param pCmdLine the command line
+     * @return <code>true</code> if the failure should count towards opening the circuit breaker
+     */
+    static boolean isExecutableFailure(@NonNull final Exception pCause, @NonNull final List<String> pCmdLine)
+    {
+        if (pCause instanceof RejectedExecutionException || pCause instanceof InterruptedException) {
+            return false;
+        }
+        if (pCause instanceof InvalidExitValueException) {
+            final ProcessResult result = ((InvalidExitValueException) pCause).getResult();
+            if (result == null) {
+                return true;
+            }
+            if (result.getExitValue() >= SIGNAL_EXIT_VALUE || result.getExitValue() < 0) {
+                return true;
+            }
+            final String output = result.getOutput() != null
+                ? result.getOutput().getString(StandardCharsets.US_ASCII.name()) : null;
+            return output == null || output.isBlank() || CommandLineBuilder.isSharedConfigError(pCmdLine, output);
+        }
+        return true;   // could not be started, or something unexpected happened
+    }
+
+
+
+    /**
+     * Stop the worker threads, and the threads of the process launcher. New renders are rejected from now on.
+     */
+    @PreDestroy
+    public void shutdown()
+    {
+        executorService.shutdown();
+        processLauncher.shutdown();
+    }
+
+
+
+    /**
+     * Map an exception thrown while running <i>boxes</i> to what we report to our callers.
+     *
+     * @param pCause the exception thrown by {@link #run}
+     * @return a {@link TimeoutException} if the process could not be started in time, or else a
+     *     {@link BoxesExecutionException}
+     */
+    private Exception translate(@NonNull final Exception pCause)
+    {
+        if (pCause instanceof InvalidResultException || pCause instanceof IOException//
+            || pCause instanceof IllegalStateException)
+        {
+            // These are identified from org.zeroturnaround.exec.ProcessExecutor.waitFor() source
+            return new BoxesExecutionException(pCause);
+        }
+        else if (pCause instanceof RejectedExecutionException) {
+            LOG.warn("Boxes execution was not started because the concurrency limit of {} stayed exhausted for {} ms",
+                Unbox.box(concurrencyLimit.getLimit()), Unbox.box(queueTimeoutMillis));
+            return new TimeoutException(pCause.getMessage());
+        }
+        else if (pCause instanceof TimeoutException) {
+            return new BoxesExecutionException("Boxes executable ran for more than " + execTimeoutMillis
+                + " ms, which is why the call timed out", pCause);
+        }
+        return new BoxesExecutionException("Something unexpected went wrong running Boxes", pCause);
     }
 }
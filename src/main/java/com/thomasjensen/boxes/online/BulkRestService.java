@@ -0,0 +1,347 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Renders a stream of invocations, given as newline-delimited JSON, and streams the results back the same way. Each
+ * input line is an {@link Invocation}, optionally with an additional <code>id</code> field which is copied to the
+ * result. Results come back in input order, or with <code>ordered=false</code>, as soon as they are ready.
+ * <p>At most <code>boxes.bulk.parallelism</code> items of a stream are rendered at the same time. While that many are
+ * pending, no further input is read, so a fast client is slowed down by TCP flow control. An item identical to one
+ * still being rendered shares its render, and the most recent results of a stream are remembered up to a total of
+ * <code>boxes.bulk.dedupe-bytes</code>, so that repeated items are rendered only once. Memory use is bounded by these
+ * limits, not by the length of the stream.</p>
+ */
+@RestController
+@Profile("!reactive")
+public class BulkRestService
+{
+    private static final String ID_FIELD = "id";
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+    private final ObjectMapper objectMapper;
+
+    private final int parallelism;
+
+    private final long dedupeBytes;
+
+    private final int maxLineChars;
+
+
+
+    /**
+     * The renders of a stream which can be shared by identical items.
+     */
+    private static final class Dedupe
+    {
+        /** renders in progress, dropped when they complete */
+        private final ConcurrentMap<RenderKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+        /** recent results, bounded by their size */
+        private final LruCache<RenderKey, String> results;
+
+
+
+        Dedupe(final long pMaxBytes)
+        {
+            results = new LruCache<>(pMaxBytes, String::length, null);
+        }
+    }
+
+
+
+    /**
+     * A line of the input stream and its pending result.
+     */
+    private static final class Item
+    {
+        private final long index;
+
+        @Nullable
+        private final JsonNode id;
+
+        private final CompletableFuture<String> result;
+
+
+
+        Item(final long pIndex, @Nullable final JsonNode pId, @NonNull final CompletableFuture<String> pResult)
+        {
+            index = pIndex;
+            id = pId;
+            result = pResult;
+        }
+    }
+
+
+
+    @Autowired
+    public BulkRestService(@NonNull final BoxesRunnerService pBoxesRunnerService, @NonNull final Validator pValidator,
+        @NonNull final ObjectMapper pObjectMapper, @Value("${boxes.bulk.parallelism:8}") final int pParallelism,
+        @Value("${boxes.bulk.dedupe-bytes:1048576}") final long pDedupeBytes,
+        @Value("${boxes.bulk.max-line-chars:1048576}") final int pMaxLineChars)
+    {
+        super();
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pObjectMapper, "ObjectMapper not injected");
+        objectMapper = pObjectMapper;
+
+        Assert.isTrue(pParallelism > 0, "boxes.bulk.parallelism must be positive");
+        Assert.isTrue(pDedupeBytes >= 0, "boxes.bulk.dedupe-bytes must not be negative");
+        Assert.isTrue(pMaxLineChars > 0, "boxes.bulk.max-line-chars must be positive");
+        parallelism = pParallelism;
+        dedupeBytes = pDedupeBytes;
+        maxLineChars = pMaxLineChars;
+    }
+
+
+
+    @PostMapping(value = "/draw/bulk", consumes = NdjsonWriter.MEDIA_TYPE, produces = NdjsonWriter.MEDIA_TYPE)
+    public void drawBulk(@NonNull final InputStream pBody, @NonNull final HttpServletResponse pResponse,
+        @RequestParam(name = "ordered", defaultValue = "true") final boolean pOrdered)
+        throws IOException, InterruptedException
+    {
+        pResponse.setStatus(HttpStatus.OK.value());
+        pResponse.setContentType(NdjsonWriter.MEDIA_TYPE);
+
+        // The items must not record their phases in the request's trace, which would grow with the stream.
+        final BoxesRequestContext outer = BoxesRequestContext.current();
+        BoxesRequestContext.bind(new BoxesRequestContext(outer.getClientId()));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(pBody, StandardCharsets.UTF_8));
+            NdjsonWriter writer = new NdjsonWriter(objectMapper, pResponse.getOutputStream()))
+        {
+            if (pOrdered) {
+                streamOrdered(reader, writer);
+            }
+            else {
+                streamUnordered(reader, writer);
+            }
+        }
+        finally {
+            BoxesRequestContext.bind(outer);
+        }
+    }
+
+
+
+    private void streamOrdered(@NonNull final BufferedReader pReader, @NonNull final NdjsonWriter pWriter)
+        throws IOException
+    {
+        final ArrayDeque<Item> pending = new ArrayDeque<>(parallelism);
+        final Dedupe dedupe = dedupeBytes > 0 ? new Dedupe(dedupeBytes) : null;
+        final StringBuilder line = new StringBuilder();
+        long index = 0;
+        while (readLine(pReader, line)) {
+            if (isBlank(line)) {
+                continue;
+            }
+            while (pending.size() >= parallelism) {
+                pWriter.flush();
+                write(pWriter, pending.poll(), true);
+            }
+            pending.add(submit(index++, line, dedupe));
+            while (!pending.isEmpty() && pending.peek().result.isDone()) {
+                write(pWriter, pending.poll(), false);
+            }
+        }
+        while (!pending.isEmpty()) {
+            pWriter.flush();
+            write(pWriter, pending.poll(), true);
+        }
+    }
+
+
+
+    private void streamUnordered(@NonNull final BufferedReader pReader, @NonNull final NdjsonWriter pWriter)
+        throws IOException, InterruptedException
+    {
+        final BlockingQueue<Item> completed = new LinkedBlockingQueue<>();
+        final Dedupe dedupe = dedupeBytes > 0 ? new Dedupe(dedupeBytes) : null;
+        final StringBuilder line = new StringBuilder();
+        long index = 0;
+        int inFlight = 0;
+        while (readLine(pReader, line)) {
+            if (isBlank(line)) {
+                continue;
+            }
+            while (inFlight >= parallelism) {
+                pWriter.flush();
+                write(pWriter, completed.take(), false);
+                inFlight--;
+            }
+            final Item item = submit(index++, line, dedupe);
+            inFlight++;
+            item.result.whenComplete((pOutput, pError) -> completed.add(item));
+            for (Item done = completed.poll(); done != null; done = completed.poll()) {
+                write(pWriter, done, false);
+                inFlight--;
+            }
+        }
+        while (inFlight > 0) {
+            pWriter.flush();
+            write(pWriter, completed.take(), false);
+            inFlight--;
+        }
+    }
+
+
+
+    @NonNull
+    private Item submit(final long pIndex, @NonNull final CharSequence pLine,
+        @Nullable final Dedupe pDedupe)
+    {
+        JsonNode id = null;
+        try {
+            final JsonNode node = objectMapper.readTree(pLine.toString());
+            if (!(node instanceof ObjectNode)) {
+                throw new InvalidInvocationException("each line must contain a JSON object");
+            }
+            id = ((ObjectNode) node).remove(ID_FIELD);
+            final Invocation invocation = objectMapper.treeToValue(node, Invocation.class);
+            validator.validate(invocation);
+            final List<String> cmdLine = new CommandLineBuilder(invocation).build();
+
+            if (pDedupe == null) {
+                return new Item(pIndex, id, boxesRunnerService.submit(invocation, cmdLine));
+            }
+            final RenderKey key = RenderKey.of(cmdLine, invocation.getContent());
+            final String done = pDedupe.results.get(key);
+            if (done != null) {
+                return new Item(pIndex, id, CompletableFuture.completedFuture(done));
+            }
+            CompletableFuture<String> result = pDedupe.inFlight.get(key);
+            if (result == null) {
+                final CompletableFuture<String> submitted = boxesRunnerService.submit(invocation, cmdLine);
+                pDedupe.inFlight.put(key, submitted);
+                submitted.whenComplete((pOutput, pError) -> {
+                    if (pError == null) {
+                        pDedupe.results.put(key, pOutput);
+                    }
+                    pDedupe.inFlight.remove(key, submitted);
+                });
+                result = submitted;
+            }
+            return new Item(pIndex, id, result);
+        }
+        catch (JsonProcessingException e) {
+            return new Item(pIndex, id, CompletableFuture.failedFuture(
+                new InvalidInvocationException("malformed JSON: " + e.getOriginalMessage())));
+        }
+        catch (IOException | InvalidInvocationException | RuntimeException e) {
+            return new Item(pIndex, id, CompletableFuture.failedFuture(e));
+        }
+    }
+
+
+
+    private void write(@NonNull final NdjsonWriter pWriter, @NonNull final Item pItem, final boolean pWait)
+        throws IOException
+    {
+        String output = null;
+        Throwable error = null;
+        try {
+            output = pWait ? pItem.result.join() : pItem.result.getNow(null);
+        }
+        catch (RuntimeException e) {
+            error = e;
+        }
+        final JsonGenerator gen = pWriter.beginResult();
+        gen.writeNumberField("index", pItem.index);
+        if (pItem.id != null) {
+            gen.writeFieldName(ID_FIELD);
+            gen.writeTree(pItem.id);
+        }
+        pWriter.endResult(output, error);
+    }
+
+
+
+    /**
+     * Read one line into the given buffer. Lines longer than the limit are consumed, but only their beginning is
+     * kept, so that they fail to parse instead of using up memory.
+     *
+     * @param pReader the reader
+     * @param pLine the buffer to fill, which is cleared first
+     * @return <code>false</code> at end of stream
+     * @throws IOException reading failed
+     */
+    private boolean readLine(@NonNull final BufferedReader pReader, @NonNull final StringBuilder pLine)
+        throws IOException
+    {
+        pLine.setLength(0);
+        int c = pReader.read();
+        if (c < 0) {
+            return false;
+        }
+        while (c >= 0 && c != '\n') {
+            if (pLine.length() < maxLineChars) {
+                pLine.append((char) c);
+            }
+            c = pReader.read();
+        }
+        return true;
+    }
+
+
+
+    private static boolean isBlank(@NonNull final CharSequence pLine)
+    {
+        for (int i = 0; i < pLine.length(); i++) {
+            if (!Character.isWhitespace(pLine.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
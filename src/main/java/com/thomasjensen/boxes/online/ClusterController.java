@@ -0,0 +1,105 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * The endpoint through which cluster peers ask the owner of a render key for the result.
+ */
+@RestController
+@ConditionalOnProperty(name = "boxes.cluster.peers")
+public class ClusterController
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterController.class);
+
+    private final ClusterRenderCache clusterRenderCache;
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+
+
+    @Autowired
+    public ClusterController(final ClusterRenderCache pClusterRenderCache,
+        final BoxesRunnerService pBoxesRunnerService, final Validator pValidator)
+    {
+        super();
+        Assert.notNull(pClusterRenderCache, "ClusterRenderCache not injected");
+        clusterRenderCache = pClusterRenderCache;
+
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+    }
+
+
+
+    @PostMapping(value = ClusterRenderCache.PEER_PATH, consumes = MediaType.APPLICATION_JSON_VALUE,
+        produces = MediaType.TEXT_PLAIN_VALUE)
+    public CompletableFuture<ResponseEntity<String>> render(@NonNull @RequestBody final Invocation pInvocation,
+        @Nullable @RequestHeader(name = ClusterRenderCache.KEY_HEADER, required = false) final String pKey)
+    {
+        final List<String> cmdLine;
+        try {
+            validator.validate(pInvocation);
+            cmdLine = new CommandLineBuilder(pInvocation).build();
+        }
+        catch (InvalidInvocationException e) {
+            return CompletableFuture.completedFuture(
+                new ResponseEntity<>("bad request: " + e.getMessage(), HttpStatus.BAD_REQUEST));
+        }
+
+        final RenderKey key = RenderKey.of(cmdLine, pInvocation.getContent());
+        if (pKey != null && !pKey.equals(key.toString()) && LOG.isWarnEnabled()) {
+            LOG.warn("Render key computed by peer differs from ours. Are the peers running different versions?");
+        }
+        return clusterRenderCache.getOwned(key, () -> boxesRunnerService.submit(cmdLine, pInvocation.getContent()))//
+            .handle((final String pResult, final Throwable pError) -> {
+                if (pError == null) {
+                    return new ResponseEntity<>(pResult, HttpStatus.OK);
+                }
+                final Throwable cause = pError instanceof CompletionException ? pError.getCause() : pError;
+                if (cause instanceof TimeoutException || cause instanceof BoxesUnavailableException) {
+                    return new ResponseEntity<>(cause.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+                }
+                LOG.error("internal error: " + cause.getMessage(), cause);
+                return new ResponseEntity<>(cause.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            });
+    }
+}
@@ -0,0 +1,260 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * A render cache shared by a cluster of instances, in the style of <i>groupcache</i>. Each {@link RenderKey} is owned
+ * by exactly one peer on a {@link ConsistentHashRing}. Only the owner runs <i>boxes</i> for the key and caches the
+ * result; the other peers ask the owner over HTTP. Results of keys which are requested often are also kept in a small
+ * local "hot" cache, so that the owner does not become a bottleneck. Both caches are bounded by the size of the
+ * results they hold.
+ * <p>A peer is given as long to respond as we would wait for a local render, so that a slow render does not time out
+ * here and then run a second time locally. Only if the owner cannot be reached at all is the result rendered locally;
+ * if the owner tried and failed, its error is passed on.</p>
+ * <p>Enabled by setting <code>boxes.cluster.peers</code>.</p>
+ */
+@Component
+@ConditionalOnProperty(name = "boxes.cluster.peers")
+public class ClusterRenderCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterRenderCache.class);
+
+    /** the path of the endpoint which peers use to ask an owner for a result */
+    public static final String PEER_PATH = "/cluster/render";
+
+    /** header carrying the render key computed by the requesting peer, so that the owner can detect ring mismatches */
+    public static final String KEY_HEADER = "X-Boxes-Render-Key";
+
+    /** one in this many results fetched from a peer is copied into the hot cache */
+    private static final int HOT_REPLICA_ODDS = 10;
+
+    /** added to our own timeouts for the time spent on the network when waiting for a peer */
+    static final long PEER_TIMEOUT_MARGIN_MILLIS = 1000L;
+
+    /** approximate heap overhead of a cached result in addition to its characters (key, string, map entry) */
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final ConsistentHashRing ring;
+
+    private final String self;
+
+    private final LruCache<RenderKey, String> ownedCache;
+
+    private final LruCache<RenderKey, String> hotCache;
+
+    /** owner-side executions in progress, so that concurrent misses of the same key run <i>boxes</i> only once */
+    private final ConcurrentMap<RenderKey, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    private final HttpClient httpClient;
+
+    private final Duration peerTimeout;
+
+    private final ObjectMapper objectMapper;
+
+
+
+    public ClusterRenderCache(@Value("${boxes.cluster.peers}") final String pPeers,
+        @Value("${boxes.cluster.self}") final String pSelf,
+        @Value("${boxes.cluster.cache-bytes:67108864}") final long pCacheBytes,
+        @Value("${boxes.cluster.hot-bytes:8388608}") final long pHotBytes,
+        @Value("${boxes.cluster.connect-timeout-millis:2000}") final long pConnectTimeoutMillis,
+        @Value("${boxes.timeout.queue-millis:20000}") final long pQueueTimeoutMillis,
+        @Value("${boxes.timeout.exec-millis:5000}") final long pExecTimeoutMillis,
+        @NonNull final ObjectMapper pObjectMapper)
+    {
+        Assert.notNull(pObjectMapper, "required parameter pObjectMapper was not injected");
+        final List<String> peers = Arrays.stream(pPeers.split(","))//
+            .map(String::trim)//
+            .filter(peer -> !peer.isEmpty())//
+            .map(ClusterRenderCache::normalize)//
+            .collect(Collectors.toList());
+        self = normalize(pSelf.trim());
+        Assert.isTrue(peers.contains(self), "boxes.cluster.self must be one of boxes.cluster.peers");
+
+        ring = new ConsistentHashRing(peers);
+        ownedCache = new LruCache<>(pCacheBytes, ClusterRenderCache::weigh, null);
+        hotCache = new LruCache<>(pHotBytes, ClusterRenderCache::weigh, null);
+        peerTimeout = Duration.ofMillis(Math.max(pQueueTimeoutMillis, pExecTimeoutMillis) + PEER_TIMEOUT_MARGIN_MILLIS);
+        httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(pConnectTimeoutMillis)).build();
+        objectMapper = pObjectMapper;
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Cluster render cache enabled as " + self + " with peers " + peers);
+        }
+    }
+
+
+
+    private static int weigh(@NonNull final String pResult)
+    {
+        return pResult.length() + ENTRY_OVERHEAD_BYTES;   // the output of boxes is ASCII, so one byte per char
+    }
+
+
+
+    private static String normalize(@NonNull final String pBaseUrl)
+    {
+        return pBaseUrl.endsWith("/") ? pBaseUrl.substring(0, pBaseUrl.length() - 1) : pBaseUrl;
+    }
+
+
+
+    /**
+     * Look up a render result in the cluster, or have it rendered by the peer that owns it.
+     *
+     * @param pKey the key of the result
+     * @param pInvocation the validated invocation, sent to the owner if it's a remote peer
+     * @param pLocalLoader runs <i>boxes</i> locally; used if we own the key, or if the owner cannot be reached
+     * @return a future which completes with the render result
+     */
+    @NonNull
+    public CompletableFuture<String> get(@NonNull final RenderKey pKey, @NonNull final Invocation pInvocation,
+        @NonNull final Supplier<CompletableFuture<String>> pLocalLoader)
+    {
+        final String owner = ring.ownerOf(pKey);
+        if (self.equals(owner)) {
+            return getOwned(pKey, pLocalLoader);
+        }
+
+        final String hot = hotCache.get(pKey);
+        if (hot != null) {
+            return CompletableFuture.completedFuture(hot);
+        }
+        return fetchFromPeer(owner, pKey, pInvocation).handle((final String pResult, final Throwable pError) -> {
+            if (pError == null) {
+                if (ThreadLocalRandom.current().nextInt(HOT_REPLICA_ODDS) == 0) {
+                    hotCache.put(pKey, pResult);
+                }
+                return CompletableFuture.completedFuture(pResult);
+            }
+            final Throwable cause = pError instanceof CompletionException ? pError.getCause() : pError;
+            if (cause instanceof HttpTimeoutException && !(cause instanceof HttpConnectTimeoutException)) {
+                // the owner is probably still rendering, so doing it again here would only double the work
+                return CompletableFuture.<String>failedFuture(
+                    new TimeoutException("no result from peer " + owner + " after " + peerTimeout.toMillis() + " ms"));
+            }
+            if (!(cause instanceof IOException)) {
+                return CompletableFuture.<String>failedFuture(cause);   // the owner tried, so we would fail too
+            }
+            if (LOG.isWarnEnabled()) {
+                LOG.warn("Failed to reach peer " + owner + ", rendering locally: " + cause.getMessage());
+            }
+            return pLocalLoader.get();
+        }).thenCompose(future -> future);
+    }
+
+
+
+    /**
+     * Look up a result which this instance is supposed to own, rendering it if necessary. This is used both for our
+     * own requests and for requests from peers. Results are never forwarded from here, so that peers with different
+     * views of the ring cannot send requests around in circles.
+     *
+     * @param pKey the key of the result
+     * @param pLocalLoader runs <i>boxes</i> locally
+     * @return a future which completes with the render result
+     */
+    @NonNull
+    public CompletableFuture<String> getOwned(@NonNull final RenderKey pKey,
+        @NonNull final Supplier<CompletableFuture<String>> pLocalLoader)
+    {
+        final String cached = ownedCache.get(pKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<String> created = new CompletableFuture<>();
+        final CompletableFuture<String> existing = inFlight.putIfAbsent(pKey, created);
+        if (existing != null) {
+            return existing;
+        }
+        pLocalLoader.get().whenComplete((final String pResult, final Throwable pError) -> {
+            inFlight.remove(pKey);
+            if (pError != null) {
+                created.completeExceptionally(pError);
+            }
+            else {
+                ownedCache.put(pKey, pResult);
+                created.complete(pResult);
+            }
+        });
+        return created;
+    }
+
+
+
+    private CompletableFuture<String> fetchFromPeer(@NonNull final String pOwner, @NonNull final RenderKey pKey,
+        @NonNull final Invocation pInvocation)
+    {
+        final String json;
+        try {
+            json = objectMapper.writeValueAsString(pInvocation);
+        }
+        catch (JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(pOwner + PEER_PATH))//
+            .timeout(peerTimeout)//
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)//
+            .header(KEY_HEADER, pKey.toString())//
+            .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))//
+            .build();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.US_ASCII))//
+            .thenApply((final HttpResponse<String> pResponse) -> {
+                if (pResponse.statusCode() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                    throw new BoxesUnavailableException("peer " + pOwner + " is unavailable: " + pResponse.body());
+                }
+                if (pResponse.statusCode() != HttpStatus.OK.value()) {
+                    throw new BoxesExecutionException("peer " + pOwner + " responded with HTTP status "
+                        + pResponse.statusCode() + ": " + pResponse.body(), null);
+                }
+                return pResponse.body();
+            });
+    }
+}
@@ -36,7 +36,7 @@ public class CommandLineBuilder
     static final String BOXES_EXECUTABLE = "boxes/boxes" + (OS_WIN ? ".exe" : "");
 
     /** <i>boxes</i> config file to use */
-    private static final String BOXES_CONFIG = "boxes/boxes.cfg";
+    static final String BOXES_CONFIG = "boxes/boxes.cfg";
 
     private final Invocation invocation;
 
@@ -45,6 +45,20 @@ public class CommandLineBuilder
 
 
     public CommandLineBuilder(@NonNull final Invocation pInvocation)
+    {
+        this(pInvocation, null);
+    }
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param pInvocation the invocation
+     * @param pConfigFile the config file to use instead of the shared one, as resolved by the
+     *     {@link CustomDesignStore}, or <code>null</code> for the shared one
+     */
+    public CommandLineBuilder(@NonNull final Invocation pInvocation, @Nullable final String pConfigFile)
     {
         Assert.notNull(pInvocation, "missing required argument: pInvocation");
         invocation = pInvocation;
@@ -52,7 +66,7 @@ public class CommandLineBuilder
         cmdLine = new ArrayList<>();
         cmdLine.add(BOXES_EXECUTABLE);
         cmdLine.add("-f");
-        cmdLine.add(BOXES_CONFIG);
+        cmdLine.add(pConfigFile != null ? pConfigFile : BOXES_CONFIG);
         cmdLine.add("-q");
         cmdLine.add("-i");
         cmdLine.add("text");
@@ -76,6 +90,103 @@ public class CommandLineBuilder
 
 
 
+    /**
+     * Build the command line for removing a box instead of drawing one. Without a design, <i>boxes</i> detects it.
+     *
+     * @return the command line
+     */
+    @NonNull
+    public List<String> buildRemoval()
+    {
+        build();
+        cmdLine.add("-r");
+        return cmdLine;
+    }
+
+
+
+    /**
+     * Derive the command line for another design from a command line built by this class.
+     *
+     * @param pCmdLine a command line which specifies a design
+     * @param pDesign the other design
+     * @return a new command line, identical except for the design
+     */
+    @NonNull
+    static List<String> withDesign(@NonNull final List<String> pCmdLine, @NonNull final String pDesign)
+    {
+        final List<String> result = new ArrayList<>(pCmdLine);
+        final int pos = result.indexOf("-d");
+        Assert.isTrue(pos >= 0 && pos < result.size() - 1, "command line does not specify a design");
+        result.set(pos + 1, pDesign);
+        return result;
+    }
+
+
+
+    /**
+     * Determine the design specified on a command line built by this class.
+     *
+     * @param pCmdLine the command line
+     * @return the design, or <code>null</code> if none was specified
+     */
+    @Nullable
+    static String designOf(@NonNull final List<String> pCmdLine)
+    {
+        final int pos = pCmdLine.indexOf("-d");
+        return pos >= 0 && pos < pCmdLine.size() - 1 ? pCmdLine.get(pos + 1) : null;
+    }
+
+
+
+    /**
+     * Determine whether a command line built by this class uses the shared config file.
+     *
+     * @param pCmdLine the command line
+     * @return <code>false</code> if it uses the config file of a custom design
+     */
+    static boolean usesSharedConfig(@NonNull final List<String> pCmdLine)
+    {
+        final int pos = pCmdLine.indexOf("-f");
+        return pos < 0 || pos == pCmdLine.size() - 1 || BOXES_CONFIG.equals(pCmdLine.get(pos + 1));
+    }
+
+
+
+    /**
+     * Determine whether the output of a failed <i>boxes</i> run says that the shared config file is missing or broken,
+     * as opposed to a problem with the input or with the config file of a custom design.
+     *
+     * @param pCmdLine the command line built by this class
+     * @param pOutput what <i>boxes</i> wrote to standard output and standard error
+     * @return <code>true</code> if the shared config file could not be used
+     */
+    static boolean isSharedConfigError(@NonNull final List<String> pCmdLine, @Nullable final String pOutput)
+    {
+        return pOutput != null && usesSharedConfig(pCmdLine)
+            && (pOutput.contains("config file") || pOutput.contains(BOXES_CONFIG + ':'));
+    }
+
+
+
+    /**
+     * Derive the command line without a design from a command line built by this class.
+     *
+     * @param pCmdLine a command line which specifies a design
+     * @return a new command line, identical except for the design
+     */
+    @NonNull
+    static List<String> withoutDesign(@NonNull final List<String> pCmdLine)
+    {
+        final List<String> result = new ArrayList<>(pCmdLine);
+        final int pos = result.indexOf("-d");
+        Assert.isTrue(pos >= 0 && pos < result.size() - 1, "command line does not specify a design");
+        result.subList(pos, pos + 2).clear();
+        return result;
+    }
+
+
+
     private void alignment(@Nullable final Invocation.Alignment pAlignment)
     {
         StringBuilder sb = new StringBuilder();
@@ -0,0 +1,383 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Splits a source file into its comment blocks and the code between them. A comment block is either a run of line
+ * comments on consecutive lines with the same indentation, or a block comment which starts and ends on lines of its
+ * own. Comments which follow code on the same line are left alone, and so are documentation comments
+ * (<code>/**</code>, <code>///</code>, <code>//!</code>), because tools read them.
+ */
+final class CommentBlocks
+{
+    /**
+     * The comment syntax of a family of languages.
+     */
+    enum Style
+    {
+        /** <code>//</code> line comments and <code>/* *&#47;</code> block comments */
+        C("//", "c", "cpp", "c++", "cs", "csharp", "css", "go", "java", "javascript", "js", "kotlin", "php", "rust",
+            "scala", "swift", "ts", "typescript"),
+
+        /** <code>#</code> line comments */
+        HASH("#", "bash", "make", "makefile", "perl", "powershell", "py", "python", "r", "rb", "ruby", "sh", "shell",
+            "tcl", "yaml"),
+
+        /** <code>--</code> line comments */
+        DASH("--", "ada", "haskell", "lua", "sql");
+
+        private static final Map<String, Style> BY_LANGUAGE = Stream.of(values())//
+            .flatMap(pStyle -> pStyle.languages.stream().map(pLanguage -> Map.entry(pLanguage, pStyle)))//
+            .collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, Map.Entry::getValue));
+
+        private final String lineMarker;
+
+        private final List<String> languages;
+
+
+
+        Style(@NonNull final String pLineMarker, @NonNull final String... pLanguages)
+        {
+            lineMarker = pLineMarker;
+            languages = List.of(pLanguages);
+        }
+
+
+
+        @Nullable
+        static Style forLanguage(@Nullable final String pLanguage)
+        {
+            return pLanguage != null ? BY_LANGUAGE.get(pLanguage.toLowerCase(Locale.ENGLISH)) : null;
+        }
+    }
+
+
+
+    /**
+     * A part of the file. Either code, which is copied as it is, or a comment block.
+     */
+    static final class Segment
+    {
+        private final String original;
+
+        @Nullable
+        private final String comment;
+
+        private final String indent;
+
+        private final int line;
+
+
+
+        Segment(@NonNull final String pOriginal, @Nullable final String pComment, @NonNull final String pIndent,
+            final int pLine)
+        {
+            original = pOriginal;
+            comment = pComment;
+            indent = pIndent;
+            line = pLine;
+        }
+
+
+
+        /**
+         * The text of this segment as found in the file, including its line terminators.
+         *
+         * @return the original text
+         */
+        @NonNull
+        String getOriginal()
+        {
+            return original;
+        }
+
+
+
+        /**
+         * The text of the comment, without comment markers and indentation.
+         *
+         * @return the text, or <code>null</code> if this segment is code
+         */
+        @Nullable
+        String getComment()
+        {
+            return comment;
+        }
+
+
+
+        boolean isComment()
+        {
+            return comment != null;
+        }
+
+
+
+        /**
+         * Put a rendered box in the place of this comment block, with the indentation and line terminators of the
+         * original.
+         *
+         * @param pBox the output of <i>boxes</i>
+         * @return the text to replace the original with
+         */
+        @NonNull
+        String splice(@NonNull final String pBox)
+        {
+            final String lineSep = original.contains("\r\n") ? "\r\n" : "\n";
+            final boolean terminated = original.endsWith("\n");
+            final String box = pBox.endsWith("\n") ? pBox.substring(0, pBox.length() - 1) : pBox;
+            final StringBuilder result = new StringBuilder(box.length() + 64);
+            int start = 0;
+            while (start <= box.length()) {
+                int end = box.indexOf('\n', start);
+                if (end < 0) {
+                    end = box.length();
+                }
+                if (start > 0) {
+                    result.append(lineSep);
+                }
+                result.append(indent).append(box, start, end);
+                start = end + 1;
+            }
+            if (terminated) {
+                result.append(lineSep);
+            }
+            return result.toString();
+        }
+
+
+
+        int getLine()
+        {
+            return line;
+        }
+    }
+
+
+
+    private CommentBlocks()
+    {
+        super();
+    }
+
+
+
+    /**
+     * Split a file into segments.
+     *
+     * @param pFile the content of the file
+     * @param pStyle the comment syntax used in the file
+     * @return the segments, which together make up the entire file
+     */
+    @NonNull
+    static List<Segment> split(@NonNull final String pFile, @NonNull final Style pStyle)
+    {
+        final List<String> lines = lines(pFile);
+        final List<Segment> result = new ArrayList<>();
+        final StringBuilder code = new StringBuilder();
+        int codeLine = 0;
+        int i = 0;
+        while (i < lines.size()) {
+            final String line = lines.get(i);
+            final String indent = indentOf(line);
+            final String stripped = stripEol(line).substring(indent.length());
+            int end = -1;
+            List<String> content = null;
+            if (isLineComment(line, indent, pStyle) && !(i == 0 && stripped.startsWith("#!"))) {
+                content = new ArrayList<>();
+                end = i;
+                while (end < lines.size() && isLineComment(lines.get(end), indent, pStyle)) {
+                    content.add(stripMarker(stripEol(lines.get(end)).substring(indent.length()), pStyle.lineMarker));
+                    end++;
+                }
+            }
+            else if (pStyle == Style.C && stripped.startsWith("/*") && !stripped.startsWith("/**")) {
+                end = blockCommentEnd(lines, i);
+                if (end > i) {
+                    content = blockCommentContent(lines.subList(i, end), indent);
+                }
+            }
+
+            final String comment = content != null ? join(content) : null;
+            if (comment != null) {
+                if (code.length() > 0) {
+                    result.add(new Segment(code.toString(), null, "", codeLine + 1));
+                    code.setLength(0);
+                }
+                result.add(new Segment(String.join("", lines.subList(i, end)), comment, indent, i + 1));
+                i = end;
+                codeLine = i;
+            }
+            else {
+                code.append(line);
+                i++;
+            }
+        }
+        if (code.length() > 0) {
+            result.add(new Segment(code.toString(), null, "", codeLine + 1));
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Split text into lines, each including its line terminator.
+     */
+    @NonNull
+    private static List<String> lines(@NonNull final String pText)
+    {
+        final List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start < pText.length()) {
+            final int nl = pText.indexOf('\n', start);
+            final int end = nl < 0 ? pText.length() : nl + 1;
+            result.add(pText.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+
+
+    @NonNull
+    private static String stripEol(@NonNull final String pLine)
+    {
+        int end = pLine.length();
+        if (end > 0 && pLine.charAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end > 0 && pLine.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return pLine.substring(0, end);
+    }
+
+
+
+    @NonNull
+    private static String indentOf(@NonNull final String pLine)
+    {
+        int i = 0;
+        while (i < pLine.length() && (pLine.charAt(i) == ' ' || pLine.charAt(i) == '\t')) {
+            i++;
+        }
+        return pLine.substring(0, i);
+    }
+
+
+
+    private static boolean isLineComment(@NonNull final String pLine, @NonNull final String pIndent,
+        @NonNull final Style pStyle)
+    {
+        final int pos = pIndent.length();
+        return indentOf(pLine).equals(pIndent) && pLine.startsWith(pStyle.lineMarker, pos)
+            && !(pStyle == Style.C && (pLine.startsWith("///", pos) || pLine.startsWith("//!", pos)));
+    }
+
+
+
+    @NonNull
+    private static String stripMarker(@NonNull final String pText, @NonNull final String pMarker)
+    {
+        String result = pText.startsWith(pMarker) ? pText.substring(pMarker.length()) : pText;
+        if (result.startsWith(" ")) {
+            result = result.substring(1);
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Find the end of a block comment which starts on the given line.
+     *
+     * @return the index of the line after the comment, or -1 if the comment doesn't end on a line of its own
+     */
+    private static int blockCommentEnd(@NonNull final List<String> pLines, final int pStart)
+    {
+        int from = indentOf(pLines.get(pStart)).length() + 2;
+        for (int i = pStart; i < pLines.size(); i++) {
+            final String line = stripEol(pLines.get(i));
+            final int close = line.indexOf("*/", from);
+            if (close >= 0) {
+                return line.substring(close + 2).isBlank() ? i + 1 : -1;
+            }
+            from = 0;
+        }
+        return -1;
+    }
+
+
+
+    @NonNull
+    private static List<String> blockCommentContent(@NonNull final List<String> pLines, @NonNull final String pIndent)
+    {
+        final List<String> result = new ArrayList<>(pLines.size());
+        for (int i = 0; i < pLines.size(); i++) {
+            String text = stripEol(pLines.get(i));
+            if (i == 0) {
+                text = text.substring(pIndent.length() + 2);
+            }
+            if (i == pLines.size() - 1) {
+                text = text.substring(0, text.lastIndexOf("*/"));
+            }
+            if (i > 0) {
+                text = text.stripLeading();
+                if (text.startsWith("*")) {
+                    text = text.substring(1);
+                }
+            }
+            if (text.startsWith(" ")) {
+                text = text.substring(1);
+            }
+            result.add(text.stripTrailing());
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Join comment lines, dropping blank lines at the start and end.
+     *
+     * @return the text, or <code>null</code> if the comment is blank
+     */
+    @Nullable
+    private static String join(@NonNull final List<String> pLines)
+    {
+        int from = 0;
+        int to = pLines.size();
+        while (from < to && pLines.get(from).isBlank()) {
+            from++;
+        }
+        while (to > from && pLines.get(to - 1).isBlank()) {
+            to--;
+        }
+        return from < to ? String.join("\n", pLines.subList(from, to)) + "\n" : null;
+    }
+}
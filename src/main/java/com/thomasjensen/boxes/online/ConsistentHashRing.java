@@ -0,0 +1,87 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+
+/**
+ * A consistent-hash ring which assigns each {@link RenderKey} to exactly one cluster peer. Every peer is placed on
+ * the ring many times, so that keys are spread evenly, and adding or removing a peer only moves the keys of that peer.
+ */
+public class ConsistentHashRing
+{
+    /** how often each peer is placed on the ring */
+    private static final int VIRTUAL_NODES = 160;
+
+    private final NavigableMap<Long, String> ring = new TreeMap<>();
+
+
+
+    public ConsistentHashRing(@NonNull final Collection<String> pPeers)
+    {
+        Assert.notEmpty(pPeers, "at least one peer is required");
+        for (final String peer : pPeers) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(peer + '#' + i), peer);
+            }
+        }
+    }
+
+
+
+    private static long hash(@NonNull final String pValue)
+    {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(pValue.getBytes(StandardCharsets.UTF_8));
+            long result = 0L;
+            for (int i = 0; i < Long.BYTES; i++) {
+                result = (result << 8) | (digest[i] & 0xffL);
+            }
+            return result;
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported by this Java runtime", e);
+        }
+    }
+
+
+
+    /**
+     * Determine the peer which owns the given key.
+     *
+     * @param pKey the key
+     * @return the owning peer, as it was passed to the constructor
+     */
+    @NonNull
+    public String ownerOf(@NonNull final RenderKey pKey)
+    {
+        Map.Entry<Long, String> entry = ring.ceilingEntry(pKey.longValue());
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+}
@@ -0,0 +1,68 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Registers custom box designs. The definition of a design is posted as plain text in <i>boxes</i> config file
+ * syntax, and the ID returned can then be used in the <code>customDesign</code> of any number of invocations instead
+ * of sending the definition every time.
+ */
+@RestController
+public class CustomDesignRestService
+{
+    private final Validator validator;
+
+    private final CustomDesignStore customDesignStore;
+
+
+
+    @Autowired
+    public CustomDesignRestService(final Validator pValidator, final CustomDesignStore pCustomDesignStore)
+    {
+        super();
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pCustomDesignStore, "CustomDesignStore not injected");
+        customDesignStore = pCustomDesignStore;
+    }
+
+
+
+    @PostMapping(value = "/designs", consumes = MediaType.TEXT_PLAIN_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<?> register(@Nullable @RequestBody(required = false) final String pDefinition)
+    {
+        try {
+            validator.validateCustomDesign(pDefinition);
+        }
+        catch (InvalidInvocationException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).contentType(MediaType.TEXT_PLAIN)//
+                .body("bad request: " + e.getMessage());
+        }
+        return ResponseEntity.ok(customDesignStore.register(pDefinition));
+    }
+}
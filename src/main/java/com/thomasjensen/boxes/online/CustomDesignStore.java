@@ -0,0 +1,399 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Keeps the user-supplied box designs, each in a config file of its own which <i>boxes</i> is pointed to via
+ * <code>-f</code>. Designs are addressed by a hash of their definition, so each one is written only once, no matter
+ * how often it is used inline or by ID. The files go to a memory-backed directory if there is one. The least recently
+ * used designs are dropped when there are too many, but the file of a dropped design is only deleted once no render
+ * is using it any more.
+ *
+ * <p>The store is local to the process. A design registered with one instance is unknown to any other instance, so
+ * when several instances are run behind a load balancer, clients must either stick to one instance, or send the
+ * definition inline. Resolving an unknown ID is a bad request, after which the client can register again.</p>
+ */
+@Component
+public class CustomDesignStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CustomDesignStore.class);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** the first line of a definition, which names the design */
+    private static final Pattern BOX_LINE = Pattern.compile("BOX\\s+([A-Za-z0-9][A-Za-z0-9_.-]*)",
+        Pattern.CASE_INSENSITIVE);
+
+    /** lines which start a design, or refer to other config files */
+    private static final Pattern RESERVED_LINE = Pattern.compile("(BOX|PARENT)(\\s.*)?", Pattern.CASE_INSENSITIVE);
+
+    /** memory-backed file system on Linux */
+    private static final Path SHM_DIR = Paths.get("/dev/shm");
+
+    private final Path dir;
+
+    private final LruCache<String, Entry> entries;
+
+    /** the designs being used by renders, by config file; guarded by <code>this</code> */
+    private final Map<String, Entry> inUse = new HashMap<>();
+
+
+
+    /**
+     * A stored design.
+     */
+    public static final class Entry
+    {
+        private final String id;
+
+        private final String name;
+
+        private final String configFile;
+
+        /** number of renders using the config file; guarded by the store */
+        private int users = 0;
+
+        /** dropped from the store while still in use, so the config file must be deleted when released */
+        private boolean evicted = false;
+
+
+
+        Entry(@NonNull final String pId, @NonNull final String pName, @NonNull final String pConfigFile)
+        {
+            id = pId;
+            name = pName;
+            configFile = pConfigFile;
+        }
+
+
+
+        @NonNull
+        public String getId()
+        {
+            return id;
+        }
+
+
+
+        @NonNull
+        public String getName()
+        {
+            return name;
+        }
+
+
+
+        @NonNull
+        String getConfigFile()
+        {
+            return configFile;
+        }
+    }
+
+
+
+    public CustomDesignStore(@Value("${boxes.custom-designs.dir:}") final String pDir,
+        @Value("${boxes.custom-designs.max-entries:1000}") final int pMaxEntries)
+        throws IOException
+    {
+        Assert.isTrue(pMaxEntries > 0, "boxes.custom-designs.max-entries must be positive");
+        final Path baseDir;
+        if (pDir != null && !pDir.isEmpty()) {
+            baseDir = Paths.get(pDir);
+        }
+        else if (Files.isDirectory(SHM_DIR) && Files.isWritable(SHM_DIR)) {
+            baseDir = SHM_DIR;
+        }
+        else {
+            baseDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        }
+        // one directory per process, so that instances sharing a host never delete each other's files
+        dir = Files.createDirectories(baseDir.resolve("boxes-designs-" + ProcessHandle.current().pid()));
+        // entries are only ever added while holding the lock of this store, so evictions happen while holding it, too
+        entries = new LruCache<>(pMaxEntries, (pId, pEntry) -> onEviction(pEntry));
+        LOG.info("Custom box designs are stored in {}", dir);
+    }
+
+
+
+    /**
+     * Store a design, unless it is already stored.
+     *
+     * @param pDefinition the validated definition of the design
+     * @return the stored design
+     */
+    @NonNull
+    public Entry register(@NonNull final String pDefinition)
+    {
+        final String definition = normalize(pDefinition);
+        final String id = hash(definition);
+        Entry result = entries.get(id);
+        if (result == null) {
+            // files are only ever written or deleted while holding this lock, so an eviction can't hit a fresh file
+            synchronized (this) {
+                result = entries.get(id);
+                if (result == null) {
+                    final Path configFile = dir.resolve(id + ".cfg");
+                    result = inUse.get(configFile.toString());
+                    if (result != null) {
+                        result.evicted = false;   // dropped, but still in use, so the file is still there
+                    }
+                    else {
+                        final String name = nameOf(definition);
+                        Assert.notNull(name, "definition was not validated");
+                        write(configFile, definition);
+                        result = new Entry(id, name, configFile.toString());
+                    }
+                    entries.put(id, result);
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Resolve the custom design of a validated invocation, if it has one. The name of the custom design is set as the
+     * design of the invocation. The config file returned is kept until it is released via {@link #release}, which
+     * must be done once the render has finished.
+     *
+     * @param pInvocation the invocation
+     * @return the config file to use, or <code>null</code> if the invocation uses the shared config file
+     * @throws InvalidInvocationException the design was given by an ID which is unknown
+     */
+    @Nullable
+    public String resolve(@NonNull final Invocation pInvocation)
+        throws InvalidInvocationException
+    {
+        final Invocation.CustomDesign customDesign = pInvocation.getCustomDesign();
+        if (customDesign == null) {
+            return null;
+        }
+        final Entry entry;
+        synchronized (this) {
+            entry = customDesign.getDefinition() != null ? register(customDesign.getDefinition())
+                : entries.get(customDesign.getId());
+            if (entry == null) {
+                throw new InvalidInvocationException("Unknown custom design ID. Unused designs are dropped after a "
+                    + "while, and each server instance has designs of its own, so it may have to be registered again.");
+            }
+            entry.users++;
+            inUse.put(entry.configFile, entry);
+        }
+        pInvocation.setDesign(entry.name);
+        return entry.configFile;
+    }
+
+
+
+    /**
+     * Release a config file returned by {@link #resolve}. If its design was dropped in the meantime, and no other
+     * render is using it, the file is deleted.
+     *
+     * @param pConfigFile the config file, may be <code>null</code> if the shared config file was used
+     */
+    public synchronized void release(@Nullable final String pConfigFile)
+    {
+        if (pConfigFile == null) {
+            return;
+        }
+        final Entry entry = inUse.get(pConfigFile);
+        Assert.state(entry != null, "config file was not in use");
+        if (--entry.users == 0) {
+            inUse.remove(pConfigFile);
+            if (entry.evicted) {
+                delete(Paths.get(pConfigFile));
+            }
+        }
+    }
+
+
+
+    /**
+     * Run a render which uses a config file returned by {@link #resolve}, and release the file when it has finished.
+     *
+     * @param pConfigFile the config file, may be <code>null</code> if the shared config file is used
+     * @param pRender starts the render
+     * @param <T> type of the result
+     * @return the pending result of the render
+     */
+    @NonNull
+    public <T> CompletableFuture<T> releaseWhenDone(@Nullable final String pConfigFile,
+        @NonNull final Supplier<CompletableFuture<T>> pRender)
+    {
+        final CompletableFuture<T> result;
+        try {
+            result = pRender.get();
+        }
+        catch (RuntimeException e) {
+            release(pConfigFile);
+            throw e;
+        }
+        result.whenComplete((final T pOutput, final Throwable pError) -> release(pConfigFile));
+        return result;
+    }
+
+
+
+    private void onEviction(@NonNull final Entry pEntry)
+    {
+        if (pEntry.users > 0) {
+            pEntry.evicted = true;
+        }
+        else {
+            delete(Paths.get(pEntry.configFile));
+        }
+    }
+
+
+
+    /**
+     * Determine the name of the design defined by a definition. A definition consists of exactly one design. Blank
+     * lines and comments are allowed around it.
+     *
+     * @param pDefinition the definition
+     * @return the name, or <code>null</code> if this is not a valid definition
+     */
+    @Nullable
+    static String nameOf(@NonNull final String pDefinition)
+    {
+        String name = null;
+        String last = null;
+        for (final String rawLine : pDefinition.split("\\R")) {
+            final String line = rawLine.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (RESERVED_LINE.matcher(line).matches()) {
+                final Matcher matcher = BOX_LINE.matcher(line);
+                if (name != null || last != null || !matcher.matches()) {
+                    return null;   // a second design, a reference to another file, or not at the beginning
+                }
+                name = matcher.group(1);
+            }
+            last = line;
+        }
+        if (name == null || !last.matches("(?i)END\\s+" + Pattern.quote(name))) {
+            return null;
+        }
+        return name;
+    }
+
+
+
+    @NonNull
+    static String normalize(@NonNull final String pDefinition)
+    {
+        final String result = pDefinition.replace("\r\n", "\n");
+        return result.endsWith("\n") ? result : result + '\n';
+    }
+
+
+
+    @NonNull
+    static String hash(@NonNull final String pDefinition)
+    {
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(pDefinition.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by this Java runtime", e);
+        }
+        final char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+
+
+    private void write(@NonNull final Path pConfigFile, @NonNull final String pDefinition)
+    {
+        try {
+            final Path tempFile = Files.createTempFile(dir, "design", ".tmp");
+            Files.write(tempFile, pDefinition.getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, pConfigFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            throw new BoxesExecutionException("Failed to store custom box design", e);
+        }
+    }
+
+
+
+    private static void delete(@NonNull final Path pFile)
+    {
+        try {
+            Files.deleteIfExists(pFile);
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to delete custom box design file {}: {}", pFile, e.getMessage());
+        }
+    }
+
+
+
+    @PreDestroy
+    public synchronized void destroy()
+    {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (final Path file : files) {
+                delete(file);
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to list custom box design files in {}: {}", dir, e.getMessage());
+        }
+        delete(dir);
+    }
+
+
+
+    int size()
+    {
+        return entries.size();
+    }
+}
@@ -0,0 +1,326 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * The binary design catalog generated during build by <code>DesignCatalogWriter</code>, which documents the format.
+ * Reading it only copies a few arrays, and design names are looked up by a perfect hash, which neither allocates nor
+ * compares more than one string. The samples are stored at the end of the file and only read when first needed.
+ */
+final class DesignCatalog
+{
+    /** the name of the generated catalog file, keep in sync with <code>DesignListTask#catalogFile</code> */
+    static final String FILENAME = "box-designs.bin";
+
+    /** "BXDC", keep in sync with <code>DesignCatalogWriter#MAGIC</code> */
+    static final int MAGIC = 0x42584443;
+
+    static final int VERSION = 1;
+
+    /** size of the fixed part of the header in bytes */
+    private static final int HEADER_LEN = 7 * Integer.BYTES;
+
+    /** opens the catalog file again for reading the samples */
+    private final Callable<InputStream> source;
+
+    private final String[] names;
+
+    /** design metadata without the samples, by index */
+    private final BoxDesign[] designs;
+
+    private final int[] displacements;
+
+    private final int[] slots;
+
+    private final int[] sampleOffsets;
+
+    private final int[] sampleLengths;
+
+    /** offset of the samples in the file */
+    private final long blobOffset;
+
+    private final int blobLength;
+
+    /** the UTF-8 encoded samples, once read */
+    private volatile byte[] blob = null;
+
+
+
+    private DesignCatalog(@NonNull final Callable<InputStream> pSource, @NonNull final DataInputStream pIn)
+        throws IOException
+    {
+        source = pSource;
+        if (pIn.readInt() != MAGIC) {
+            throw new IOException("not a box design catalog");
+        }
+        final int version = pIn.readInt();
+        if (version != VERSION) {
+            throw new IOException("unsupported box design catalog version: " + version);
+        }
+        final int count = pIn.readInt();
+        final int bucketCount = pIn.readInt();
+        final int slotCount = pIn.readInt();
+        final int metaLength = pIn.readInt();
+        blobLength = pIn.readInt();
+        if (count < 0 || bucketCount < 1 || slotCount < count || metaLength < 0 || blobLength < 0) {
+            throw new IOException("corrupt box design catalog header");
+        }
+        blobOffset = HEADER_LEN + (long) Integer.BYTES * (bucketCount + slotCount) + metaLength;
+
+        displacements = readInts(pIn, bucketCount);
+        slots = readInts(pIn, slotCount);
+
+        names = new String[count];
+        designs = new BoxDesign[count];
+        sampleOffsets = new int[count];
+        sampleLengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = pIn.readUTF().intern();
+            final BoxDesign design = new BoxDesign();
+            design.setAuthor(readOptional(pIn));
+            design.setDesigner(readOptional(pIn));
+            if (pIn.readBoolean()) {
+                final BoxDesign.DefaultPadding padding = new BoxDesign.DefaultPadding();
+                padding.setTop(pIn.readInt());
+                padding.setRight(pIn.readInt());
+                padding.setBottom(pIn.readInt());
+                padding.setLeft(pIn.readInt());
+                design.setDefaultPadding(padding);
+            }
+            designs[i] = design;
+            sampleOffsets[i] = pIn.readInt();
+            sampleLengths[i] = pIn.readInt();
+            if (sampleOffsets[i] >= 0 && (long) sampleOffsets[i] + sampleLengths[i] > blobLength) {
+                throw new IOException("corrupt box design catalog entry: " + names[i]);
+            }
+        }
+    }
+
+
+
+    /**
+     * Read the catalog, except for the samples.
+     *
+     * @param pSource opens the catalog file; called again when the samples are first needed
+     * @return the catalog
+     * @throws IOException the file could not be read, or is not a valid catalog
+     */
+    @NonNull
+    static DesignCatalog read(@NonNull final Callable<InputStream> pSource)
+        throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(open(pSource)))) {
+            return new DesignCatalog(pSource, in);
+        }
+    }
+
+
+
+    @NonNull
+    private static InputStream open(@NonNull final Callable<InputStream> pSource)
+        throws IOException
+    {
+        final InputStream result;
+        try {
+            result = pSource.call();
+        }
+        catch (IOException | RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException(e);
+        }
+        if (result == null) {
+            throw new IOException("file not found: " + FILENAME);
+        }
+        return result;
+    }
+
+
+
+    @NonNull
+    private static int[] readInts(@NonNull final DataInputStream pIn, final int pCount)
+        throws IOException
+    {
+        final int[] result = new int[pCount];
+        for (int i = 0; i < pCount; i++) {
+            result[i] = pIn.readInt();
+        }
+        return result;
+    }
+
+
+
+    @Nullable
+    private static String readOptional(@NonNull final DataInputStream pIn)
+        throws IOException
+    {
+        return pIn.readBoolean() ? pIn.readUTF().intern() : null;
+    }
+
+
+
+    /**
+     * The hash function of the perfect hash, keep in sync with <code>DesignCatalogWriter#hash</code>.
+     *
+     * @param pName the design name
+     * @param pSeed 0 for the bucket, or the displacement of the bucket for the slot
+     * @return a non-negative hash value
+     */
+    static int hash(@NonNull final String pName, final int pSeed)
+    {
+        int h = 0x811c9dc5 ^ (pSeed * 0x9e3779b9);
+        for (int i = 0; i < pName.length(); i++) {
+            h ^= pName.charAt(i);
+            h *= 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h & 0x7fffffff;
+    }
+
+
+
+    /**
+     * Look up a design by name.
+     *
+     * @param pName the design name
+     * @return the index of the design, or -1 if there is no such design
+     */
+    int indexOf(@NonNull final String pName)
+    {
+        final int bucket = hash(pName, 0) % displacements.length;
+        final int index = slots[hash(pName, displacements[bucket]) % slots.length];
+        return index >= 0 && names[index].equals(pName) ? index : -1;
+    }
+
+
+
+    int size()
+    {
+        return names.length;
+    }
+
+
+
+    @NonNull
+    String getName(final int pIndex)
+    {
+        return names[pIndex];
+    }
+
+
+
+    /**
+     * Get the metadata of a design.
+     *
+     * @param pIndex index of the design
+     * @return the metadata, whose sample is always <code>null</code> (use {@link #getSample} instead)
+     */
+    @NonNull
+    BoxDesign getDesign(final int pIndex)
+    {
+        return designs[pIndex];
+    }
+
+
+
+    /**
+     * Get the sample of a design. The first call reads the samples of all designs from the catalog file.
+     *
+     * @param pIndex index of the design
+     * @return the sample, or <code>null</code> if the design has none
+     * @throws IOException the samples could not be read
+     */
+    @Nullable
+    String getSample(final int pIndex)
+        throws IOException
+    {
+        if (sampleOffsets[pIndex] < 0) {
+            return null;
+        }
+        return new String(loadBlob(), sampleOffsets[pIndex], sampleLengths[pIndex], StandardCharsets.UTF_8);
+    }
+
+
+
+    @NonNull
+    private byte[] loadBlob()
+        throws IOException
+    {
+        byte[] result = blob;
+        if (result == null) {
+            synchronized (this) {
+                result = blob;
+                if (result == null) {
+                    result = readBlob();
+                    blob = result;
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    @NonNull
+    private byte[] readBlob()
+        throws IOException
+    {
+        try (InputStream in = open(source)) {
+            long remaining = blobOffset;
+            while (remaining > 0) {
+                final long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("box design catalog is truncated");
+                    }
+                    remaining--;
+                }
+                else {
+                    remaining -= skipped;
+                }
+            }
+            final byte[] result = in.readNBytes(blobLength);
+            if (result.length != blobLength) {
+                throw new EOFException("box design catalog is truncated");
+            }
+            return result;
+        }
+    }
+
+
+
+    boolean isSamplesLoaded()
+    {
+        return blob != null;
+    }
+}
@@ -0,0 +1,247 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Recognizes the design of a box by the shape of its top and bottom edges, so that removing a box does not require
+ * <i>boxes</i> to try every design in its config file. The fingerprint of a design are the first and last few
+ * characters of the first and last line of its sample, which is where the corners are. A design is only reported if
+ * it is the only one matching, so that an ambiguous box is still left to the detection of <i>boxes</i>. The index is
+ * built on first use, so that the samples need not be read at startup.
+ */
+@Component
+public class DesignFingerprintIndex
+{
+    /** max. number of characters taken from each end of an edge */
+    static final int EDGE_LEN = 3;
+
+    /** the samples to build the index from, until it is built */
+    private Supplier<Map<String, String>> samples;
+
+    /** fingerprints by the first character of their top edge */
+    private volatile Map<Character, List<Fingerprint>> fingerprints = null;
+
+    private final Counter matchCounter;
+
+    private final Counter ambiguousCounter;
+
+    private final Counter noneCounter;
+
+
+
+    /**
+     * The corners of one design.
+     */
+    private static final class Fingerprint
+    {
+        private final String design;
+
+        private final String topStart;
+
+        private final String topEnd;
+
+        private final String bottomStart;
+
+        private final String bottomEnd;
+
+
+
+        Fingerprint(@NonNull final String pDesign, @NonNull final String pTop, @NonNull final String pBottom)
+        {
+            design = pDesign;
+            topStart = pTop.substring(0, edgeLen(pTop));
+            topEnd = pTop.substring(pTop.length() - edgeLen(pTop));
+            bottomStart = pBottom.substring(0, edgeLen(pBottom));
+            bottomEnd = pBottom.substring(pBottom.length() - edgeLen(pBottom));
+        }
+
+
+
+        private static int edgeLen(@NonNull final String pLine)
+        {
+            return Math.max(1, Math.min(EDGE_LEN, pLine.length() / 2));
+        }
+
+
+
+        boolean matches(@NonNull final String pTop, @NonNull final String pBottom)
+        {
+            return pTop.startsWith(topStart) && pTop.endsWith(topEnd) && pBottom.startsWith(bottomStart)
+                && pBottom.endsWith(bottomEnd);
+        }
+    }
+
+
+
+    @Autowired
+    public DesignFingerprintIndex(@NonNull final DesignList pDesignList, @NonNull final MeterRegistry pMeterRegistry)
+    {
+        this(pDesignList::getSamples, pMeterRegistry);
+    }
+
+
+
+    DesignFingerprintIndex(@NonNull final Map<String, String> pSamples, @NonNull final MeterRegistry pMeterRegistry)
+    {
+        this(() -> pSamples, pMeterRegistry);
+    }
+
+
+
+    private DesignFingerprintIndex(@NonNull final Supplier<Map<String, String>> pSamples,
+        @NonNull final MeterRegistry pMeterRegistry)
+    {
+        super();
+        samples = pSamples;
+
+        Assert.notNull(pMeterRegistry, "MeterRegistry not injected");
+        matchCounter = outcomeCounter(pMeterRegistry, "match");
+        ambiguousCounter = outcomeCounter(pMeterRegistry, "ambiguous");
+        noneCounter = outcomeCounter(pMeterRegistry, "none");
+    }
+
+
+
+    @NonNull
+    private static Counter outcomeCounter(@NonNull final MeterRegistry pMeterRegistry, @NonNull final String pOutcome)
+    {
+        return Counter.builder("boxes.unbox.detect")//
+            .description("number of box design lookups in the fingerprint index, by outcome")//
+            .tag("outcome", pOutcome)//
+            .register(pMeterRegistry);
+    }
+
+
+
+    @NonNull
+    private Map<Character, List<Fingerprint>> getFingerprints()
+    {
+        Map<Character, List<Fingerprint>> result = fingerprints;
+        if (result == null) {
+            synchronized (this) {
+                result = fingerprints;
+                if (result == null) {
+                    result = buildIndex(samples.get());
+                    fingerprints = result;
+                    samples = null;
+                }
+            }
+        }
+        return result;
+    }
+
+
+
+    @NonNull
+    private static Map<Character, List<Fingerprint>> buildIndex(@NonNull final Map<String, String> pSamples)
+    {
+        Assert.notNull(pSamples, "Argument pSamples is null");
+        final Map<Character, List<Fingerprint>> index = new HashMap<>();
+        for (final Map.Entry<String, String> entry : pSamples.entrySet()) {
+            final String top = edge(entry.getValue(), true);
+            if (top != null) {
+                final Fingerprint fingerprint = new Fingerprint(entry.getKey(), top, edge(entry.getValue(), false));
+                index.computeIfAbsent(top.charAt(0), c -> new ArrayList<>()).add(fingerprint);
+            }
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+
+
+    /**
+     * Determine the design of a box.
+     *
+     * @param pContent the box
+     * @return the name of the only design whose fingerprint matches, or <code>null</code> if none or more than one
+     *     design match
+     */
+    @Nullable
+    public String detect(@Nullable final String pContent)
+    {
+        String result = null;
+        final String top = pContent != null ? edge(pContent, true) : null;
+        final List<Fingerprint> candidates = top != null ? getFingerprints().get(top.charAt(0)) : null;
+        if (candidates != null) {
+            final String bottom = edge(pContent, false);
+            for (final Fingerprint fingerprint : candidates) {
+                if (fingerprint.matches(top, bottom)) {
+                    if (result != null) {
+                        ambiguousCounter.increment();
+                        return null;
+                    }
+                    result = fingerprint.design;
+                }
+            }
+        }
+        (result != null ? matchCounter : noneCounter).increment();
+        return result;
+    }
+
+
+
+    /**
+     * Find the first or last non-blank line of a text.
+     *
+     * @param pText the text
+     * @param pFirst <code>true</code> for the first line, <code>false</code> for the last
+     * @return the line without leading and trailing whitespace, or <code>null</code> if the text is blank
+     */
+    @Nullable
+    static String edge(@NonNull final String pText, final boolean pFirst)
+    {
+        if (pFirst) {
+            int start = 0;
+            while (start < pText.length()) {
+                final int newline = pText.indexOf('\n', start);
+                final int end = newline >= 0 ? newline : pText.length();
+                final String line = pText.substring(start, end).strip();
+                if (!line.isEmpty()) {
+                    return line;
+                }
+                start = end + 1;
+            }
+        }
+        else {
+            int end = pText.length();
+            while (end > 0) {
+                final int start = pText.lastIndexOf('\n', end - 1) + 1;
+                final String line = pText.substring(start, end).strip();
+                if (!line.isEmpty()) {
+                    return line;
+                }
+                end = start - 1;
+            }
+        }
+        return null;
+    }
+}
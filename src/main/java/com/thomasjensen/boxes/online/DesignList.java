@@ -15,47 +15,42 @@ package com.thomasjensen.boxes.online;
  * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
  */
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.function.BiPredicate;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 
 /**
- * Provides the list of supported box designs generated during build to the application.
+ * Provides the list of supported box designs generated during build to the application. The list is read from the
+ * binary {@link DesignCatalog} rather than from the JSON file, so that startup does not have to parse JSON, and the
+ * samples are only read when someone asks for them.
  */
 @Component
 public class DesignList
 {
-    /** the name of the generated JSON file, keep in sync with <code>DesignListTask#outFile</code> */
-    private static final String DESIGN_LIST_FILENAME = "box-designs.json";
+    private static final DesignCatalog CATALOG = readCatalog();
 
-    private static final Map<String, BoxDesign> DESIGN_LIST = readDesignList();
 
 
-
-    private static Map<String, BoxDesign> readDesignList()
+    private static DesignCatalog readCatalog()
     {
-        try (
-            InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(DESIGN_LIST_FILENAME);
-            BufferedInputStream bis = new BufferedInputStream(Objects.requireNonNull(is)))
-        {
-            Map<String, BoxDesign> m = new ObjectMapper().readValue(bis, new TypeReference<Map<String, BoxDesign>>(){});
-            if (m == null || m.isEmpty()) {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            final DesignCatalog result = DesignCatalog.read(
+                () -> classLoader.getResourceAsStream(DesignCatalog.FILENAME));
+            if (result.size() == 0) {
                 throw new IllegalStateException("list of box designs is empty");
             }
-            return m;
-        }
-        catch (NullPointerException e) {
-            throw new IllegalStateException("file not found: " + DESIGN_LIST_FILENAME, e);
+            return result;
         }
-        catch (IOException | RuntimeException e) {
+        catch (IOException e) {
             throw new IllegalStateException("error reading list of box designs", e);
         }
     }
@@ -66,7 +61,57 @@ public class DesignList
     {
         boolean result = false;
         if (pDesignName != null) {
-            result = DESIGN_LIST.containsKey(pDesignName);
+            result = CATALOG.indexOf(pDesignName) >= 0;
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Select designs from the list.
+     *
+     * @param pFilter decides by design name and design whether to include a design; the design does not include its
+     *     sample
+     * @param pLimit max. number of designs to return
+     * @return the names of the selected designs, in the order of the list
+     */
+    @NonNull
+    public List<String> select(@NonNull final BiPredicate<String, BoxDesign> pFilter, final int pLimit)
+    {
+        final List<String> result = new ArrayList<>();
+        for (int i = 0; i < CATALOG.size(); i++) {
+            if (result.size() >= pLimit) {
+                break;
+            }
+            if (pFilter.test(CATALOG.getName(i), CATALOG.getDesign(i))) {
+                result.add(CATALOG.getName(i));
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * Get the samples of all designs which have one. The first call reads them from the catalog.
+     *
+     * @return map of design name to sample, in the order of the list
+     */
+    @NonNull
+    public Map<String, String> getSamples()
+    {
+        final Map<String, String> result = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < CATALOG.size(); i++) {
+                final String sample = CATALOG.getSample(i);
+                if (sample != null) {
+                    result.put(CATALOG.getName(i), sample);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("error reading box design samples", e);
         }
         return result;
     }
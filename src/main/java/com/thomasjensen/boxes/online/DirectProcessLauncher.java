@@ -0,0 +1,201 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.zeroturnaround.exec.InvalidExitValueException;
+import org.zeroturnaround.exec.ProcessOutput;
+import org.zeroturnaround.exec.ProcessResult;
+import org.zeroturnaround.exec.stop.ProcessStopper;
+
+
+/**
+ * Launches processes without creating any threads per execution. The calling thread writes the input, drains the
+ * output and waits for the process to exit. Only inputs too large to be written without blocking are handed to a
+ * pool of shared I/O threads, so that the calling thread can drain the output concurrently. The pool has as many
+ * threads as processes may run at the same time, so no write ever waits for another one, and idle threads go away.
+ * The output is read straight into the caller's pooled buffer. Timeouts are enforced by the shared
+ * {@link HashedWheelWatchdog}, which stops overdue processes; stopping a process closes its output, which unblocks
+ * the calling thread.
+ * <p>The semantics match {@link ZtExecProcessLauncher} with <code>exitValueNormal()</code>: standard error is merged
+ * into standard output, a non-zero exit value results in an {@link InvalidExitValueException}, and an overdue process
+ * is stopped via the given {@link ProcessStopper} and reported as a {@link TimeoutException}.</p>
+ */
+public class DirectProcessLauncher
+    implements ProcessLauncher
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DirectProcessLauncher.class);
+
+    /** POSIX guarantees that a pipe holds at least this many bytes, so writing this much to a fresh pipe can't block */
+    static final int PIPE_BUF = 4096;
+
+    /** how long an idle I/O thread is kept */
+    private static final long IO_THREAD_KEEP_ALIVE_SECS = 60L;
+
+    /** free space to have in the output buffer before each read */
+    private static final int READ_CHUNK = 1024;
+
+    private final ProcessStopper stopper;
+
+    private final ExecutorService ioExecutor;
+
+    private final HashedWheelWatchdog watchdog;
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param pStopper stops overdue processes
+     * @param pWatchdog enforces the timeouts
+     * @param pThreadFactory the thread factory for the I/O threads
+     * @param pIoThreads the max. number of I/O threads, which should be the max. number of concurrent processes
+     */
+    public DirectProcessLauncher(@NonNull final ProcessStopper pStopper, @NonNull final HashedWheelWatchdog pWatchdog,
+        @NonNull final ThreadFactory pThreadFactory, final int pIoThreads)
+    {
+        Assert.isTrue(pIoThreads > 0, "pIoThreads must be positive");
+        stopper = pStopper;
+        watchdog = pWatchdog;
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(pIoThreads, pIoThreads,
+            IO_THREAD_KEEP_ALIVE_SECS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), pThreadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        ioExecutor = executor;
+    }
+
+
+
+    @Override
+    public void launch(@NonNull final List<String> pCmdLine, @NonNull final byte[] pInput, final int pInputLength,
+        @NonNull final PooledOutputStream pOutput, final long pTimeoutNanos,
+        @NonNull final StartListener pStartListener)
+        throws IOException, InterruptedException, TimeoutException
+    {
+        final Process process = new ProcessBuilder(pCmdLine).redirectErrorStream(true).start();
+        final AtomicBoolean timedOut = new AtomicBoolean(false);
+        final HashedWheelWatchdog.Timeout timeout = watchdog.schedule(() -> {
+            timedOut.set(true);
+            stopper.stop(process);
+        }, pTimeoutNanos, TimeUnit.NANOSECONDS);
+        CompletableFuture<Void> writer = null;
+        try {
+            pStartListener.started(process);
+            writer = writeInput(process, pInput, pInputLength);
+            readFully(process.getInputStream(), pOutput, timedOut);
+            pStartListener.outputClosed();
+            process.waitFor();
+            if (timedOut.get()) {
+                throw new TimeoutException("Timed out waiting for " + process + " to finish, timeout: "
+                    + TimeUnit.NANOSECONDS.toMillis(pTimeoutNanos) + " ms");
+            }
+            final int exitValue = process.exitValue();
+            if (exitValue != 0) {
+                throw new InvalidExitValueException("Unexpected exit value: " + exitValue + ", allowed exit values: [0]"
+                    + ", executed command " + pCmdLine,
+                    new ProcessResult(exitValue, new ProcessOutput(pOutput.toByteArray())));
+            }
+        }
+        finally {
+            timeout.cancel();
+            if (process.isAlive()) {
+                stopper.stop(process);   // we were interrupted or failed to talk to the process
+            }
+            process.getInputStream().close();
+            if (writer != null) {
+                writer.join();   // the process is gone, so this is quick; the caller may reuse the input buffer after
+            }
+        }
+    }
+
+
+
+    @Nullable
+    private CompletableFuture<Void> writeInput(@NonNull final Process pProcess, @NonNull final byte[] pInput,
+        final int pLength)
+    {
+        if (pLength <= PIPE_BUF) {
+            write(pProcess.getOutputStream(), pInput, pLength);
+            return null;
+        }
+        return CompletableFuture.runAsync(() -> write(pProcess.getOutputStream(), pInput, pLength), ioExecutor);
+    }
+
+
+
+    private static void write(@NonNull final OutputStream pStdin, @NonNull final byte[] pInput, final int pLength)
+    {
+        try (OutputStream out = pStdin) {
+            out.write(pInput, 0, pLength);
+        }
+        catch (IOException e) {
+            // The process exited without reading all of its input. Its exit value tells us whether that is a problem.
+            LOG.debug("Failed to write process input: {}", e.getMessage());
+        }
+    }
+
+
+
+    private static void readFully(@NonNull final InputStream pStdout, @NonNull final PooledOutputStream pOutput,
+        @NonNull final AtomicBoolean pTimedOut)
+        throws IOException
+    {
+        try {
+            while (true) {
+                pOutput.reserve(READ_CHUNK);
+                final byte[] buffer = pOutput.getBuffer();
+                final int n = pStdout.read(buffer, pOutput.size(), buffer.length - pOutput.size());
+                if (n < 0) {
+                    break;
+                }
+                pOutput.advance(n);
+            }
+        }
+        catch (IOException e) {
+            if (!pTimedOut.get()) {
+                throw e;
+            }
+            // the stream was closed because we stopped the process
+        }
+    }
+
+
+
+    /**
+     * Stop the shared I/O threads.
+     */
+    @Override
+    public void shutdown()
+    {
+        ioExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,739 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * A persistent render cache made of append-only, memory-mapped segment files, so that an instance keeps its hit rate
+ * across restarts.
+ * <p>Each record consists of a header (magic number, payload length, CRC-32 of the payload, and the
+ * {@link RenderKey} hash) followed by the <i>boxes</i> output. Records are 8-byte aligned, and the magic number is
+ * written last with release semantics, so that a reader never sees a partially written record. The in-memory index is
+ * rebuilt by scanning the segments on startup. When the configured size is exceeded, the oldest segment is dropped in
+ * the background; records from it which were read since the last compaction are copied forward first. A dropped
+ * segment file which can't be deleted yet (Windows refuses while any process has it mapped) is marked as dropped, so
+ * that nobody indexes it again, and its deletion is retried later, also after a restart.</p>
+ * <p>The keys only cover the command line and the input, so the directory also holds a fingerprint of the
+ * <i>boxes</i> executable and its config file. When a new deployment changes either of them, the writer discards all
+ * segments on startup, and readers ignore the segments until the fingerprint matches theirs again.</p>
+ * <p>Only one process may write to a cache directory. Further processes on the same host can share the directory
+ * read-only; they periodically pick up new records.</p>
+ */
+@Component
+@ConditionalOnProperty(name = "boxes.diskcache.dir")
+public class DiskRenderStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DiskRenderStore.class);
+
+    private static final int MAGIC = 0xB0C5CA5E;
+
+    /** written over the first record of a dropped segment whose file could not be deleted */
+    private static final int DROPPED_MARK = 0xD0D0D0D0;
+
+    /** magic (4), payload length (4), CRC-32 (4), key hash (32), padding (4) */
+    private static final int HEADER_SIZE = 48;
+
+    private static final int LENGTH_OFFSET = 4;
+
+    private static final int CRC_OFFSET = 8;
+
+    private static final int KEY_OFFSET = 12;
+
+    private static final int KEY_SIZE = 32;
+
+    private static final int ALIGNMENT = 8;
+
+    private static final String FINGERPRINT_FILE = "fingerprint";
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{10})\\.dat");
+
+    private static final VarHandle INT_HANDLE = MethodHandles.byteBufferViewVarHandle(int[].class,
+        ByteOrder.BIG_ENDIAN);
+
+
+
+    /**
+     * One memory-mapped segment file.
+     */
+    private static final class Segment
+    {
+        private final long id;
+
+        private final Path path;
+
+        private final MappedByteBuffer buffer;
+
+        /** end of the last complete record seen or written */
+        private int end = 0;
+
+
+
+        private Segment(final long pId, @NonNull final Path pPath, @NonNull final MappedByteBuffer pBuffer)
+        {
+            id = pId;
+            path = pPath;
+            buffer = pBuffer;
+        }
+    }
+
+
+
+    /**
+     * Deletes files. Replaced in tests to simulate files which can't be deleted.
+     */
+    @FunctionalInterface
+    interface FileDeleter
+    {
+        void delete(@NonNull Path pPath)
+            throws IOException;
+    }
+
+
+
+    /**
+     * Where a record is stored.
+     */
+    private static final class Location
+    {
+        private final Segment segment;
+
+        /** offset of the record header in the segment */
+        private final int offset;
+
+        /** set when the record is read, so that compaction keeps it */
+        private volatile boolean referenced = false;
+
+
+
+        private Location(@NonNull final Segment pSegment, final int pOffset)
+        {
+            segment = pSegment;
+            offset = pOffset;
+        }
+    }
+
+
+
+    private final Path directory;
+
+    private final int segmentBytes;
+
+    private final int maxSegments;
+
+    private final boolean readOnly;
+
+    /** fingerprint of the <i>boxes</i> executable and config file which produced the records */
+    private final String fingerprint;
+
+    private final FileDeleter deleter;
+
+    private final ConcurrentMap<RenderKey, Location> index = new ConcurrentHashMap<>();
+
+    /** all segments by ID, oldest first; guarded by <code>this</code> */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /** files of dropped segments which could not be deleted yet; guarded by <code>this</code> */
+    private final List<Path> pendingDeletes = new ArrayList<>();
+
+    /** never reuses the ID of a segment file which still exists; guarded by <code>this</code> */
+    private long nextSegmentId = 0L;
+
+    @Nullable
+    private FileChannel lockChannel = null;
+
+    @Nullable
+    private FileLock writerLock = null;
+
+    @Nullable
+    private ScheduledExecutorService refresher = null;
+
+    /** drops old segments, so that requests never wait for it */
+    @Nullable
+    private ExecutorService compactor = null;
+
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+
+
+
+    public DiskRenderStore(@Value("${boxes.diskcache.dir}") final String pDirectory,
+        @Value("${boxes.diskcache.max-bytes:268435456}") final long pMaxBytes,
+        @Value("${boxes.diskcache.segment-bytes:16777216}") final int pSegmentBytes,
+        @Value("${boxes.diskcache.read-only:false}") final boolean pReadOnly,
+        @Value("${boxes.diskcache.refresh-secs:5}") final long pRefreshSecs)
+        throws IOException
+    {
+        this(pDirectory, pMaxBytes, pSegmentBytes, pReadOnly, pRefreshSecs,
+            fingerprint(Paths.get(CommandLineBuilder.BOXES_EXECUTABLE), Paths.get(CommandLineBuilder.BOXES_CONFIG)),
+            Files::deleteIfExists);
+    }
+
+
+
+    DiskRenderStore(@NonNull final String pDirectory, final long pMaxBytes, final int pSegmentBytes,
+        final boolean pReadOnly, final long pRefreshSecs, @NonNull final String pFingerprint,
+        @NonNull final FileDeleter pDeleter)
+        throws IOException
+    {
+        Assert.isTrue(pSegmentBytes > HEADER_SIZE, "boxes.diskcache.segment-bytes is too small");
+        Assert.isTrue(pMaxBytes >= 2L * pSegmentBytes, "boxes.diskcache.max-bytes must hold at least two segments");
+        directory = Paths.get(pDirectory);
+        segmentBytes = pSegmentBytes;
+        maxSegments = (int) Math.min(Integer.MAX_VALUE, pMaxBytes / pSegmentBytes);
+        Files.createDirectories(directory);
+        readOnly = pReadOnly || !acquireWriterLock();
+        fingerprint = pFingerprint;
+        deleter = pDeleter;
+
+        if (!readOnly) {
+            discardIfStale();
+            compactor = Executors.newSingleThreadExecutor(pRunnable -> {
+                final Thread thread = new Thread(pRunnable, "boxes-diskcache-compact");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        scan();
+        if (readOnly) {
+            refresher = Executors.newSingleThreadScheduledExecutor(pRunnable -> {
+                final Thread thread = new Thread(pRunnable, "boxes-diskcache-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            refresher.scheduleWithFixedDelay(this::refresh, pRefreshSecs, pRefreshSecs, TimeUnit.SECONDS);
+        }
+        else {
+            deletePending();
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Disk render cache opened " + (readOnly ? "read-only" : "read-write") + " in " + directory
+                + " with " + index.size() + " entries in " + segments.size() + " segments");
+        }
+    }
+
+
+
+    /**
+     * Compute the fingerprint of the files which determine the output of <i>boxes</i>.
+     *
+     * @param pFiles the executable and the config file
+     * @return a hex string which changes when any of the files changes
+     * @throws IOException a file exists, but could not be read
+     */
+    @NonNull
+    static String fingerprint(@NonNull final Path... pFiles)
+        throws IOException
+    {
+        final MessageDigest digest = RenderKey.newDigest();
+        for (final Path file : pFiles) {
+            digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            if (Files.isRegularFile(file)) {
+                digest.update(Files.readAllBytes(file));
+            }
+            digest.update((byte) 0);
+        }
+        return RenderKey.toHex(digest.digest());
+    }
+
+
+
+    @Nullable
+    private String readFingerprint()
+        throws IOException
+    {
+        final Path file = directory.resolve(FINGERPRINT_FILE);
+        return Files.isRegularFile(file) ? Files.readString(file, StandardCharsets.US_ASCII).strip() : null;
+    }
+
+
+
+    /**
+     * Delete all segments if they were written by a different executable or config file, and record ours.
+     */
+    private void discardIfStale()
+        throws IOException
+    {
+        if (fingerprint.equals(readFingerprint())) {
+            return;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (final Path path : stream) {
+                drop(path);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            LOG.info("Disk render cache in " + directory + " was written by a different boxes executable or config, "
+                + "discarded " + deleted + " segments");
+        }
+        final Path temp = directory.resolve(FINGERPRINT_FILE + ".tmp");
+        Files.writeString(temp, fingerprint, StandardCharsets.US_ASCII);
+        Files.move(temp, directory.resolve(FINGERPRINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+
+    private boolean acquireWriterLock()
+        throws IOException
+    {
+        lockChannel = FileChannel.open(directory.resolve("writer.lock"), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+        writerLock = lockChannel.tryLock();
+        if (writerLock == null) {
+            LOG.warn("Another process is writing to the disk render cache in " + directory + ", opening read-only");
+            lockChannel.close();
+            lockChannel = null;
+            return false;
+        }
+        return true;
+    }
+
+
+
+    /**
+     * Look up a render result.
+     *
+     * @param pKey the key of the result
+     * @return the <i>boxes</i> output, or <code>null</code> if it is not in the cache or failed its checksum
+     */
+    @Nullable
+    public byte[] get(@NonNull final RenderKey pKey)
+    {
+        final Location location = index.get(pKey);
+        if (location == null) {
+            return null;
+        }
+        final byte[] result = readPayload(location);
+        if (result == null) {
+            LOG.warn("Disk render cache entry " + pKey + " failed its checksum, discarding it");
+            index.remove(pKey, location);
+            return null;
+        }
+        location.referenced = true;
+        return result;
+    }
+
+
+
+    @Nullable
+    private static byte[] readPayload(@NonNull final Location pLocation)
+    {
+        final ByteBuffer buffer = pLocation.segment.buffer;
+        final int length = buffer.getInt(pLocation.offset + LENGTH_OFFSET);
+        final int expectedCrc = buffer.getInt(pLocation.offset + CRC_OFFSET);
+        final ByteBuffer payload = buffer.duplicate();
+        payload.position(pLocation.offset + HEADER_SIZE).limit(pLocation.offset + HEADER_SIZE + length);
+        final CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            return null;
+        }
+        final byte[] result = new byte[length];
+        payload.get(result);
+        return result;
+    }
+
+
+
+    /**
+     * Add a render result to the cache. Does nothing if the cache is read-only or already has the result.
+     *
+     * @param pKey the key of the result
+     * @param pPayload the <i>boxes</i> output
+     */
+    public void put(@NonNull final RenderKey pKey, @NonNull final byte[] pPayload)
+    {
+        if (readOnly || index.containsKey(pKey) || align(HEADER_SIZE + pPayload.length) > segmentBytes) {
+            return;
+        }
+        final boolean compactionDue;
+        try {
+            synchronized (this) {
+                final long activeBefore = segments.isEmpty() ? -1L : segments.lastKey();
+                append(pKey, pPayload);
+                compactionDue = segments.size() > maxSegments
+                    || (!pendingDeletes.isEmpty() && segments.lastKey() != activeBefore);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.error("Failed to write to disk render cache: " + e.getMessage(), e);
+            return;
+        }
+        if (compactionDue && compactor != null && compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(this::compact);
+        }
+    }
+
+
+
+    private static int align(final int pSize)
+    {
+        return (pSize + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+
+
+    private void append(@NonNull final RenderKey pKey, @NonNull final byte[] pPayload)
+        throws IOException
+    {
+        final int recordSize = align(HEADER_SIZE + pPayload.length);
+        Segment active = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (active == null || active.end + recordSize > segmentBytes) {
+            if (active != null) {
+                active.buffer.force();
+            }
+            active = createSegment(nextSegmentId++);
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(pPayload);
+        final int offset = active.end;
+        final ByteBuffer record = active.buffer.duplicate();
+        record.position(offset + LENGTH_OFFSET);
+        record.putInt(pPayload.length);
+        record.putInt((int) crc.getValue());
+        record.put(pKey.getHash());
+        record.position(offset + HEADER_SIZE);
+        record.put(pPayload);
+        INT_HANDLE.setRelease(active.buffer, offset, MAGIC);
+
+        active.end = offset + recordSize;
+        index.put(pKey, new Location(active, offset));
+    }
+
+
+
+    private Segment createSegment(final long pId)
+        throws IOException
+    {
+        final Path path = directory.resolve(String.format("segment-%010d.dat", pId));
+        final Segment result;
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentBytes);
+            result = new Segment(pId, path, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, segmentBytes));
+        }
+        segments.put(pId, result);
+        return result;
+    }
+
+
+
+    /**
+     * Drop the oldest segments while we are over budget, copying forward the records which have been read since they
+     * were written or last copied. Runs on the compactor thread, and only holds the lock for one record at a time.
+     * Until a record has been copied, its old location remains valid, because the mapping outlives the file. Also
+     * retries deleting the files of segments dropped earlier.
+     */
+    private void compact()
+    {
+        compactionScheduled.set(false);
+        deletePending();
+        try {
+            while (true) {
+                final Segment oldest;
+                synchronized (this) {
+                    if (segments.size() <= maxSegments) {
+                        return;
+                    }
+                    oldest = segments.remove(segments.firstKey());
+                }
+                int copied = 0;
+                for (final Map.Entry<RenderKey, Location> entry : index.entrySet()) {
+                    final Location location = entry.getValue();
+                    if (location.segment == oldest) {
+                        final byte[] payload = location.referenced ? readPayload(location) : null;
+                        if (payload != null) {
+                            synchronized (this) {
+                                append(entry.getKey(), payload);
+                            }
+                            copied++;
+                        }
+                        else {
+                            index.remove(entry.getKey(), location);
+                        }
+                    }
+                }
+                drop(oldest.path);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Disk render cache dropped segment " + oldest.path.getFileName() + ", copied forward "
+                        + copied + " entries");
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.error("Failed to compact disk render cache: " + e.getMessage(), e);
+        }
+    }
+
+
+
+    /**
+     * Delete the file of a dropped segment. If that fails, the file is marked as dropped, and deleting it is retried
+     * later.
+     *
+     * @param pPath the segment file
+     * @throws IOException the file could neither be deleted nor marked
+     */
+    private void drop(@NonNull final Path pPath)
+        throws IOException
+    {
+        try {
+            deleter.delete(pPath);
+            return;
+        }
+        catch (IOException e) {
+            LOG.warn("Could not delete disk render cache segment " + pPath + " yet, will retry: " + e);
+        }
+        synchronized (this) {
+            pendingDeletes.add(pPath);
+        }
+        try (FileChannel channel = FileChannel.open(pPath, StandardOpenOption.WRITE)) {
+            final ByteBuffer mark = ByteBuffer.allocate(Integer.BYTES).putInt(0, DROPPED_MARK);
+            while (mark.hasRemaining()) {
+                channel.write(mark, mark.position());
+            }
+            channel.force(false);
+        }
+    }
+
+
+
+    /**
+     * Retry deleting the files of dropped segments. The lock is not held while deleting.
+     */
+    private void deletePending()
+    {
+        final List<Path> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(pendingDeletes);
+        }
+        for (final Path path : paths) {
+            try {
+                deleter.delete(path);
+                synchronized (this) {
+                    pendingDeletes.remove(path);
+                }
+            }
+            catch (IOException e) {
+                LOG.debug("Still could not delete disk render cache segment {}: {}", path, e.toString());
+            }
+        }
+    }
+
+
+
+    private static boolean isDropped(@NonNull final Segment pSegment)
+    {
+        return (int) INT_HANDLE.getAcquire(pSegment.buffer, 0) == DROPPED_MARK;
+    }
+
+
+
+    /**
+     * Wait until the compactions scheduled so far have finished. For tests.
+     */
+    void awaitCompaction()
+        throws InterruptedException, ExecutionException
+    {
+        if (compactor != null) {
+            compactor.submit(() -> { }).get();
+        }
+    }
+
+
+
+    /**
+     * Read the segment files and index all complete records which we have not seen yet.
+     */
+    private synchronized void scan()
+        throws IOException
+    {
+        if (readOnly && !fingerprint.equals(readFingerprint())) {
+            if (!segments.isEmpty()) {
+                LOG.info("Disk render cache in " + directory + " was written by a different boxes executable or "
+                    + "config, ignoring it");
+            }
+            segments.clear();
+            index.clear();
+            return;
+        }
+
+        final TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.dat")) {
+            for (final Path path : stream) {
+                final Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    files.put(Long.parseLong(matcher.group(1)), path);
+                }
+            }
+        }
+
+        // forget segments which the writer has dropped
+        for (final Segment gone : new ArrayList<>(segments.values())) {
+            if (!files.containsKey(gone.id) || isDropped(gone)) {
+                segments.remove(gone.id);
+                index.values().removeIf(location -> location.segment == gone);
+            }
+        }
+
+        for (final Map.Entry<Long, Path> file : files.entrySet()) {
+            nextSegmentId = Math.max(nextSegmentId, file.getKey() + 1);
+            Segment segment = segments.get(file.getKey());
+            if (segment == null) {
+                segment = mapExisting(file.getKey(), file.getValue());
+                if (segment == null) {
+                    continue;
+                }
+                if (isDropped(segment)) {
+                    if (!readOnly && !pendingDeletes.contains(segment.path)) {
+                        pendingDeletes.add(segment.path);
+                    }
+                    continue;
+                }
+                segments.put(segment.id, segment);
+            }
+            scanRecords(segment);
+        }
+    }
+
+
+
+    @Nullable
+    private Segment mapExisting(final long pId, @NonNull final Path pPath)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(pPath, readOnly ? new StandardOpenOption[]{StandardOpenOption.READ}
+            : new StandardOpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE}))
+        {
+            if (channel.size() != segmentBytes) {
+                LOG.warn("Ignoring disk render cache segment " + pPath + " because its size does not match "
+                    + "boxes.diskcache.segment-bytes");
+                return null;
+            }
+            return new Segment(pId, pPath, channel.map(readOnly ? FileChannel.MapMode.READ_ONLY
+                : FileChannel.MapMode.READ_WRITE, 0L, segmentBytes));
+        }
+    }
+
+
+
+    private void scanRecords(@NonNull final Segment pSegment)
+    {
+        final ByteBuffer buffer = pSegment.buffer;
+        int offset = pSegment.end;
+        while (offset + HEADER_SIZE <= segmentBytes && (int) INT_HANDLE.getAcquire(buffer, offset) == MAGIC) {
+            final int length = buffer.getInt(offset + LENGTH_OFFSET);
+            final int recordSize = align(HEADER_SIZE + length);
+            if (length < 0 || offset + recordSize > segmentBytes) {
+                break;
+            }
+            final byte[] hash = new byte[KEY_SIZE];
+            final ByteBuffer keyBuffer = buffer.duplicate();
+            keyBuffer.position(offset + KEY_OFFSET);
+            keyBuffer.get(hash);
+            index.put(RenderKey.fromHash(hash), new Location(pSegment, offset));
+            offset += recordSize;
+        }
+        pSegment.end = offset;
+    }
+
+
+
+    private void refresh()
+    {
+        try {
+            scan();
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to refresh disk render cache: " + e.getMessage(), e);
+        }
+    }
+
+
+
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+
+
+    @PreDestroy
+    public synchronized void close()
+        throws IOException
+    {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+        if (!segments.isEmpty() && !readOnly) {
+            segments.lastEntry().getValue().buffer.force();
+        }
+        if (writerLock != null) {
+            writerLock.release();
+        }
+        if (lockChannel != null) {
+            lockChannel.close();
+        }
+    }
+}
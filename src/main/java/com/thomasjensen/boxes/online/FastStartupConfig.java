@@ -0,0 +1,83 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.NonNull;
+
+
+/**
+ * Settings for the <code>fast-startup</code> profile. All beans which are not on the request path are initialized
+ * lazily, i.e. when first used, and not during startup. Our own beans are all on the request path, so they stay
+ * eager, as do Spring's infrastructure beans.
+ */
+@Configuration
+@Profile("fast-startup")
+public class FastStartupConfig
+{
+    /** beans whose class is in this package are created eagerly */
+    private static final String HOT_PATH_PACKAGE = FastStartupConfig.class.getPackage().getName() + '.';
+
+
+
+    /**
+     * Makes bean definitions lazy.
+     */
+    static class LazyInitBeanFactoryPostProcessor
+        implements BeanFactoryPostProcessor
+    {
+        @Override
+        public void postProcessBeanFactory(@NonNull final ConfigurableListableBeanFactory pBeanFactory)
+        {
+            for (final String name : pBeanFactory.getBeanDefinitionNames()) {
+                final BeanDefinition definition = pBeanFactory.getBeanDefinition(name);
+                if (definition.getRole() == BeanDefinition.ROLE_APPLICATION
+                    && !isHotPath(pBeanFactory, definition))
+                {
+                    definition.setLazyInit(true);
+                }
+            }
+        }
+
+
+
+        private static boolean isHotPath(@NonNull final ConfigurableListableBeanFactory pBeanFactory,
+            @NonNull final BeanDefinition pDefinition)
+        {
+            String className = pDefinition.getBeanClassName();
+            if (className == null && pDefinition.getFactoryBeanName() != null
+                && pBeanFactory.containsBeanDefinition(pDefinition.getFactoryBeanName()))
+            {
+                // a @Bean method, so look at the configuration class which declares it
+                className = pBeanFactory.getBeanDefinition(pDefinition.getFactoryBeanName()).getBeanClassName();
+            }
+            return className != null && className.startsWith(HOT_PATH_PACKAGE);
+        }
+    }
+
+
+
+    @Bean
+    public static BeanFactoryPostProcessor lazyInitBeanFactoryPostProcessor()
+    {
+        return new LazyInitBeanFactoryPostProcessor();
+    }
+}
@@ -0,0 +1,63 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Asks for the comment blocks of a source file to be boxed. The content of the invocation is the whole file, and its
+ * design and options apply to every comment block. The language tells how comments look.
+ */
+public class FileRequest
+{
+    @JsonProperty
+    private Invocation invocation;
+
+    @JsonProperty
+    private String language;
+
+
+
+    @Nullable
+    public Invocation getInvocation()
+    {
+        return invocation;
+    }
+
+
+
+    public void setInvocation(@Nullable final Invocation pInvocation)
+    {
+        invocation = pInvocation;
+    }
+
+
+
+    @Nullable
+    public String getLanguage()
+    {
+        return language;
+    }
+
+
+
+    public void setLanguage(@Nullable final String pLanguage)
+    {
+        language = pLanguage;
+    }
+}
@@ -0,0 +1,198 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Boxes the comment blocks of a whole source file. The blocks are found by {@link CommentBlocks}, rendered in
+ * parallel, and spliced back into the file, which is streamed back in order. So a file takes about as long as its
+ * slowest block, not as long as all of them together. At most <code>boxes.file.parallelism</code> blocks of a file are
+ * rendered at the same time; the next one is started as soon as the oldest one has been written.
+ * <p>Output is written as soon as the segments before it are complete. If a block fails before any output has been
+ * sent, the whole request fails with the status <code>/draw</code> would have had. If output has been sent already,
+ * the failed block is left as it was, and the failure is logged.</p>
+ */
+@RestController
+@Profile("!reactive")
+public class FileRestService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FileRestService.class);
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+    private final int maxChars;
+
+    private final int maxBlocks;
+
+    private final int parallelism;
+
+
+
+    @Autowired
+    public FileRestService(@NonNull final BoxesRunnerService pBoxesRunnerService, @NonNull final Validator pValidator,
+        @Value("${boxes.file.max-chars:1048576}") final int pMaxChars,
+        @Value("${boxes.file.max-blocks:1000}") final int pMaxBlocks,
+        @Value("${boxes.file.parallelism:8}") final int pParallelism)
+    {
+        super();
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.isTrue(pMaxChars > 0, "boxes.file.max-chars must be positive");
+        Assert.isTrue(pMaxBlocks > 0, "boxes.file.max-blocks must be positive");
+        Assert.isTrue(pParallelism > 0, "boxes.file.parallelism must be positive");
+        maxChars = pMaxChars;
+        maxBlocks = pMaxBlocks;
+        parallelism = pParallelism;
+    }
+
+
+
+    @PostMapping(value = "/draw/file", consumes = MediaType.APPLICATION_JSON_VALUE,
+        produces = MediaType.TEXT_PLAIN_VALUE)
+    public void drawFile(@NonNull @RequestBody final FileRequest pRequest, @NonNull final HttpServletResponse pResponse)
+        throws IOException, InterruptedException
+    {
+        final List<CommentBlocks.Segment> segments;
+        final List<String> cmdLine;
+        try {
+            final Invocation invocation = pRequest.getInvocation();
+            if (invocation == null || invocation.getContent() == null) {
+                throw new InvalidInvocationException("no file content specified");
+            }
+            if (invocation.getContent().length() > maxChars) {
+                throw new InvalidInvocationException("file is longer than " + maxChars + " characters");
+            }
+            final CommentBlocks.Style style = CommentBlocks.Style.forLanguage(pRequest.getLanguage());
+            if (style == null) {
+                throw new InvalidInvocationException("unknown language: " + pRequest.getLanguage());
+            }
+            validator.validateOptions(invocation);
+            cmdLine = new CommandLineBuilder(invocation).build();
+            segments = CommentBlocks.split(invocation.getContent(), style);
+            if (segments.stream().filter(CommentBlocks.Segment::isComment).count() > maxBlocks) {
+                throw new InvalidInvocationException("file has more than " + maxBlocks + " comment blocks");
+            }
+        }
+        catch (InvalidInvocationException e) {
+            writeError(pResponse, HttpStatus.BAD_REQUEST, "bad request: " + e.getMessage());
+            return;
+        }
+
+        pResponse.setStatus(HttpStatus.OK.value());
+        pResponse.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        pResponse.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        final Writer writer = pResponse.getWriter();
+
+        // The blocks must not record their phases in the request's trace, which would grow with the file.
+        final BoxesRequestContext outer = BoxesRequestContext.current();
+        BoxesRequestContext.bind(new BoxesRequestContext(outer.getClientId()));
+        try {
+            final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>(parallelism);
+            int submitted = 0;
+            for (final CommentBlocks.Segment segment : segments) {
+                while (submitted < segments.size() && pending.size() < parallelism) {
+                    final String comment = segments.get(submitted++).getComment();
+                    if (comment != null) {
+                        pending.add(boxesRunnerService.submit(cmdLine, comment));
+                    }
+                }
+                if (segment.getComment() == null) {
+                    writer.write(segment.getOriginal());
+                    continue;
+                }
+                final String text = awaitBox(pending.poll(), segment, pResponse);
+                if (text == null) {
+                    return;   // the error response has been sent
+                }
+                writer.write(text);
+                writer.flush();
+            }
+        }
+        finally {
+            BoxesRequestContext.bind(outer);
+        }
+    }
+
+
+
+    /**
+     * Wait for the box of a comment block.
+     *
+     * @return the text to put into the file, or <code>null</code> if the box failed and an error was sent instead
+     */
+    @Nullable
+    private String awaitBox(@NonNull final CompletableFuture<String> pBox,
+        @NonNull final CommentBlocks.Segment pSegment, @NonNull final HttpServletResponse pResponse)
+        throws IOException, InterruptedException
+    {
+        try {
+            return pSegment.splice(pBox.get());
+        }
+        catch (ExecutionException e) {
+            final Throwable cause = NdjsonWriter.unwrap(e);
+            final HttpStatus status = NdjsonWriter.statusOf(cause);
+            if (!pResponse.isCommitted()) {
+                pResponse.resetBuffer();
+                writeError(pResponse, status,
+                    "comment block at line " + pSegment.getLine() + ": " + cause.getMessage());
+                return null;
+            }
+            LOG.warn("Failed to box comment block at line {}, leaving it as it is: {}", pSegment.getLine(),
+                cause.getMessage());
+            return pSegment.getOriginal();
+        }
+    }
+
+
+
+    private static void writeError(@NonNull final HttpServletResponse pResponse, @NonNull final HttpStatus pStatus,
+        @NonNull final String pMessage)
+        throws IOException
+    {
+        pResponse.setStatus(pStatus.value());
+        pResponse.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        pResponse.getWriter().write(pMessage);
+    }
+}
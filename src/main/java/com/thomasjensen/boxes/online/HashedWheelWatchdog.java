@@ -0,0 +1,322 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * One shared timer for all the timeouts of <i>boxes</i> executions: running processes which must be stopped, and
+ * waiters which must be failed. Timeouts are kept in a hashed wheel driven by a single thread, so scheduling and
+ * cancelling are O(1), and each tick only looks at the timeouts in one bucket. Almost all timeouts are cancelled
+ * before they fire, which costs nothing but a flag and a queue entry.
+ * <p>Timeouts fire up to one tick late. The tasks run on the watchdog thread, so they must be short.</p>
+ */
+@Component
+public class HashedWheelWatchdog
+{
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelWatchdog.class);
+
+    private static final int WHEEL_SIZE = 512;
+
+    private final long tickNanos;
+
+    private final Bucket[] wheel = new Bucket[WHEEL_SIZE];
+
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+    private final long startNanos;
+
+    private final Thread worker;
+
+    private volatile boolean running = true;
+
+    /** only accessed by the worker thread */
+    private long tick = 0L;
+
+
+
+    /**
+     * A scheduled task which can be cancelled.
+     */
+    public static final class Timeout
+    {
+        private static final int ST_INIT = 0;
+
+        private static final int ST_CANCELLED = 1;
+
+        private static final int ST_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final HashedWheelWatchdog watchdog;
+
+        private final Runnable task;
+
+        private final long deadlineNanos;
+
+        private volatile int state = ST_INIT;
+
+        /* the following are only accessed by the worker thread */
+
+        private long remainingRounds;
+
+        private Bucket bucket;
+
+        private Timeout next;
+
+        private Timeout prev;
+
+
+
+        private Timeout(@NonNull final HashedWheelWatchdog pWatchdog, @NonNull final Runnable pTask,
+            final long pDeadlineNanos)
+        {
+            watchdog = pWatchdog;
+            task = pTask;
+            deadlineNanos = pDeadlineNanos;
+        }
+
+
+
+        /**
+         * Cancel the timeout, unless it has already fired.
+         *
+         * @return <code>true</code> if the task will not run
+         */
+        public boolean cancel()
+        {
+            if (STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                watchdog.cancelled.add(this);
+                return true;
+            }
+            return state == ST_CANCELLED;
+        }
+
+
+
+        public boolean isExpired()
+        {
+            return state == ST_EXPIRED;
+        }
+
+
+
+        private void expire()
+        {
+            if (STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException e) {
+                    LOG.error("Watchdog task failed: {}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+
+
+    /**
+     * A doubly linked list of timeouts, so that cancelled timeouts can be removed in O(1).
+     */
+    private static final class Bucket
+    {
+        private Timeout head;
+
+        private Timeout tail;
+
+
+
+        void add(@NonNull final Timeout pTimeout)
+        {
+            pTimeout.bucket = this;
+            if (head == null) {
+                head = pTimeout;
+                tail = pTimeout;
+            }
+            else {
+                tail.next = pTimeout;
+                pTimeout.prev = tail;
+                tail = pTimeout;
+            }
+        }
+
+
+
+        Timeout remove(@NonNull final Timeout pTimeout)
+        {
+            final Timeout next = pTimeout.next;
+            if (pTimeout.prev != null) {
+                pTimeout.prev.next = next;
+            }
+            if (pTimeout.next != null) {
+                pTimeout.next.prev = pTimeout.prev;
+            }
+            if (pTimeout == head) {
+                head = next;
+            }
+            if (pTimeout == tail) {
+                tail = pTimeout.prev;
+            }
+            pTimeout.prev = null;
+            pTimeout.next = null;
+            pTimeout.bucket = null;
+            return next;
+        }
+
+
+
+        void expire(final long pNowNanos)
+        {
+            Timeout timeout = head;
+            while (timeout != null) {
+                if (timeout.remainingRounds <= 0 && timeout.deadlineNanos - pNowNanos <= 0L) {
+                    final Timeout next = remove(timeout);
+                    timeout.expire();
+                    timeout = next;
+                }
+                else if (timeout.state == Timeout.ST_CANCELLED) {
+                    timeout = remove(timeout);
+                }
+                else {
+                    timeout.remainingRounds--;
+                    timeout = timeout.next;
+                }
+            }
+        }
+    }
+
+
+
+    @Autowired
+    public HashedWheelWatchdog(@Value("${boxes.watchdog.tick-millis:50}") final long pTickMillis,
+        @NonNull final NamedThreadFactory pThreadFactory)
+    {
+        this(pTickMillis, (ThreadFactory) pThreadFactory);
+    }
+
+
+
+    public HashedWheelWatchdog(final long pTickMillis, @NonNull final ThreadFactory pThreadFactory)
+    {
+        Assert.isTrue(pTickMillis > 0, "boxes.watchdog.tick-millis must be positive");
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(pTickMillis);
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new Bucket();
+        }
+        startNanos = System.nanoTime();
+        worker = pThreadFactory.newThread(this::work);
+        worker.setName("boxes-watchdog");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+
+
+    /**
+     * Schedule a task.
+     *
+     * @param pTask the task, which runs on the watchdog thread
+     * @param pDelay delay after which to run the task
+     * @param pUnit unit of <code>pDelay</code>
+     * @return a handle for cancelling the task
+     */
+    @NonNull
+    public Timeout schedule(@NonNull final Runnable pTask, final long pDelay, @NonNull final TimeUnit pUnit)
+    {
+        final Timeout result = new Timeout(this, pTask, System.nanoTime() + pUnit.toNanos(pDelay));
+        pending.add(result);
+        return result;
+    }
+
+
+
+    private void work()
+    {
+        while (running) {
+            final long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            while (sleepNanos > 0L) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                sleepNanos = deadline - System.nanoTime();
+            }
+            removeCancelled();
+            transferPending();
+            final Bucket bucket = wheel[(int) (tick & (wheel.length - 1))];
+            bucket.expire(deadline);
+            tick++;
+        }
+    }
+
+
+
+    private void removeCancelled()
+    {
+        for (Timeout timeout = cancelled.poll(); timeout != null; timeout = cancelled.poll()) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+
+
+    private void transferPending()
+    {
+        for (Timeout timeout = pending.poll(); timeout != null; timeout = pending.poll()) {
+            if (timeout.state == Timeout.ST_CANCELLED) {
+                continue;
+            }
+            // the first tick whose end is not before the deadline
+            final long dueTick = Math.max((timeout.deadlineNanos - startNanos - 1L) / tickNanos, tick);
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            wheel[(int) (dueTick & (wheel.length - 1))].add(timeout);
+        }
+    }
+
+
+
+    @PreDestroy
+    public void stop()
+    {
+        running = false;
+        worker.interrupt();
+    }
+}
@@ -34,6 +34,9 @@ public class Invocation
     @JsonProperty
     private String design;
 
+    @JsonProperty
+    private CustomDesign customDesign;
+
     @JsonProperty
     private Padding padding;
 
@@ -228,6 +231,55 @@ public class Invocation
 
 
 
+    /**
+     * A box design which is not part of the shared config file, given either inline as a <code>BOX</code> definition
+     * in <i>boxes</i> config file syntax, or by the ID under which it was registered before. If present, it replaces
+     * the {@link #getDesign() design}.
+     */
+    public static class CustomDesign
+        implements Serializable
+    {
+        @Nullable
+        @JsonProperty
+        private String id;
+
+        @Nullable
+        @JsonProperty
+        private String definition;
+
+
+
+        @Nullable
+        public String getId()
+        {
+            return id;
+        }
+
+
+
+        public void setId(@Nullable final String pId)
+        {
+            id = pId;
+        }
+
+
+
+        @Nullable
+        public String getDefinition()
+        {
+            return definition;
+        }
+
+
+
+        public void setDefinition(@Nullable final String pDefinition)
+        {
+            definition = pDefinition;
+        }
+    }
+
+
+
     @Nullable
     public Alignment getAlignment()
     {
@@ -258,6 +310,21 @@ public class Invocation
 
 
 
+    @Nullable
+    public CustomDesign getCustomDesign()
+    {
+        return customDesign;
+    }
+
+
+
+    public void setCustomDesign(@Nullable final CustomDesign pCustomDesign)
+    {
+        customDesign = pCustomDesign;
+    }
+
+
+
     @Nullable
     public Padding getPadding()
     {
@@ -0,0 +1,162 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * A shared pool of byte arrays for feeding input to <i>boxes</i> processes and collecting their output. Buffers come
+ * in size classes which are powers of two, from {@value #MIN_BUFFER_BYTES} bytes up to
+ * <code>boxes.buffers.max-buffer-bytes</code>. Each class may keep an equal share of
+ * <code>boxes.buffers.max-pooled-bytes</code>, so the pool can't hoard memory. Larger buffers are allocated as
+ * needed and left to the garbage collector when released, as are buffers which don't fit into the pool.
+ */
+@Component
+public class IoBufferPool
+{
+    /** size of the smallest size class */
+    static final int MIN_BUFFER_BYTES = 1024;
+
+    private static final int MIN_BUFFER_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_BYTES);
+
+    private final int maxBufferBytes;
+
+    /** free buffers by size class */
+    private final List<ArrayBlockingQueue<byte[]>> classes;
+
+    private final AtomicLong pooledBytes = new AtomicLong(0L);
+
+    private final Counter allocatedCounter;
+
+
+
+    @Autowired
+    public IoBufferPool(@Value("${boxes.buffers.max-buffer-bytes:1048576}") final int pMaxBufferBytes,
+        @Value("${boxes.buffers.max-pooled-bytes:16777216}") final long pMaxPooledBytes,
+        @NonNull final MeterRegistry pMeterRegistry)
+    {
+        Assert.isTrue(pMaxBufferBytes >= MIN_BUFFER_BYTES && Integer.bitCount(pMaxBufferBytes) == 1,
+            "boxes.buffers.max-buffer-bytes must be a power of two of at least " + MIN_BUFFER_BYTES);
+        Assert.isTrue(pMaxPooledBytes >= 0L, "boxes.buffers.max-pooled-bytes must not be negative");
+        Assert.notNull(pMeterRegistry, "MeterRegistry not injected");
+        maxBufferBytes = pMaxBufferBytes;
+
+        final int numClasses = classOf(pMaxBufferBytes) + 1;
+        final List<ArrayBlockingQueue<byte[]>> queues = new ArrayList<>(numClasses);
+        for (int i = 0; i < numClasses; i++) {
+            final long capacity = pMaxPooledBytes / numClasses / ((long) MIN_BUFFER_BYTES << i);
+            queues.add(capacity > 0L ? new ArrayBlockingQueue<>((int) Math.min(capacity, Integer.MAX_VALUE)) : null);
+        }
+        classes = queues;
+
+        Gauge.builder("boxes.buffers.pooled", pooledBytes, AtomicLong::get)//
+            .description("bytes held in free I/O buffers")//
+            .baseUnit("bytes")//
+            .register(pMeterRegistry);
+        allocatedCounter = Counter.builder("boxes.buffers.allocated")//
+            .description("number of I/O buffers allocated because none was available in the pool")//
+            .register(pMeterRegistry);
+    }
+
+
+
+    private static int classOf(final int pLength)
+    {
+        return pLength <= MIN_BUFFER_BYTES ? 0
+            : Integer.SIZE - Integer.numberOfLeadingZeros(pLength - 1) - MIN_BUFFER_SHIFT;
+    }
+
+
+
+    /**
+     * Get a buffer of at least the given length. It may be longer.
+     *
+     * @param pMinLength the min. length
+     * @return the buffer, which must be {@link #release released} after use
+     */
+    @NonNull
+    public byte[] acquire(final int pMinLength)
+    {
+        if (pMinLength > maxBufferBytes) {
+            allocatedCounter.increment();
+            return new byte[pMinLength];
+        }
+        final int sizeClass = classOf(pMinLength);
+        final ArrayBlockingQueue<byte[]> queue = classes.get(sizeClass);
+        final byte[] result = queue != null ? queue.poll() : null;
+        if (result != null) {
+            pooledBytes.addAndGet(-result.length);
+            return result;
+        }
+        allocatedCounter.increment();
+        return new byte[MIN_BUFFER_BYTES << sizeClass];
+    }
+
+
+
+    /**
+     * Return a buffer to the pool. The caller must not use it anymore.
+     *
+     * @param pBuffer a buffer obtained from {@link #acquire}, or <code>null</code> to do nothing
+     */
+    public void release(@Nullable final byte[] pBuffer)
+    {
+        if (pBuffer == null || pBuffer.length > maxBufferBytes || pBuffer.length < MIN_BUFFER_BYTES
+            || Integer.bitCount(pBuffer.length) != 1)
+        {
+            return;   // oversized or not one of ours
+        }
+        final ArrayBlockingQueue<byte[]> queue = classes.get(classOf(pBuffer.length));
+        if (queue != null && queue.offer(pBuffer)) {
+            pooledBytes.addAndGet(pBuffer.length);
+        }
+    }
+
+
+
+    /**
+     * Create an output stream which collects its data in buffers from this pool.
+     *
+     * @param pExpectedSize how many bytes are expected to be written
+     * @return a new stream, which must be closed after use to give back its buffer
+     */
+    @NonNull
+    public PooledOutputStream newOutputStream(final int pExpectedSize)
+    {
+        return new PooledOutputStream(this, pExpectedSize);
+    }
+
+
+
+    public long getPooledBytes()
+    {
+        return pooledBytes.get();
+    }
+}
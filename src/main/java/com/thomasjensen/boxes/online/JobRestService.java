@@ -0,0 +1,230 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Asynchronous job API for renders which take too long to hold a connection open for. <code>POST /jobs</code> starts
+ * a render and returns its job ID right away, and <code>GET /jobs/{id}</code> returns the result, optionally waiting
+ * up to the given number of milliseconds for it to become available.
+ */
+@RestController
+public class JobRestService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JobRestService.class);
+
+    /** optional header with a key chosen by the client, so that a retried submission gets the job of the first one */
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /** max. length of an idempotency key */
+    static final int MAX_IDEMPOTENCY_KEY_LEN = 128;
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+    private final PayloadLog payloadLog;
+
+    private final JobStore jobStore;
+
+    private final HashedWheelWatchdog watchdog;
+
+    private final CustomDesignStore customDesignStore;
+
+    private final long maxWaitMillis;
+
+
+
+    @Autowired
+    public JobRestService(@NonNull final BoxesRunnerService pBoxesRunnerService, @NonNull final Validator pValidator,
+        @NonNull final PayloadLog pPayloadLog, @NonNull final JobStore pJobStore,
+        @NonNull final HashedWheelWatchdog pWatchdog, @NonNull final CustomDesignStore pCustomDesignStore,
+        @Value("${boxes.jobs.max-wait-millis:25000}") final long pMaxWaitMillis)
+    {
+        super();
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pPayloadLog, "PayloadLog not injected");
+        payloadLog = pPayloadLog;
+
+        Assert.notNull(pJobStore, "JobStore not injected");
+        jobStore = pJobStore;
+
+        Assert.notNull(pWatchdog, "HashedWheelWatchdog not injected");
+        watchdog = pWatchdog;
+
+        Assert.notNull(pCustomDesignStore, "CustomDesignStore not injected");
+        customDesignStore = pCustomDesignStore;
+
+        Assert.isTrue(pMaxWaitMillis >= 0, "boxes.jobs.max-wait-millis must not be negative");
+        maxWaitMillis = pMaxWaitMillis;
+    }
+
+
+
+    @PostMapping(value = "/jobs", consumes = MediaType.APPLICATION_JSON_VALUE,
+        produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatus> submit(@NonNull @RequestBody final Invocation pInvocation,
+        @Nullable @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) final String pIdempotencyKey)
+    {
+        payloadLog.received(pInvocation);
+        final String configFile;
+        final List<String> cmdLine;
+        try {
+            if (pIdempotencyKey != null && (pIdempotencyKey.isEmpty()
+                || pIdempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LEN))
+            {
+                throw new InvalidInvocationException("idempotency key must be 1 to " + MAX_IDEMPOTENCY_KEY_LEN
+                    + " characters long");
+            }
+            validator.validate(pInvocation, true);
+            configFile = customDesignStore.resolve(pInvocation);
+            cmdLine = new CommandLineBuilder(pInvocation, configFile).build();
+        }
+        catch (InvalidInvocationException e) {
+            payloadLog.invalid(pInvocation, e.getMessage());
+            return failed(null, HttpStatus.BAD_REQUEST, "bad request: " + e.getMessage());
+        }
+
+        final String scopedKey = pIdempotencyKey != null
+            ? BoxesRequestContext.current().getClientId() + '\n' + pIdempotencyKey : null;
+        final JobStore.Job job;
+        final AtomicBoolean started = new AtomicBoolean(false);
+        try {
+            job = jobStore.submit(scopedKey, () -> {
+                started.set(true);
+                return customDesignStore.releaseWhenDone(configFile,
+                    () -> boxesRunnerService.submit(pInvocation, cmdLine))//
+                    .whenComplete((final String pOutput, final Throwable pError) -> {
+                        if (pError != null && NdjsonWriter.statusOf(NdjsonWriter.unwrap(pError))
+                            == HttpStatus.INTERNAL_SERVER_ERROR)
+                        {
+                            LOG.error("internal error: {}", pError.getMessage(), pError);
+                        }
+                    });
+            });
+        }
+        catch (BoxesUnavailableException e) {
+            return failed(null, HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        finally {
+            if (!started.get()) {
+                customDesignStore.release(configFile);   // not run, as the job existed already or was rejected
+            }
+        }
+        return ResponseEntity.accepted().location(URI.create("/jobs/" + job.getId())).body(statusOf(job));
+    }
+
+
+
+    /**
+     * Get the state of a job.
+     *
+     * @param pId the job ID
+     * @param pWaitMillis how long to wait for the job to finish, if it is still running; capped by
+     *     <code>boxes.jobs.max-wait-millis</code>
+     * @return 200 with the result if the job has finished, 202 if it is still running, or 404 if the job is unknown or
+     *     has expired
+     */
+    @GetMapping(value = "/jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<ResponseEntity<JobStatus>> get(@NonNull @PathVariable("id") final String pId,
+        @RequestParam(name = "wait", defaultValue = "0") final long pWaitMillis)
+    {
+        final JobStore.Job job = jobStore.get(pId);
+        if (job == null) {
+            return CompletableFuture.completedFuture(failed(pId, HttpStatus.NOT_FOUND, "unknown or expired job"));
+        }
+        final long waitMillis = Math.min(pWaitMillis, maxWaitMillis);
+        if (job.getResult().isDone() || waitMillis <= 0) {
+            return CompletableFuture.completedFuture(respond(job));
+        }
+
+        final CompletableFuture<ResponseEntity<JobStatus>> result = new CompletableFuture<>();
+        final HashedWheelWatchdog.Timeout timeout =
+            watchdog.schedule(() -> result.complete(respond(job)), waitMillis, TimeUnit.MILLISECONDS);
+        job.getResult().whenComplete((pOutput, pError) -> {
+            timeout.cancel();
+            result.complete(respond(job));
+        });
+        return result;
+    }
+
+
+
+    @NonNull
+    private static ResponseEntity<JobStatus> respond(@NonNull final JobStore.Job pJob)
+    {
+        final HttpStatus status = pJob.getResult().isDone() ? HttpStatus.OK : HttpStatus.ACCEPTED;
+        return ResponseEntity.status(status).body(statusOf(pJob));
+    }
+
+
+
+    @NonNull
+    static JobStatus statusOf(@NonNull final JobStore.Job pJob)
+    {
+        final CompletableFuture<String> result = pJob.getResult();
+        if (!result.isDone()) {
+            return new JobStatus(pJob.getId(), JobStatus.State.Running, null, null, null);
+        }
+        try {
+            return new JobStatus(pJob.getId(), JobStatus.State.Done, HttpStatus.OK.value(), result.getNow(null), null);
+        }
+        catch (RuntimeException e) {
+            final Throwable cause = NdjsonWriter.unwrap(e);
+            return new JobStatus(pJob.getId(), JobStatus.State.Failed, NdjsonWriter.statusOf(cause).value(), null,
+                cause.getMessage());
+        }
+    }
+
+
+
+    @NonNull
+    private static ResponseEntity<JobStatus> failed(@Nullable final String pId, @NonNull final HttpStatus pStatus,
+        @Nullable final String pMessage)
+    {
+        return ResponseEntity.status(pStatus)//
+            .body(new JobStatus(pId, JobStatus.State.Failed, pStatus.value(), null, pMessage));
+    }
+}
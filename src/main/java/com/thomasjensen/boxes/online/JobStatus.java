@@ -0,0 +1,121 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * The state of a render job as reported by the job API. Once the job has finished, it carries the HTTP status the
+ * render would have had as a single request, plus either the <code>output</code> or an <code>error</code> message.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobStatus
+{
+    /**
+     * Whether a job is still running.
+     */
+    public enum State
+    {
+        @JsonProperty("running")
+        Running,
+
+        @JsonProperty("done")
+        Done,
+
+        @JsonProperty("failed")
+        Failed;
+    }
+
+
+
+    @JsonProperty
+    private String id;
+
+    @JsonProperty
+    private State state;
+
+    @JsonProperty
+    private Integer status;
+
+    @JsonProperty
+    private String output;
+
+    @JsonProperty
+    private String error;
+
+
+
+    public JobStatus()
+    {
+        super();
+    }
+
+
+
+    JobStatus(@Nullable final String pId, @NonNull final State pState, @Nullable final Integer pStatus,
+        @Nullable final String pOutput, @Nullable final String pError)
+    {
+        id = pId;
+        state = pState;
+        status = pStatus;
+        output = pOutput;
+        error = pError;
+    }
+
+
+
+    @Nullable
+    public String getId()
+    {
+        return id;
+    }
+
+
+
+    @Nullable
+    public State getState()
+    {
+        return state;
+    }
+
+
+
+    @Nullable
+    public Integer getStatus()
+    {
+        return status;
+    }
+
+
+
+    @Nullable
+    public String getOutput()
+    {
+        return output;
+    }
+
+
+
+    @Nullable
+    public String getError()
+    {
+        return error;
+    }
+}
@@ -0,0 +1,240 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Holds the render jobs of the asynchronous job API. Finished jobs are kept for a fixed time, and while the results
+ * of all finished jobs together exceed the memory budget, the oldest ones are dropped early. Jobs may carry an
+ * idempotency key chosen by the client, so that a retried submission gets the job of the first one.
+ */
+@Component
+public class JobStore
+{
+    private final long ttlMillis;
+
+    private final long maxChars;
+
+    private final int maxPending;
+
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /** jobs by client ID and idempotency key */
+    private final ConcurrentHashMap<String, Job> idempotencyKeys = new ConcurrentHashMap<>();
+
+    /** finished jobs in the order in which they finished, which is also the order in which they expire */
+    private final Queue<Job> finished = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final AtomicLong storedChars = new AtomicLong();
+
+
+
+    /**
+     * One render job.
+     */
+    public static final class Job
+    {
+        private final String id = UUID.randomUUID().toString();
+
+        @Nullable
+        private final String idempotencyKey;
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private volatile long finishedMillis = 0L;
+
+        private volatile int size = 0;
+
+
+
+        Job(@Nullable final String pIdempotencyKey)
+        {
+            idempotencyKey = pIdempotencyKey;
+        }
+
+
+
+        @NonNull
+        public String getId()
+        {
+            return id;
+        }
+
+
+
+        /**
+         * The result, which must not be completed by the caller.
+         *
+         * @return a future which completes with the output of <i>boxes</i>, or exceptionally
+         */
+        @NonNull
+        public CompletableFuture<String> getResult()
+        {
+            return result;
+        }
+    }
+
+
+
+    public JobStore(@Value("${boxes.jobs.ttl-secs:300}") final int pTtlSecs,
+        @Value("${boxes.jobs.max-bytes:67108864}") final long pMaxBytes,
+        @Value("${boxes.jobs.max-pending:1000}") final int pMaxPending, @NonNull final MeterRegistry pMeterRegistry)
+    {
+        Assert.isTrue(pTtlSecs > 0, "boxes.jobs.ttl-secs must be positive");
+        Assert.isTrue(pMaxBytes > 0, "boxes.jobs.max-bytes must be positive");
+        Assert.isTrue(pMaxPending > 0, "boxes.jobs.max-pending must be positive");
+        ttlMillis = pTtlSecs * 1000L;
+        maxChars = pMaxBytes;   // boxes output is ASCII, which Java strings store at one byte per character
+        maxPending = pMaxPending;
+
+        Assert.notNull(pMeterRegistry, "MeterRegistry not injected");
+        Gauge.builder("boxes.jobs.pending", pending, AtomicInteger::get)//
+            .description("number of render jobs waiting for their result")//
+            .register(pMeterRegistry);
+        Gauge.builder("boxes.jobs.stored", storedChars, AtomicLong::get)//
+            .description("size of the results of finished render jobs kept in memory")//
+            .baseUnit("bytes")//
+            .register(pMeterRegistry);
+    }
+
+
+
+    /**
+     * Create a job, unless the client has already created one with the same idempotency key.
+     *
+     * @param pIdempotencyKey the idempotency key, scoped to the client by the caller, or <code>null</code>
+     * @param pExecution starts the render, called only if a new job is created
+     * @return the new or existing job
+     * @throws BoxesUnavailableException too many jobs are waiting for their result
+     * @throws RuntimeException the execution failed to start the render, in which case no job is created
+     */
+    @NonNull
+    public Job submit(@Nullable final String pIdempotencyKey,
+        @NonNull final Supplier<CompletableFuture<String>> pExecution)
+    {
+        purge();
+        final Job job = new Job(pIdempotencyKey);
+        if (pIdempotencyKey != null) {
+            final Job existing = idempotencyKeys.putIfAbsent(pIdempotencyKey, job);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        if (pending.incrementAndGet() > maxPending) {
+            forget(job);
+            throw new BoxesUnavailableException("too many render jobs are waiting for their result");
+        }
+        jobs.put(job.id, job);
+        final CompletableFuture<String> execution;
+        try {
+            execution = pExecution.get();
+        }
+        catch (RuntimeException e) {
+            // the render was never started, so the job would never finish
+            jobs.remove(job.id, job);
+            forget(job);
+            throw e;
+        }
+        execution.whenComplete((final String pOutput, final Throwable pError) -> {
+            job.size = pOutput != null ? pOutput.length() : 0;
+            storedChars.addAndGet(job.size);
+            job.finishedMillis = System.currentTimeMillis();
+            finished.add(job);
+            pending.decrementAndGet();
+            if (pError == null) {
+                job.result.complete(pOutput);
+            }
+            else {
+                job.result.completeExceptionally(pError);
+            }
+            purge();
+        });
+        return job;
+    }
+
+
+
+    private void forget(@NonNull final Job pUnstartedJob)
+    {
+        pending.decrementAndGet();
+        if (pUnstartedJob.idempotencyKey != null) {
+            idempotencyKeys.remove(pUnstartedJob.idempotencyKey, pUnstartedJob);
+        }
+    }
+
+
+
+    /**
+     * Look up a job.
+     *
+     * @param pId the job ID
+     * @return the job, or <code>null</code> if there is no such job, or it has expired
+     */
+    @Nullable
+    public Job get(@NonNull final String pId)
+    {
+        final Job result = jobs.get(pId);
+        if (result != null && result.finishedMillis != 0L
+            && System.currentTimeMillis() - result.finishedMillis >= ttlMillis)
+        {
+            return null;
+        }
+        return result;
+    }
+
+
+
+    private synchronized void purge()
+    {
+        final long now = System.currentTimeMillis();
+        Job oldest = finished.peek();
+        while (oldest != null && (now - oldest.finishedMillis >= ttlMillis || storedChars.get() > maxChars)) {
+            finished.remove();
+            jobs.remove(oldest.id, oldest);
+            if (oldest.idempotencyKey != null) {
+                idempotencyKeys.remove(oldest.idempotencyKey, oldest);
+            }
+            storedChars.addAndGet(-oldest.size);
+            oldest = finished.peek();
+        }
+    }
+
+
+
+    int size()
+    {
+        return jobs.size();
+    }
+}
@@ -0,0 +1,54 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+
+/**
+ * Registers the {@link LivePreviewHandler} WebSocket endpoint.
+ */
+@Configuration
+@EnableWebSocket
+@Profile("!reactive")
+public class LivePreviewConfig
+    implements WebSocketConfigurer
+{
+    private final LivePreviewHandler livePreviewHandler;
+
+
+
+    public LivePreviewConfig(@NonNull final LivePreviewHandler pLivePreviewHandler)
+    {
+        super();
+        Assert.notNull(pLivePreviewHandler, "LivePreviewHandler not injected");
+        livePreviewHandler = pLivePreviewHandler;
+    }
+
+
+
+    @Override
+    public void registerWebSocketHandlers(@NonNull final WebSocketHandlerRegistry pRegistry)
+    {
+        pRegistry.addHandler(livePreviewHandler, LivePreviewHandler.PATH).addInterceptors(livePreviewHandler);
+    }
+}
@@ -0,0 +1,403 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+
+/**
+ * Live preview over a WebSocket. The client sends the design and options once, then only the content as it changes.
+ * Each message is a JSON object with any of these fields:
+ * <ul>
+ * <li><code>options</code> - an {@link Invocation} without content, which applies to all following renders</li>
+ * <li><code>content</code> - the text to render</li>
+ * <li><code>seq</code> - a number chosen by the client, which is copied to the result</li>
+ * </ul>
+ * <p>Each render result is pushed back as a JSON object with the <code>seq</code> of the message it belongs to, the
+ * HTTP status that <code>/draw</code> would have responded with, and the <code>output</code> or an
+ * <code>error</code>. Options are validated when they arrive, and the command line is built only then. At most one
+ * render per connection is in progress. Updates which arrive in the meantime are coalesced, so that only the newest
+ * one is rendered next, and the others get no result. Results are sent by threads of their own, so that a slow
+ * client never holds up a <i>boxes</i> worker thread.</p>
+ */
+@Component
+@Profile("!reactive")
+public class LivePreviewHandler
+    extends TextWebSocketHandler
+    implements HandshakeInterceptor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LivePreviewHandler.class);
+
+    static final String PATH = "/draw/live";
+
+    private static final String CLIENT_ID_ATTRIBUTE = "boxes.clientId";
+
+    private static final String STATE_ATTRIBUTE = LiveSession.class.getName();
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+    private final ObjectMapper objectMapper;
+
+    private final Counter coalescedCounter;
+
+    private final int maxMessageChars;
+
+    private final int sendBufferBytes;
+
+    private final int sendTimeLimitMillis;
+
+    /** sends the results, and starts the next render of a connection */
+    private final Executor sendExecutor;
+
+
+
+    /**
+     * A content update waiting to be rendered.
+     */
+    private static final class Update
+    {
+        @Nullable
+        private final JsonNode seq;
+
+        private final List<String> cmdLine;
+
+        private final String content;
+
+
+
+        Update(@Nullable final JsonNode pSeq, @NonNull final List<String> pCmdLine, @NonNull final String pContent)
+        {
+            seq = pSeq;
+            cmdLine = pCmdLine;
+            content = pContent;
+        }
+    }
+
+
+
+    /**
+     * The state of one connection.
+     */
+    private final class LiveSession
+    {
+        private final WebSocketSession session;
+
+        private final BoxesRequestContext context;
+
+        /** the command line built from the current options, or <code>null</code> if no options were sent yet */
+        @Nullable
+        private List<String> cmdLine;
+
+        @Nullable
+        private String content;
+
+        /** the newest update which arrived while a render was in progress */
+        @Nullable
+        private Update next;
+
+        private boolean rendering;
+
+
+
+        LiveSession(@NonNull final WebSocketSession pSession, @NonNull final String pClientId)
+        {
+            session = pSession;
+            context = new BoxesRequestContext(pClientId);
+        }
+
+
+
+        void update(@NonNull final Update pUpdate)
+        {
+            synchronized (this) {
+                if (rendering) {
+                    if (next != null) {
+                        coalescedCounter.increment();
+                    }
+                    next = pUpdate;
+                    return;
+                }
+                rendering = true;
+            }
+            render(pUpdate);
+        }
+
+
+
+        private void render(@NonNull final Update pUpdate)
+        {
+            BoxesRequestContext.bind(context);
+            try {
+                boxesRunnerService.submit(pUpdate.cmdLine, pUpdate.content).whenCompleteAsync((pOutput, pError) -> {
+                    send(pUpdate.seq, pOutput, pError);
+                    final Update update;
+                    synchronized (this) {
+                        update = session.isOpen() ? next : null;
+                        next = null;
+                        rendering = update != null;
+                    }
+                    if (update != null) {
+                        render(update);
+                    }
+                }, sendExecutor);
+            }
+            finally {
+                BoxesRequestContext.unbind();
+            }
+        }
+
+
+
+        void send(@Nullable final JsonNode pSeq, @Nullable final String pOutput, @Nullable final Throwable pError)
+        {
+            if (!session.isOpen()) {
+                return;
+            }
+            final ObjectNode result = objectMapper.createObjectNode();
+            if (pSeq != null) {
+                result.set("seq", pSeq);
+            }
+            if (pError == null) {
+                result.put("status", HttpStatus.OK.value());
+                result.put("output", pOutput);
+            }
+            else {
+                final Throwable cause = NdjsonWriter.unwrap(pError);
+                final HttpStatus status = NdjsonWriter.statusOf(cause);
+                if (status == HttpStatus.INTERNAL_SERVER_ERROR) {
+                    LOG.error("internal error: {}", cause.getMessage(), cause);
+                }
+                result.put("status", status.value());
+                result.put("error", cause.getMessage());
+            }
+            try {
+                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(result)));
+            }
+            catch (IOException | RuntimeException e) {
+                LOG.debug("Failed to send live preview result, closing session {}: {}", session.getId(),
+                    e.toString());
+                closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+            }
+        }
+
+
+
+        private void closeQuietly(@NonNull final CloseStatus pStatus)
+        {
+            try {
+                session.close(pStatus);
+            }
+            catch (IOException e) {
+                // ignore, the session is gone anyway
+            }
+        }
+    }
+
+
+
+    @Autowired
+    public LivePreviewHandler(@NonNull final BoxesRunnerService pBoxesRunnerService,
+        @NonNull final Validator pValidator, @NonNull final ObjectMapper pObjectMapper,
+        @NonNull final MeterRegistry pMeterRegistry,
+        @Value("${boxes.live.max-message-chars:1048576}") final int pMaxMessageChars,
+        @Value("${boxes.live.send-buffer-bytes:1048576}") final int pSendBufferBytes,
+        @Value("${boxes.live.send-time-limit-millis:10000}") final int pSendTimeLimitMillis,
+        @Value("${boxes.live.send-threads:4}") final int pSendThreads)
+    {
+        this(pBoxesRunnerService, pValidator, pObjectMapper, pMeterRegistry, pMaxMessageChars, pSendBufferBytes,
+            pSendTimeLimitMillis, newSendExecutor(pSendThreads));
+    }
+
+
+
+    LivePreviewHandler(@NonNull final BoxesRunnerService pBoxesRunnerService, @NonNull final Validator pValidator,
+        @NonNull final ObjectMapper pObjectMapper, @NonNull final MeterRegistry pMeterRegistry,
+        final int pMaxMessageChars, final int pSendBufferBytes, final int pSendTimeLimitMillis,
+        @NonNull final Executor pSendExecutor)
+    {
+        super();
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pObjectMapper, "ObjectMapper not injected");
+        objectMapper = pObjectMapper;
+
+        Assert.notNull(pMeterRegistry, "MeterRegistry not injected");
+        coalescedCounter = Counter.builder("boxes.live.coalesced")//
+            .description("number of live preview updates skipped in favour of a newer one")//
+            .register(pMeterRegistry);
+
+        Assert.isTrue(pMaxMessageChars > 0, "boxes.live.max-message-chars must be positive");
+        Assert.isTrue(pSendBufferBytes > 0, "boxes.live.send-buffer-bytes must be positive");
+        Assert.isTrue(pSendTimeLimitMillis > 0, "boxes.live.send-time-limit-millis must be positive");
+        maxMessageChars = pMaxMessageChars;
+        sendBufferBytes = pSendBufferBytes;
+        sendTimeLimitMillis = pSendTimeLimitMillis;
+
+        Assert.notNull(pSendExecutor, "required parameter pSendExecutor was not given");
+        sendExecutor = pSendExecutor;
+    }
+
+
+
+    @NonNull
+    private static ExecutorService newSendExecutor(final int pSendThreads)
+    {
+        Assert.isTrue(pSendThreads > 0, "boxes.live.send-threads must be positive");
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        return Executors.newFixedThreadPool(pSendThreads, pRunnable -> {
+            final Thread thread = new Thread(pRunnable, "boxes-live-send-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+
+    @PreDestroy
+    public void destroy()
+    {
+        if (sendExecutor instanceof ExecutorService) {
+            ((ExecutorService) sendExecutor).shutdown();
+        }
+    }
+
+
+
+    @Override
+    public boolean beforeHandshake(@NonNull final ServerHttpRequest pRequest,
+        @NonNull final ServerHttpResponse pResponse, @NonNull final WebSocketHandler pWsHandler,
+        @NonNull final Map<String, Object> pAttributes)
+    {
+        // still on the handshake request, so the BoxesRequestFilter has identified the client
+        pAttributes.put(CLIENT_ID_ATTRIBUTE, BoxesRequestContext.current().getClientId());
+        return true;
+    }
+
+
+
+    @Override
+    public void afterHandshake(@NonNull final ServerHttpRequest pRequest, @NonNull final ServerHttpResponse pResponse,
+        @NonNull final WebSocketHandler pWsHandler, @Nullable final Exception pException)
+    {
+        // nothing to do
+    }
+
+
+
+    @Override
+    public void afterConnectionEstablished(@NonNull final WebSocketSession pSession)
+    {
+        pSession.setTextMessageSizeLimit(maxMessageChars);
+        final Object clientId = pSession.getAttributes().get(CLIENT_ID_ATTRIBUTE);
+        final WebSocketSession session =
+            new ConcurrentWebSocketSessionDecorator(pSession, sendTimeLimitMillis, sendBufferBytes);
+        pSession.getAttributes().put(STATE_ATTRIBUTE,
+            new LiveSession(session, clientId != null ? clientId.toString() : "unknown"));
+    }
+
+
+
+    @Override
+    protected void handleTextMessage(@NonNull final WebSocketSession pSession, @NonNull final TextMessage pMessage)
+    {
+        final LiveSession state = (LiveSession) pSession.getAttributes().get(STATE_ATTRIBUTE);
+        if (state == null) {
+            return;   // the connection was closed in the meantime
+        }
+        JsonNode seq = null;
+        try {
+            final JsonNode message = objectMapper.readTree(pMessage.getPayload());
+            if (message == null || !message.isObject()) {
+                throw new InvalidInvocationException("message must be a JSON object");
+            }
+            seq = message.get("seq");
+
+            final Update update;
+            synchronized (state) {
+                final JsonNode options = message.get("options");
+                if (options != null) {
+                    final Invocation invocation = objectMapper.treeToValue(options, Invocation.class);
+                    validator.validateOptions(invocation);
+                    state.cmdLine = new CommandLineBuilder(invocation).build();
+                }
+                final JsonNode content = message.get("content");
+                if (content != null) {
+                    validator.validateContent(content.textValue());
+                    state.content = content.textValue();
+                }
+                if (state.cmdLine == null) {
+                    throw new InvalidInvocationException("no options specified yet");
+                }
+                update = state.content != null ? new Update(seq, state.cmdLine, state.content) : null;
+            }
+            if (update != null) {
+                state.update(update);
+            }
+        }
+        catch (InvalidInvocationException e) {
+            state.send(seq, null, e);
+        }
+        catch (IOException e) {
+            state.send(seq, null, new InvalidInvocationException("malformed message: " + e.getMessage()));
+        }
+    }
+
+
+
+    @Override
+    public void afterConnectionClosed(@NonNull final WebSocketSession pSession, @NonNull final CloseStatus pStatus)
+    {
+        pSession.getAttributes().remove(STATE_ATTRIBUTE);
+    }
+}
@@ -0,0 +1,152 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+
+
+/**
+ * A simple thread-safe cache which evicts the least recently used entries. The cache is bounded either by the number
+ * of entries, or by the total weight of the values, for example their size in bytes.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class LruCache<K, V>
+{
+    private final Map<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxWeight;
+
+    private final ToIntFunction<V> weigher;
+
+    @Nullable
+    private final BiConsumer<K, V> evictionListener;
+
+    /** guarded by <code>this</code> */
+    private long weight = 0L;
+
+
+
+    public LruCache(final int pMaxEntries)
+    {
+        this(pMaxEntries, null);
+    }
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param pMaxEntries max. number of entries
+     * @param pEvictionListener called with each evicted entry while the cache is locked, or <code>null</code>
+     */
+    public LruCache(final int pMaxEntries, @Nullable final BiConsumer<K, V> pEvictionListener)
+    {
+        this(pMaxEntries, pValue -> 1, pEvictionListener);
+    }
+
+
+
+    /**
+     * Constructor.
+     *
+     * @param pMaxWeight max. total weight of the values
+     * @param pWeigher the weight of a value, which must not change while it is in the cache
+     * @param pEvictionListener called with each evicted entry while the cache is locked, or <code>null</code>
+     */
+    public LruCache(final long pMaxWeight, @NonNull final ToIntFunction<V> pWeigher,
+        @Nullable final BiConsumer<K, V> pEvictionListener)
+    {
+        Assert.notNull(pWeigher, "Argument pWeigher is null");
+        maxWeight = pMaxWeight;
+        weigher = pWeigher;
+        evictionListener = pEvictionListener;
+    }
+
+
+
+    @Nullable
+    public synchronized V get(@NonNull final K pKey)
+    {
+        return map.get(pKey);
+    }
+
+
+
+    /**
+     * Add or replace an entry, then evict the least recently used entries while the cache is over its bound. A value
+     * which is heavier than the bound on its own is not added, but still replaces the previous value of the key.
+     *
+     * @param pKey the key
+     * @param pValue the value
+     */
+    public synchronized void put(@NonNull final K pKey, @NonNull final V pValue)
+    {
+        final int valueWeight = weigher.applyAsInt(pValue);
+        final V previous = valueWeight <= maxWeight ? map.put(pKey, pValue) : map.remove(pKey);
+        weight += (valueWeight <= maxWeight ? valueWeight : 0) - (previous != null ? weigher.applyAsInt(previous) : 0);
+        final Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            final Map.Entry<K, V> eldest = iterator.next();
+            iterator.remove();
+            weight -= weigher.applyAsInt(eldest.getValue());
+            if (evictionListener != null) {
+                evictionListener.accept(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+
+
+    /**
+     * Remove an entry. The eviction listener is not called.
+     *
+     * @param pKey the key
+     * @param pValue the value expected for the key
+     * @return <code>true</code> if the entry was removed
+     */
+    public synchronized boolean remove(@NonNull final K pKey, @NonNull final V pValue)
+    {
+        final boolean result = map.remove(pKey, pValue);
+        if (result) {
+            weight -= weigher.applyAsInt(pValue);
+        }
+        return result;
+    }
+
+
+
+    public synchronized int size()
+    {
+        return map.size();
+    }
+
+
+
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+}
@@ -0,0 +1,155 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Writes render results as newline-delimited JSON, one object per line. Each object carries the HTTP status the
+ * result would have had as a single request, plus either the <code>output</code> or an <code>error</code> message.
+ */
+class NdjsonWriter
+    implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(NdjsonWriter.class);
+
+    static final String MEDIA_TYPE = "application/x-ndjson";
+
+    private final JsonGenerator generator;
+
+
+
+    NdjsonWriter(@NonNull final ObjectMapper pObjectMapper, @NonNull final OutputStream pOut)
+        throws IOException
+    {
+        generator = pObjectMapper.getFactory().createGenerator(pOut);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+    }
+
+
+
+    /**
+     * Start a result object. The caller adds its own fields, then calls {@link #endResult}.
+     *
+     * @return the generator to write fields with
+     * @throws IOException writing failed
+     */
+    @NonNull
+    JsonGenerator beginResult()
+        throws IOException
+    {
+        generator.writeStartObject();
+        return generator;
+    }
+
+
+
+    /**
+     * Write the outcome of a render and finish the result object.
+     *
+     * @param pOutput the output of <i>boxes</i>, if successful
+     * @param pError the error, if not successful
+     * @throws IOException writing failed
+     */
+    void endResult(@Nullable final String pOutput, @Nullable final Throwable pError)
+        throws IOException
+    {
+        if (pError == null) {
+            generator.writeNumberField("status", HttpStatus.OK.value());
+            generator.writeStringField("output", pOutput);
+        }
+        else {
+            final Throwable cause = unwrap(pError);
+            final HttpStatus status = statusOf(cause);
+            if (status == HttpStatus.INTERNAL_SERVER_ERROR) {
+                LOG.error("internal error: {}", cause.getMessage(), cause);
+            }
+            generator.writeNumberField("status", status.value());
+            generator.writeStringField("error", cause.getMessage());
+        }
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+
+
+    void flush()
+        throws IOException
+    {
+        generator.flush();
+    }
+
+
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        generator.close();
+    }
+
+
+
+    @NonNull
+    static Throwable unwrap(@NonNull final Throwable pError)
+    {
+        Throwable result = pError;
+        while ((result instanceof CompletionException || result instanceof ExecutionException)
+            && result.getCause() != null)
+        {
+            result = result.getCause();
+        }
+        return result;
+    }
+
+
+
+    /**
+     * The status that <code>/draw</code> would respond with for the given error.
+     *
+     * @param pCause the error
+     * @return the HTTP status
+     */
+    @NonNull
+    static HttpStatus statusOf(@NonNull final Throwable pCause)
+    {
+        if (pCause instanceof InvalidInvocationException) {
+            return HttpStatus.BAD_REQUEST;
+        }
+        if (pCause instanceof TimeoutException || pCause instanceof BoxesUnavailableException) {
+            return HttpStatus.SERVICE_UNAVAILABLE;
+        }
+        if (pCause instanceof SupersededException) {
+            return HttpStatus.CONFLICT;
+        }
+        return HttpStatus.INTERNAL_SERVER_ERROR;
+    }
+}
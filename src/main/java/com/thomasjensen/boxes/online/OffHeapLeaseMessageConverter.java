@@ -0,0 +1,89 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+
+
+/**
+ * Writes a render result from the {@link OffHeapRenderStore} to the response as it is stored, without decoding it
+ * into a <code>String</code> first. The lease on the cache entry is closed once the result has been written. Should
+ * the response never get here, for example because of an error or a client which went away, the lease is closed
+ * when the request completes, as it is registered with the {@link BoxesRequestContext}.
+ */
+@Component
+public class OffHeapLeaseMessageConverter
+    extends AbstractHttpMessageConverter<OffHeapRenderStore.Lease>
+{
+    public OffHeapLeaseMessageConverter()
+    {
+        super(MediaType.TEXT_PLAIN);
+    }
+
+
+
+    @Override
+    protected boolean supports(@NonNull final Class<?> pClazz)
+    {
+        return OffHeapRenderStore.Lease.class.isAssignableFrom(pClazz);
+    }
+
+
+
+    @Override
+    protected boolean canRead(final MediaType pMediaType)
+    {
+        return false;
+    }
+
+
+
+    @Override
+    protected OffHeapRenderStore.Lease readInternal(@NonNull final Class<? extends OffHeapRenderStore.Lease> pClazz,
+        @NonNull final HttpInputMessage pInputMessage)
+    {
+        throw new HttpMessageNotReadableException("render results cannot be read", pInputMessage);
+    }
+
+
+
+    @Override
+    protected Long getContentLength(@NonNull final OffHeapRenderStore.Lease pLease, final MediaType pContentType)
+    {
+        return (long) pLease.length();
+    }
+
+
+
+    @Override
+    protected void writeInternal(@NonNull final OffHeapRenderStore.Lease pLease,
+        @NonNull final HttpOutputMessage pOutputMessage)
+        throws IOException
+    {
+        try (pLease) {
+            pLease.writeTo(Channels.newChannel(pOutputMessage.getBody()));
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * An in-memory render cache which keeps the raw ASCII output of <i>boxes</i> outside of the Java heap, so that even a
+ * large cache does not add to the old generation or to GC pauses.
+ * <p>Memory is allocated as direct {@link ByteBuffer} slabs up to a configured budget. The slabs are divided into
+ * fixed-size pages, and each entry occupies as many pages as it needs, not necessarily contiguous. Entries are evicted
+ * in least-recently-used order. A {@link Lease} pins an entry while it is written to a response, so that its pages are
+ * not reused before the write is complete.</p>
+ */
+@Component
+@ConditionalOnProperty(name = "boxes.offheap.max-bytes")
+public class OffHeapRenderStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(OffHeapRenderStore.class);
+
+    /** size of one slab of direct memory */
+    private static final int SLAB_BYTES = 4 * 1024 * 1024;
+
+    private final int pageBytes;
+
+    private final int pagesPerSlab;
+
+    private final int maxSlabs;
+
+    /** the slabs allocated so far; replaced as a whole when a slab is added, so that leases can read it unlocked */
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    /** stack of free page numbers */
+    private int[] freePages = new int[0];
+
+    private int freeCount = 0;
+
+    private long usedBytes = 0L;
+
+    private final LinkedHashMap<RenderKey, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+
+
+    /**
+     * A cached render result.
+     */
+    private static final class Entry
+    {
+        private final int[] pages;
+
+        private final int length;
+
+        /** number of leases currently reading the entry */
+        private int pins = 0;
+
+        /** the entry was evicted, and its pages must be freed when the last lease is closed */
+        private boolean evicted = false;
+
+
+
+        private Entry(@NonNull final int[] pPages, final int pLength)
+        {
+            pages = pPages;
+            length = pLength;
+        }
+    }
+
+
+
+    /**
+     * Read access to a cached entry. The entry's memory stays valid until the lease is closed.
+     */
+    public final class Lease
+        implements Closeable
+    {
+        private final Entry entry;
+
+        private boolean closed = false;
+
+
+
+        private Lease(@NonNull final Entry pEntry)
+        {
+            entry = pEntry;
+        }
+
+
+
+        public int length()
+        {
+            return entry.length;
+        }
+
+
+
+        /**
+         * Write the cached bytes to the given channel, as they are stored.
+         *
+         * @param pChannel the channel to write to
+         * @throws IOException writing failed
+         */
+        public void writeTo(@NonNull final WritableByteChannel pChannel)
+            throws IOException
+        {
+            Assert.state(!closed, "lease already closed");
+            int remaining = entry.length;
+            for (final int page : entry.pages) {
+                final ByteBuffer view = pageView(page, Math.min(remaining, pageBytes));
+                while (view.hasRemaining()) {
+                    pChannel.write(view);
+                }
+                remaining -= pageBytes;
+            }
+        }
+
+
+
+        @NonNull
+        public byte[] toByteArray()
+        {
+            Assert.state(!closed, "lease already closed");
+            final byte[] result = new byte[entry.length];
+            int offset = 0;
+            for (final int page : entry.pages) {
+                final int len = Math.min(entry.length - offset, pageBytes);
+                pageView(page, len).get(result, offset, len);
+                offset += len;
+            }
+            return result;
+        }
+
+
+
+        @Override
+        public void close()
+        {
+            if (!closed) {
+                closed = true;
+                unpin(entry);
+            }
+        }
+    }
+
+
+
+    public OffHeapRenderStore(@Value("${boxes.offheap.max-bytes}") final long pMaxBytes,
+        @Value("${boxes.offheap.page-bytes:1024}") final int pPageBytes)
+    {
+        Assert.isTrue(pPageBytes > 0 && SLAB_BYTES % pPageBytes == 0, "boxes.offheap.page-bytes must divide "
+            + SLAB_BYTES);
+        pageBytes = pPageBytes;
+        pagesPerSlab = SLAB_BYTES / pPageBytes;
+        maxSlabs = (int) Math.max(1L, pMaxBytes / SLAB_BYTES);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Off-heap render cache enabled with up to " + maxSlabs + " slabs of " + SLAB_BYTES + " bytes");
+        }
+    }
+
+
+
+    private ByteBuffer pageView(final int pPage, final int pLength)
+    {
+        final ByteBuffer view = slabs[pPage / pagesPerSlab].duplicate();
+        final int offset = (pPage % pagesPerSlab) * pageBytes;
+        view.limit(offset + pLength).position(offset);
+        return view;
+    }
+
+
+
+    /**
+     * Pin a cached entry for reading.
+     *
+     * @param pKey the key of the render result
+     * @return a lease on the entry which must be closed after use, or <code>null</code> if the entry is not cached
+     */
+    @Nullable
+    public synchronized Lease acquire(@NonNull final RenderKey pKey)
+    {
+        final Entry entry = entries.get(pKey);
+        if (entry == null) {
+            return null;
+        }
+        entry.pins++;
+        return new Lease(entry);
+    }
+
+
+
+    /**
+     * Look up a render result and copy it onto the heap.
+     *
+     * @param pKey the key of the render result
+     * @return the cached bytes, or <code>null</code> if the entry is not cached
+     */
+    @Nullable
+    public byte[] get(@NonNull final RenderKey pKey)
+    {
+        final Lease lease = acquire(pKey);
+        if (lease == null) {
+            return null;
+        }
+        try {
+            return lease.toByteArray();
+        }
+        finally {
+            lease.close();
+        }
+    }
+
+
+
+    /**
+     * Add a render result to the cache, evicting the least recently used entries as needed.
+     *
+     * @param pKey the key of the render result
+     * @param pBytes the <i>boxes</i> output
+     */
+    public synchronized void put(@NonNull final RenderKey pKey, @NonNull final byte[] pBytes)
+    {
+        if (entries.containsKey(pKey)) {
+            return;
+        }
+        final int numPages = Math.max(1, (pBytes.length + pageBytes - 1) / pageBytes);
+        if (!reserve(numPages)) {
+            return;
+        }
+        final int[] pages = new int[numPages];
+        int offset = 0;
+        for (int i = 0; i < numPages; i++) {
+            pages[i] = freePages[--freeCount];
+            final int len = Math.min(pBytes.length - offset, pageBytes);
+            pageView(pages[i], len).put(pBytes, offset, len);
+            offset += len;
+        }
+        entries.put(pKey, new Entry(pages, pBytes.length));
+        usedBytes += (long) numPages * pageBytes;
+    }
+
+
+
+    /**
+     * Make sure that the given number of pages is free, by allocating slabs while the budget allows, and then by
+     * evicting entries.
+     *
+     * @param pNumPages the number of pages needed
+     * @return <code>true</code> if enough pages are free
+     */
+    private boolean reserve(final int pNumPages)
+    {
+        if (pNumPages > maxSlabs * pagesPerSlab) {
+            return false;
+        }
+        while (freeCount < pNumPages && slabs.length < maxSlabs) {
+            allocateSlab();
+        }
+        final Iterator<Map.Entry<RenderKey, Entry>> lru = entries.entrySet().iterator();
+        while (freeCount < pNumPages && lru.hasNext()) {
+            final Entry victim = lru.next().getValue();
+            lru.remove();
+            victim.evicted = true;
+            if (victim.pins == 0) {
+                release(victim);
+            }
+        }
+        return freeCount >= pNumPages;
+    }
+
+
+
+    private void allocateSlab()
+    {
+        final int firstPage = slabs.length * pagesPerSlab;
+        final ByteBuffer[] grownSlabs = Arrays.copyOf(slabs, slabs.length + 1);
+        grownSlabs[slabs.length] = ByteBuffer.allocateDirect(SLAB_BYTES);
+        slabs = grownSlabs;
+        if (freePages.length < slabs.length * pagesPerSlab) {
+            final int[] grown = new int[slabs.length * pagesPerSlab];
+            System.arraycopy(freePages, 0, grown, 0, freeCount);
+            freePages = grown;
+        }
+        for (int page = firstPage + pagesPerSlab - 1; page >= firstPage; page--) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+
+
+    private void release(@NonNull final Entry pEntry)
+    {
+        for (final int page : pEntry.pages) {
+            freePages[freeCount++] = page;
+        }
+        usedBytes -= (long) pEntry.pages.length * pageBytes;
+    }
+
+
+
+    private synchronized void unpin(@NonNull final Entry pEntry)
+    {
+        pEntry.pins--;
+        if (pEntry.pins == 0 && pEntry.evicted) {
+            release(pEntry);
+        }
+    }
+
+
+
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+
+
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+}
@@ -0,0 +1,131 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Logs bounded summaries of request payloads (hash, size, and line count of the content) instead of the payloads
+ * themselves. Only every n-th request is logged, as configured via <code>boxes.logging.payload-sample-every</code>,
+ * and nothing is logged unless DEBUG is enabled for this class.
+ * <p>This class uses the Log4j2 API directly rather than SLF4J, because SLF4J would allocate an argument array for
+ * messages with more than two parameters. Together with {@link Unbox}, the log calls here produce no garbage.</p>
+ */
+@Component
+public class PayloadLog
+{
+    private static final Logger LOG = LogManager.getLogger(PayloadLog.class);
+
+    private final int sampleEvery;
+
+    private final AtomicLong counter = new AtomicLong();
+
+
+
+    public PayloadLog(@Value("${boxes.logging.payload-sample-every:100}") final int pSampleEvery)
+    {
+        Assert.isTrue(pSampleEvery >= 0, "boxes.logging.payload-sample-every must not be negative");
+        sampleEvery = pSampleEvery;
+    }
+
+
+
+    private boolean sample()
+    {
+        return sampleEvery > 0 && LOG.isDebugEnabled() && counter.getAndIncrement() % sampleEvery == 0;
+    }
+
+
+
+    /**
+     * Log a summary of a request that was received.
+     *
+     * @param pInvocation the request
+     */
+    public void received(@NonNull final Invocation pInvocation)
+    {
+        if (sample()) {
+            final String content = pInvocation.getContent();
+            LOG.debug("Received request: design={}, size={}, lines={}, hash={}", pInvocation.getDesign(),
+                Unbox.box(length(content)), Unbox.box(countLines(content)), Unbox.box(hash(content)));
+        }
+    }
+
+
+
+    /**
+     * Log a summary of a request that did not validate.
+     *
+     * @param pInvocation the request
+     * @param pReason the validation message
+     */
+    public void invalid(@NonNull final Invocation pInvocation, @Nullable final String pReason)
+    {
+        if (sample()) {
+            final String content = pInvocation.getContent();
+            LOG.debug("Invocation received did not validate. {} (design={}, size={}, lines={}, hash={})", pReason,
+                pInvocation.getDesign(), Unbox.box(length(content)), Unbox.box(countLines(content)),
+                Unbox.box(hash(content)));
+        }
+    }
+
+
+
+    static int length(@Nullable final String pContent)
+    {
+        return pContent != null ? pContent.length() : 0;
+    }
+
+
+
+    static int countLines(@Nullable final String pContent)
+    {
+        if (pContent == null || pContent.isEmpty()) {
+            return 0;
+        }
+        int result = 1;
+        for (int i = 0; i < pContent.length(); i++) {
+            if (pContent.charAt(i) == '\n' && i < pContent.length() - 1) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+
+
+    /**
+     * The content's hash code, which the string caches, so this is free after the first call. It is good enough to
+     * tell whether two log lines refer to the same content.
+     *
+     * @param pContent the content
+     * @return the hash
+     */
+    static int hash(@Nullable final String pContent)
+    {
+        return pContent != null ? pContent.hashCode() : 0;
+    }
+}
@@ -0,0 +1,147 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.springframework.lang.NonNull;
+
+
+/**
+ * Like a {@link java.io.ByteArrayOutputStream}, but its buffer comes from an {@link IoBufferPool} and goes back
+ * there when the stream is closed. When the buffer must grow, a larger one is taken from the pool, and the smaller
+ * one is given back. Not thread-safe.
+ */
+public final class PooledOutputStream
+    extends OutputStream
+{
+    private final IoBufferPool pool;
+
+    private byte[] buffer;
+
+    private int count = 0;
+
+
+
+    PooledOutputStream(@NonNull final IoBufferPool pPool, final int pExpectedSize)
+    {
+        super();
+        pool = pPool;
+        buffer = pPool.acquire(Math.max(pExpectedSize, IoBufferPool.MIN_BUFFER_BYTES));
+    }
+
+
+
+    private void ensureCapacity(final int pMinCapacity)
+    {
+        if (buffer == null) {
+            throw new IllegalStateException("stream is closed");
+        }
+        if (pMinCapacity > buffer.length) {
+            if (pMinCapacity < 0) {
+                throw new OutOfMemoryError("output too large");
+            }
+            final byte[] larger = pool.acquire(Math.max(pMinCapacity, buffer.length << 1));
+            System.arraycopy(buffer, 0, larger, 0, count);
+            pool.release(buffer);
+            buffer = larger;
+        }
+    }
+
+
+
+    @Override
+    public void write(final int pByte)
+    {
+        ensureCapacity(count + 1);
+        buffer[count++] = (byte) pByte;
+    }
+
+
+
+    @Override
+    public void write(@NonNull final byte[] pBytes, final int pOffset, final int pLength)
+    {
+        ensureCapacity(count + pLength);
+        System.arraycopy(pBytes, pOffset, buffer, count, pLength);
+        count += pLength;
+    }
+
+
+
+    /**
+     * Make room for at least the given number of bytes, so that they can be written directly to the
+     * {@link #getBuffer() buffer}, followed by a call to {@link #advance}.
+     *
+     * @param pLength the number of bytes about to be written
+     */
+    void reserve(final int pLength)
+    {
+        ensureCapacity(count + pLength);
+    }
+
+
+
+    void advance(final int pLength)
+    {
+        count += pLength;
+    }
+
+
+
+    @NonNull
+    byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+
+
+    public int size()
+    {
+        return count;
+    }
+
+
+
+    @NonNull
+    public byte[] toByteArray()
+    {
+        return Arrays.copyOf(buffer, count);
+    }
+
+
+
+    @NonNull
+    public String toString(@NonNull final Charset pCharset)
+    {
+        return new String(buffer, 0, count, pCharset);
+    }
+
+
+
+    /**
+     * Give the buffer back to the pool. The stream can't be used anymore afterwards.
+     */
+    @Override
+    public void close()
+    {
+        pool.release(buffer);
+        buffer = null;
+    }
+}
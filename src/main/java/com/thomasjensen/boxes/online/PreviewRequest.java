@@ -0,0 +1,166 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+import java.util.Locale;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Asks for one content to be rendered in several designs. The designs are either listed by name, or selected from
+ * the {@link DesignList} by a filter. The design given in the invocation itself is ignored.
+ */
+public class PreviewRequest
+{
+    @JsonProperty
+    private Invocation invocation;
+
+    @JsonProperty
+    private List<String> designs;
+
+    @JsonProperty
+    private DesignFilter filter;
+
+
+
+    /**
+     * Selects designs by name, author, and designer. All criteria are optional, case-insensitive substrings.
+     */
+    public static class DesignFilter
+    {
+        @JsonProperty
+        private String name;
+
+        @JsonProperty
+        private String author;
+
+        @JsonProperty
+        private String designer;
+
+
+
+        public boolean matches(@NonNull final String pDesignName, @NonNull final BoxDesign pDesign)
+        {
+            return contains(pDesignName, name) && contains(pDesign.getAuthor(), author)
+                && contains(pDesign.getDesigner(), designer);
+        }
+
+
+
+        private static boolean contains(@Nullable final String pValue, @Nullable final String pCriterion)
+        {
+            if (pCriterion == null || pCriterion.isEmpty()) {
+                return true;
+            }
+            return pValue != null
+                && pValue.toLowerCase(Locale.ENGLISH).contains(pCriterion.toLowerCase(Locale.ENGLISH));
+        }
+
+
+
+        @Nullable
+        public String getName()
+        {
+            return name;
+        }
+
+
+
+        public void setName(@Nullable final String pName)
+        {
+            name = pName;
+        }
+
+
+
+        @Nullable
+        public String getAuthor()
+        {
+            return author;
+        }
+
+
+
+        public void setAuthor(@Nullable final String pAuthor)
+        {
+            author = pAuthor;
+        }
+
+
+
+        @Nullable
+        public String getDesigner()
+        {
+            return designer;
+        }
+
+
+
+        public void setDesigner(@Nullable final String pDesigner)
+        {
+            designer = pDesigner;
+        }
+    }
+
+
+
+    @Nullable
+    public Invocation getInvocation()
+    {
+        return invocation;
+    }
+
+
+
+    public void setInvocation(@Nullable final Invocation pInvocation)
+    {
+        invocation = pInvocation;
+    }
+
+
+
+    @Nullable
+    public List<String> getDesigns()
+    {
+        return designs;
+    }
+
+
+
+    public void setDesigns(@Nullable final List<String> pDesigns)
+    {
+        designs = pDesigns;
+    }
+
+
+
+    @Nullable
+    public DesignFilter getFilter()
+    {
+        return filter;
+    }
+
+
+
+    public void setFilter(@Nullable final DesignFilter pFilter)
+    {
+        filter = pFilter;
+    }
+}
@@ -0,0 +1,198 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Renders one content in many designs at once, for showing previews. The request is bound and validated once, and
+ * the renders are fanned out in parallel. Results are streamed back as newline-delimited JSON in the order in which
+ * they finish, each tagged with its design, so the first previews can be shown while the others are still running.
+ * At most <code>boxes.preview.parallelism</code> designs of a request are rendered at the same time; the next one is
+ * started as soon as a result has been written.
+ */
+@RestController
+@Profile("!reactive")
+public class PreviewRestService
+{
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+    private final DesignList designList;
+
+    private final ObjectMapper objectMapper;
+
+    private final int maxDesigns;
+
+    private final int parallelism;
+
+
+
+    /**
+     * A design and its pending result.
+     */
+    private static final class Preview
+    {
+        private final String design;
+
+        private final CompletableFuture<String> result;
+
+
+
+        Preview(@NonNull final String pDesign, @NonNull final CompletableFuture<String> pResult)
+        {
+            design = pDesign;
+            result = pResult;
+        }
+    }
+
+
+
+    @Autowired
+    public PreviewRestService(@NonNull final BoxesRunnerService pBoxesRunnerService,
+        @NonNull final Validator pValidator, @NonNull final DesignList pDesignList,
+        @NonNull final ObjectMapper pObjectMapper, @Value("${boxes.preview.max-designs:100}") final int pMaxDesigns,
+        @Value("${boxes.preview.parallelism:8}") final int pParallelism)
+    {
+        super();
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pDesignList, "DesignList not injected");
+        designList = pDesignList;
+
+        Assert.notNull(pObjectMapper, "ObjectMapper not injected");
+        objectMapper = pObjectMapper;
+
+        Assert.isTrue(pMaxDesigns > 0, "boxes.preview.max-designs must be positive");
+        Assert.isTrue(pParallelism > 0, "boxes.preview.parallelism must be positive");
+        maxDesigns = pMaxDesigns;
+        parallelism = pParallelism;
+    }
+
+
+
+    @PostMapping(value = "/draw/preview", consumes = MediaType.APPLICATION_JSON_VALUE,
+        produces = NdjsonWriter.MEDIA_TYPE)
+    public void preview(@NonNull @RequestBody final PreviewRequest pRequest,
+        @NonNull final HttpServletResponse pResponse)
+        throws IOException, InterruptedException
+    {
+        final Invocation invocation = pRequest.getInvocation();
+        final List<String> designs;
+        final List<String> baseCmdLine;
+        try {
+            if (invocation == null) {
+                throw new InvalidInvocationException("no invocation specified");
+            }
+            designs = selectDesigns(pRequest);
+            invocation.setDesign(designs.get(0));
+            validator.validate(invocation);
+            baseCmdLine = new CommandLineBuilder(invocation).build();
+        }
+        catch (InvalidInvocationException e) {
+            pResponse.setStatus(HttpStatus.BAD_REQUEST.value());
+            pResponse.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            pResponse.getWriter().write("bad request: " + e.getMessage());
+            return;
+        }
+
+        pResponse.setStatus(HttpStatus.OK.value());
+        pResponse.setContentType(NdjsonWriter.MEDIA_TYPE);
+        final BlockingQueue<Preview> completed = new LinkedBlockingQueue<>();
+        int submitted = 0;
+        try (NdjsonWriter writer = new NdjsonWriter(objectMapper, pResponse.getOutputStream())) {
+            for (int i = 0; i < designs.size(); i++) {
+                while (submitted < designs.size() && submitted - i < parallelism) {
+                    final String design = designs.get(submitted++);
+                    final Preview preview = new Preview(design, boxesRunnerService.submit(
+                        CommandLineBuilder.withDesign(baseCmdLine, design), invocation.getContent()));
+                    preview.result.whenComplete((pOutput, pError) -> completed.add(preview));
+                }
+                final Preview preview = completed.take();
+                String output = null;
+                Throwable error = null;
+                try {
+                    output = preview.result.getNow(null);
+                }
+                catch (RuntimeException e) {
+                    error = e;
+                }
+                writer.beginResult().writeStringField("design", preview.design);
+                writer.endResult(output, error);
+                if (completed.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        }
+    }
+
+
+
+    @NonNull
+    private List<String> selectDesigns(@NonNull final PreviewRequest pRequest)
+        throws InvalidInvocationException
+    {
+        final List<String> result;
+        if (pRequest.getDesigns() != null && !pRequest.getDesigns().isEmpty()) {
+            if (pRequest.getDesigns().size() > maxDesigns) {
+                throw new InvalidInvocationException("no more than " + maxDesigns + " designs may be requested");
+            }
+            for (final String design : pRequest.getDesigns()) {
+                if (design == null || design.isBlank()) {
+                    throw new InvalidInvocationException("design names must not be empty");
+                }
+                if (!designList.isSupported(design)) {
+                    throw new InvalidInvocationException("Specified design does not exist: " + design);
+                }
+            }
+            result = List.copyOf(new LinkedHashSet<>(pRequest.getDesigns()));
+        }
+        else if (pRequest.getFilter() != null) {
+            result = designList.select(pRequest.getFilter()::matches, maxDesigns);
+        }
+        else {
+            throw new InvalidInvocationException("either designs or a filter must be specified");
+        }
+        if (result.isEmpty()) {
+            throw new InvalidInvocationException("no designs selected");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,310 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Records how much CPU time and memory each <i>boxes</i> process uses, and aggregates the figures per design and per
+ * client into metrics.
+ * <p>The JDK reaps a child process as soon as it exits, after which its figures are gone. Running processes are
+ * therefore sampled periodically from <code>/proc/&lt;pid&gt;</code> on Linux, or from {@link ProcessHandle.Info}
+ * elsewhere, and once more when the launcher sees the end of their output, which is right before they exit. The last
+ * sample is what gets recorded. Processes which were gone before a single sample could be taken are only counted as
+ * unsampled, so that they don't drag the figures down with zeroes.</p>
+ */
+@Component
+public class ProcessAccounting
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ProcessAccounting.class);
+
+    /** <code>USER_HZ</code>, the unit of the CPU times in <code>/proc/&lt;pid&gt;/stat</code> */
+    private static final long CLOCK_TICKS_PER_SEC = 100L;
+
+    private static final Path PROC = Paths.get("/proc");
+
+    private static final boolean HAS_PROC = Files.isDirectory(PROC.resolve("self"));
+
+    /** max. number of distinct clients for which metrics are kept */
+    private static final int MAX_CLIENTS = 100;
+
+    private static final String CLIENT_METER_PREFIX = "boxes.process.client";
+
+
+
+    /**
+     * Resources used by one process.
+     */
+    public static final class Usage
+    {
+        private static final Usage NONE = new Usage(0L, 0L, -1L);
+
+        private final long userMillis;
+
+        private final long systemMillis;
+
+        private final long peakRssKb;
+
+
+
+        private Usage(final long pUserMillis, final long pSystemMillis, final long pPeakRssKb)
+        {
+            userMillis = pUserMillis;
+            systemMillis = pSystemMillis;
+            peakRssKb = pPeakRssKb;
+        }
+
+
+
+        public long getUserMillis()
+        {
+            return userMillis;
+        }
+
+
+
+        public long getSystemMillis()
+        {
+            return systemMillis;
+        }
+
+
+
+        /**
+         * Getter.
+         *
+         * @return the peak resident set size in KiB, or -1 if unknown
+         */
+        public long getPeakRssKb()
+        {
+            return peakRssKb;
+        }
+    }
+
+
+
+    /**
+     * Tracks one running process until it is finished.
+     */
+    public final class Tracker
+    {
+        private final Process process;
+
+        private final String design;
+
+        private final String client;
+
+        private volatile Usage last = Usage.NONE;
+
+
+
+        private Tracker(@NonNull final Process pProcess, @NonNull final String pDesign, @NonNull final String pClient)
+        {
+            process = pProcess;
+            design = pDesign;
+            client = pClient;
+        }
+
+
+
+        /**
+         * Take a sample now, if the process is still there. Launchers call this when the process has closed its
+         * output, because that is the last moment before the process is reaped.
+         */
+        void sample()
+        {
+            final Usage usage = read(process);
+            if (usage != null) {
+                // an exiting process has already released its memory, so keep the peak seen before
+                last = usage.peakRssKb >= 0L ? usage : new Usage(usage.userMillis, usage.systemMillis, last.peakRssKb);
+            }
+        }
+
+
+
+        /**
+         * Take a final sample if the process is still there, stop tracking it, and record its usage.
+         *
+         * @return the usage recorded
+         */
+        @NonNull
+        public Usage finish()
+        {
+            sample();
+            running.remove(this);
+            record(this);
+            return last;
+        }
+    }
+
+
+
+    private final Set<Tracker> running = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService sampler;
+
+    private final MeterRegistry meterRegistry;
+
+
+
+    public ProcessAccounting(@Value("${boxes.accounting.sample-millis:20}") final long pSampleMillis,
+        @NonNull final MeterRegistry pMeterRegistry)
+    {
+        Assert.notNull(pMeterRegistry, "required parameter pMeterRegistry was not injected");
+        meterRegistry = pMeterRegistry;
+        meterRegistry.config().meterFilter(
+            MeterFilter.maximumAllowableTags(CLIENT_METER_PREFIX, "client", MAX_CLIENTS, MeterFilter.deny()));
+
+        sampler = Executors.newSingleThreadScheduledExecutor(pRunnable -> {
+            final Thread thread = new Thread(pRunnable, "boxes-accounting");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sampleAll, pSampleMillis, pSampleMillis, TimeUnit.MILLISECONDS);
+    }
+
+
+
+    /**
+     * Start tracking a process.
+     *
+     * @param pProcess the freshly started <i>boxes</i> process
+     * @param pCmdLine the command line it was started with
+     * @param pContext the request on whose behalf it runs
+     * @return the tracker, which must be finished when the process has ended
+     */
+    @NonNull
+    public Tracker start(@NonNull final Process pProcess, @NonNull final List<String> pCmdLine,
+        @NonNull final BoxesRequestContext pContext)
+    {
+        final String design = CommandLineBuilder.usesSharedConfig(pCmdLine)
+            ? Objects.requireNonNullElse(CommandLineBuilder.designOf(pCmdLine), "default")
+            : "custom";   // custom design names are chosen by users, so they must not become tags
+        final Tracker result = new Tracker(pProcess, design, pContext.getClientId());
+        running.add(result);
+        return result;
+    }
+
+
+
+    private void sampleAll()
+    {
+        for (final Tracker tracker : running) {
+            tracker.sample();
+        }
+    }
+
+
+
+    @Nullable
+    private static Usage read(@NonNull final Process pProcess)
+    {
+        if (!HAS_PROC) {
+            final Optional<Duration> cpu = pProcess.info().totalCpuDuration();
+            return cpu.map(duration -> new Usage(duration.toMillis(), 0L, -1L)).orElse(null);
+        }
+        try {
+            final Path procDir = PROC.resolve(String.valueOf(pProcess.pid()));
+            final String stat = new String(Files.readAllBytes(procDir.resolve("stat")), StandardCharsets.US_ASCII);
+            // the command name may contain spaces, so start counting fields after it
+            final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            final long userTicks = Long.parseLong(fields[11]);
+            final long systemTicks = Long.parseLong(fields[12]);
+            return new Usage(userTicks * 1000L / CLOCK_TICKS_PER_SEC, systemTicks * 1000L / CLOCK_TICKS_PER_SEC,
+                readPeakRss(procDir));
+        }
+        catch (IOException | RuntimeException e) {
+            return null;   // process has already been reaped
+        }
+    }
+
+
+
+    private static long readPeakRss(@NonNull final Path pProcDir)
+        throws IOException
+    {
+        for (final String line : Files.readAllLines(pProcDir.resolve("status"), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("VmHWM:")) {
+                return Long.parseLong(line.substring(6).replace("kB", "").trim());
+            }
+        }
+        return -1L;
+    }
+
+
+
+    private void record(@NonNull final Tracker pTracker)
+    {
+        final Usage usage = pTracker.last;
+        if (usage == Usage.NONE) {
+            Counter.builder("boxes.process.unsampled").tag("design", pTracker.design)//
+                .register(meterRegistry).increment();
+            LOG.debug("Process {} (design {}, client {}) was gone before it could be sampled", pTracker.process.pid(),
+                pTracker.design, pTracker.client);
+            return;
+        }
+        Counter.builder("boxes.process.cpu").baseUnit("milliseconds").tag("mode", "user")//
+            .tag("design", pTracker.design).register(meterRegistry).increment(usage.userMillis);
+        Counter.builder("boxes.process.cpu").baseUnit("milliseconds").tag("mode", "system")//
+            .tag("design", pTracker.design).register(meterRegistry).increment(usage.systemMillis);
+        Counter.builder(CLIENT_METER_PREFIX + ".cpu").baseUnit("milliseconds").tag("client", pTracker.client)//
+            .register(meterRegistry).increment(usage.userMillis + usage.systemMillis);
+        if (usage.peakRssKb >= 0L) {
+            DistributionSummary.builder("boxes.process.rss.peak").baseUnit("kilobytes")//
+                .tag("design", pTracker.design).register(meterRegistry).record(usage.peakRssKb);
+        }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Process {} (design {}, client {}) used {} ms user, {} ms system CPU, peak RSS {} KiB",
+                pTracker.process.pid(), pTracker.design, pTracker.client, usage.userMillis, usage.systemMillis,
+                usage.peakRssKb);
+        }
+    }
+
+
+
+    @PreDestroy
+    public void close()
+    {
+        sampler.shutdownNow();
+    }
+}
@@ -0,0 +1,81 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.lang.NonNull;
+import org.zeroturnaround.exec.InvalidExitValueException;
+
+
+/**
+ * Starts a <i>boxes</i> process, feeds it its input, and collects its output.
+ */
+public interface ProcessLauncher
+{
+    /**
+     * Notified right after the process was started, and again when it has closed its output.
+     */
+    @FunctionalInterface
+    interface StartListener
+    {
+        void started(@NonNull Process pProcess);
+
+
+
+        /**
+         * The process has closed its output, so it is about to exit, but has not been reaped yet. Called on whichever
+         * thread reads the output.
+         */
+        default void outputClosed()
+        {
+            // nothing to do
+        }
+    }
+
+
+
+    /**
+     * Run a process to completion. Standard error is merged into standard output.
+     *
+     * @param pCmdLine the command line to execute
+     * @param pInput a buffer holding the bytes to write to the process's standard input; it is not used anymore when
+     *     this method returns
+     * @param pInputLength how many bytes of the input buffer to write
+     * @param pOutput receives everything the process writes to standard output and standard error
+     * @param pTimeoutNanos how long the process may run before it is forcibly stopped
+     * @param pStartListener notified right after the process was started, and when it has closed its output
+     * @throws InvalidExitValueException the process exited with an exit value other than 0
+     * @throws TimeoutException the process ran for longer than the timeout and was stopped
+     * @throws IOException the process could not be started, or communicating with it failed
+     * @throws InterruptedException the calling thread was interrupted; the process is stopped in this case
+     */
+    void launch(@NonNull List<String> pCmdLine, @NonNull byte[] pInput, int pInputLength,
+        @NonNull PooledOutputStream pOutput, long pTimeoutNanos, @NonNull StartListener pStartListener)
+        throws IOException, InterruptedException, TimeoutException;
+
+
+
+    /**
+     * Release the threads of this launcher, if it has any. No processes are launched afterwards.
+     */
+    default void shutdown()
+    {
+        // nothing to do
+    }
+}
@@ -0,0 +1,103 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.net.InetSocketAddress;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * The counterpart of the {@link BoxesRequestFilter} for the <code>reactive</code> profile. A request may be processed
+ * by several threads there, so the {@link BoxesRequestContext} is stored with the exchange, and only bound to a thread
+ * around calls which need it (see {@link #callWithContext}).
+ * <p>The client is identified by its remote address, as with the servlet stack.</p>
+ */
+@Component
+@Profile("reactive")
+public class ReactiveRequestFilter
+    implements WebFilter
+{
+    private static final String CONTEXT_ATTRIBUTE = BoxesRequestContext.class.getName();
+
+
+
+    /**
+     * A call made on behalf of a request.
+     *
+     * @param <T> type of the result
+     */
+    @FunctionalInterface
+    public interface ContextCall<T>
+    {
+        T call();
+    }
+
+
+
+    @Override
+    @NonNull
+    public Mono<Void> filter(@NonNull final ServerWebExchange pExchange, @NonNull final WebFilterChain pChain)
+    {
+        pExchange.getAttributes().put(CONTEXT_ATTRIBUTE,
+            new BoxesRequestContext(clientId(pExchange.getRequest().getRemoteAddress())));
+        return pChain.filter(pExchange);
+    }
+
+
+
+    @NonNull
+    static String clientId(@Nullable final InetSocketAddress pRemoteAddress)
+    {
+        if (pRemoteAddress == null) {
+            return "unknown";
+        }
+        return pRemoteAddress.getAddress() != null ? pRemoteAddress.getAddress().getHostAddress()
+            : pRemoteAddress.getHostString();
+    }
+
+
+
+    /**
+     * Make a call with the context of the given request bound to the current thread.
+     *
+     * @param pExchange the exchange of the request
+     * @param pCall the call
+     * @param <T> type of the result
+     * @return the result of the call
+     */
+    public static <T> T callWithContext(@NonNull final ServerWebExchange pExchange, @NonNull final ContextCall<T> pCall)
+    {
+        final Object context = pExchange.getAttributes().get(CONTEXT_ATTRIBUTE);
+        if (!(context instanceof BoxesRequestContext)) {
+            return pCall.call();
+        }
+        BoxesRequestContext.bind((BoxesRequestContext) context);
+        try {
+            return pCall.call();
+        }
+        finally {
+            BoxesRequestContext.unbind();
+        }
+    }
+}
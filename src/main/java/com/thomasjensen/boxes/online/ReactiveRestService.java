@@ -0,0 +1,199 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.util.Assert;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * Non-blocking variant of the {@link RestService}, active with the <code>reactive</code> profile. The <i>boxes</i>
+ * process still performs blocking I/O, but only on the threads of the {@link BoxesRunnerService}, so the event loop
+ * is never blocked waiting for a process.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveRestService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ReactiveRestService.class);
+
+    /** size of the chunks in which the output is handed to the response, so that it can be sent as demanded */
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final DefaultDataBufferFactory BUFFER_FACTORY = new DefaultDataBufferFactory();
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final Validator validator;
+
+    private final PayloadLog payloadLog;
+
+    private final DesignFingerprintIndex designFingerprintIndex;
+
+    private final CustomDesignStore customDesignStore;
+
+
+
+    @Autowired
+    public ReactiveRestService(final BoxesRunnerService pBoxesRunnerService, final Validator pValidator,
+        final PayloadLog pPayloadLog, final DesignFingerprintIndex pDesignFingerprintIndex,
+        final CustomDesignStore pCustomDesignStore)
+    {
+        super();
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pPayloadLog, "PayloadLog not injected");
+        payloadLog = pPayloadLog;
+
+        Assert.notNull(pDesignFingerprintIndex, "DesignFingerprintIndex not injected");
+        designFingerprintIndex = pDesignFingerprintIndex;
+
+        Assert.notNull(pCustomDesignStore, "CustomDesignStore not injected");
+        customDesignStore = pCustomDesignStore;
+    }
+
+
+
+    @PostMapping(value = "/draw", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
+    public Mono<ResponseEntity<Flux<DataBuffer>>> drawBox(@NonNull @RequestBody final Invocation pInvocation,
+        @Nullable @RequestHeader(name = RestService.SESSION_HEADER, required = false) final String pSessionId,
+        @NonNull final ServerWebExchange pExchange)
+    {
+        payloadLog.received(pInvocation);
+        final String configFile;
+        final List<String> cmdLine;
+        try {
+            validator.validate(pInvocation, true);
+            configFile = customDesignStore.resolve(pInvocation);
+            cmdLine = new CommandLineBuilder(pInvocation, configFile).build();
+        }
+        catch (InvalidInvocationException e) {
+            payloadLog.invalid(pInvocation, e.getMessage());
+            return Mono.just(textResponse(HttpStatus.BAD_REQUEST, "bad request: " + e.getMessage()));
+        }
+
+        // sessions are scoped by client, so the client must be known when submitting
+        return Mono.fromFuture(ReactiveRequestFilter.callWithContext(pExchange,
+            () -> customDesignStore.releaseWhenDone(configFile,
+                () -> boxesRunnerService.submit(pInvocation, cmdLine, RestService.sessionId(pSessionId)))))//
+            .map(output -> textResponse(HttpStatus.OK, output))//
+            .onErrorResume(TimeoutException.class, e -> {
+                LOG.error("Boxes worker thread timed out, which means the server is overloaded", e);
+                return Mono.just(textResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()));
+            })//
+            .onErrorResume(BoxesUnavailableException.class,
+                e -> Mono.just(textResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage())))//
+            .onErrorResume(SupersededException.class,
+                e -> Mono.just(textResponse(HttpStatus.CONFLICT, e.getMessage())))//
+            .onErrorResume(RuntimeException.class, e -> {
+                LOG.error("internal error: {}", e.getMessage(), e);
+                return Mono.just(textResponse(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
+            });
+    }
+
+
+
+    @PostMapping(value = "/unbox", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
+    public Mono<ResponseEntity<Flux<DataBuffer>>> unbox(@NonNull @RequestBody final Invocation pInvocation,
+        @NonNull final ServerWebExchange pExchange)
+    {
+        payloadLog.received(pInvocation);
+        final String detected;
+        final List<String> cmdLine;
+        try {
+            validator.validateUnbox(pInvocation);
+            detected = RestService.detectDesign(designFingerprintIndex, pInvocation);
+            cmdLine = new CommandLineBuilder(pInvocation).buildRemoval();
+        }
+        catch (InvalidInvocationException e) {
+            payloadLog.invalid(pInvocation, e.getMessage());
+            return Mono.just(textResponse(HttpStatus.BAD_REQUEST, "bad request: " + e.getMessage()));
+        }
+
+        Mono<String> result = Mono.fromFuture(ReactiveRequestFilter.callWithContext(pExchange,
+            () -> boxesRunnerService.submit(cmdLine, pInvocation.getContent())));
+        if (detected != null) {
+            result = result.onErrorResume(BoxesExecutionException.class, e -> {
+                LOG.debug("Removing box of detected design '{}' failed, retrying without design", detected);
+                return Mono.fromFuture(ReactiveRequestFilter.callWithContext(pExchange,
+                    () -> boxesRunnerService.submit(CommandLineBuilder.withoutDesign(cmdLine),
+                        pInvocation.getContent())));
+            });
+        }
+        return result.map(output -> textResponse(HttpStatus.OK, output))//
+            .onErrorResume(TimeoutException.class, e -> {
+                LOG.error("Boxes worker thread timed out, which means the server is overloaded", e);
+                return Mono.just(textResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage()));
+            })//
+            .onErrorResume(BoxesUnavailableException.class,
+                e -> Mono.just(textResponse(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage())))//
+            .onErrorResume(RuntimeException.class, e -> {
+                LOG.error("internal error: {}", e.getMessage(), e);
+                return Mono.just(textResponse(HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage()));
+            });
+    }
+
+
+
+    private ResponseEntity<Flux<DataBuffer>> textResponse(@NonNull final HttpStatus pStatus, final String pText)
+    {
+        return ResponseEntity.status(pStatus).contentType(MediaType.TEXT_PLAIN).body(chunks(pText));
+    }
+
+
+
+    /**
+     * Hand out the text in chunks, each one only when the response asks for more.
+     *
+     * @param pText the text to send; <i>boxes</i> output is plain ASCII
+     * @return the chunks, wrapping the encoded text without copying it again
+     */
+    private static Flux<DataBuffer> chunks(final String pText)
+    {
+        final byte[] bytes = (pText != null ? pText : "").getBytes(StandardCharsets.US_ASCII);
+        final int numChunks = Math.max(1, (bytes.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        return Flux.range(0, numChunks).map((Integer i) -> {
+            final int offset = i * CHUNK_SIZE;
+            return BUFFER_FACTORY.wrap(ByteBuffer.wrap(bytes, offset, Math.min(CHUNK_SIZE, bytes.length - offset)));
+        });
+    }
+}
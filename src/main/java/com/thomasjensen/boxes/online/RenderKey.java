@@ -0,0 +1,169 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+
+/**
+ * Identifies the result of a <i>boxes</i> execution: A SHA-256 hash over the complete command line plus the input
+ * text. Two executions with equal keys produce the same output.
+ */
+public final class RenderKey
+{
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] hash;
+
+    private final int hashCode;
+
+
+
+    private RenderKey(@NonNull final byte[] pHash)
+    {
+        hash = pHash;
+        hashCode = Arrays.hashCode(pHash);
+    }
+
+
+
+    @NonNull
+    public static RenderKey of(@NonNull final List<String> pCmdLine, @NonNull final String pInputText)
+    {
+        Assert.notNull(pCmdLine, "missing required argument: pCmdLine");
+        Assert.notNull(pInputText, "missing required argument: pInputText");
+        final MessageDigest digest = newDigest();
+        for (final String arg : pCmdLine) {
+            digest.update(arg.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        digest.update((byte) 0);
+        digest.update(pInputText.getBytes(StandardCharsets.UTF_8));
+        return new RenderKey(digest.digest());
+    }
+
+
+
+    /**
+     * Restore a key from its binary form.
+     *
+     * @param pHash the hash as returned by {@link #getHash()}
+     * @return the key
+     */
+    @NonNull
+    public static RenderKey fromHash(@NonNull final byte[] pHash)
+    {
+        Assert.isTrue(pHash != null && pHash.length == 32, "invalid render key hash");
+        return new RenderKey(pHash.clone());
+    }
+
+
+
+    static MessageDigest newDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported by this Java runtime", e);
+        }
+    }
+
+
+
+    /**
+     * Getter.
+     *
+     * @return a copy of the 32 hash bytes
+     */
+    @NonNull
+    public byte[] getHash()
+    {
+        return hash.clone();
+    }
+
+
+
+    /**
+     * A 64 bit value derived from the hash, for use by hash-based data structures.
+     *
+     * @return the first eight bytes of the hash
+     */
+    public long longValue()
+    {
+        long result = 0L;
+        for (int i = 0; i < Long.BYTES; i++) {
+            result = (result << 8) | (hash[i] & 0xffL);
+        }
+        return result;
+    }
+
+
+
+    @Override
+    public boolean equals(final Object pOther)
+    {
+        if (this == pOther) {
+            return true;
+        }
+        if (pOther == null || getClass() != pOther.getClass()) {
+            return false;
+        }
+        return Arrays.equals(hash, ((RenderKey) pOther).hash);
+    }
+
+
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+
+
+    @Override
+    public String toString()
+    {
+        return toHex(hash);
+    }
+
+
+
+    /**
+     * Format bytes as lowercase hex digits.
+     *
+     * @param pBytes the bytes
+     * @return two hex digits per byte
+     */
+    @NonNull
+    static String toHex(@NonNull final byte[] pBytes)
+    {
+        final char[] result = new char[pBytes.length * 2];
+        for (int i = 0; i < pBytes.length; i++) {
+            result[i * 2] = HEX_DIGITS[(pBytes[i] >> 4) & 0xf];
+            result[i * 2 + 1] = HEX_DIGITS[pBytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+}
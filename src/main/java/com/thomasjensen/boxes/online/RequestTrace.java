@@ -0,0 +1,293 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Records how long the phases of one request took: JSON binding, validation, building the command line, waiting for
+ * an execution slot, forking, running <i>boxes</i>, and writing the response. Phases may be recorded from different
+ * threads. The phases are reported in a <code>Server-Timing</code> header and exported as spans by the
+ * {@link SpanExporter}. Trace and span IDs are only created when they are first asked for, which happens only when
+ * spans are exported.
+ */
+public final class RequestTrace
+{
+    private static final Pattern TRACEPARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}");
+
+    /** a trace which records nothing, for use outside of HTTP requests */
+    static final RequestTrace NOOP = new RequestTrace(false, null);
+
+    private final boolean enabled;
+
+    @Nullable
+    private final String traceParent;
+
+    /** created on first use, like the span IDs; guarded by <code>this</code> */
+    private String traceId;
+
+    @Nullable
+    private String parentSpanId;
+
+    private String spanId;
+
+    private final long startNanos;
+
+    private final long startEpochNanos;
+
+    private final List<Phase> phases = new ArrayList<>();
+
+    private long endNanos = 0L;
+
+
+
+    /**
+     * One completed phase of a request.
+     */
+    public static final class Phase
+    {
+        private final String name;
+
+        private final long startNanos;
+
+        private final long endNanos;
+
+
+
+        private Phase(@NonNull final String pName, final long pStartNanos, final long pEndNanos)
+        {
+            name = pName;
+            startNanos = pStartNanos;
+            endNanos = pEndNanos;
+        }
+
+
+
+        public String getName()
+        {
+            return name;
+        }
+
+
+
+        public long getStartNanos()
+        {
+            return startNanos;
+        }
+
+
+
+        public long getEndNanos()
+        {
+            return endNanos;
+        }
+    }
+
+
+
+    private RequestTrace(final boolean pEnabled, @Nullable final String pTraceParent)
+    {
+        enabled = pEnabled;
+        startNanos = System.nanoTime();
+        startEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        traceParent = pTraceParent;
+    }
+
+
+
+    private void initIds()
+    {
+        if (spanId != null) {
+            return;
+        }
+        spanId = randomHex(8);
+        final Matcher matcher = TRACEPARENT.matcher(traceParent != null ? traceParent : "");
+        if (matcher.matches()) {
+            traceId = matcher.group(1);
+            parentSpanId = matcher.group(2);
+        }
+        else {
+            traceId = randomHex(16);
+        }
+    }
+
+
+
+    /**
+     * Start a new trace, continuing the caller's trace if a W3C <code>traceparent</code> header was sent.
+     *
+     * @param pTraceParent the value of the <code>traceparent</code> header, if any
+     * @return the new trace
+     */
+    @NonNull
+    public static RequestTrace start(@Nullable final String pTraceParent)
+    {
+        return new RequestTrace(true, pTraceParent);
+    }
+
+
+
+    @NonNull
+    static String randomHex(final int pNumBytes)
+    {
+        final byte[] bytes = new byte[pNumBytes];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return RenderKey.toHex(bytes);
+    }
+
+
+
+    /**
+     * Record a phase which started at the given time and ends now.
+     *
+     * @param pName the name of the phase
+     * @param pStartNanos when the phase started, as per {@link System#nanoTime()}
+     */
+    public void record(@NonNull final String pName, final long pStartNanos)
+    {
+        record(pName, pStartNanos, System.nanoTime());
+    }
+
+
+
+    public void record(@NonNull final String pName, final long pStartNanos, final long pEndNanos)
+    {
+        if (enabled) {
+            synchronized (phases) {
+                phases.add(new Phase(pName, pStartNanos, pEndNanos));
+            }
+        }
+    }
+
+
+
+    /**
+     * Render the phases recorded so far as the value of a <code>Server-Timing</code> header.
+     *
+     * @return the header value, for example <code>validate;dur=0.12, run;dur=4.70</code>
+     */
+    @NonNull
+    public String toServerTiming()
+    {
+        final StringBuilder sb = new StringBuilder();
+        synchronized (phases) {
+            for (final Phase phase : phases) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(phase.name).append(";dur=");
+                sb.append(String.format(Locale.ROOT, "%.2f", (phase.endNanos - phase.startNanos) / 1_000_000d));
+            }
+        }
+        return sb.toString();
+    }
+
+
+
+    /**
+     * Mark the request as complete. Everything after the last recorded phase is recorded as writing the response.
+     */
+    public void finish()
+    {
+        endNanos = System.nanoTime();
+        long lastPhaseEnd = startNanos;
+        synchronized (phases) {
+            for (final Phase phase : phases) {
+                lastPhaseEnd = Math.max(lastPhaseEnd, phase.endNanos);
+            }
+        }
+        record("write", lastPhaseEnd, endNanos);
+    }
+
+
+
+    @NonNull
+    public List<Phase> getPhases()
+    {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+
+
+    public synchronized String getTraceId()
+    {
+        initIds();
+        return traceId;
+    }
+
+
+
+    @Nullable
+    public synchronized String getParentSpanId()
+    {
+        initIds();
+        return parentSpanId;
+    }
+
+
+
+    public synchronized String getSpanId()
+    {
+        initIds();
+        return spanId;
+    }
+
+
+
+    public long getStartNanos()
+    {
+        return startNanos;
+    }
+
+
+
+    public long getEndNanos()
+    {
+        return endNanos;
+    }
+
+
+
+    /**
+     * Convert a {@link System#nanoTime()} value of this trace to nanoseconds since the epoch.
+     *
+     * @param pNanos the value to convert
+     * @return nanoseconds since the epoch
+     */
+    public long toEpochNanos(final long pNanos)
+    {
+        return startEpochNanos + (pNanos - startNanos);
+    }
+}
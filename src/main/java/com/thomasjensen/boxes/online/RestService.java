@@ -18,39 +18,58 @@ package com.thomasjensen.boxes.online;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 
 /**
- * The REST service exposed by the backend for use by the frontend.
+ * The REST service exposed by the backend for use by the frontend. See {@link ReactiveRestService} for the variant
+ * used with the <code>reactive</code> profile.
  */
 @RestController
 @EnableAutoConfiguration
+@Profile("!reactive")
 public class RestService
 {
     private static final Logger LOG = LoggerFactory.getLogger(RestService.class);
 
+    static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    /** optional header identifying a live preview session, so that newer requests supersede older ones */
+    static final String SESSION_HEADER = "X-Boxes-Session";
+
+    /** longer session IDs are ignored */
+    static final int MAX_SESSION_ID_LEN = 128;
+
     private final BoxesRunnerService boxesRunnerService;
 
     private final Validator validator;
 
+    private final PayloadLog payloadLog;
+
+    private final DesignFingerprintIndex designFingerprintIndex;
+
+    private final CustomDesignStore customDesignStore;
+
 
 
     @Autowired
-    public RestService(final BoxesRunnerService pBoxesRunnerService, final Validator pValidator)
+    public RestService(final BoxesRunnerService pBoxesRunnerService, final Validator pValidator,
+        final PayloadLog pPayloadLog, final DesignFingerprintIndex pDesignFingerprintIndex,
+        final CustomDesignStore pCustomDesignStore)
     {
         super();
         Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
@@ -58,51 +77,193 @@ public class RestService
 
         Assert.notNull(pValidator, "Validator not injected");
         validator = pValidator;
+
+        Assert.notNull(pPayloadLog, "PayloadLog not injected");
+        payloadLog = pPayloadLog;
+
+        Assert.notNull(pDesignFingerprintIndex, "DesignFingerprintIndex not injected");
+        designFingerprintIndex = pDesignFingerprintIndex;
+
+        Assert.notNull(pCustomDesignStore, "CustomDesignStore not injected");
+        customDesignStore = pCustomDesignStore;
     }
 
 
 
     @PostMapping(value = "/draw", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
-    public ResponseEntity<String> drawBox(@NonNull @RequestBody final Invocation pInvocation)
+    public ResponseEntity<?> drawBox(@NonNull @RequestBody final Invocation pInvocation,
+        @Nullable @RequestHeader(name = SESSION_HEADER, required = false) final String pSessionId)
     {
-        if (LOG.isDebugEnabled()) {
-            String json = "";
-            try {
-                json = new ObjectMapper().writeValueAsString(pInvocation);
-            }
-            catch (JsonProcessingException | RuntimeException e) {
-                json = "<ERROR>";
-            }
-            LOG.debug("drawBox() - received request: " + json);
-        }
+        final RequestTrace trace = BoxesRequestContext.current().getTrace();
+        trace.record("bind", trace.getStartNanos());
+        payloadLog.received(pInvocation);
+        BoxesEvents.requestReceived("/draw", pInvocation);
 
+        String configFile = null;
         try {
-            validator.validate(pInvocation);
-            List<String> cmdLine = new CommandLineBuilder(pInvocation).build();
-            String resultBody = boxesRunnerService.execute(cmdLine, pInvocation.getContent());
-            return new ResponseEntity<>(resultBody, HttpStatus.OK);
+            long phaseStart = System.nanoTime();
+            validate(pInvocation, false);
+            trace.record("validate", phaseStart);
+            phaseStart = System.nanoTime();
+            configFile = customDesignStore.resolve(pInvocation);
+            List<String> cmdLine = new CommandLineBuilder(pInvocation, configFile).build();
+            trace.record("cmdline", phaseStart);
+            final BoxesRequestContext context = BoxesRequestContext.current();
+            final OffHeapRenderStore.Lease cached = context.isClientKnown()
+                ? boxesRunnerService.lookupRaw(cmdLine, pInvocation.getContent()) : null;
+            if (cached != null) {
+                context.closeOnCompletion(cached);   // in case the OffHeapLeaseMessageConverter never gets to it
+                return respond(cached, HttpStatus.OK, trace);
+            }
+            String resultBody = boxesRunnerService.execute(pInvocation, cmdLine, sessionId(pSessionId));
+            return respond(resultBody, HttpStatus.OK, trace);
         }
         catch (InvalidInvocationException e) {
-            if (LOG.isDebugEnabled()) {
-                String json = "";
-                try {
-                    json = new ObjectMapper().writeValueAsString(pInvocation);
-                }
-                catch (JsonProcessingException | RuntimeException ex) {
-                    LOG.debug("Error serializing invocation for error message: " + ex.getMessage(), ex);
+            payloadLog.invalid(pInvocation, e.getMessage());
+            return respond("bad request: " + e.getMessage(), HttpStatus.BAD_REQUEST, trace);
+        }
+        catch (BoxesUnavailableException e) {
+            return respond(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE, trace);
+        }
+        catch (SupersededException e) {
+            return respond(e.getMessage(), HttpStatus.CONFLICT, trace);
+        }
+        catch (InterruptedException | RuntimeException e) {
+            LOG.error("internal error: {}", e.getMessage(), e);
+            return respond(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR, trace);
+        }
+        catch (TimeoutException e) {
+            LOG.error("Boxes worker thread timed out, which means the server is overloaded", e);
+            return respond(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE, trace);
+        }
+        finally {
+            customDesignStore.release(configFile);
+        }
+    }
+
+
+
+    /**
+     * Remove a box. If no design is specified, it is looked up in the {@link DesignFingerprintIndex} first, and only
+     * if that fails, or the design found turns out to be wrong, <i>boxes</i> has to try all designs.
+     *
+     * @param pInvocation the invocation, whose content is the box to remove
+     * @return the content without the box
+     */
+    @PostMapping(value = "/unbox", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> unbox(@NonNull @RequestBody final Invocation pInvocation)
+    {
+        final RequestTrace trace = BoxesRequestContext.current().getTrace();
+        trace.record("bind", trace.getStartNanos());
+        payloadLog.received(pInvocation);
+        BoxesEvents.requestReceived("/unbox", pInvocation);
+
+        try {
+            long phaseStart = System.nanoTime();
+            validate(pInvocation, true);
+            trace.record("validate", phaseStart);
+            phaseStart = System.nanoTime();
+            final String detected = detectDesign(designFingerprintIndex, pInvocation);
+            List<String> cmdLine = new CommandLineBuilder(pInvocation).buildRemoval();
+            trace.record("cmdline", phaseStart);
+            String resultBody;
+            try {
+                resultBody = boxesRunnerService.execute(cmdLine, pInvocation.getContent());
+            }
+            catch (BoxesExecutionException e) {
+                if (detected == null) {
+                    throw e;
                 }
-                LOG.debug("Invocation received did not validate. " + e.getMessage() + (json.isEmpty() ? ""
-                    : (" in " + json)));
+                LOG.debug("Removing box of detected design '{}' failed, retrying without design", detected);
+                resultBody = boxesRunnerService.execute(CommandLineBuilder.withoutDesign(cmdLine),
+                    pInvocation.getContent());
             }
-            return new ResponseEntity<>("bad request: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+            return respond(resultBody, HttpStatus.OK, trace);
+        }
+        catch (InvalidInvocationException e) {
+            payloadLog.invalid(pInvocation, e.getMessage());
+            return respond("bad request: " + e.getMessage(), HttpStatus.BAD_REQUEST, trace);
+        }
+        catch (BoxesUnavailableException e) {
+            return respond(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE, trace);
         }
         catch (InterruptedException | RuntimeException e) {
-            LOG.error("internal error: " + e.getMessage(), e);
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+            LOG.error("internal error: {}", e.getMessage(), e);
+            return respond(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR, trace);
         }
         catch (TimeoutException e) {
             LOG.error("Boxes worker thread timed out, which means the server is overloaded", e);
-            return new ResponseEntity<>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+            return respond(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE, trace);
+        }
+    }
+
+
+
+    /**
+     * Validate an invocation and record a {@link BoxesEvents.Validation} event for it.
+     *
+     * @param pInvocation the invocation
+     * @param pRemoval <code>true</code> if the invocation is for removing a box
+     * @throws InvalidInvocationException the invocation is invalid
+     */
+    private void validate(@NonNull final Invocation pInvocation, final boolean pRemoval)
+        throws InvalidInvocationException
+    {
+        final BoxesEvents.Validation event = new BoxesEvents.Validation();
+        event.begin();
+        try {
+            if (pRemoval) {
+                validator.validateUnbox(pInvocation);
+            }
+            else {
+                validator.validate(pInvocation, true);
+            }
+        }
+        catch (InvalidInvocationException e) {
+            event.finish(pInvocation, e.getMessage());
+            throw e;
+        }
+        event.finish(pInvocation, null);
+    }
+
+
+
+    /**
+     * Set the design of a validated unbox invocation from the fingerprint index, unless one was specified.
+     *
+     * @param pIndex the fingerprint index
+     * @param pInvocation the invocation
+     * @return the detected design which was set, or <code>null</code> if the invocation was not changed
+     */
+    @Nullable
+    static String detectDesign(@NonNull final DesignFingerprintIndex pIndex, @NonNull final Invocation pInvocation)
+    {
+        String result = null;
+        if (pInvocation.getDesign() == null) {
+            result = pIndex.detect(pInvocation.getContent());
+            pInvocation.setDesign(result);
+        }
+        return result;
+    }
+
+
+
+    @Nullable
+    static String sessionId(@Nullable final String pHeaderValue)
+    {
+        return pHeaderValue != null && !pHeaderValue.isEmpty() && pHeaderValue.length() <= MAX_SESSION_ID_LEN
+            ? pHeaderValue : null;
+    }
+
+
+
+    private static ResponseEntity<?> respond(final Object pBody, @NonNull final HttpStatus pStatus,
+        @NonNull final RequestTrace pTrace)
+    {
+        final ResponseEntity.BodyBuilder builder = ResponseEntity.status(pStatus);
+        if (pTrace.isEnabled()) {
+            builder.header(SERVER_TIMING_HEADER, pTrace.toServerTiming());
         }
+        return builder.body(pBody);
     }
 }
@@ -0,0 +1,52 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Actuator endpoint <code>/actuator/slowrenders</code> which lists the slowest <i>boxes</i> executions recorded by the
+ * {@link SlowRenderRecorder}.
+ */
+@Component
+@Endpoint(id = "slowrenders")
+public class SlowRenderEndpoint
+{
+    private final SlowRenderRecorder slowRenderRecorder;
+
+
+
+    public SlowRenderEndpoint(@NonNull final SlowRenderRecorder pSlowRenderRecorder)
+    {
+        Assert.notNull(pSlowRenderRecorder, "SlowRenderRecorder not injected");
+        slowRenderRecorder = pSlowRenderRecorder;
+    }
+
+
+
+    @ReadOperation
+    public List<SlowRenderRecorder.Entry> slowRenders()
+    {
+        return slowRenderRecorder.getSlowest();
+    }
+}
@@ -0,0 +1,327 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Keeps the slowest <i>boxes</i> executions of a sliding time window, so that it can be seen which inputs were slow
+ * when latency spikes. The window is divided into a ring of buckets, each of which holds the slowest executions of its
+ * own time slice. An execution faster than the fastest one in a full bucket is rejected after reading one volatile
+ * field, without allocating, so the recorder can be left on all the time. Entries are swapped into buckets by
+ * compare-and-set, never under a lock.
+ */
+@Component
+public class SlowRenderRecorder
+{
+    /** number of time slices in the window */
+    static final int BUCKETS = 5;
+
+    private final int maxEntries;
+
+    private final long bucketMillis;
+
+    private final AtomicReferenceArray<Bucket> ring = new AtomicReferenceArray<>(BUCKETS);
+
+
+
+    /**
+     * One recorded execution.
+     */
+    public static final class Entry
+    {
+        private final long timestamp;
+
+        private final String design;
+
+        private final String options;
+
+        private final int contentHash;
+
+        private final int contentSize;
+
+        private final int contentLines;
+
+        private final long queueNanos;
+
+        private final long execNanos;
+
+        private final String status;
+
+
+
+        Entry(final long pTimestamp, @Nullable final String pDesign, @NonNull final String pOptions,
+            @Nullable final String pContent, final long pQueueNanos, final long pExecNanos,
+            @NonNull final String pStatus)
+        {
+            timestamp = pTimestamp;
+            design = pDesign;
+            options = pOptions;
+            contentHash = PayloadLog.hash(pContent);
+            contentSize = PayloadLog.length(pContent);
+            contentLines = PayloadLog.countLines(pContent);
+            queueNanos = pQueueNanos;
+            execNanos = pExecNanos;
+            status = pStatus;
+        }
+
+
+
+        public Instant getTimestamp()
+        {
+            return Instant.ofEpochMilli(timestamp);
+        }
+
+
+
+        public String getDesign()
+        {
+            return design;
+        }
+
+
+
+        public String getOptions()
+        {
+            return options;
+        }
+
+
+
+        public int getContentHash()
+        {
+            return contentHash;
+        }
+
+
+
+        public int getContentSize()
+        {
+            return contentSize;
+        }
+
+
+
+        public int getContentLines()
+        {
+            return contentLines;
+        }
+
+
+
+        public double getQueueMillis()
+        {
+            return queueNanos / 1e6d;
+        }
+
+
+
+        public double getExecMillis()
+        {
+            return execNanos / 1e6d;
+        }
+
+
+
+        long getExecNanos()
+        {
+            return execNanos;
+        }
+
+
+
+        public String getStatus()
+        {
+            return status;
+        }
+    }
+
+
+
+    /**
+     * The slowest executions of one time slice.
+     */
+    private static final class Bucket
+    {
+        /** the number of the time slice, counted in bucket lengths since the epoch */
+        private final long slice;
+
+        private final AtomicReferenceArray<Entry> slots;
+
+        /** executions not slower than this are rejected; a lower bound of the fastest entry once all slots are used */
+        private final AtomicLong threshold = new AtomicLong();
+
+
+
+        Bucket(final long pSlice, final int pSize)
+        {
+            slice = pSlice;
+            slots = new AtomicReferenceArray<>(pSize);
+        }
+
+
+
+        void offer(@NonNull final Entry pEntry)
+        {
+            while (true) {
+                int victim = -1;
+                Entry fastest = null;
+                for (int i = 0; i < slots.length(); i++) {
+                    final Entry entry = slots.get(i);
+                    if (entry == null) {
+                        victim = i;
+                        fastest = null;
+                        break;
+                    }
+                    if (fastest == null || entry.execNanos < fastest.execNanos) {
+                        victim = i;
+                        fastest = entry;
+                    }
+                }
+                if (fastest != null && pEntry.execNanos <= fastest.execNanos) {
+                    return;   // others were faster to put in slower executions
+                }
+                if (slots.compareAndSet(victim, fastest, pEntry)) {
+                    updateThreshold();
+                    return;
+                }
+            }
+        }
+
+
+
+        private void updateThreshold()
+        {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < slots.length(); i++) {
+                final Entry entry = slots.get(i);
+                if (entry == null) {
+                    return;
+                }
+                min = Math.min(min, entry.execNanos);
+            }
+            // entries are only ever replaced by slower ones, so any minimum seen remains a valid lower bound
+            threshold.accumulateAndGet(min, Math::max);
+        }
+    }
+
+
+
+    public SlowRenderRecorder(@Value("${boxes.slow-renders.entries:20}") final int pMaxEntries,
+        @Value("${boxes.slow-renders.window-secs:300}") final int pWindowSecs)
+    {
+        Assert.isTrue(pMaxEntries > 0, "boxes.slow-renders.entries must be positive");
+        Assert.isTrue(pWindowSecs >= BUCKETS, "boxes.slow-renders.window-secs must be at least " + BUCKETS);
+        maxEntries = pMaxEntries;
+        bucketMillis = pWindowSecs * 1000L / BUCKETS;
+    }
+
+
+
+    /**
+     * Record an execution of <i>boxes</i>.
+     *
+     * @param pCmdLine the command line
+     * @param pInputText the input
+     * @param pQueueNanos how long the execution waited for a slot
+     * @param pExecNanos how long the execution took
+     * @param pProcess the process, or <code>null</code> if it could not be started
+     * @param pTimedOut whether the process was stopped because it took too long
+     */
+    public void record(@NonNull final List<String> pCmdLine, @Nullable final String pInputText, final long pQueueNanos,
+        final long pExecNanos, @Nullable final Process pProcess, final boolean pTimedOut)
+    {
+        final long now = System.currentTimeMillis();
+        final Bucket bucket = currentBucket(now);
+        if (bucket == null || pExecNanos <= bucket.threshold.get()) {
+            return;
+        }
+        bucket.offer(new Entry(now, CommandLineBuilder.designOf(pCmdLine),
+            String.join(" ", pCmdLine.subList(1, pCmdLine.size())), pInputText, pQueueNanos, pExecNanos,
+            status(pProcess, pTimedOut)));
+    }
+
+
+
+    @Nullable
+    private Bucket currentBucket(final long pNowMillis)
+    {
+        final long slice = pNowMillis / bucketMillis;
+        final int idx = (int) (slice % BUCKETS);
+        final Bucket bucket = ring.get(idx);
+        if (bucket != null && bucket.slice == slice) {
+            return bucket;
+        }
+        if (bucket != null && bucket.slice > slice) {
+            return null;   // the clock was turned back; skip this execution rather than mess up the window
+        }
+        final Bucket fresh = new Bucket(slice, maxEntries);
+        return ring.compareAndSet(idx, bucket, fresh) ? fresh : ring.get(idx);
+    }
+
+
+
+    @NonNull
+    private static String status(@Nullable final Process pProcess, final boolean pTimedOut)
+    {
+        if (pTimedOut) {
+            return "timeout";
+        }
+        if (pProcess == null) {
+            return "not started";
+        }
+        return pProcess.isAlive() ? "running" : "exit " + pProcess.exitValue();
+    }
+
+
+
+    /**
+     * Get the slowest executions of the window.
+     *
+     * @return the entries, slowest first
+     */
+    @NonNull
+    public List<Entry> getSlowest()
+    {
+        final long oldest = System.currentTimeMillis() / bucketMillis - (BUCKETS - 1);
+        final List<Entry> result = new ArrayList<>();
+        for (int b = 0; b < BUCKETS; b++) {
+            final Bucket bucket = ring.get(b);
+            if (bucket != null && bucket.slice >= oldest) {
+                for (int i = 0; i < bucket.slots.length(); i++) {
+                    final Entry entry = bucket.slots.get(i);
+                    if (entry != null) {
+                        result.add(entry);
+                    }
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(Entry::getExecNanos).reversed());
+        return result.size() > maxEntries ? new ArrayList<>(result.subList(0, maxEntries)) : result;
+    }
+}
@@ -0,0 +1,203 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Exports the phases of a {@link RequestTrace} as spans, one JSON object per line, using the field names of the
+ * OpenTelemetry protocol's JSON encoding, so that the output can be fed to a collector. The request is the root span,
+ * and each phase is a child span.
+ * <p>Configured via <code>boxes.tracing.export</code>: <code>none</code> (the default), <code>log</code> to write
+ * the spans to the <code>com.thomasjensen.boxes.online.spans</code> logger, or <code>file</code> to append them to
+ * <code>boxes.tracing.file</code>. The file is written by a background thread, so that requests never wait for the
+ * disk. If it falls behind by more than {@value #MAX_PENDING_EXPORTS} traces, further traces are dropped.</p>
+ */
+@Component
+public class SpanExporter
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SpanExporter.class);
+
+    private static final Logger SPAN_LOG = LoggerFactory.getLogger("com.thomasjensen.boxes.online.spans");
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    static final int MAX_PENDING_EXPORTS = 10000;
+
+    private static final long CLOSE_TIMEOUT_SECS = 5L;
+
+    private final String mode;
+
+    @Nullable
+    private final BufferedWriter fileWriter;
+
+    /** writes to the file, or <code>null</code> if not exporting to a file */
+    @Nullable
+    private final ThreadPoolExecutor fileExecutor;
+
+
+
+    public SpanExporter(@Value("${boxes.tracing.export:none}") final String pMode,
+        @Value("${boxes.tracing.file:spans.jsonl}") final String pFile)
+        throws IOException
+    {
+        Assert.isTrue("none".equals(pMode) || "log".equals(pMode) || "file".equals(pMode),
+            "boxes.tracing.export must be one of none, log, file");
+        mode = pMode;
+        if ("file".equals(pMode)) {
+            fileWriter = Files.newBufferedWriter(Paths.get(pFile), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+            fileExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_EXPORTS), pRunnable -> {
+                    final Thread thread = new Thread(pRunnable, "boxes-spans-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+            LOG.info("Exporting request spans to " + pFile);
+        }
+        else {
+            fileWriter = null;
+            fileExecutor = null;
+        }
+    }
+
+
+
+    public boolean isEnabled()
+    {
+        return !"none".equals(mode);
+    }
+
+
+
+    /**
+     * Export a completed trace.
+     *
+     * @param pTrace the trace
+     * @param pName the name of the root span, usually method and path of the request
+     */
+    public void export(@NonNull final RequestTrace pTrace, @NonNull final String pName)
+    {
+        if (!isEnabled() || !pTrace.isEnabled()) {
+            return;
+        }
+        try {
+            final StringBuilder lines = new StringBuilder();
+            lines.append(toJson(pTrace, pTrace.getSpanId(), pTrace.getParentSpanId(), pName, pTrace.getStartNanos(),
+                pTrace.getEndNanos()));
+            for (final RequestTrace.Phase phase : pTrace.getPhases()) {
+                lines.append('\n').append(toJson(pTrace, RequestTrace.randomHex(8), pTrace.getSpanId(),
+                    phase.getName(), phase.getStartNanos(), phase.getEndNanos()));
+            }
+            if (fileExecutor != null) {
+                fileExecutor.execute(() -> write(lines.toString()));
+            }
+            else if (SPAN_LOG.isInfoEnabled()) {
+                SPAN_LOG.info(lines.toString());
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to export spans: " + e.getMessage(), e);
+        }
+    }
+
+
+
+    /**
+     * Append spans to the file. Called on the writer thread only. The file is flushed when no more spans are waiting.
+     *
+     * @param pLines the spans
+     */
+    private void write(@NonNull final String pLines)
+    {
+        try {
+            fileWriter.write(pLines);
+            fileWriter.newLine();
+            if (fileExecutor.getQueue().isEmpty()) {
+                fileWriter.flush();
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Failed to export spans: " + e.getMessage(), e);
+        }
+    }
+
+
+
+    private static String toJson(@NonNull final RequestTrace pTrace, @NonNull final String pSpanId,
+        @Nullable final String pParentSpanId, @NonNull final String pName, final long pStartNanos,
+        final long pEndNanos)
+        throws IOException
+    {
+        final StringWriter sw = new StringWriter();
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(sw)) {
+            gen.writeStartObject();
+            gen.writeStringField("traceId", pTrace.getTraceId());
+            gen.writeStringField("spanId", pSpanId);
+            if (pParentSpanId != null) {
+                gen.writeStringField("parentSpanId", pParentSpanId);
+            }
+            gen.writeStringField("name", pName);
+            gen.writeStringField("startTimeUnixNano", String.valueOf(pTrace.toEpochNanos(pStartNanos)));
+            gen.writeStringField("endTimeUnixNano", String.valueOf(pTrace.toEpochNanos(pEndNanos)));
+            gen.writeEndObject();
+        }
+        return sw.toString();
+    }
+
+
+
+    @PreDestroy
+    public void close()
+        throws IOException
+    {
+        if (fileExecutor != null) {
+            fileExecutor.shutdown();
+            try {
+                if (!fileExecutor.awaitTermination(CLOSE_TIMEOUT_SECS, TimeUnit.SECONDS)) {
+                    LOG.warn("Spans were still being written after " + CLOSE_TIMEOUT_SECS + " seconds");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (fileWriter != null) {
+            fileWriter.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.logging.log4j.util.Unbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Tracks how long it takes from JVM start until this instance is ready, and until it has served its first
+ * <code>/draw</code> request, and how long that request took. Values are <code>NaN</code> until known.
+ */
+@Component
+public class StartupMetrics
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StartupMetrics.class);
+
+    /** only requests to paths starting with this count as first request */
+    private static final String DRAW_PATH = "/draw";
+
+    private final AtomicBoolean firstRequestSeen = new AtomicBoolean(false);
+
+    private volatile double readySeconds = Double.NaN;
+
+    private volatile double firstRequestSeconds = Double.NaN;
+
+    private volatile double firstRequestLatencySeconds = Double.NaN;
+
+
+
+    public StartupMetrics(@NonNull final MeterRegistry pMeterRegistry)
+    {
+        Assert.notNull(pMeterRegistry, "MeterRegistry not injected");
+        Gauge.builder("boxes.startup.ready", this, pMetrics -> pMetrics.readySeconds)//
+            .description("time from JVM start until warm-up was complete")//
+            .baseUnit("seconds")//
+            .register(pMeterRegistry);
+        Gauge.builder("boxes.startup.first-request", this, pMetrics -> pMetrics.firstRequestSeconds)//
+            .description("time from JVM start until the first draw request was received")//
+            .baseUnit("seconds")//
+            .register(pMeterRegistry);
+        Gauge.builder("boxes.startup.first-request.latency", this, pMetrics -> pMetrics.firstRequestLatencySeconds)//
+            .description("how long the first draw request took")//
+            .baseUnit("seconds")//
+            .register(pMeterRegistry);
+    }
+
+
+
+    private static long uptimeMillis()
+    {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+
+
+
+    /**
+     * The instance is ready to serve requests.
+     */
+    public void ready()
+    {
+        final long uptime = uptimeMillis();
+        readySeconds = uptime / 1000d;
+        LOG.info("Ready for requests {} ms after JVM start", Unbox.box(uptime));
+    }
+
+
+
+    /**
+     * Check if a request is the first <code>/draw</code> request, and if so, record its arrival. This is cheap once
+     * the first request has been seen.
+     *
+     * @param pRequestUri the URI of the request
+     * @return <code>true</code> for exactly one request
+     */
+    public boolean firstRequest(@NonNull final String pRequestUri)
+    {
+        if (firstRequestSeen.get() || !pRequestUri.startsWith(DRAW_PATH)
+            || !firstRequestSeen.compareAndSet(false, true))
+        {
+            return false;
+        }
+        firstRequestSeconds = uptimeMillis() / 1000d;
+        return true;
+    }
+
+
+
+    /**
+     * The first request has been served.
+     *
+     * @param pStartNanos value of {@link System#nanoTime()} when the request was received
+     */
+    public void firstRequestDone(final long pStartNanos)
+    {
+        final long latencyNanos = System.nanoTime() - pStartNanos;
+        firstRequestLatencySeconds = latencyNanos / (double) TimeUnit.SECONDS.toNanos(1L);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("First draw request received {} s after JVM start, served in {} ms",
+                Unbox.box(firstRequestSeconds), Unbox.box(TimeUnit.NANOSECONDS.toMillis(latencyNanos)));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.logging.log4j.util.Unbox;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+
+/**
+ * Runs a few representative renders once the application has started, so that the first real requests find Jackson
+ * introspection done, the code on the request path compiled, and the <i>boxes</i> executable in the page cache. Until
+ * the warm-up is complete, the {@link BoxesHealthIndicator} reports the instance as out of service.
+ * <p>With <code>boxes.startup.exit-after-warmup</code>, the application exits after the warm-up. This is used as the
+ * training run which records the class data sharing archive.</p>
+ */
+@Component
+public class StartupWarmup
+    implements ApplicationListener<ApplicationReadyEvent>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StartupWarmup.class);
+
+    /** representative requests, as JSON so that binding is warmed up too */
+    private static final List<String> SAMPLES = List.of(
+        "{\"design\":\"dog\",\"content\":\"Hello World!\"}",
+        "{\"design\":\"parchment\",\"padding\":{\"left\":2,\"right\":2},\"content\":\"Hello\\nWorld!\"}",
+        "{\"design\":\"c\",\"alignment\":{\"horizontal\":\"center\",\"vertical\":\"center\","
+            + "\"justification\":\"right\"},\"size\":{\"width\":40,\"height\":5},\"tabDistance\":4,"
+            + "\"content\":\"int main()\\n{\\n\\treturn 0;\\n}\"}");
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    private final BoxesRunnerService boxesRunnerService;
+
+    private final StartupMetrics startupMetrics;
+
+    private final int renders;
+
+    private final boolean exitAfterWarmup;
+
+    private volatile boolean warmedUp = false;
+
+
+
+    @Autowired
+    public StartupWarmup(@NonNull final ObjectMapper pObjectMapper, @NonNull final Validator pValidator,
+        @NonNull final BoxesRunnerService pBoxesRunnerService, @NonNull final StartupMetrics pStartupMetrics,
+        @Value("${boxes.startup.warmup-renders:0}") final int pRenders,
+        @Value("${boxes.startup.exit-after-warmup:false}") final boolean pExitAfterWarmup)
+    {
+        super();
+        Assert.notNull(pObjectMapper, "ObjectMapper not injected");
+        objectMapper = pObjectMapper;
+
+        Assert.notNull(pValidator, "Validator not injected");
+        validator = pValidator;
+
+        Assert.notNull(pBoxesRunnerService, "BoxesRunnerService not injected");
+        boxesRunnerService = pBoxesRunnerService;
+
+        Assert.notNull(pStartupMetrics, "StartupMetrics not injected");
+        startupMetrics = pStartupMetrics;
+
+        Assert.isTrue(pRenders >= 0, "boxes.startup.warmup-renders must not be negative");
+        renders = pRenders;
+        exitAfterWarmup = pExitAfterWarmup;
+    }
+
+
+
+    @Override
+    public void onApplicationEvent(@NonNull final ApplicationReadyEvent pEvent)
+    {
+        if (renders > 0) {
+            final long start = System.nanoTime();
+            final int succeeded = warmUp();
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Warm-up completed {} of {} renders in {} ms", Unbox.box(succeeded), Unbox.box(renders),
+                    Unbox.box((System.nanoTime() - start) / 1000000L));
+            }
+        }
+        warmedUp = true;
+        startupMetrics.ready();
+
+        if (exitAfterWarmup) {
+            LOG.info("Exiting after warm-up as requested");
+            System.exit(SpringApplication.exit(pEvent.getApplicationContext()));
+        }
+    }
+
+
+
+    /**
+     * Run the warm-up renders. Failures are logged, but don't keep the instance from becoming ready; a broken
+     * <i>boxes</i> executable is the business of the circuit breaker.
+     *
+     * @return the number of successful renders
+     */
+    int warmUp()
+    {
+        int result = 0;
+        for (int i = 0; i < renders; i++) {
+            try {
+                final Invocation invocation = objectMapper.readValue(SAMPLES.get(i % SAMPLES.size()),
+                    Invocation.class);
+                validator.validate(invocation);
+                final List<String> cmdLine = new CommandLineBuilder(invocation).build();
+                boxesRunnerService.execute(cmdLine, invocation.getContent());
+                result++;
+            }
+            catch (InvalidInvocationException e) {
+                LOG.debug("Skipping warm-up sample {}: {}", Unbox.box(i % SAMPLES.size()), e.getMessage());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            catch (Exception e) {
+                LOG.warn("Warm-up render failed: {}", e.toString());
+            }
+        }
+        return result;
+    }
+
+
+
+    public boolean isWarmedUp()
+    {
+        return warmedUp;
+    }
+}
@@ -20,6 +20,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.apache.logging.log4j.util.Unbox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.lang.NonNull;
@@ -51,9 +52,9 @@ public class StopWatch
             return pAction.run();
         }
         finally {
-            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeStart);
-            if (LOG.isInfoEnabled()) {
-                LOG.info("StopWatch: " + pDescription + " finished after " + elapsedMillis + " ms");
+            if (LOG.isDebugEnabled()) {
+                final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeStart);
+                LOG.debug("StopWatch: {} finished after {} ms", pDescription, Unbox.box(elapsedMillis));
             }
         }
     }
@@ -15,6 +15,8 @@ package com.thomasjensen.boxes.online;
  * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
  */
 
+import java.util.regex.Pattern;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
@@ -50,6 +52,15 @@ public class Validator
     /** max. length of an accepted box design name */
     private static final int MAX_DESIGN_NAME_LEN = 80;
 
+    /** max. length of a custom design definition */
+    private static final int MAX_CUSTOM_DESIGN_LEN = 16384;
+
+    /** max. number of lines of a custom design definition */
+    private static final int MAX_CUSTOM_DESIGN_LINES = 500;
+
+    /** the ID of a registered custom design, as assigned by {@link CustomDesignStore} */
+    private static final Pattern CUSTOM_DESIGN_ID = Pattern.compile("[0-9a-f]{64}");
+
     private final DesignList designList;
 
 
@@ -65,9 +76,108 @@ public class Validator
 
     public void validate(@NonNull final Invocation pInvocation)
         throws InvalidInvocationException
+    {
+        validate(pInvocation, false);
+    }
+
+
+
+    /**
+     * Validate an invocation.
+     *
+     * @param pInvocation the invocation
+     * @param pAllowCustomDesign whether the invocation may specify a custom design, which the caller must resolve via
+     *     the {@link CustomDesignStore}
+     * @throws InvalidInvocationException the invocation is invalid
+     */
+    public void validate(@NonNull final Invocation pInvocation, final boolean pAllowCustomDesign)
+        throws InvalidInvocationException
     {
         Assert.notNull(pInvocation, "Argument pInvocation is null");
-        execute(pInvocation, true);
+        execute(pInvocation, true, pAllowCustomDesign);
+    }
+
+
+
+    /**
+     * Validate only the design and options of an invocation, not its content. Used where one set of options is
+     * applied to many contents.
+     *
+     * @param pInvocation the invocation
+     * @throws InvalidInvocationException the design or an option is invalid
+     */
+    public void validateOptions(@NonNull final Invocation pInvocation)
+        throws InvalidInvocationException
+    {
+        Assert.notNull(pInvocation, "Argument pInvocation is null");
+        handleDesign(pInvocation, true, false);
+        handleBoxSize(pInvocation.getSize(), true);
+        handlePadding(pInvocation.getPadding());
+        handleTabs(pInvocation, true);
+    }
+
+
+
+    /**
+     * Validate an invocation for removing a box. Same as {@link #validate}, except that the design is optional, because
+     * it can be detected.
+     *
+     * @param pInvocation the invocation
+     * @throws InvalidInvocationException the invocation is invalid
+     */
+    public void validateUnbox(@NonNull final Invocation pInvocation)
+        throws InvalidInvocationException
+    {
+        Assert.notNull(pInvocation, "Argument pInvocation is null");
+        handleDesign(pInvocation, false, false);
+        handleBoxSize(pInvocation.getSize(), true);
+        handlePadding(pInvocation.getPadding());
+        handleTabs(pInvocation, true);
+        handleContent(pInvocation);
+    }
+
+
+
+    public void validateContent(@Nullable final String pContent)
+        throws InvalidInvocationException
+    {
+        if (pContent == null || pContent.isBlank()) {
+            throw new InvalidInvocationException("no box content specified");
+        }
+    }
+
+
+
+    /**
+     * Validate the definition of a custom design.
+     *
+     * @param pDefinition the definition, in <i>boxes</i> config file syntax
+     * @throws InvalidInvocationException the definition is invalid or too large
+     */
+    public void validateCustomDesign(@Nullable final String pDefinition)
+        throws InvalidInvocationException
+    {
+        if (pDefinition == null || pDefinition.isBlank()) {
+            throw new InvalidInvocationException("no custom design definition specified");
+        }
+        if (pDefinition.length() > MAX_CUSTOM_DESIGN_LEN) {
+            throw new InvalidInvocationException("Custom design definition exceeds maximum length of "
+                + MAX_CUSTOM_DESIGN_LEN);
+        }
+        if (PayloadLog.countLines(pDefinition) > MAX_CUSTOM_DESIGN_LINES) {
+            throw new InvalidInvocationException("Custom design definition exceeds maximum of "
+                + MAX_CUSTOM_DESIGN_LINES + " lines");
+        }
+        for (int i = 0; i < pDefinition.length(); i++) {
+            final char c = pDefinition.charAt(i);
+            if (c >= 0x7f || (c < 0x20 && c != '\n' && c != '\r' && c != '\t')) {
+                throw new InvalidInvocationException("Custom design definition contains characters other than "
+                    + "printable ASCII");
+            }
+        }
+        if (CustomDesignStore.nameOf(pDefinition) == null) {
+            throw new InvalidInvocationException("Custom design definition must consist of one BOX ... END block");
+        }
     }
 
 
@@ -79,7 +189,7 @@ public class Validator
             SerializationUtils.serialize(pInvocation));
         assert copyInvocation != null;
         try {
-            return execute(copyInvocation, false);
+            return execute(copyInvocation, false, true);
         }
         catch (InvalidInvocationException e) {
             throw new IllegalStateException("bug in execute()", e);
@@ -88,10 +198,11 @@ public class Validator
 
 
 
-    private Invocation execute(@NonNull final Invocation pInvocation, final boolean pThrowEx)
+    private Invocation execute(@NonNull final Invocation pInvocation, final boolean pThrowEx,
+        final boolean pAllowCustomDesign)
         throws InvalidInvocationException
     {
-        handleDesignName(pInvocation.getDesign());
+        handleDesign(pInvocation, true, pAllowCustomDesign);
         handleBoxSize(pInvocation.getSize(), pThrowEx);
         handlePadding(pInvocation.getPadding());
         handleTabs(pInvocation, pThrowEx);
@@ -101,9 +212,36 @@ public class Validator
 
 
 
-    private void handleDesignName(@Nullable final String pDesignName)
+    private void handleDesign(@NonNull final Invocation pInvocation, final boolean pRequired,
+        final boolean pAllowCustomDesign)
         throws InvalidInvocationException
     {
+        final Invocation.CustomDesign customDesign = pInvocation.getCustomDesign();
+        if (customDesign == null) {
+            handleDesignName(pInvocation.getDesign(), pRequired);
+        }
+        else if (!pAllowCustomDesign) {
+            throw new InvalidInvocationException("Custom designs are not supported here");
+        }
+        else if ((customDesign.getId() == null) == (customDesign.getDefinition() == null)) {
+            throw new InvalidInvocationException("Either the ID or the definition of a custom design must be given");
+        }
+        else if (customDesign.getDefinition() != null) {
+            validateCustomDesign(customDesign.getDefinition());
+        }
+        else if (!CUSTOM_DESIGN_ID.matcher(customDesign.getId()).matches()) {
+            throw new InvalidInvocationException("Invalid custom design ID");
+        }
+    }
+
+
+
+    private void handleDesignName(@Nullable final String pDesignName, final boolean pRequired)
+        throws InvalidInvocationException
+    {
+        if (pDesignName == null && !pRequired) {
+            return;
+        }
         if (pDesignName != null && pDesignName.length() > MAX_DESIGN_NAME_LEN) {
             throw new InvalidInvocationException("Specified design name too long");
         }
@@ -162,10 +300,7 @@ public class Validator
     private void handleContent(final Invocation pInvocation)
         throws InvalidInvocationException
     {
-        //noinspection ConstantConditions
-        if (pInvocation.getContent() == null || pInvocation.getContent().isBlank()) {
-            throw new InvalidInvocationException("no box content specified");
-        }
+        validateContent(pInvocation.getContent());
     }
 
 
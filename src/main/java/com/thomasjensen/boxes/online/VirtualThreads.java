@@ -0,0 +1,128 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+
+/**
+ * Access to virtual threads on Java runtimes that provide them. The application is compiled for Java 11, so the API
+ * is looked up reflectively. Java 19 and 20 have the API, but only as a preview feature, which throws an
+ * {@link UnsupportedOperationException} unless the JVM was started with <code>--enable-preview</code>. Therefore,
+ * support is determined by actually creating a virtual thread once.
+ */
+public final class VirtualThreads
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    @Nullable
+    private static final Method NEW_EXECUTOR = findExecutorFactory();
+
+    private static final boolean SUPPORTED = NEW_EXECUTOR != null && probe();
+
+
+
+    private VirtualThreads()
+    {
+        super();
+    }
+
+
+
+    @Nullable
+    private static Method findExecutorFactory()
+    {
+        try {
+            return Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        }
+        catch (NoSuchMethodException | RuntimeException e) {
+            return null;
+        }
+    }
+
+
+
+    private static boolean probe()
+    {
+        try {
+            newFactory("boxes-probe-").newThread(() -> {
+                // never started
+            });
+            return true;
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.debug("Virtual threads are not usable: {}", e.toString());
+            return false;
+        }
+    }
+
+
+
+    @NonNull
+    private static ThreadFactory newFactory(@NonNull final String pNamePrefix)
+        throws ReflectiveOperationException
+    {
+        // look up methods on the public interfaces, because the builder implementation classes are not accessible
+        final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        final Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, pNamePrefix, 0L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+
+
+
+    /**
+     * Determine whether the current Java runtime supports virtual threads, and they are enabled.
+     *
+     * @return <code>true</code> if they can be used
+     */
+    public static boolean isSupported()
+    {
+        return SUPPORTED;
+    }
+
+
+
+    /**
+     * Create an executor which starts a new virtual thread for every task.
+     *
+     * @param pNamePrefix prefix of the thread names, followed by a counter
+     * @return the new executor service
+     * @throws IllegalStateException the current Java runtime does not support virtual threads
+     */
+    @NonNull
+    public static ExecutorService newExecutor(@NonNull final String pNamePrefix)
+    {
+        if (!SUPPORTED) {
+            throw new IllegalStateException("virtual threads are not supported by Java " + Runtime.version());
+        }
+        try {
+            return (ExecutorService) NEW_EXECUTOR.invoke(null, newFactory(pNamePrefix));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("failed to create virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+
+/**
+ * When virtual threads are enabled, let Tomcat handle each request on its own virtual thread, so that requests
+ * waiting for a <i>boxes</i> process don't hold on to a platform thread.
+ */
+@Configuration
+@ConditionalOnProperty(name = "boxes.threads.virtual", havingValue = "true")
+public class VirtualThreadsConfig
+{
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadsConfig.class);
+
+
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsTomcatCustomizer()
+    {
+        return (final TomcatServletWebServerFactory pFactory) -> {
+            if (!VirtualThreads.isSupported()) {
+                LOG.warn("Virtual threads requested, but not supported by Java " + Runtime.version()
+                    + ". Tomcat keeps using its platform thread pool.");
+                return;
+            }
+            pFactory.addConnectorCustomizers(connector -> {
+                final ProtocolHandler handler = connector.getProtocolHandler();
+                if (handler instanceof AbstractProtocol) {
+                    ((AbstractProtocol<?>) handler).setExecutor(VirtualThreads.newExecutor("http-virtual-"));
+                    LOG.info("Tomcat requests are handled on virtual threads");
+                }
+            });
+        };
+    }
+}
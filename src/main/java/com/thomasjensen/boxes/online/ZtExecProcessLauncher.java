@@ -0,0 +1,147 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.lang.NonNull;
+import org.zeroturnaround.exec.InvalidExitValueException;
+import org.zeroturnaround.exec.ProcessExecutor;
+import org.zeroturnaround.exec.ProcessOutput;
+import org.zeroturnaround.exec.ProcessResult;
+import org.zeroturnaround.exec.listener.ProcessListener;
+import org.zeroturnaround.exec.stop.ProcessStopper;
+import org.zeroturnaround.exec.stream.PumpStreamHandler;
+
+
+/**
+ * Launches processes via zt-exec. Each execution uses extra threads for pumping the process's streams and for
+ * waiting on it. The timeout is enforced by the shared {@link HashedWheelWatchdog} rather than by zt-exec, which would
+ * arm a timer for every execution. The output is pumped straight into the caller's pooled buffer.
+ */
+public class ZtExecProcessLauncher
+    implements ProcessLauncher
+{
+    /**
+     * Tells the start listener when the process's output has ended.
+     */
+    private static class EndNotifyingInputStream
+        extends FilterInputStream
+    {
+        private final StartListener listener;
+
+        private boolean ended = false;
+
+
+
+        EndNotifyingInputStream(@NonNull final InputStream pStdout, @NonNull final StartListener pListener)
+        {
+            super(pStdout);
+            listener = pListener;
+        }
+
+
+
+        @Override
+        public int read(@NonNull final byte[] pBuffer, final int pOffset, final int pLength)
+            throws IOException
+        {
+            final int result = super.read(pBuffer, pOffset, pLength);
+            if (result < 0 && !ended) {
+                ended = true;
+                listener.outputClosed();
+            }
+            return result;
+        }
+    }
+
+
+
+    private final ProcessStopper stopper;
+
+    private final HashedWheelWatchdog watchdog;
+
+
+
+    public ZtExecProcessLauncher(@NonNull final ProcessStopper pStopper, @NonNull final HashedWheelWatchdog pWatchdog)
+    {
+        stopper = pStopper;
+        watchdog = pWatchdog;
+    }
+
+
+
+    @Override
+    public void launch(@NonNull final List<String> pCmdLine, @NonNull final byte[] pInput, final int pInputLength,
+        @NonNull final PooledOutputStream pOutput, final long pTimeoutNanos,
+        @NonNull final StartListener pStartListener)
+        throws IOException, InterruptedException, TimeoutException
+    {
+        final AtomicBoolean timedOut = new AtomicBoolean(false);
+        final AtomicReference<HashedWheelWatchdog.Timeout> timeout = new AtomicReference<>();
+        try {
+            new ProcessExecutor().command(pCmdLine)//
+                .streams(new PumpStreamHandler(pOutput, pOutput, new ByteArrayInputStream(pInput, 0, pInputLength))
+                {
+                    @Override
+                    protected void createProcessOutputPump(final InputStream pStdout, final OutputStream pTarget)
+                    {
+                        super.createProcessOutputPump(new EndNotifyingInputStream(pStdout, pStartListener), pTarget);
+                    }
+                })//
+                .redirectErrorStream(true)//
+                .stopper(stopper)//
+                .addListener(new ProcessListener()
+                {
+                    @Override
+                    public void afterStart(final Process pProcess, final ProcessExecutor pExecutor)
+                    {
+                        timeout.set(watchdog.schedule(() -> {
+                            timedOut.set(true);
+                            stopper.stop(pProcess);
+                        }, pTimeoutNanos, TimeUnit.NANOSECONDS));
+                        pStartListener.started(pProcess);
+                    }
+                })//
+                .exitValueNormal()//
+                .execute();
+        }
+        catch (InvalidExitValueException e) {
+            if (timedOut.get()) {
+                throw new TimeoutException("Timed out waiting for process to finish, timeout: "
+                    + TimeUnit.NANOSECONDS.toMillis(pTimeoutNanos) + " ms");
+            }
+            // the output went to our stream, so attach it to the result like readOutput(true) would have done
+            throw new InvalidExitValueException(e.getMessage(),
+                new ProcessResult(e.getExitValue(), new ProcessOutput(pOutput.toByteArray())));
+        }
+        finally {
+            final HashedWheelWatchdog.Timeout armed = timeout.get();
+            if (armed != null) {
+                armed.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for the {@link AdaptiveConcurrencyLimit}.
+ */
+public class AdaptiveConcurrencyLimitTest
+{
+    @Test
+    public void testGrowsUpToCeiling()
+        throws InterruptedException
+    {
+        final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(2, 4);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(underTest.acquire(0L));
+            Assert.assertTrue(underTest.acquire(0L));
+            underTest.release(TimeUnit.MILLISECONDS.toNanos(10), 100, false);
+            underTest.release(TimeUnit.MILLISECONDS.toNanos(10), 100, false);
+        }
+        Assert.assertEquals(4, underTest.getLimit());
+        Assert.assertEquals(0, underTest.getInFlight());
+    }
+
+
+
+    @Test
+    public void testShrinksOnTimeout()
+        throws InterruptedException
+    {
+        final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(20, 20);
+        Assert.assertTrue(underTest.acquire(0L));
+        underTest.release(TimeUnit.SECONDS.toNanos(5), 100, true);
+        Assert.assertEquals(18, underTest.getLimit());
+    }
+
+
+
+    private static void execute(final AdaptiveConcurrencyLimit pLimit, final int pCount, final long pLatencyMillis)
+        throws InterruptedException
+    {
+        for (int i = 0; i < pCount; i++) {
+            Assert.assertTrue(pLimit.acquire(0L));
+            pLimit.release(TimeUnit.MILLISECONDS.toNanos(pLatencyMillis), 100, false);
+        }
+    }
+
+
+
+    @Test
+    public void testShrinksOnSustainedLatencyIncrease()
+        throws InterruptedException
+    {
+        final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(10, 10);
+        execute(underTest, 200, 10L);   // enough to fill the long-term window
+        Assert.assertEquals(10, underTest.getLimit());
+        execute(underTest, 5, 100L);
+        Assert.assertEquals(9, underTest.getLimit());
+        execute(underTest, 50, 100L);
+        Assert.assertTrue(underTest.getLimit() < 9);
+    }
+
+
+
+    @Test
+    public void testSingleSlowExecutionIsTolerated()
+        throws InterruptedException
+    {
+        final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(10, 10);
+        execute(underTest, 200, 10L);
+        execute(underTest, 1, 100L);
+        execute(underTest, 20, 10L);
+        Assert.assertEquals(10, underTest.getLimit());
+    }
+
+
+
+    @Test
+    public void testJitterIsNotOverload()
+        throws InterruptedException
+    {
+        for (final double sigma : new double[]{0.2d, 0.3d, 0.5d}) {
+            final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(16, 64);
+            final Random random = new Random(42L);
+            for (int round = 0; round < 5000; round++) {
+                final int permits = underTest.getLimit();
+                for (int i = 0; i < permits; i++) {
+                    Assert.assertTrue(underTest.acquire(0L));
+                }
+                for (int i = 0; i < permits; i++) {
+                    // lognormal latency around 10 ms, which does not depend on the load
+                    final double latencyMillis = 10d * Math.exp(sigma * random.nextGaussian());
+                    underTest.release((long) (latencyMillis * 1_000_000d), 100, false);
+                }
+            }
+            Assert.assertTrue("sigma " + sigma + ": limit " + underTest.getLimit(), underTest.getLimit() >= 16);
+        }
+    }
+
+
+
+    @Test
+    public void testAcquireTimesOut()
+        throws InterruptedException
+    {
+        final AdaptiveConcurrencyLimit underTest = new AdaptiveConcurrencyLimit(1, 1);
+        Assert.assertTrue(underTest.acquire(0L));
+        Assert.assertFalse(underTest.acquire(TimeUnit.MILLISECONDS.toNanos(10)));
+        underTest.release();
+        Assert.assertTrue(underTest.acquire(0L));
+    }
+}
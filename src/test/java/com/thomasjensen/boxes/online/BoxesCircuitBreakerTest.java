@@ -0,0 +1,116 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for the {@link BoxesCircuitBreaker}.
+ */
+public class BoxesCircuitBreakerTest
+{
+    private static BoxesCircuitBreaker create(final long pOpenMillis)
+    {
+        return new BoxesCircuitBreaker(3, 0.5d, 4, pOpenMillis, 2, new SimpleMeterRegistry());
+    }
+
+
+
+    @Test
+    public void testOpensOnConsecutiveFailures()
+    {
+        final BoxesCircuitBreaker underTest = create(60000L);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(underTest.tryAcquire());
+            underTest.onFailure();
+        }
+        Assert.assertTrue(underTest.tryAcquire());
+        underTest.onSuccess();   // resets the count
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(BoxesCircuitBreaker.State.CLOSED, underTest.getState());
+            Assert.assertTrue(underTest.tryAcquire());
+            underTest.onFailure();
+        }
+        Assert.assertEquals(BoxesCircuitBreaker.State.OPEN, underTest.getState());
+        Assert.assertFalse(underTest.tryAcquire());
+    }
+
+
+
+    @Test
+    public void testOpensOnTimeoutRate()
+    {
+        final BoxesCircuitBreaker underTest = create(60000L);
+        underTest.onTimeout();
+        underTest.onSuccess();
+        underTest.onTimeout();
+        Assert.assertEquals(BoxesCircuitBreaker.State.CLOSED, underTest.getState());   // window not full yet
+        underTest.onTimeout();
+        Assert.assertEquals(BoxesCircuitBreaker.State.OPEN, underTest.getState());
+    }
+
+
+
+    @Test
+    public void testIgnoredOutcomesDoNotCount()
+    {
+        final BoxesCircuitBreaker underTest = create(60000L);
+        for (int i = 0; i < 10; i++) {
+            underTest.onIgnored();
+        }
+        Assert.assertEquals(BoxesCircuitBreaker.State.CLOSED, underTest.getState());
+        Assert.assertEquals(0d, underTest.getTimeoutRate(), 0d);
+    }
+
+
+
+    @Test
+    public void testHalfOpenProbesClose()
+    {
+        final BoxesCircuitBreaker underTest = create(0L);
+        for (int i = 0; i < 3; i++) {
+            underTest.onFailure();
+        }
+        Assert.assertEquals(BoxesCircuitBreaker.State.OPEN, underTest.getState());
+
+        Assert.assertTrue(underTest.tryAcquire());
+        Assert.assertEquals(BoxesCircuitBreaker.State.HALF_OPEN, underTest.getState());
+        Assert.assertTrue(underTest.tryAcquire());
+        Assert.assertFalse(underTest.tryAcquire());   // only two probes at a time
+        underTest.onSuccess();
+        Assert.assertEquals(BoxesCircuitBreaker.State.HALF_OPEN, underTest.getState());
+        underTest.onSuccess();
+        Assert.assertEquals(BoxesCircuitBreaker.State.CLOSED, underTest.getState());
+        Assert.assertTrue(underTest.tryAcquire());
+    }
+
+
+
+    @Test
+    public void testHalfOpenProbeFailureReopens()
+    {
+        final BoxesCircuitBreaker underTest = create(0L);
+        for (int i = 0; i < 3; i++) {
+            underTest.onFailure();
+        }
+        Assert.assertTrue(underTest.tryAcquire());
+        underTest.onFailure();
+        Assert.assertEquals(BoxesCircuitBreaker.State.OPEN, underTest.getState());
+    }
+}
@@ -0,0 +1,147 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+
+/**
+ * Unit tests for the flight recorder events emitted by {@link BoxesRunnerService}, using a shell in place of
+ * <i>boxes</i>. The shell ignores the design arguments, which only serve to tell the events of this test apart.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BoxesEventsTest
+{
+    private static final String[] EVENTS = {"Enqueued", "Dequeued", "ProcessStart", "ProcessExit", "ForcedStop"};
+
+    @Autowired
+    private BoxesRunnerService underTest;
+
+
+
+    private static Invocation invocation(final String pContent)
+    {
+        final Invocation result = new Invocation();
+        result.setContent(pContent);
+        return result;
+    }
+
+
+
+    private static List<RecordedEvent> record(final String pDesign, final Runnable pAction)
+        throws Exception
+    {
+        final Path file = Files.createTempFile("boxes-events", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (final String event : EVENTS) {
+                recording.enable(BoxesEvents.PREFIX + event);
+            }
+            recording.start();
+            pAction.run();
+            recording.stop();
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file).stream()//
+                .filter(e -> e.getEventType().getName().endsWith("ForcedStop")
+                    || pDesign.equals(e.getString("design")))//
+                .collect(Collectors.toList());
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+
+
+    private static RecordedEvent single(final List<RecordedEvent> pEvents, final String pName)
+    {
+        final List<RecordedEvent> result = pEvents.stream()//
+            .filter(e -> e.getEventType().getName().equals(BoxesEvents.PREFIX + pName))//
+            .collect(Collectors.toList());
+        Assert.assertEquals("number of " + pName + " events", 1, result.size());
+        return result.get(0);
+    }
+
+
+
+    @Test
+    public void testExecution()
+        throws Exception
+    {
+        final List<String> cmdLine = Arrays.asList("sh", "-c", "cat", "-d", "events-execution");
+        final List<RecordedEvent> events = record("events-execution", () ->
+            Assert.assertEquals("hello", underTest.submit(invocation("hello"), cmdLine).join()));
+
+        Assert.assertEquals(5, single(events, "Enqueued").getInt("inputChars"));
+        Assert.assertTrue(single(events, "Dequeued").getLong("queueTime") >= 0L);
+        final long pid = single(events, "ProcessStart").getLong("pid");
+        final RecordedEvent exit = single(events, "ProcessExit");
+        Assert.assertEquals(pid, exit.getLong("pid"));
+        Assert.assertEquals(5, exit.getInt("inputBytes"));
+        Assert.assertEquals(5, exit.getInt("outputBytes"));
+        Assert.assertEquals(0, exit.getInt("exitCode"));
+        Assert.assertTrue(exit.getDuration().toNanos() > 0L);
+    }
+
+
+
+    @Test
+    public void testForcedStop()
+        throws Exception
+    {
+        final List<String> cmdLine = Arrays.asList("sh", "-c", "sleep 2; cat", "-d", "events-stop");
+        final List<RecordedEvent> events = record("events-stop", () -> {
+            BoxesRequestContext.bind(new BoxesRequestContext("127.0.0.1"));   // sessions need a known client
+            final CompletableFuture<String> first = underTest.submit(invocation("first"), cmdLine, "events-session");
+            try {
+                Thread.sleep(200L);
+                underTest.submit(invocation("second"), Arrays.asList("sh", "-c", "cat"), "events-session")//
+                    .get(5, TimeUnit.SECONDS);
+                first.get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the first render to be superseded");
+            }
+            catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof SupersededException);
+            }
+            catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            finally {
+                BoxesRequestContext.unbind();
+            }
+        });
+
+        final long pid = single(events, "ProcessStart").getLong("pid");
+        Assert.assertEquals(pid, single(events, "ForcedStop").getLong("pid"));
+    }
+}
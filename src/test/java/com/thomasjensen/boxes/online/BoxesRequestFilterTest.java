@@ -0,0 +1,68 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+
+/**
+ * Unit tests for {@link BoxesRequestFilter}.
+ */
+public class BoxesRequestFilterTest
+{
+    @Test
+    public void testResourcesClosedWhenResponseFails()
+        throws Exception
+    {
+        final BoxesRequestFilter underTest = new BoxesRequestFilter(new SpanExporter("none", "spans.jsonl"),
+            new StartupMetrics(new SimpleMeterRegistry()));
+        final MockHttpServletRequest request = new MockHttpServletRequest("POST", "/draw");
+        request.setRemoteAddr("192.0.2.7");
+        final AtomicInteger closed = new AtomicInteger(0);
+
+        try {
+            underTest.doFilter(request, new MockHttpServletResponse(), (pRequest, pResponse) -> {
+                Assert.assertEquals("192.0.2.7", BoxesRequestContext.current().getClientId());
+                BoxesRequestContext.current().closeOnCompletion(closed::incrementAndGet);
+                throw new IOException("client went away");
+            });
+            Assert.fail("expected IOException");
+        }
+        catch (IOException e) {
+            // expected
+        }
+
+        Assert.assertEquals(1, closed.get());
+        Assert.assertFalse(BoxesRequestContext.current().isClientKnown());
+    }
+
+
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoResourcesWithoutRequest()
+    {
+        BoxesRequestContext.current().closeOnCompletion(() -> {
+            // not registered
+        });
+    }
+}
@@ -0,0 +1,208 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.zeroturnaround.exec.InvalidExitValueException;
+import org.zeroturnaround.exec.ProcessOutput;
+import org.zeroturnaround.exec.ProcessResult;
+
+
+/**
+ * Unit tests for the session handling of {@link BoxesRunnerService}, using a shell in place of <i>boxes</i>.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BoxesRunnerServiceTest
+{
+    private static final List<String> SLOW_ECHO = Arrays.asList("sh", "-c", "sleep 2; cat");
+
+    private static final List<String> ECHO = Arrays.asList("sh", "-c", "cat");
+
+    /** fails like <i>boxes</i> does when asked to remove a box from text which has none */
+    private static final List<String> NO_BOX = Arrays.asList("sh", "-c", "cat >/dev/null; echo 'no box'; exit 1");
+
+    @Autowired
+    private BoxesRunnerService underTest;
+
+    @Autowired
+    private BoxesCircuitBreaker circuitBreaker;
+
+
+
+    @Before
+    public void setUp()
+    {
+        BoxesRequestContext.bind(new BoxesRequestContext("127.0.0.1"));
+    }
+
+
+
+    @After
+    public void tearDown()
+    {
+        BoxesRequestContext.unbind();
+    }
+
+
+
+    private static Invocation invocation(final String pContent)
+    {
+        final Invocation result = new Invocation();
+        result.setContent(pContent);
+        return result;
+    }
+
+
+
+    @Test
+    public void testNewerRequestSupersedesRunningOne()
+        throws Exception
+    {
+        final CompletableFuture<String> first = underTest.submit(invocation("first"), SLOW_ECHO, "session-1");
+        Thread.sleep(200L);
+        final CompletableFuture<String> second = underTest.submit(invocation("second"), ECHO, "session-1");
+
+        Assert.assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        try {
+            first.get(5, TimeUnit.SECONDS);
+            Assert.fail("expected the first render to be superseded");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof SupersededException);
+        }
+    }
+
+
+
+    @Test
+    public void testSessionsAreIndependent()
+        throws Exception
+    {
+        final CompletableFuture<String> first = underTest.submit(invocation("first"), ECHO, "session-a");
+        final CompletableFuture<String> second = underTest.submit(invocation("second"), ECHO, "session-b");
+
+        Assert.assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    }
+
+
+
+    @Test
+    public void testSessionIgnoredForUnknownClient()
+        throws Exception
+    {
+        BoxesRequestContext.unbind();
+        final CompletableFuture<String> first = underTest.submit(invocation("first"), SLOW_ECHO, "session-1");
+        Thread.sleep(200L);
+        final CompletableFuture<String> second = underTest.submit(invocation("second"), ECHO, "session-1");
+        Assert.assertEquals("second", second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("first", first.get(5, TimeUnit.SECONDS));
+    }
+
+
+
+    @Test
+    public void testNoSession()
+        throws Exception
+    {
+        Assert.assertEquals("plain", underTest.submit(invocation("plain"), ECHO, null).get(5, TimeUnit.SECONDS));
+    }
+
+
+
+    @Test
+    public void testInputErrorsDoNotOpenCircuitBreaker()
+        throws Exception
+    {
+        for (int i = 0; i < 10; i++) {
+            try {
+                underTest.submit(NO_BOX, "text").get(5, TimeUnit.SECONDS);
+                Assert.fail("expected the render to fail");
+            }
+            catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof BoxesExecutionException);
+            }
+        }
+        Assert.assertEquals(BoxesCircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        Assert.assertEquals(0, circuitBreaker.getConsecutiveFailures());
+    }
+
+
+
+    @Test
+    public void testExecutableFailures()
+    {
+        final List<String> shared = new CommandLineBuilder(invocation("x")).build();
+        Assert.assertTrue(BoxesRunnerService.isExecutableFailure(new IOException("No such file"), shared));
+        Assert.assertTrue(BoxesRunnerService.isExecutableFailure(exit("boxes: Can't find config file.\n"), shared));
+        Assert.assertFalse(BoxesRunnerService.isExecutableFailure(exit("boxes: unknown box design\n"), shared));
+
+        final List<String> custom = new CommandLineBuilder(invocation("x"), "/tmp/custom.cfg").build();
+        Assert.assertFalse(BoxesRunnerService.isExecutableFailure(
+            exit("boxes: /tmp/custom.cfg: 3: syntax error\n"), custom));
+    }
+
+
+
+    @Test
+    public void testCrashIsExecutableFailure()
+    {
+        final List<String> cmdLine = new CommandLineBuilder(invocation("x")).build();
+        Assert.assertTrue(BoxesRunnerService.isExecutableFailure(exit(139, "Segmentation fault\n"), cmdLine));
+        Assert.assertTrue(BoxesRunnerService.isExecutableFailure(exit(0xC0000005, ""), cmdLine));
+    }
+
+
+
+    @Test
+    public void testSilentExitIsExecutableFailure()
+    {
+        final List<String> cmdLine = new CommandLineBuilder(invocation("x"), "/tmp/custom.cfg").build();
+        Assert.assertTrue(BoxesRunnerService.isExecutableFailure(exit(1, ""), cmdLine));
+        Assert.assertTrue(BoxesRunnerService.isExecutableFailure(exit(2, " \n"), cmdLine));
+    }
+
+
+
+    private static InvalidExitValueException exit(final String pOutput)
+    {
+        return exit(1, pOutput);
+    }
+
+
+
+    private static InvalidExitValueException exit(final int pExitValue, final String pOutput)
+    {
+        return new InvalidExitValueException("Unexpected exit value: " + pExitValue,
+            new ProcessResult(pExitValue, new ProcessOutput(pOutput.getBytes(StandardCharsets.US_ASCII))));
+    }
+}
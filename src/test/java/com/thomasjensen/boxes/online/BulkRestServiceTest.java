@@ -0,0 +1,115 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+
+
+/**
+ * Unit tests for {@link BulkRestService}, with a fake <i>boxes</i> which wraps the content in brackets.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class BulkRestServiceTest
+{
+    private static final String INPUT = "{\"id\":\"a\",\"design\":\"dog\",\"content\":\"one\"}\n"
+        + "\n"
+        + "{\"id\":7,\"design\":\"dog\",\"content\":\"two\"}\n"
+        + "{\"design\":\"dog\",\"content\":\"\"}\n"
+        + "not json\n"
+        + "{\"id\":\"c\",\"design\":\"dog\",\"content\":\"one\"}\n";
+
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private BoxesRunnerService boxesRunnerService;
+
+    private final AtomicInteger renders = new AtomicInteger();
+
+
+
+    @Before
+    public void setUp()
+    {
+        boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.any(Invocation.class), Mockito.<List<String>>any()))
+            .thenAnswer(pCall -> {
+                renders.incrementAndGet();
+                final Invocation invocation = pCall.getArgument(0);
+                return CompletableFuture.supplyAsync(() -> "[" + invocation.getContent() + "]");
+            });
+    }
+
+
+
+    private String run(final boolean pOrdered)
+        throws Exception
+    {
+        final BulkRestService underTest = new BulkRestService(boxesRunnerService, validator, objectMapper, 2, 65536L,
+            1000);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.drawBulk(new ByteArrayInputStream(INPUT.getBytes(StandardCharsets.UTF_8)), response, pOrdered);
+        Assert.assertEquals(NdjsonWriter.MEDIA_TYPE, response.getContentType());
+        return response.getContentAsString();
+    }
+
+
+
+    @Test
+    public void testOrdered()
+        throws Exception
+    {
+        final String[] lines = run(true).split("\n");
+        Assert.assertEquals(5, lines.length);
+        Assert.assertEquals("{\"index\":0,\"id\":\"a\",\"status\":200,\"output\":\"[one]\"}", lines[0]);
+        Assert.assertEquals("{\"index\":1,\"id\":7,\"status\":200,\"output\":\"[two]\"}", lines[1]);
+        Assert.assertEquals("{\"index\":2,\"status\":400,\"error\":\"no box content specified\"}", lines[2]);
+        Assert.assertTrue(lines[3].startsWith("{\"index\":3,\"status\":400,\"error\":\"malformed JSON"));
+        Assert.assertEquals("{\"index\":4,\"id\":\"c\",\"status\":200,\"output\":\"[one]\"}", lines[4]);
+        Assert.assertEquals("duplicate content should have been rendered once", 2, renders.get());
+    }
+
+
+
+    @Test
+    public void testUnordered()
+        throws Exception
+    {
+        final String[] lines = run(false).split("\n");
+        Assert.assertEquals(5, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            Assert.assertTrue(lines[i], lines[i].contains("\"index\":"));
+        }
+    }
+}
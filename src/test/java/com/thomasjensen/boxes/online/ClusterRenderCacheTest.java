@@ -0,0 +1,162 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link ClusterRenderCache}, using a fake peer listening on a localhost port.
+ */
+public class ClusterRenderCacheTest
+{
+    private static final String SELF = "http://127.0.0.1:1";
+
+    private HttpServer peer;
+
+    private String peerUrl;
+
+    /** the HTTP status the fake peer responds with */
+    private volatile int peerStatus = 200;
+
+    private ClusterRenderCache underTest;
+
+
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        peer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        peer.createContext(ClusterRenderCache.PEER_PATH, exchange -> {
+            final byte[] body = "from peer".getBytes(StandardCharsets.US_ASCII);
+            exchange.sendResponseHeaders(peerStatus, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        peer.start();
+        peerUrl = "http://127.0.0.1:" + peer.getAddress().getPort();
+        underTest = new ClusterRenderCache(SELF + "," + peerUrl, SELF, 1000000L, 100000L, 2000L, 20000L, 5000L,
+            new ObjectMapper());
+    }
+
+
+
+    @After
+    public void tearDown()
+    {
+        peer.stop(0);
+    }
+
+
+
+    private RenderKey findKeyOwnedBy(final String pOwner)
+    {
+        final ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList(SELF, peerUrl));
+        for (int i = 0; ; i++) {
+            final RenderKey key = RenderKey.of(List.of("boxes"), "content " + i);
+            if (pOwner.equals(ring.ownerOf(key))) {
+                return key;
+            }
+        }
+    }
+
+
+
+    @Test
+    public void testRemoteKeyIsFetchedFromOwner()
+        throws Exception
+    {
+        final Invocation invocation = new Invocation();
+        invocation.setContent("some content");
+        final String actual = underTest.get(findKeyOwnedBy(peerUrl), invocation,
+            () -> CompletableFuture.completedFuture("local")).get();
+        Assert.assertEquals("from peer", actual);
+    }
+
+
+
+    @Test
+    public void testOwnKeyIsRenderedLocallyOnce()
+        throws Exception
+    {
+        final RenderKey key = findKeyOwnedBy(SELF);
+        final AtomicInteger loads = new AtomicInteger();
+        final Invocation invocation = new Invocation();
+        invocation.setContent("some content");
+        for (int i = 0; i < 3; i++) {
+            final String actual = underTest.get(key, invocation, () -> {
+                loads.incrementAndGet();
+                return CompletableFuture.completedFuture("local");
+            }).get();
+            Assert.assertEquals("local", actual);
+        }
+        Assert.assertEquals(1, loads.get());
+    }
+
+
+
+    @Test
+    public void testFallbackToLocalWhenOwnerUnreachable()
+        throws Exception
+    {
+        peer.stop(0);
+        final Invocation invocation = new Invocation();
+        invocation.setContent("some content");
+        final String actual = underTest.get(findKeyOwnedBy(peerUrl), invocation,
+            () -> CompletableFuture.completedFuture("local")).get();
+        Assert.assertEquals("local", actual);
+    }
+
+
+
+    @Test
+    public void testNoLocalRenderWhenOwnerFailed()
+        throws Exception
+    {
+        peerStatus = 500;
+        final AtomicInteger loads = new AtomicInteger();
+        final Invocation invocation = new Invocation();
+        invocation.setContent("some content");
+        try {
+            underTest.get(findKeyOwnedBy(peerUrl), invocation, () -> {
+                loads.incrementAndGet();
+                return CompletableFuture.completedFuture("local");
+            }).get();
+            Assert.fail("expected the error of the owner");
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof BoxesExecutionException);
+        }
+        Assert.assertEquals(0, loads.get());
+    }
+}
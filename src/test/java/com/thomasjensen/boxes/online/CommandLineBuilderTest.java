@@ -56,4 +56,58 @@ public class CommandLineBuilderTest
             CommandLineBuilder.BOXES_EXECUTABLE, "-f", "boxes/boxes.cfg", "-q", "-i", "text", "-a", "hcvbjl", "-d",
             "dog", "-p", "t1r2b3l4", "-s", "30x11", "-t", "4"));
     }
+
+
+
+    @Test
+    public void testWithDesign()
+    {
+        Invocation invocation = new Invocation();
+        invocation.setDesign("dog");
+        invocation.setContent("some content");
+        final List<String> original = new CommandLineBuilder(invocation).build();
+
+        final List<String> actual = CommandLineBuilder.withDesign(original, "parchment");
+
+        Assertions.assertThat(actual).isEqualTo(Lists.list(//
+            CommandLineBuilder.BOXES_EXECUTABLE, "-f", "boxes/boxes.cfg", "-q", "-i", "text", "-d", "parchment", "-t",
+            "8"));
+        Assertions.assertThat(original).contains("dog");
+    }
+
+
+
+    @Test
+    public void testRemoval()
+    {
+        Invocation invocation = new Invocation();
+        invocation.setDesign("dog");
+        invocation.setContent("some content");
+
+        final List<String> actual = new CommandLineBuilder(invocation).buildRemoval();
+
+        Assertions.assertThat(actual).isEqualTo(Lists.list(//
+            CommandLineBuilder.BOXES_EXECUTABLE, "-f", "boxes/boxes.cfg", "-q", "-i", "text", "-d", "dog", "-t", "8",
+            "-r"));
+        Assertions.assertThat(CommandLineBuilder.withoutDesign(actual)).isEqualTo(Lists.list(//
+            CommandLineBuilder.BOXES_EXECUTABLE, "-f", "boxes/boxes.cfg", "-q", "-i", "text", "-t", "8", "-r"));
+    }
+
+
+
+    @Test
+    public void testCustomConfigFile()
+    {
+        Invocation invocation = new Invocation();
+        invocation.setDesign("ours");
+        invocation.setContent("some content");
+
+        final List<String> actual = new CommandLineBuilder(invocation, "/dev/shm/ours.cfg").build();
+
+        Assertions.assertThat(actual).isEqualTo(Lists.list(//
+            CommandLineBuilder.BOXES_EXECUTABLE, "-f", "/dev/shm/ours.cfg", "-q", "-i", "text", "-d", "ours", "-t",
+            "8"));
+        Assertions.assertThat(CommandLineBuilder.usesSharedConfig(actual)).isFalse();
+        Assertions.assertThat(CommandLineBuilder.usesSharedConfig(new CommandLineBuilder(invocation).build())).isTrue();
+    }
 }
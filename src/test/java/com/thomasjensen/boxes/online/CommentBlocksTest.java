@@ -0,0 +1,108 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link CommentBlocks}.
+ */
+public class CommentBlocksTest
+{
+    private static String reassemble(final List<CommentBlocks.Segment> pSegments)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (final CommentBlocks.Segment segment : pSegments) {
+            sb.append(segment.getOriginal());
+        }
+        return sb.toString();
+    }
+
+
+
+    @Test
+    public void testLineComments()
+    {
+        final String file = "#!/bin/sh\n# first\n#  second\n\necho hi  # trailing\n    # indented\n";
+        final List<CommentBlocks.Segment> segments = CommentBlocks.split(file, CommentBlocks.Style.HASH);
+
+        Assert.assertEquals(file, reassemble(segments));
+        Assert.assertEquals(4, segments.size());
+        Assert.assertFalse(segments.get(0).isComment());
+        Assert.assertEquals("#!/bin/sh\n", segments.get(0).getOriginal());
+        Assert.assertEquals("first\n second\n", segments.get(1).getComment());
+        Assert.assertEquals(2, segments.get(1).getLine());
+        Assert.assertEquals("\necho hi  # trailing\n", segments.get(2).getOriginal());
+        Assert.assertEquals("indented\n", segments.get(3).getComment());
+    }
+
+
+
+    @Test
+    public void testBlockComments()
+    {
+        final String file = "/*\n * Header\n *   line two\n */\nint x; /* not this */\n/** doc */\n"
+            + "  /* one-liner */\nint y;\n/* code after */ int z;\n";
+        final List<CommentBlocks.Segment> segments = CommentBlocks.split(file, CommentBlocks.Style.C);
+
+        Assert.assertEquals(file, reassemble(segments));
+        Assert.assertEquals("Header\n  line two\n", segments.get(0).getComment());
+        Assert.assertFalse(segments.get(1).isComment());
+        Assert.assertEquals("int x; /* not this */\n/** doc */\n", segments.get(1).getOriginal());
+        Assert.assertEquals("one-liner\n", segments.get(2).getComment());
+        Assert.assertEquals(7, segments.get(2).getLine());
+        Assert.assertFalse(segments.get(3).isComment());
+        Assert.assertEquals(4, segments.size());
+    }
+
+
+
+    @Test
+    public void testDocLineCommentsAndBlanksAreSkipped()
+    {
+        final String file = "/// doc\n//\n//   \n-- not a comment in C\n";
+        final List<CommentBlocks.Segment> segments = CommentBlocks.split(file, CommentBlocks.Style.C);
+        Assert.assertEquals(1, segments.size());
+        Assert.assertFalse(segments.get(0).isComment());
+    }
+
+
+
+    @Test
+    public void testSplice()
+    {
+        final String file = "\t-- a\r\n\t-- b\r\nselect 1;";
+        final List<CommentBlocks.Segment> segments = CommentBlocks.split(file, CommentBlocks.Style.DASH);
+        Assert.assertEquals("a\nb\n", segments.get(0).getComment());
+        Assert.assertEquals("\t+---+\r\n\t| a |\r\n\t+---+\r\n", segments.get(0).splice("+---+\n| a |\n+---+\n"));
+    }
+
+
+
+    @Test
+    public void testLanguages()
+    {
+        Assert.assertEquals(CommentBlocks.Style.C, CommentBlocks.Style.forLanguage("Java"));
+        Assert.assertEquals(CommentBlocks.Style.HASH, CommentBlocks.Style.forLanguage("python"));
+        Assert.assertEquals(CommentBlocks.Style.DASH, CommentBlocks.Style.forLanguage("sql"));
+        Assert.assertNull(CommentBlocks.Style.forLanguage("cobol"));
+        Assert.assertNull(CommentBlocks.Style.forLanguage(null));
+    }
+}
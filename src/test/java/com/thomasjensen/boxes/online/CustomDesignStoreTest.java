@@ -0,0 +1,215 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Unit tests for {@link CustomDesignStore}.
+ */
+public class CustomDesignStoreTest
+{
+    private static final String DEFINITION = "# our house design\n"
+        + "BOX house\n"
+        + "shapes {\n"
+        + "    nw (\"+\") n (\"=\") ne (\"+\")\n"
+        + "    w (\"|\") e (\"|\")\n"
+        + "    sw (\"+\") s (\"=\") se (\"+\")\n"
+        + "}\n"
+        + "elastic (n, s, e, w)\n"
+        + "END house\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CustomDesignStore underTest;
+
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        underTest = new CustomDesignStore(folder.getRoot().toString(), 2);
+    }
+
+
+
+    @After
+    public void tearDown()
+    {
+        underTest.destroy();
+    }
+
+
+
+    private static String definition(final String pName)
+    {
+        return "BOX " + pName + "\nshapes { n (\"-\") }\nEND " + pName + "\n";
+    }
+
+
+
+    @Test
+    public void testNameOf()
+    {
+        Assert.assertEquals("house", CustomDesignStore.nameOf(DEFINITION));
+        Assert.assertEquals("a-b.c", CustomDesignStore.nameOf("\n\nbox a-b.c\r\nshapes {}\r\nend a-b.c\r\n\n# end\n"));
+        Assert.assertNull(CustomDesignStore.nameOf("shapes {}\n"));
+        Assert.assertNull(CustomDesignStore.nameOf("BOX a\nshapes {}\n"));
+        Assert.assertNull(CustomDesignStore.nameOf("BOX a\nshapes {}\nEND b\n"));
+        Assert.assertNull(CustomDesignStore.nameOf("BOX a\nEND a\nBOX b\nEND b\n"));
+        Assert.assertNull(CustomDesignStore.nameOf("BOX a\nPARENT /etc/boxes/boxes-config\nEND a\n"));
+        Assert.assertNull(CustomDesignStore.nameOf("BOX ../a\nEND ../a\n"));
+    }
+
+
+
+    @Test
+    public void testRegisterWritesConfigOnce()
+        throws Exception
+    {
+        final CustomDesignStore.Entry entry = underTest.register(DEFINITION);
+        Assert.assertEquals("house", entry.getName());
+        Assert.assertEquals(64, entry.getId().length());
+        final Path configFile = Paths.get(entry.getConfigFile());
+        Assert.assertEquals(DEFINITION, new String(Files.readAllBytes(configFile), StandardCharsets.UTF_8));
+
+        final CustomDesignStore.Entry again = underTest.register(DEFINITION.replace("\n", "\r\n"));
+        Assert.assertSame(entry, again);
+        Assert.assertEquals(1, underTest.size());
+    }
+
+
+
+    @Test
+    public void testResolve()
+        throws Exception
+    {
+        final String id = underTest.register(DEFINITION).getId();
+        final Invocation invocation = new Invocation();
+        final Invocation.CustomDesign customDesign = new Invocation.CustomDesign();
+        customDesign.setId(id);
+        invocation.setCustomDesign(customDesign);
+
+        final String configFile = underTest.resolve(invocation);
+
+        Assert.assertEquals(underTest.register(DEFINITION).getConfigFile(), configFile);
+        Assert.assertEquals("house", invocation.getDesign());
+        Assert.assertNull(underTest.resolve(new Invocation()));
+    }
+
+
+
+    @Test(expected = InvalidInvocationException.class)
+    public void testResolveUnknownId()
+        throws Exception
+    {
+        final Invocation invocation = new Invocation();
+        final Invocation.CustomDesign customDesign = new Invocation.CustomDesign();
+        customDesign.setId(CustomDesignStore.hash("unknown"));
+        invocation.setCustomDesign(customDesign);
+        underTest.resolve(invocation);
+    }
+
+
+
+    @Test
+    public void testEviction()
+    {
+        final CustomDesignStore.Entry first = underTest.register(definition("one"));
+        underTest.register(definition("two"));
+        underTest.register(definition("one"));   // makes "two" the least recently used
+        underTest.register(definition("three"));
+
+        Assert.assertEquals(2, underTest.size());
+        Assert.assertTrue(Files.exists(Paths.get(first.getConfigFile())));
+        Assert.assertEquals(2, Paths.get(first.getConfigFile()).getParent().toFile().list().length);
+    }
+
+
+
+    private static Invocation inline(final String pDefinition)
+    {
+        final Invocation result = new Invocation();
+        final Invocation.CustomDesign customDesign = new Invocation.CustomDesign();
+        customDesign.setDefinition(pDefinition);
+        result.setCustomDesign(customDesign);
+        return result;
+    }
+
+
+
+    @Test
+    public void testEvictedFileKeptWhileInUse()
+        throws Exception
+    {
+        final String configFile = underTest.resolve(inline(definition("one")));
+        underTest.register(definition("two"));
+        underTest.register(definition("three"));   // drops "one", which is still in use
+
+        Assert.assertEquals(2, underTest.size());
+        Assert.assertTrue(Files.exists(Paths.get(configFile)));
+
+        underTest.release(configFile);
+        Assert.assertFalse(Files.exists(Paths.get(configFile)));
+    }
+
+
+
+    @Test
+    public void testEvictedFileReusedWhenRegisteredAgain()
+        throws Exception
+    {
+        final String configFile = underTest.resolve(inline(definition("one")));
+        underTest.register(definition("two"));
+        underTest.register(definition("three"));
+        final CustomDesignStore.Entry again = underTest.register(definition("one"));
+
+        Assert.assertEquals(configFile, again.getConfigFile());
+        underTest.release(configFile);
+        Assert.assertTrue(Files.exists(Paths.get(configFile)));   // registered again, so not deleted
+    }
+
+
+
+    @Test
+    public void testReleaseWhenDone()
+        throws Exception
+    {
+        final String configFile = underTest.resolve(inline(definition("one")));
+        final CompletableFuture<String> render = new CompletableFuture<>();
+        Assert.assertSame(render, underTest.releaseWhenDone(configFile, () -> render));
+        underTest.register(definition("two"));
+        underTest.register(definition("three"));
+        Assert.assertTrue(Files.exists(Paths.get(configFile)));
+
+        render.complete("done");
+        Assert.assertFalse(Files.exists(Paths.get(configFile)));
+    }
+}
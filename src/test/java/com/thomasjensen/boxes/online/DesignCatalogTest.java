@@ -0,0 +1,139 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link DesignCatalog}, checked against the JSON design list which is generated along with it.
+ */
+public class DesignCatalogTest
+{
+    private final AtomicInteger opened = new AtomicInteger();
+
+    private Map<String, BoxDesign> jsonList;
+
+    private DesignCatalog underTest;
+
+
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("box-designs.json")) {
+            Assert.assertNotNull(is);
+            jsonList = new ObjectMapper().readValue(is, new TypeReference<TreeMap<String, BoxDesign>>() {});
+        }
+        underTest = DesignCatalog.read(() -> {
+            opened.incrementAndGet();
+            return getClass().getClassLoader().getResourceAsStream(DesignCatalog.FILENAME);
+        });
+    }
+
+
+
+    @Test
+    public void testSameDesignsAsJsonList()
+        throws IOException
+    {
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < underTest.size(); i++) {
+            names.add(underTest.getName(i));
+        }
+        Assert.assertEquals(new ArrayList<>(jsonList.keySet()), names);
+
+        for (int i = 0; i < underTest.size(); i++) {
+            final BoxDesign expected = jsonList.get(underTest.getName(i));
+            final BoxDesign actual = underTest.getDesign(i);
+            Assert.assertEquals(i, underTest.indexOf(underTest.getName(i)));
+            Assert.assertEquals(expected.getAuthor(), actual.getAuthor());
+            Assert.assertEquals(expected.getDesigner(), actual.getDesigner());
+            Assert.assertNull(actual.getSample());
+            Assert.assertEquals(expected.getSample(), underTest.getSample(i));
+            if (expected.getDefaultPadding() == null) {
+                Assert.assertNull(actual.getDefaultPadding());
+            }
+            else {
+                Assert.assertEquals(expected.getDefaultPadding().getTop(), actual.getDefaultPadding().getTop());
+                Assert.assertEquals(expected.getDefaultPadding().getRight(), actual.getDefaultPadding().getRight());
+                Assert.assertEquals(expected.getDefaultPadding().getBottom(), actual.getDefaultPadding().getBottom());
+                Assert.assertEquals(expected.getDefaultPadding().getLeft(), actual.getDefaultPadding().getLeft());
+            }
+        }
+    }
+
+
+
+    @Test
+    public void testUnknownNames()
+    {
+        Assert.assertEquals(-1, underTest.indexOf(""));
+        Assert.assertEquals(-1, underTest.indexOf("no-such-design"));
+        for (final String name : jsonList.keySet()) {
+            Assert.assertEquals(-1, underTest.indexOf(name + 'x'));
+            Assert.assertEquals(-1, underTest.indexOf(name.substring(1)));
+        }
+    }
+
+
+
+    @Test
+    public void testSamplesReadOnFirstUse()
+        throws IOException
+    {
+        Assert.assertEquals(1, opened.get());
+        Assert.assertFalse(underTest.isSamplesLoaded());
+
+        for (int i = 0; i < underTest.size(); i++) {
+            underTest.getSample(i);
+        }
+        Assert.assertTrue(underTest.isSamplesLoaded());
+        Assert.assertEquals(2, opened.get());
+    }
+
+
+
+    @Test(expected = IOException.class)
+    public void testNotACatalog()
+        throws IOException
+    {
+        DesignCatalog.read(() -> new ByteArrayInputStream("{\"dog\": {}}".getBytes()));
+    }
+
+
+
+    @Test(expected = IOException.class)
+    public void testFileNotFound()
+        throws IOException
+    {
+        DesignCatalog.read(() -> null);
+    }
+}
@@ -0,0 +1,100 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link DesignFingerprintIndex}.
+ */
+public class DesignFingerprintIndexTest
+{
+    private MeterRegistry meterRegistry;
+
+    private DesignFingerprintIndex underTest;
+
+
+
+    @Before
+    public void setUp()
+    {
+        final Map<String, String> samples = new LinkedHashMap<>();
+        samples.put("c", "/*************/\n/*           */\n/*************/\n");
+        samples.put("stone", "+-------------+\n|             |\n+-------------+\n");
+        samples.put("ada-box", "---------------\n--           --\n---------------\n");
+        samples.put("ada-cmt", "---------------\n-- text\n---------------\n");
+        samples.put("blank", "\n\n");
+        meterRegistry = new SimpleMeterRegistry();
+        underTest = new DesignFingerprintIndex(samples, meterRegistry);
+    }
+
+
+
+    private double count(final String pOutcome)
+    {
+        return meterRegistry.get("boxes.unbox.detect").tag("outcome", pOutcome).counter().count();
+    }
+
+
+
+    @Test
+    public void testMatch()
+    {
+        Assert.assertEquals("c", underTest.detect("\n    /*****/\n    /* x */\n    /* y */\n    /*****/   \n\n"));
+        Assert.assertEquals("stone", underTest.detect("+---+\n| x |\n+---+"));
+        Assert.assertEquals(2.0, count("match"), 0.0);
+    }
+
+
+
+    @Test
+    public void testAmbiguous()
+    {
+        Assert.assertNull(underTest.detect("-----\n-- x\n-----\n"));
+        Assert.assertEquals(1.0, count("ambiguous"), 0.0);
+    }
+
+
+
+    @Test
+    public void testNone()
+    {
+        Assert.assertNull(underTest.detect("+---+\n| x |\n+---*\n"));
+        Assert.assertNull(underTest.detect("#####\n# x #\n#####\n"));
+        Assert.assertNull(underTest.detect(" \n\n"));
+        Assert.assertNull(underTest.detect(null));
+        Assert.assertEquals(4.0, count("none"), 0.0);
+    }
+
+
+
+    @Test
+    public void testEdge()
+    {
+        Assert.assertEquals("a", DesignFingerprintIndex.edge("\n  a \nb\n c\n\n", true));
+        Assert.assertEquals("c", DesignFingerprintIndex.edge("\n  a \nb\n c\n\n", false));
+        Assert.assertEquals("a", DesignFingerprintIndex.edge("a", false));
+        Assert.assertNull(DesignFingerprintIndex.edge("  \n", true));
+    }
+}
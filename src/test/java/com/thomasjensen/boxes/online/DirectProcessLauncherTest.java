@@ -0,0 +1,170 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zeroturnaround.exec.InvalidExitValueException;
+
+
+/**
+ * Some unit tests for the {@link DirectProcessLauncher}, using standard Unix tools in place of <i>boxes</i>.
+ */
+public class DirectProcessLauncherTest
+{
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final ProcessLauncher.StartListener NO_LISTENER = pProcess -> { };
+
+    private HashedWheelWatchdog watchdog;
+
+    private final IoBufferPool bufferPool = new IoBufferPool(1024 * 1024, 4 * 1024 * 1024, new SimpleMeterRegistry());
+
+    private DirectProcessLauncher underTest;
+
+
+
+    @Before
+    public void setUp()
+    {
+        watchdog = new HashedWheelWatchdog(10L, Executors.defaultThreadFactory());
+        underTest = new DirectProcessLauncher(new BoxesRunnerService.Stopper(), watchdog,
+            Executors.defaultThreadFactory(), 2);
+    }
+
+
+
+    @After
+    public void tearDown()
+    {
+        underTest.shutdown();
+        watchdog.stop();
+    }
+
+
+
+    private byte[] launch(final List<String> pCmdLine, final byte[] pInput, final long pTimeoutNanos,
+        final ProcessLauncher.StartListener pStartListener)
+        throws Exception
+    {
+        try (PooledOutputStream output = bufferPool.newOutputStream(0)) {
+            underTest.launch(pCmdLine, pInput, pInput.length, output, pTimeoutNanos, pStartListener);
+            return output.toByteArray();
+        }
+    }
+
+
+
+    @Test
+    public void testOutput()
+        throws Exception
+    {
+        final AtomicReference<Process> started = new AtomicReference<>();
+        final byte[] actual = launch(Collections.singletonList("cat"),
+            "Hello\nWorld\n".getBytes(StandardCharsets.US_ASCII), TIMEOUT_NANOS, started::set);
+        Assert.assertEquals("Hello\nWorld\n", new String(actual, StandardCharsets.US_ASCII));
+        Assert.assertNotNull(started.get());
+    }
+
+
+
+    @Test
+    public void testLargeInput()
+        throws Exception
+    {
+        final byte[] input = new byte[1024 * 1024];
+        Arrays.fill(input, (byte) 'x');
+        final byte[] actual = launch(Collections.singletonList("cat"), input, TIMEOUT_NANOS, NO_LISTENER);
+        Assert.assertArrayEquals(input, actual);
+    }
+
+
+
+    @Test
+    public void testStdErrIsMerged()
+        throws Exception
+    {
+        final byte[] actual = launch(Arrays.asList("sh", "-c", "echo oops >&2"), new byte[0], TIMEOUT_NANOS,
+            NO_LISTENER);
+        Assert.assertEquals("oops\n", new String(actual, StandardCharsets.US_ASCII));
+    }
+
+
+
+    @Test
+    public void testExitValueChecked()
+        throws Exception
+    {
+        try {
+            launch(Arrays.asList("sh", "-c", "exit 3"), new byte[0], TIMEOUT_NANOS, NO_LISTENER);
+            Assert.fail("expected InvalidExitValueException");
+        }
+        catch (InvalidExitValueException e) {
+            Assert.assertEquals(3, e.getExitValue());
+        }
+    }
+
+
+
+    @Test
+    public void testTimeout()
+        throws Exception
+    {
+        final AtomicReference<Process> started = new AtomicReference<>();
+        final long start = System.nanoTime();
+        try {
+            launch(Arrays.asList("sleep", "10"), new byte[0], TimeUnit.MILLISECONDS.toNanos(200),
+                started::set);
+            Assert.fail("expected TimeoutException");
+        }
+        catch (TimeoutException e) {
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Assert.assertTrue(started.get().waitFor(5, TimeUnit.SECONDS));
+        }
+    }
+
+
+
+    @Test
+    public void testNoThreadsPerExecution()
+        throws Exception
+    {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final byte[] input = "x".getBytes(StandardCharsets.US_ASCII);
+        launch(Collections.singletonList("cat"), input, TIMEOUT_NANOS, NO_LISTENER);   // warm up
+
+        final long before = threads.getTotalStartedThreadCount();
+        for (int i = 0; i < 20; i++) {
+            launch(Collections.singletonList("cat"), input, TIMEOUT_NANOS, NO_LISTENER);
+        }
+        // The JDK's process reaper threads are pooled, so only the odd one may be started here.
+        Assert.assertTrue(threads.getTotalStartedThreadCount() - before < 5);
+    }
+}
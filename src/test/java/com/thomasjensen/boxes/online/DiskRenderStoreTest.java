@@ -0,0 +1,252 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.util.FileSystemUtils;
+
+
+/**
+ * Unit tests for {@link DiskRenderStore}.
+ */
+public class DiskRenderStoreTest
+{
+    private static final int SEGMENT_BYTES = 4096;
+
+    private Path directory;
+
+    /** while set, deleting files fails, as it does on Windows while a file is mapped */
+    private final AtomicBoolean deleteFails = new AtomicBoolean(false);
+
+
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        directory = Files.createTempDirectory("boxes-diskcache");
+    }
+
+
+
+    @After
+    public void tearDown()
+        throws IOException
+    {
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+
+
+    private DiskRenderStore open(final boolean pReadOnly)
+        throws IOException
+    {
+        return open(pReadOnly, "v1");
+    }
+
+
+
+    private DiskRenderStore open(final boolean pReadOnly, final String pFingerprint)
+        throws IOException
+    {
+        return new DiskRenderStore(directory.toString(), 4L * SEGMENT_BYTES, SEGMENT_BYTES, pReadOnly, 60L,
+            pFingerprint, pPath -> {
+                if (deleteFails.get()) {
+                    throw new AccessDeniedException(pPath.toString());
+                }
+                Files.deleteIfExists(pPath);
+            });
+    }
+
+
+
+    private static RenderKey key(final int pNum)
+    {
+        return RenderKey.of(List.of("boxes", "-d", "dog"), "content " + pNum);
+    }
+
+
+
+    @Test
+    public void testSurvivesRestart()
+        throws IOException
+    {
+        DiskRenderStore underTest = open(false);
+        underTest.put(key(1), "box 1".getBytes(StandardCharsets.US_ASCII));
+        underTest.close();
+
+        underTest = open(false);
+        Assert.assertEquals("box 1", new String(underTest.get(key(1)), StandardCharsets.US_ASCII));
+        Assert.assertNull(underTest.get(key(2)));
+        underTest.close();
+    }
+
+
+
+    @Test
+    public void testSecondProcessIsReadOnly()
+        throws IOException
+    {
+        final DiskRenderStore writer = open(false);
+        writer.put(key(1), "box 1".getBytes(StandardCharsets.US_ASCII));
+        final DiskRenderStore reader = open(true);
+        Assert.assertTrue(reader.isReadOnly());
+        Assert.assertEquals("box 1", new String(reader.get(key(1)), StandardCharsets.US_ASCII));
+        reader.put(key(2), "box 2".getBytes(StandardCharsets.US_ASCII));
+        Assert.assertNull(reader.get(key(2)));
+        reader.close();
+        writer.close();
+    }
+
+
+
+    @Test
+    public void testCompactionKeepsReferencedEntries()
+        throws Exception
+    {
+        final DiskRenderStore underTest = open(false);
+        final byte[] payload = new byte[1000];
+        underTest.put(key(0), payload);
+        for (int i = 1; i < 40; i++) {
+            Assert.assertNotNull(underTest.get(key(0)));   // key 0 is hot
+            underTest.put(key(i), payload);
+            underTest.awaitCompaction();
+        }
+        Assert.assertNotNull(underTest.get(key(0)));
+        Assert.assertNull(underTest.get(key(1)));
+        Assert.assertNotNull(underTest.get(key(39)));
+        Assert.assertTrue(countSegmentFiles() <= 4);
+        underTest.close();
+    }
+
+
+
+    private long countSegmentFiles()
+        throws IOException
+    {
+        try (var files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+
+
+
+    @Test
+    public void testFailedDeleteIsRetried()
+        throws Exception
+    {
+        deleteFails.set(true);
+        DiskRenderStore underTest = open(false);
+        final byte[] payload = new byte[1000];
+        for (int i = 0; i < 24; i++) {
+            underTest.put(key(i), payload);
+            underTest.awaitCompaction();
+        }
+        Assert.assertTrue(countSegmentFiles() > 4);
+        Assert.assertNull(underTest.get(key(0)));
+        Assert.assertNotNull(underTest.get(key(23)));
+        underTest.close();
+
+        // the dropped segments are not picked up again, neither by readers nor by the writer after a restart
+        final DiskRenderStore reader = open(true);
+        Assert.assertNull(reader.get(key(0)));
+        Assert.assertNotNull(reader.get(key(23)));
+        reader.close();
+        underTest = open(false);
+        Assert.assertNull(underTest.get(key(0)));
+        Assert.assertNotNull(underTest.get(key(23)));
+
+        // deleting is retried when the next segment is started
+        deleteFails.set(false);
+        for (int i = 24; i < 28; i++) {
+            underTest.put(key(i), payload);
+            underTest.awaitCompaction();
+        }
+        Assert.assertTrue(countSegmentFiles() <= 4);
+        Assert.assertNotNull(underTest.get(key(27)));
+        underTest.close();
+    }
+
+
+
+    @Test
+    public void testChecksumMismatchIsDetected()
+        throws IOException
+    {
+        DiskRenderStore underTest = open(false);
+        underTest.put(key(1), "box 1".getBytes(StandardCharsets.US_ASCII));
+        underTest.close();
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("segment-0000000000.dat").toFile(), "rw")) {
+            file.seek(48);
+            file.write('X');
+        }
+
+        underTest = open(false);
+        Assert.assertNull(underTest.get(key(1)));
+        underTest.close();
+    }
+
+
+
+    @Test
+    public void testDiscardedWhenExecutableOrConfigChanges()
+        throws IOException
+    {
+        DiskRenderStore underTest = open(false, "v1");
+        underTest.put(key(1), "box 1".getBytes(StandardCharsets.US_ASCII));
+        underTest.close();
+
+        final DiskRenderStore reader = open(true, "v2");
+        Assert.assertNull(reader.get(key(1)));
+        reader.close();
+
+        underTest = open(false, "v2");
+        Assert.assertNull(underTest.get(key(1)));
+        Assert.assertFalse(Files.exists(directory.resolve("segment-0000000000.dat")));
+        underTest.put(key(2), "box 2".getBytes(StandardCharsets.US_ASCII));
+        underTest.close();
+
+        underTest = open(false, "v2");
+        Assert.assertEquals("box 2", new String(underTest.get(key(2)), StandardCharsets.US_ASCII));
+        underTest.close();
+    }
+
+
+
+    @Test
+    public void testFingerprint()
+        throws IOException
+    {
+        final Path executable = Files.writeString(directory.resolve("boxes"), "binary");
+        final Path config = Files.writeString(directory.resolve("boxes.cfg"), "BOX dog");
+        final String before = DiskRenderStore.fingerprint(executable, config);
+        Assert.assertEquals(before, DiskRenderStore.fingerprint(executable, config));
+        Files.writeString(config, "BOX cat");
+        Assert.assertNotEquals(before, DiskRenderStore.fingerprint(executable, config));
+    }
+}
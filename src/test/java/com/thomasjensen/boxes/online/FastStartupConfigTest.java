@@ -0,0 +1,56 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.util.AntPathMatcher;
+
+
+/**
+ * Unit tests for the lazy initialization of {@link FastStartupConfig}.
+ */
+public class FastStartupConfigTest
+{
+    @Test
+    public void testOnlyBeansOffTheHotPathAreLazy()
+    {
+        final DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("validator",
+            BeanDefinitionBuilder.genericBeanDefinition(Validator.class).getBeanDefinition());
+        beanFactory.registerBeanDefinition("matcher",
+            BeanDefinitionBuilder.genericBeanDefinition(AntPathMatcher.class).getBeanDefinition());
+        beanFactory.registerBeanDefinition("infrastructure",
+            BeanDefinitionBuilder.genericBeanDefinition(AntPathMatcher.class)
+                .setRole(BeanDefinition.ROLE_INFRASTRUCTURE).getBeanDefinition());
+        beanFactory.registerBeanDefinition("config",
+            BeanDefinitionBuilder.genericBeanDefinition(ReactiveConfig.class).getBeanDefinition());
+        final BeanDefinition factoryMethodBean = BeanDefinitionBuilder.genericBeanDefinition().getBeanDefinition();
+        factoryMethodBean.setFactoryBeanName("config");
+        factoryMethodBean.setFactoryMethodName("nettyReactiveWebServerFactory");
+        beanFactory.registerBeanDefinition("factoryMethodBean", factoryMethodBean);
+
+        FastStartupConfig.lazyInitBeanFactoryPostProcessor().postProcessBeanFactory(beanFactory);
+
+        Assert.assertFalse(beanFactory.getBeanDefinition("validator").isLazyInit());
+        Assert.assertTrue(beanFactory.getBeanDefinition("matcher").isLazyInit());
+        Assert.assertFalse(beanFactory.getBeanDefinition("infrastructure").isLazyInit());
+        Assert.assertFalse(beanFactory.getBeanDefinition("factoryMethodBean").isLazyInit());
+    }
+}
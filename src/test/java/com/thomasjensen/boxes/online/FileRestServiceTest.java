@@ -0,0 +1,164 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+
+
+/**
+ * Unit tests for {@link FileRestService}, with a fake <i>boxes</i> which puts brackets around the text.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class FileRestServiceTest
+{
+    @Autowired
+    private Validator validator;
+
+    private FileRestService underTest;
+
+
+
+    @Before
+    public void setUp()
+    {
+        final BoxesRunnerService boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.<List<String>>any(), Mockito.anyString()))
+            .thenAnswer(pCall -> {
+                final String text = pCall.getArgument(1);
+                if (text.contains("fail")) {
+                    return CompletableFuture.failedFuture(new BoxesExecutionException("boom", null));
+                }
+                return CompletableFuture.supplyAsync(() -> "[" + text.trim() + "]\n");
+            });
+        underTest = new FileRestService(boxesRunnerService, validator, 1000, 10, 8);
+    }
+
+
+
+    private static FileRequest request(final String pLanguage, final String pFile)
+    {
+        final Invocation invocation = new Invocation();
+        invocation.setDesign("dog");
+        invocation.setContent(pFile);
+        final FileRequest result = new FileRequest();
+        result.setInvocation(invocation);
+        result.setLanguage(pLanguage);
+        return result;
+    }
+
+
+
+    @Test
+    public void testBlocksAreSplicedBack()
+        throws Exception
+    {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.drawFile(request("java", "// one\nclass A {\n    /* two */\n}\n"), response);
+
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertEquals("[one]\nclass A {\n    [two]\n}\n", response.getContentAsString());
+    }
+
+
+
+    @Test
+    public void testUnknownLanguage()
+        throws Exception
+    {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.drawFile(request("cobol", "* comment\n"), response);
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+
+
+    @Test
+    public void testTooManyBlocks()
+        throws Exception
+    {
+        final StringBuilder file = new StringBuilder();
+        for (int i = 0; i < 11; i++) {
+            file.append("# comment\nx\n");
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.drawFile(request("shell", file.toString()), response);
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+
+
+    @Test
+    public void testFailureBeforeOutput()
+        throws Exception
+    {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.drawFile(request("shell", "# fail\necho\n"), response);
+        Assert.assertEquals(500, response.getStatus());
+        Assert.assertTrue(response.getContentAsString().contains("line 1"));
+    }
+
+
+
+    @Test
+    public void testParallelismIsBounded()
+        throws Exception
+    {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final BoxesRunnerService boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.<List<String>>any(), Mockito.anyString()))
+            .thenAnswer(pCall -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                final String text = pCall.getArgument(1);
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Thread.sleep(10L);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    return "[" + text.trim() + "]\n";
+                });
+            });
+        final FileRestService limited = new FileRestService(boxesRunnerService, validator, 1000, 10, 2);
+
+        final StringBuilder file = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            file.append("# block ").append(i).append("\nx\n");
+            expected.append("[block ").append(i).append("]\nx\n");
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        limited.drawFile(request("shell", file.toString()), response);
+
+        Assert.assertEquals(expected.toString(), response.getContentAsString());
+        Assert.assertTrue(maxInFlight.get() <= 2);
+    }
+}
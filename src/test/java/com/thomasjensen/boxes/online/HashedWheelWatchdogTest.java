@@ -0,0 +1,119 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for the {@link HashedWheelWatchdog}.
+ */
+public class HashedWheelWatchdogTest
+{
+    private HashedWheelWatchdog underTest;
+
+
+
+    @Before
+    public void setUp()
+    {
+        underTest = new HashedWheelWatchdog(10L, Executors.defaultThreadFactory());
+    }
+
+
+
+    @After
+    public void tearDown()
+    {
+        underTest.stop();
+    }
+
+
+
+    @Test
+    public void testFires()
+        throws InterruptedException
+    {
+        final CountDownLatch fired = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final HashedWheelWatchdog.Timeout timeout = underTest.schedule(fired::countDown, 50, TimeUnit.MILLISECONDS);
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertTrue(timeout.isExpired());
+        Assert.assertFalse(timeout.cancel());
+    }
+
+
+
+    @Test
+    public void testCancelled()
+        throws InterruptedException
+    {
+        final AtomicInteger fired = new AtomicInteger();
+        final HashedWheelWatchdog.Timeout timeout = underTest.schedule(fired::incrementAndGet, 30,
+            TimeUnit.MILLISECONDS);
+        Assert.assertTrue(timeout.cancel());
+        Thread.sleep(100);
+        Assert.assertEquals(0, fired.get());
+        Assert.assertFalse(timeout.isExpired());
+    }
+
+
+
+    @Test
+    public void testBeyondOneRotation()
+        throws InterruptedException
+    {
+        // 512 buckets of 1 ms, so this timeout has to survive several rounds of the wheel
+        final HashedWheelWatchdog fastWheel = new HashedWheelWatchdog(1L, Executors.defaultThreadFactory());
+        try {
+            final CountDownLatch fired = new CountDownLatch(1);
+            final long start = System.nanoTime();
+            fastWheel.schedule(fired::countDown, 1200, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1200));
+        }
+        finally {
+            fastWheel.stop();
+        }
+    }
+
+
+
+    @Test
+    public void testManyTimeouts()
+        throws InterruptedException
+    {
+        final int count = 10000;
+        final CountDownLatch fired = new CountDownLatch(count / 2);
+        for (int i = 0; i < count; i++) {
+            final HashedWheelWatchdog.Timeout timeout = underTest.schedule(fired::countDown, i % 100,
+                TimeUnit.MILLISECONDS);
+            if (i % 2 == 0) {
+                timeout.cancel();
+            }
+        }
+        Assert.assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+}
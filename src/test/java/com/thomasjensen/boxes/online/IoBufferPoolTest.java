@@ -0,0 +1,129 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.charset.StandardCharsets;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link IoBufferPool} and {@link PooledOutputStream}.
+ */
+public class IoBufferPoolTest
+{
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final IoBufferPool underTest = new IoBufferPool(64 * 1024, 1024 * 1024, meterRegistry);
+
+
+
+    private double allocated()
+    {
+        return meterRegistry.get("boxes.buffers.allocated").counter().count();
+    }
+
+
+
+    @Test
+    public void testSizeClasses()
+    {
+        Assert.assertEquals(1024, underTest.acquire(0).length);
+        Assert.assertEquals(1024, underTest.acquire(1024).length);
+        Assert.assertEquals(2048, underTest.acquire(1025).length);
+        Assert.assertEquals(64 * 1024, underTest.acquire(40000).length);
+        Assert.assertEquals(70000, underTest.acquire(70000).length);
+    }
+
+
+
+    @Test
+    public void testReuse()
+    {
+        final byte[] buffer = underTest.acquire(3000);
+        underTest.release(buffer);
+        Assert.assertEquals(4096, underTest.getPooledBytes());
+        final double before = allocated();
+
+        Assert.assertSame(buffer, underTest.acquire(2049));
+        Assert.assertEquals(0, underTest.getPooledBytes());
+        Assert.assertEquals(before, allocated(), 0d);
+    }
+
+
+
+    @Test
+    public void testOversizedBuffersAreNotPooled()
+    {
+        underTest.release(underTest.acquire(100000));
+        underTest.release(new byte[3000]);
+        Assert.assertEquals(0, underTest.getPooledBytes());
+    }
+
+
+
+    @Test
+    public void testPoolIsBounded()
+    {
+        // 7 size classes share 1 MiB, so at most 2 buffers of 64 KiB are kept
+        final byte[][] buffers = new byte[5][];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = underTest.acquire(64 * 1024);
+        }
+        for (final byte[] buffer : buffers) {
+            underTest.release(buffer);
+        }
+        Assert.assertEquals(2 * 64 * 1024, underTest.getPooledBytes());
+    }
+
+
+
+    @Test
+    public void testOutputStreamGrows()
+    {
+        final StringBuilder expected = new StringBuilder();
+        try (PooledOutputStream out = underTest.newOutputStream(10)) {
+            for (int i = 0; i < 5000; i++) {
+                final byte[] line = ("line " + i + "\n").getBytes(StandardCharsets.US_ASCII);
+                out.write(line, 0, line.length);
+                expected.append("line ").append(i).append('\n');
+            }
+            out.write('!');
+            expected.append('!');
+            Assert.assertEquals(expected.length(), out.size());
+            Assert.assertEquals(expected.toString(), out.toString(StandardCharsets.US_ASCII));
+        }
+        // the smaller buffers were given back while growing, and the last one on close
+        Assert.assertTrue(underTest.getPooledBytes() >= 64 * 1024);
+    }
+
+
+
+    @Test
+    public void testEncodeAsciiLikeTheJdk()
+    {
+        final String text = "plain \t\n ümlaut 😀 lone \uD800 end";
+        final byte[] buffer = underTest.acquire(text.length());
+        final int length = BoxesRunnerService.encodeAscii(text, buffer);
+        final byte[] expected = text.getBytes(StandardCharsets.US_ASCII);
+        Assert.assertEquals(expected.length, length);
+        Assert.assertEquals(new String(expected, StandardCharsets.US_ASCII),
+            new String(buffer, 0, length, StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,164 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+
+/**
+ * Unit tests for {@link JobRestService}, with a fake <i>boxes</i> whose results are completed by the test.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class JobRestServiceTest
+{
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private PayloadLog payloadLog;
+
+    @Autowired
+    private HashedWheelWatchdog watchdog;
+
+    @Autowired
+    private CustomDesignStore customDesignStore;
+
+    private CompletableFuture<String> execution;
+
+    private BoxesRunnerService boxesRunnerService;
+
+    private JobRestService underTest;
+
+
+
+    @Before
+    public void setUp()
+    {
+        execution = new CompletableFuture<>();
+        boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.any(Invocation.class), Mockito.<List<String>>any()))
+            .thenReturn(execution);
+        underTest = new JobRestService(boxesRunnerService, validator, payloadLog,
+            new JobStore(300, 1000000L, 10, new SimpleMeterRegistry()), watchdog, customDesignStore, 5000L);
+    }
+
+
+
+    private static Invocation invocation(final String pContent)
+    {
+        final Invocation result = new Invocation();
+        result.setDesign("dog");
+        result.setContent(pContent);
+        return result;
+    }
+
+
+
+    @Test
+    public void testSubmitAndPoll()
+    {
+        final ResponseEntity<JobStatus> submitted = underTest.submit(invocation("hello"), null);
+        Assert.assertEquals(202, submitted.getStatusCodeValue());
+        final String id = submitted.getBody().getId();
+        Assert.assertEquals("/jobs/" + id, submitted.getHeaders().getLocation().toString());
+        Assert.assertEquals(JobStatus.State.Running, submitted.getBody().getState());
+
+        Assert.assertEquals(202, underTest.get(id, 0L).join().getStatusCodeValue());
+
+        execution.complete("boxed hello");
+        final ResponseEntity<JobStatus> done = underTest.get(id, 0L).join();
+        Assert.assertEquals(200, done.getStatusCodeValue());
+        Assert.assertEquals(JobStatus.State.Done, done.getBody().getState());
+        Assert.assertEquals("boxed hello", done.getBody().getOutput());
+    }
+
+
+
+    @Test
+    public void testLongPoll()
+        throws Exception
+    {
+        final String id = underTest.submit(invocation("hello"), null).getBody().getId();
+        final CompletableFuture<ResponseEntity<JobStatus>> poll = underTest.get(id, 5000L);
+        Thread.sleep(100L);
+        Assert.assertFalse(poll.isDone());
+
+        execution.complete("boxed hello");
+        Assert.assertEquals("boxed hello", poll.get(1, TimeUnit.SECONDS).getBody().getOutput());
+    }
+
+
+
+    @Test
+    public void testLongPollTimesOut()
+        throws Exception
+    {
+        final String id = underTest.submit(invocation("hello"), null).getBody().getId();
+        final ResponseEntity<JobStatus> response = underTest.get(id, 200L).get(2, TimeUnit.SECONDS);
+        Assert.assertEquals(202, response.getStatusCodeValue());
+    }
+
+
+
+    @Test
+    public void testFailedJob()
+    {
+        final String id = underTest.submit(invocation("hello"), null).getBody().getId();
+        execution.completeExceptionally(new BoxesUnavailableException("circuit open"));
+
+        final ResponseEntity<JobStatus> response = underTest.get(id, 0L).join();
+        Assert.assertEquals(200, response.getStatusCodeValue());
+        Assert.assertEquals(JobStatus.State.Failed, response.getBody().getState());
+        Assert.assertEquals(Integer.valueOf(503), response.getBody().getStatus());
+        Assert.assertEquals("circuit open", response.getBody().getError());
+    }
+
+
+
+    @Test
+    public void testIdempotencyKey()
+    {
+        final String first = underTest.submit(invocation("hello"), "key-1").getBody().getId();
+        final String second = underTest.submit(invocation("hello"), "key-1").getBody().getId();
+
+        Assert.assertEquals(first, second);
+        Mockito.verify(boxesRunnerService, Mockito.times(1))
+            .submit(Mockito.any(Invocation.class), Mockito.<List<String>>any());
+    }
+
+
+
+    @Test
+    public void testInvalidAndUnknown()
+    {
+        Assert.assertEquals(400, underTest.submit(invocation(" "), null).getStatusCodeValue());
+        Assert.assertEquals(404, underTest.get("no-such-job", 0L).join().getStatusCodeValue());
+    }
+}
@@ -0,0 +1,126 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link JobStore}.
+ */
+public class JobStoreTest
+{
+    @Test
+    public void testIdempotencyKey()
+    {
+        final JobStore underTest = new JobStore(300, 1000L, 10, new SimpleMeterRegistry());
+        final CompletableFuture<String> execution = new CompletableFuture<>();
+        final JobStore.Job first = underTest.submit("client\nkey", () -> execution);
+        final JobStore.Job second = underTest.submit("client\nkey", () -> {
+            throw new AssertionError("a job with the same key must not be executed again");
+        });
+        final JobStore.Job other = underTest.submit("client\nother", CompletableFuture::new);
+
+        Assert.assertSame(first, second);
+        Assert.assertNotEquals(first.getId(), other.getId());
+        execution.complete("output");
+        Assert.assertEquals("output", underTest.get(first.getId()).getResult().join());
+    }
+
+
+
+    @Test
+    public void testMemoryBudget()
+    {
+        final JobStore underTest = new JobStore(300, 10L, 10, new SimpleMeterRegistry());
+        final JobStore.Job first = underTest.submit("a", () -> CompletableFuture.completedFuture("123456"));
+        final JobStore.Job second = underTest.submit("b", () -> CompletableFuture.completedFuture("1234"));
+        Assert.assertNotNull(underTest.get(first.getId()));
+
+        final JobStore.Job third = underTest.submit("c", () -> CompletableFuture.completedFuture("1"));
+
+        Assert.assertNull("oldest job should have been dropped", underTest.get(first.getId()));
+        Assert.assertNotNull(underTest.get(second.getId()));
+        Assert.assertNotNull(underTest.get(third.getId()));
+        Assert.assertNotSame("key of a dropped job should be free again", first,
+            underTest.submit("a", () -> CompletableFuture.completedFuture("")));
+    }
+
+
+
+    @Test
+    public void testRunningJobsAreKept()
+    {
+        final JobStore underTest = new JobStore(1, 1L, 10, new SimpleMeterRegistry());
+        final JobStore.Job running = underTest.submit(null, CompletableFuture::new);
+        underTest.submit(null, () -> CompletableFuture.completedFuture("too large"));
+
+        Assert.assertSame(running, underTest.get(running.getId()));
+        Assert.assertEquals(1, underTest.size());
+    }
+
+
+
+    @Test
+    public void testTtl()
+        throws InterruptedException
+    {
+        final JobStore underTest = new JobStore(1, 1000L, 10, new SimpleMeterRegistry());
+        final JobStore.Job job = underTest.submit(null, () -> CompletableFuture.completedFuture("output"));
+        Assert.assertNotNull(underTest.get(job.getId()));
+
+        Thread.sleep(1100L);
+        Assert.assertNull(underTest.get(job.getId()));
+    }
+
+
+
+    @Test(expected = BoxesUnavailableException.class)
+    public void testMaxPending()
+    {
+        final JobStore underTest = new JobStore(300, 1000L, 2, new SimpleMeterRegistry());
+        underTest.submit(null, CompletableFuture::new);
+        underTest.submit(null, CompletableFuture::new);
+        underTest.submit(null, CompletableFuture::new);
+    }
+
+
+
+    @Test
+    public void testFailedStartLeavesNoJob()
+    {
+        final JobStore underTest = new JobStore(300, 1000L, 1, new SimpleMeterRegistry());
+        try {
+            underTest.submit("key", () -> {
+                throw new RejectedExecutionException("executor is shut down");
+            });
+            Assert.fail("expected RejectedExecutionException");
+        }
+        catch (RejectedExecutionException e) {
+            // expected
+        }
+        Assert.assertEquals(0, underTest.size());
+
+        // neither the pending slot nor the idempotency key are taken anymore
+        final JobStore.Job retry = underTest.submit("key", () -> CompletableFuture.completedFuture("output"));
+        Assert.assertEquals("output", retry.getResult().join());
+    }
+}
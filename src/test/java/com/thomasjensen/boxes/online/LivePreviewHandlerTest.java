@@ -0,0 +1,182 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+
+/**
+ * Unit tests for {@link LivePreviewHandler}, with renders that complete when the test says so.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class LivePreviewHandlerTest
+{
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final List<String> rendered = new ArrayList<>();
+
+    private final List<CompletableFuture<String>> renders = new ArrayList<>();
+
+    private final List<JsonNode> sent = new ArrayList<>();
+
+    /** the results waiting to be sent by the send executor */
+    private final List<Runnable> sends = new ArrayList<>();
+
+    private LivePreviewHandler underTest;
+
+    private WebSocketSession session;
+
+
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        final BoxesRunnerService boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.<List<String>>any(), Mockito.anyString()))
+            .thenAnswer(pCall -> {
+                final CompletableFuture<String> result = new CompletableFuture<>();
+                rendered.add(pCall.getArgument(1));
+                renders.add(result);
+                return result;
+            });
+        underTest = new LivePreviewHandler(boxesRunnerService, validator, objectMapper, new SimpleMeterRegistry(),
+            1024, 1024, 1000, sends::add);
+
+        session = Mockito.mock(WebSocketSession.class);
+        Mockito.when(session.getId()).thenReturn("1");
+        Mockito.when(session.isOpen()).thenReturn(true);
+        Mockito.when(session.getAttributes()).thenReturn(new HashMap<>());
+        Mockito.doAnswer(pCall -> {
+            final WebSocketMessage<?> message = pCall.getArgument(0);
+            sent.add(objectMapper.readTree((String) message.getPayload()));
+            return null;
+        }).when(session).sendMessage(Mockito.any());
+        underTest.afterConnectionEstablished(session);
+    }
+
+
+
+    private void receive(final String pJson)
+    {
+        underTest.handleTextMessage(session, new TextMessage(pJson));
+    }
+
+
+
+    private void complete(final int pRender, final String pOutput)
+    {
+        final int sentBefore = sent.size();
+        renders.get(pRender).complete(pOutput);
+        Assert.assertEquals(sentBefore, sent.size());   // not sent by the thread which completed the render
+        while (!sends.isEmpty()) {
+            sends.remove(0).run();
+        }
+    }
+
+
+
+    @Test
+    public void testUpdatesAreCoalesced()
+    {
+        receive("{\"seq\":1,\"options\":{\"design\":\"dog\"},\"content\":\"a\"}");
+        receive("{\"seq\":2,\"content\":\"ab\"}");
+        receive("{\"seq\":3,\"content\":\"abc\"}");
+        Assert.assertEquals(List.of("a"), rendered);
+
+        complete(0, "A");
+        Assert.assertEquals(List.of("a", "abc"), rendered);
+        complete(1, "ABC");
+
+        Assert.assertEquals(2, sent.size());
+        Assert.assertEquals(1, sent.get(0).get("seq").asInt());
+        Assert.assertEquals("A", sent.get(0).get("output").asText());
+        Assert.assertEquals(3, sent.get(1).get("seq").asInt());
+        Assert.assertEquals(200, sent.get(1).get("status").asInt());
+        Assert.assertEquals("ABC", sent.get(1).get("output").asText());
+    }
+
+
+
+    @Test
+    public void testOptionsChangeRerendersContent()
+    {
+        receive("{\"options\":{\"design\":\"dog\"},\"content\":\"a\"}");
+        complete(0, "A");
+        receive("{\"options\":{\"design\":\"dog\",\"tabDistance\":4}}");
+        Assert.assertEquals(List.of("a", "a"), rendered);
+    }
+
+
+
+    @Test
+    public void testContentBeforeOptions()
+    {
+        receive("{\"seq\":7,\"content\":\"a\"}");
+        Assert.assertTrue(rendered.isEmpty());
+        Assert.assertEquals(1, sent.size());
+        Assert.assertEquals(7, sent.get(0).get("seq").asInt());
+        Assert.assertEquals(400, sent.get(0).get("status").asInt());
+    }
+
+
+
+    @Test
+    public void testInvalidOptions()
+    {
+        receive("{\"options\":{\"design\":\"no-such-design\"},\"content\":\"a\"}");
+        receive("not json");
+        Assert.assertTrue(rendered.isEmpty());
+        Assert.assertEquals(2, sent.size());
+        Assert.assertEquals(400, sent.get(0).get("status").asInt());
+        Assert.assertEquals(400, sent.get(1).get("status").asInt());
+    }
+
+
+
+    @Test
+    public void testMessageAfterClose()
+    {
+        underTest.afterConnectionClosed(session, CloseStatus.NORMAL);
+        receive("{\"options\":{\"design\":\"dog\"},\"content\":\"a\"}");
+        Assert.assertTrue(rendered.isEmpty());
+        Assert.assertTrue(sent.isEmpty());
+    }
+}
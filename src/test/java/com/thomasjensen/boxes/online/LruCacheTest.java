@@ -0,0 +1,78 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link LruCache}.
+ */
+public class LruCacheTest
+{
+    @Test
+    public void testEvictsLeastRecentlyUsedEntry()
+    {
+        final List<String> evicted = new ArrayList<>();
+        final LruCache<String, String> underTest = new LruCache<>(2, (pKey, pValue) -> evicted.add(pKey));
+        underTest.put("a", "1");
+        underTest.put("b", "2");
+        Assert.assertEquals("1", underTest.get("a"));
+        underTest.put("c", "3");
+        Assert.assertNull(underTest.get("b"));
+        Assert.assertEquals(List.of("b"), evicted);
+        Assert.assertEquals(2, underTest.size());
+    }
+
+
+
+    @Test
+    public void testBoundedByWeight()
+    {
+        final LruCache<String, String> underTest = new LruCache<>(10L, String::length, null);
+        underTest.put("a", "12345");
+        underTest.put("b", "1234");
+        Assert.assertEquals(9L, underTest.getWeight());
+        underTest.put("c", "123");
+        Assert.assertNull(underTest.get("a"));
+        Assert.assertEquals(7L, underTest.getWeight());
+
+        underTest.put("b", "1");   // replacing a value adjusts the weight
+        Assert.assertEquals(4L, underTest.getWeight());
+
+        underTest.put("d", "12345678901");   // too heavy on its own
+        Assert.assertNull(underTest.get("d"));
+        Assert.assertEquals("1", underTest.get("b"));
+        Assert.assertEquals(4L, underTest.getWeight());
+    }
+
+
+
+    @Test
+    public void testRemove()
+    {
+        final LruCache<String, String> underTest = new LruCache<>(10L, String::length, null);
+        underTest.put("a", "123");
+        Assert.assertFalse(underTest.remove("a", "other"));
+        Assert.assertTrue(underTest.remove("a", "123"));
+        Assert.assertNull(underTest.get("a"));
+        Assert.assertEquals(0L, underTest.getWeight());
+    }
+}
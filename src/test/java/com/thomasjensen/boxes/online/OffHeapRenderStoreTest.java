@@ -0,0 +1,104 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link OffHeapRenderStore}.
+ */
+public class OffHeapRenderStoreTest
+{
+    private static final int SLAB_BYTES = 4 * 1024 * 1024;
+
+
+
+    private static RenderKey key(final int pNum)
+    {
+        return RenderKey.of(List.of("boxes", "-d", "dog"), "content " + pNum);
+    }
+
+
+
+    @Test
+    public void testMultiPageEntry()
+        throws IOException
+    {
+        final OffHeapRenderStore underTest = new OffHeapRenderStore(SLAB_BYTES, 16);
+        final byte[] payload = "A box which is longer than one page\n".getBytes(StandardCharsets.US_ASCII);
+        underTest.put(key(1), payload);
+
+        Assert.assertArrayEquals(payload, underTest.get(key(1)));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OffHeapRenderStore.Lease lease = underTest.acquire(key(1))) {
+            Assert.assertNotNull(lease);
+            lease.writeTo(Channels.newChannel(baos));
+        }
+        Assert.assertArrayEquals(payload, baos.toByteArray());
+        Assert.assertNull(underTest.get(key(2)));
+    }
+
+
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted()
+    {
+        final OffHeapRenderStore underTest = new OffHeapRenderStore(SLAB_BYTES, 1024 * 1024);
+        final byte[] payload = new byte[1024 * 1024];
+        for (int i = 0; i < 4; i++) {
+            underTest.put(key(i), payload);
+        }
+        Assert.assertNotNull(underTest.get(key(0)));
+        underTest.put(key(4), payload);
+
+        Assert.assertNotNull(underTest.get(key(0)));
+        Assert.assertNull(underTest.get(key(1)));
+        Assert.assertEquals(4, underTest.size());
+        Assert.assertEquals(SLAB_BYTES, underTest.getUsedBytes());
+    }
+
+
+
+    @Test
+    public void testLeasedEntryIsNotOverwritten()
+    {
+        final OffHeapRenderStore underTest = new OffHeapRenderStore(SLAB_BYTES, 1024 * 1024);
+        final byte[] payload = new byte[1024 * 1024];
+        Arrays.fill(payload, (byte) 'x');
+        underTest.put(key(0), payload);
+        final OffHeapRenderStore.Lease lease = underTest.acquire(key(0));
+        Assert.assertNotNull(lease);
+
+        for (int i = 1; i < 10; i++) {
+            underTest.put(key(i), new byte[1024 * 1024]);
+        }
+        Assert.assertNull(underTest.get(key(0)));
+        Assert.assertArrayEquals(payload, lease.toByteArray());
+        Assert.assertEquals(3, underTest.size());
+        lease.close();
+        underTest.put(key(10), new byte[1024 * 1024]);
+        Assert.assertEquals(4, underTest.size());
+    }
+}
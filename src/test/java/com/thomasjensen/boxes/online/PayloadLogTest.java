@@ -0,0 +1,54 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for the {@link PayloadLog}.
+ */
+public class PayloadLogTest
+{
+    @Test
+    public void testCountLines()
+    {
+        Assert.assertEquals(0, PayloadLog.countLines(null));
+        Assert.assertEquals(0, PayloadLog.countLines(""));
+        Assert.assertEquals(1, PayloadLog.countLines("foo"));
+        Assert.assertEquals(1, PayloadLog.countLines("foo\n"));
+        Assert.assertEquals(3, PayloadLog.countLines("foo\n\nbar"));
+    }
+
+
+
+    @Test
+    public void testSummaryOfMissingContent()
+    {
+        Assert.assertEquals(0, PayloadLog.length(null));
+        Assert.assertEquals(0, PayloadLog.hash(null));
+        Assert.assertEquals("foo".hashCode(), PayloadLog.hash("foo"));
+    }
+
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSamplingRejected()
+    {
+        new PayloadLog(-1);
+    }
+}
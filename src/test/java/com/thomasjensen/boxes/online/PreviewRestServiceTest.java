@@ -0,0 +1,175 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+
+
+/**
+ * Unit tests for {@link PreviewRestService}, with a fake <i>boxes</i> which echoes the design.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class PreviewRestServiceTest
+{
+    @Autowired
+    private Validator validator;
+
+    @Autowired
+    private DesignList designList;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private PreviewRestService underTest;
+
+
+
+    @Before
+    public void setUp()
+    {
+        final BoxesRunnerService boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.<List<String>>any(), Mockito.anyString()))
+            .thenAnswer(pCall -> {
+                final List<String> cmdLine = pCall.getArgument(0);
+                return CompletableFuture.completedFuture(cmdLine.get(cmdLine.indexOf("-d") + 1));
+            });
+        underTest = new PreviewRestService(boxesRunnerService, validator, designList, objectMapper, 10, 8);
+    }
+
+
+
+    private static PreviewRequest request(final String... pDesigns)
+    {
+        final Invocation invocation = new Invocation();
+        invocation.setContent("some content");
+        final PreviewRequest result = new PreviewRequest();
+        result.setInvocation(invocation);
+        result.setDesigns(Arrays.asList(pDesigns));
+        return result;
+    }
+
+
+
+    @Test
+    public void testDesignList()
+        throws Exception
+    {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.preview(request("dog", "parchment", "dog"), response);
+
+        Assert.assertEquals(200, response.getStatus());
+        final String[] lines = response.getContentAsString().split("\n");
+        Assert.assertEquals(2, lines.length);
+        Assert.assertTrue(response.getContentAsString().contains(
+            "{\"design\":\"dog\",\"status\":200,\"output\":\"dog\"}"));
+        Assert.assertTrue(response.getContentAsString().contains(
+            "{\"design\":\"parchment\",\"status\":200,\"output\":\"parchment\"}"));
+    }
+
+
+
+    @Test
+    public void testFilter()
+        throws Exception
+    {
+        final PreviewRequest request = request();
+        final PreviewRequest.DesignFilter filter = new PreviewRequest.DesignFilter();
+        filter.setName("PARCH");
+        request.setFilter(filter);
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.preview(request, response);
+
+        Assert.assertEquals("{\"design\":\"parchment\",\"status\":200,\"output\":\"parchment\"}\n",
+            response.getContentAsString());
+    }
+
+
+
+    @Test
+    public void testUnknownDesign()
+        throws Exception
+    {
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.preview(request("dog", "UNKNOWN"), response);
+
+        Assert.assertEquals(400, response.getStatus());
+        Assert.assertEquals("bad request: Specified design does not exist: UNKNOWN", response.getContentAsString());
+    }
+
+
+
+    @Test
+    public void testEmptyDesignName()
+        throws Exception
+    {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        underTest.preview(request("dog", null), response);
+        Assert.assertEquals(400, response.getStatus());
+        Assert.assertEquals("bad request: design names must not be empty", response.getContentAsString());
+
+        response = new MockHttpServletResponse();
+        underTest.preview(request("dog", " "), response);
+        Assert.assertEquals(400, response.getStatus());
+    }
+
+
+
+    @Test
+    public void testParallelismIsBounded()
+        throws Exception
+    {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final BoxesRunnerService boxesRunnerService = Mockito.mock(BoxesRunnerService.class);
+        Mockito.when(boxesRunnerService.submit(Mockito.<List<String>>any(), Mockito.anyString()))
+            .thenAnswer(pCall -> {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Thread.sleep(10L);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.decrementAndGet();
+                    return "output";
+                });
+            });
+        final PreviewRestService limited =
+            new PreviewRestService(boxesRunnerService, validator, designList, objectMapper, 10, 1);
+
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        limited.preview(request("dog", "parchment"), response);
+
+        Assert.assertEquals(2, response.getContentAsString().split("\n").length);
+        Assert.assertEquals(1, maxInFlight.get());
+    }
+}
@@ -0,0 +1,96 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for the {@link ProcessAccounting}.
+ */
+public class ProcessAccountingTest
+{
+    /** long enough that the periodic sampling never kicks in during a test */
+    private static final long NO_PERIODIC_SAMPLES = 3600000L;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ProcessAccounting underTest = new ProcessAccounting(NO_PERIODIC_SAMPLES, meterRegistry);
+
+
+
+    @After
+    public void tearDown()
+    {
+        underTest.close();
+    }
+
+
+
+    private ProcessAccounting.Tracker start(final Process pProcess)
+    {
+        return underTest.start(pProcess, Collections.singletonList("cat"), new BoxesRequestContext("127.0.0.1"));
+    }
+
+
+
+    @Test
+    public void testUnsampledProcessIsNotCountedAsZero()
+        throws IOException, InterruptedException
+    {
+        final Process process = new ProcessBuilder("cat").start();
+        final ProcessAccounting.Tracker tracker = start(process);
+        process.getOutputStream().close();
+        process.waitFor();   // reaped, so there is nothing left to sample
+
+        tracker.finish();
+
+        Assert.assertNull(meterRegistry.find("boxes.process.cpu").counter());
+        Assert.assertNull(meterRegistry.find("boxes.process.rss.peak").summary());
+        Assert.assertEquals(1d, meterRegistry.get("boxes.process.unsampled").counter().count(), 0d);
+    }
+
+
+
+    @Test
+    public void testLastSampleIsRecorded()
+        throws IOException, InterruptedException
+    {
+        Assume.assumeTrue(Files.isDirectory(Paths.get("/proc/self")));
+        final Process process = new ProcessBuilder("cat").start();
+        final ProcessAccounting.Tracker tracker = start(process);
+        tracker.sample();   // as the launcher does when the output ends
+        process.getOutputStream().close();
+        process.waitFor();
+
+        final ProcessAccounting.Usage usage = tracker.finish();
+
+        Assert.assertTrue(usage.getPeakRssKb() > 0L);
+        Assert.assertNotNull(meterRegistry.find("boxes.process.cpu").counter());
+        Assert.assertEquals(1L, meterRegistry.get("boxes.process.rss.peak").summary().count());
+        Assert.assertNull(meterRegistry.find("boxes.process.unsampled").counter());
+    }
+}
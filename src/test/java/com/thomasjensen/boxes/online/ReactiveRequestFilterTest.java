@@ -0,0 +1,54 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.net.InetSocketAddress;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * Unit tests for {@link ReactiveRequestFilter}.
+ */
+public class ReactiveRequestFilterTest
+{
+    @Test
+    public void testContextIsBoundAroundCall()
+    {
+        final MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/draw")//
+            .remoteAddress(new InetSocketAddress("192.0.2.7", 40000))//
+            .header("X-Forwarded-For", "203.0.113.1"));
+        new ReactiveRequestFilter().filter(exchange, pExchange -> Mono.empty()).block();
+
+        final BoxesRequestContext context = ReactiveRequestFilter.callWithContext(exchange,
+            BoxesRequestContext::current);
+        Assert.assertEquals("192.0.2.7", context.getClientId());
+        Assert.assertTrue(context.isClientKnown());
+        Assert.assertFalse(BoxesRequestContext.current().isClientKnown());
+    }
+
+
+
+    @Test
+    public void testUnknownRemoteAddress()
+    {
+        Assert.assertEquals("unknown", ReactiveRequestFilter.clientId(null));
+    }
+}
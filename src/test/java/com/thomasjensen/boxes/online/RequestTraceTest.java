@@ -0,0 +1,85 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for the {@link RequestTrace}.
+ */
+public class RequestTraceTest
+{
+    @Test
+    public void testContinuesTraceParent()
+    {
+        final RequestTrace underTest = RequestTrace.start(
+            "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+        Assert.assertEquals("0af7651916cd43dd8448eb211c80319c", underTest.getTraceId());
+        Assert.assertEquals("b7ad6b7169203331", underTest.getParentSpanId());
+        Assert.assertEquals(16, underTest.getSpanId().length());
+    }
+
+
+
+    @Test
+    public void testInvalidTraceParentStartsNewTrace()
+    {
+        final RequestTrace underTest = RequestTrace.start("garbage");
+        Assert.assertEquals(32, underTest.getTraceId().length());
+        Assert.assertNull(underTest.getParentSpanId());
+    }
+
+
+
+    @Test
+    public void testServerTiming()
+    {
+        final RequestTrace underTest = RequestTrace.start(null);
+        final long start = underTest.getStartNanos();
+        underTest.record("validate", start, start + 1_250_000L);
+        underTest.record("run", start + 1_250_000L, start + 5_000_000L);
+        Assert.assertEquals("validate;dur=1.25, run;dur=3.75", underTest.toServerTiming());
+
+        underTest.finish();
+        final List<RequestTrace.Phase> phases = underTest.getPhases();
+        Assert.assertEquals(3, phases.size());
+        Assert.assertEquals("write", phases.get(2).getName());
+        Assert.assertEquals(start + 5_000_000L, phases.get(2).getStartNanos());
+    }
+
+
+
+    @Test
+    public void testNoopRecordsNothing()
+    {
+        RequestTrace.NOOP.record("validate", System.nanoTime());
+        Assert.assertTrue(RequestTrace.NOOP.getPhases().isEmpty());
+        Assert.assertEquals("", RequestTrace.NOOP.toServerTiming());
+    }
+
+
+
+    @Test
+    public void testRandomHex()
+    {
+        Assert.assertTrue(RequestTrace.randomHex(8).matches("[0-9a-f]{16}"));
+        Assert.assertTrue(RequestTrace.randomHex(16).matches("[0-9a-f]{32}"));
+    }
+}
@@ -0,0 +1,133 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link SlowRenderRecorder}.
+ */
+public class SlowRenderRecorderTest
+{
+    private static final List<String> CMD_LINE = Arrays.asList("boxes", "-d", "dog", "-t", "8");
+
+
+
+    private static List<Long> execNanos(final SlowRenderRecorder pRecorder)
+    {
+        return pRecorder.getSlowest().stream().map(SlowRenderRecorder.Entry::getExecNanos)//
+            .collect(Collectors.toList());
+    }
+
+
+
+    @Test
+    public void testKeepsSlowest()
+    {
+        final SlowRenderRecorder underTest = new SlowRenderRecorder(3, 300);
+        for (final long nanos : new long[]{5L, 1L, 9L, 3L, 7L, 2L}) {
+            underTest.record(CMD_LINE, "some\ncontent\n", 10L, nanos, null, false);
+        }
+
+        Assert.assertEquals(Arrays.asList(9L, 7L, 5L), execNanos(underTest));
+    }
+
+
+
+    @Test
+    public void testEntry()
+    {
+        final SlowRenderRecorder underTest = new SlowRenderRecorder(3, 300);
+        underTest.record(CMD_LINE, "some\ncontent\n", 2000000L, 5000000L, null, true);
+
+        final SlowRenderRecorder.Entry entry = underTest.getSlowest().get(0);
+        Assert.assertEquals("dog", entry.getDesign());
+        Assert.assertEquals("-d dog -t 8", entry.getOptions());
+        Assert.assertEquals("some\ncontent\n".hashCode(), entry.getContentHash());
+        Assert.assertEquals(13, entry.getContentSize());
+        Assert.assertEquals(2, entry.getContentLines());
+        Assert.assertEquals(2.0d, entry.getQueueMillis(), 0.0d);
+        Assert.assertEquals(5.0d, entry.getExecMillis(), 0.0d);
+        Assert.assertEquals("timeout", entry.getStatus());
+    }
+
+
+
+    @Test
+    public void testExitStatus()
+        throws Exception
+    {
+        final Process process = new ProcessBuilder("sh", "-c", "exit 3").start();
+        Assert.assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+        final SlowRenderRecorder underTest = new SlowRenderRecorder(3, 300);
+        underTest.record(CMD_LINE, "x", 0L, 1L, process, false);
+
+        Assert.assertEquals("exit 3", underTest.getSlowest().get(0).getStatus());
+    }
+
+
+
+    @Test
+    public void testConcurrentRecording()
+        throws Exception
+    {
+        final int threads = 4;
+        final int perThread = 10000;
+        final SlowRenderRecorder underTest = new SlowRenderRecorder(10, 300);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i++) {
+                        underTest.record(CMD_LINE, "x", 0L, (long) i * threads + offset, null, false);
+                    }
+                });
+            }
+            start.countDown();
+        }
+        finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        final long max = (long) perThread * threads - 1;
+        final List<Long> expected = new ArrayList<>();
+        for (long n = max; n > max - 10; n--) {
+            expected.add(n);
+        }
+        Assert.assertEquals(expected, execNanos(underTest));
+    }
+}
@@ -0,0 +1,58 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Some unit tests for the {@link SpanExporter}.
+ */
+public class SpanExporterTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+
+    @Test
+    public void testExportToFile()
+        throws Exception
+    {
+        final Path file = folder.getRoot().toPath().resolve("spans.jsonl");
+        final SpanExporter underTest = new SpanExporter("file", file.toString());
+        final RequestTrace trace = RequestTrace.start(null);
+        trace.record("validate", trace.getStartNanos());
+        trace.finish();
+
+        underTest.export(trace, "POST /draw");
+        underTest.close();   // waits for the writer thread
+
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(3, lines.size());
+        Assert.assertTrue(lines.get(0).contains("\"name\":\"POST /draw\""));
+        Assert.assertTrue(lines.get(1).contains("\"parentSpanId\":\"" + trace.getSpanId() + "\""));
+        Assert.assertTrue(lines.get(2).contains("\"name\":\"write\""));
+    }
+}
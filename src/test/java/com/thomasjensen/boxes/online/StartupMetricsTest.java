@@ -0,0 +1,73 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Unit tests for {@link StartupMetrics}.
+ */
+public class StartupMetricsTest
+{
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final StartupMetrics underTest = new StartupMetrics(meterRegistry);
+
+
+
+    private double gauge(final String pName)
+    {
+        return meterRegistry.get(pName).gauge().value();
+    }
+
+
+
+    @Test
+    public void testOnlyFirstDrawRequestCounts()
+    {
+        Assert.assertFalse(underTest.firstRequest("/actuator/health"));
+        Assert.assertTrue(Double.isNaN(gauge("boxes.startup.first-request")));
+
+        Assert.assertTrue(underTest.firstRequest("/draw"));
+        Assert.assertFalse(underTest.firstRequest("/draw"));
+        Assert.assertFalse(underTest.firstRequest("/draw/bulk"));
+        Assert.assertTrue(gauge("boxes.startup.first-request") > 0d);
+    }
+
+
+
+    @Test
+    public void testLatency()
+    {
+        Assert.assertTrue(Double.isNaN(gauge("boxes.startup.first-request.latency")));
+        underTest.firstRequestDone(System.nanoTime() - 2000000000L);
+        Assert.assertEquals(2d, gauge("boxes.startup.first-request.latency"), 0.5d);
+    }
+
+
+
+    @Test
+    public void testReady()
+    {
+        Assert.assertTrue(Double.isNaN(gauge("boxes.startup.ready")));
+        underTest.ready();
+        Assert.assertTrue(gauge("boxes.startup.ready") > 0d);
+    }
+}
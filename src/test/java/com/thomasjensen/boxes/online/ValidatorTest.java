@@ -69,4 +69,93 @@ public class ValidatorTest
         underTest.validate(invocation);   // should fail because design unknown
         Assert.fail("Expected InvalidInvocationException was not thrown");
     }
+
+
+
+    @Test
+    public void testUnboxWithoutDesign()
+        throws InvalidInvocationException
+    {
+        Invocation invocation = new Invocation();
+        invocation.setContent("some content");
+        underTest.validateUnbox(invocation);   // design is optional for removing a box
+        Assert.assertNull(invocation.getDesign());
+    }
+
+
+
+    @Test(expected = InvalidInvocationException.class)
+    public void testUnboxUnknownDesign()
+        throws InvalidInvocationException
+    {
+        Invocation invocation = new Invocation();
+        invocation.setDesign("UNKNOWN");
+        invocation.setContent("some content");
+        underTest.validateUnbox(invocation);   // should fail because design unknown
+        Assert.fail("Expected InvalidInvocationException was not thrown");
+    }
+
+
+
+    private static Invocation customDesignInvocation(final String pDefinition)
+    {
+        final Invocation.CustomDesign customDesign = new Invocation.CustomDesign();
+        customDesign.setDefinition(pDefinition);
+        final Invocation result = new Invocation();
+        result.setCustomDesign(customDesign);
+        result.setContent("some content");
+        return result;
+    }
+
+
+
+    @Test
+    public void testCustomDesign()
+        throws InvalidInvocationException
+    {
+        underTest.validate(customDesignInvocation("BOX ours\nshapes { n (\"-\") }\nEND ours\n"), true);
+    }
+
+
+
+    @Test(expected = InvalidInvocationException.class)
+    public void testCustomDesignNotAllowed()
+        throws InvalidInvocationException
+    {
+        underTest.validate(customDesignInvocation("BOX ours\nshapes { n (\"-\") }\nEND ours\n"));
+        Assert.fail("Expected InvalidInvocationException was not thrown");
+    }
+
+
+
+    @Test(expected = InvalidInvocationException.class)
+    public void testCustomDesignTooLong()
+        throws InvalidInvocationException
+    {
+        final String definition = "BOX ours\nshapes { n (\"-\") }\n" + "#".repeat(20000) + "\nEND ours\n";
+        underTest.validate(customDesignInvocation(definition), true);
+        Assert.fail("Expected InvalidInvocationException was not thrown");
+    }
+
+
+
+    @Test(expected = InvalidInvocationException.class)
+    public void testCustomDesignNotAscii()
+        throws InvalidInvocationException
+    {
+        underTest.validate(customDesignInvocation("BOX ours\nshapes { n (\"\u2500\") }\nEND ours\n"), true);
+        Assert.fail("Expected InvalidInvocationException was not thrown");
+    }
+
+
+
+    @Test(expected = InvalidInvocationException.class)
+    public void testCustomDesignIdAndDefinition()
+        throws InvalidInvocationException
+    {
+        final Invocation invocation = customDesignInvocation("BOX ours\nEND ours\n");
+        invocation.getCustomDesign().setId(CustomDesignStore.hash("BOX ours\nEND ours\n"));
+        underTest.validate(invocation, true);
+        Assert.fail("Expected InvalidInvocationException was not thrown");
+    }
 }
@@ -0,0 +1,63 @@
+package com.thomasjensen.boxes.online;
+/*
+ * boxes-online - A Web UI for the 'boxes' tool
+ * Copyright (C) 2018  Thomas Jensen and the contributors
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+ * License as published by the Free Software Foundation; either version 2 of the License, or (at your option) any later
+ * version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied
+ * warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+/**
+ * Some unit tests for {@link VirtualThreads}, which work on any Java runtime.
+ */
+public class VirtualThreadsTest
+{
+    @Test
+    public void testNewExecutorWhenSupported()
+        throws Exception
+    {
+        if (!VirtualThreads.isSupported()) {
+            return;
+        }
+        final ExecutorService executor = VirtualThreads.newExecutor("test-virtual-");
+        try {
+            Assert.assertTrue(executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS)
+                .startsWith("test-virtual-"));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+
+
+    @Test
+    public void testNewExecutorWhenNotSupported()
+    {
+        if (VirtualThreads.isSupported()) {
+            return;
+        }
+        try {
+            VirtualThreads.newExecutor("test-virtual-");
+            Assert.fail("expected IllegalStateException");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}